@@ -9,3 +9,10 @@ JNIEXPORT jbyteArray JNICALL Java_com_termux_app_TermuxInstaller_getZip(JNIEnv *
     (*env)->SetByteArrayRegion(env, ret, 0, blob_size, blob);
     return ret;
 }
+
+JNIEXPORT jobject JNICALL Java_com_termux_app_TermuxInstaller_getZipBuffer(JNIEnv *env, __attribute__((__unused__)) jobject This)
+{
+    // The blob is in the read only data of the library, which is never unloaded, so it is
+    // returned without copying and the buffer must not be written to.
+    return (*env)->NewDirectByteBuffer(env, blob, blob_size);
+}
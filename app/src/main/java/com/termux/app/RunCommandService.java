@@ -130,6 +130,7 @@ public class RunCommandService extends Service {
             executionCommand.resultConfig.resultFileOutputFormat = IntentUtils.getStringExtraIfSet(intent, RUN_COMMAND_SERVICE.EXTRA_RESULT_FILE_OUTPUT_FORMAT, null);
             executionCommand.resultConfig.resultFileErrorFormat = IntentUtils.getStringExtraIfSet(intent, RUN_COMMAND_SERVICE.EXTRA_RESULT_FILE_ERROR_FORMAT, null);
             executionCommand.resultConfig.resultFilesSuffix = IntentUtils.getStringExtraIfSet(intent, RUN_COMMAND_SERVICE.EXTRA_RESULT_FILES_SUFFIX, null);
+            executionCommand.resultConfig.resultStreamOutput = intent.getBooleanExtra(RUN_COMMAND_SERVICE.EXTRA_RESULT_STREAM_OUTPUT, false);
         }
 
         // If "allow-external-apps" property to not set to "true", then just return
@@ -227,6 +228,7 @@ public class RunCommandService extends Service {
             execIntent.putExtra(TERMUX_SERVICE.EXTRA_RESULT_FILE_OUTPUT_FORMAT, executionCommand.resultConfig.resultFileOutputFormat);
             execIntent.putExtra(TERMUX_SERVICE.EXTRA_RESULT_FILE_ERROR_FORMAT, executionCommand.resultConfig.resultFileErrorFormat);
             execIntent.putExtra(TERMUX_SERVICE.EXTRA_RESULT_FILES_SUFFIX, executionCommand.resultConfig.resultFilesSuffix);
+            execIntent.putExtra(TERMUX_SERVICE.EXTRA_RESULT_STREAM_OUTPUT, executionCommand.resultConfig.resultStreamOutput);
         }
 
         // Start TERMUX_SERVICE and pass it execution intent
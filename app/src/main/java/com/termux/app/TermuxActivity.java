@@ -208,7 +208,7 @@ public final class TermuxActivity extends AppCompatActivity implements ServiceCo
 
         // Load Termux app SharedProperties from disk
         mProperties = TermuxAppSharedProperties.getProperties();
-        reloadProperties();
+        reloadProperties(false);
 
         setActivityTheme();
 
@@ -300,6 +300,11 @@ public final class TermuxActivity extends AppCompatActivity implements ServiceCo
             addTermuxActivityRootViewGlobalLayoutListener();
 
         registerTermuxActivityBroadcastReceiver();
+
+        // Reload styling live when the properties file is edited, without requiring
+        // `termux-reload-settings` to be run
+        if (mProperties != null)
+            mProperties.startWatching(this::onPropertiesFileChanged);
     }
 
     @Override
@@ -343,6 +348,9 @@ public final class TermuxActivity extends AppCompatActivity implements ServiceCo
 
         unregisterTermuxActivityBroadcastReceiver();
         getDrawer().closeDrawers();
+
+        if (mProperties != null)
+            mProperties.stopWatching();
     }
 
     @Override
@@ -443,9 +451,19 @@ public final class TermuxActivity extends AppCompatActivity implements ServiceCo
 
 
 
-    private void reloadProperties() {
-        mProperties.loadTermuxPropertiesFromDisk();
+    /**
+     * Reload the {@link #mProperties}.
+     *
+     * @param force If {@code true}, then the properties file is always parsed again, otherwise
+     *              only if it has changed since it was last loaded.
+     */
+    private void reloadProperties(boolean force) {
+        mProperties.loadTermuxPropertiesFromDisk(force);
+        onPropertiesReloaded();
+    }
 
+    /** Apply the {@link #mProperties} after they have been reloaded. */
+    private void onPropertiesReloaded() {
         if (mTermuxTerminalViewClient != null)
             mTermuxTerminalViewClient.onReloadProperties();
     }
@@ -976,10 +994,26 @@ public final class TermuxActivity extends AppCompatActivity implements ServiceCo
         }
     }
 
+    private void onPropertiesFileChanged() {
+        if (!mIsVisible) return;
+
+        // The properties are already reloaded, so they are not loaded again, and the activity only
+        // needs to be recreated if the night mode changed, like the theme
+        boolean recreateActivity = NightMode.getAppNightMode() != NightMode.modeOf(mProperties.getNightMode(), NightMode.getAppNightMode());
+        onPropertiesReloaded();
+        applyActivityStyling(recreateActivity);
+    }
+
     private void reloadActivityStyling(boolean recreateActivity) {
-        if (mProperties != null) {
-            reloadProperties();
+        if (mProperties != null)
+            reloadProperties(true);
 
+        applyActivityStyling(recreateActivity);
+    }
+
+    /** Apply the styling of the activity from the {@link #mProperties} already loaded. */
+    private void applyActivityStyling(boolean recreateActivity) {
+        if (mProperties != null) {
             if (mExtraKeysView != null) {
                 mExtraKeysView.setButtonTextAllCaps(mProperties.shouldExtraKeysTextBeAllCaps());
                 mExtraKeysView.reload(mTermuxTerminalExtraKeys.getExtraKeysInfo(), mTerminalToolbarDefaultHeight);
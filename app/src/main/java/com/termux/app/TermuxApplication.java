@@ -3,8 +3,11 @@ package com.termux.app;
 import android.app.Application;
 import android.content.Context;
 
+import androidx.annotation.NonNull;
+
 import com.termux.BuildConfig;
 import com.termux.shared.errors.Error;
+import com.termux.shared.logger.AsyncLogWriter;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.termux.TermuxBootstrap;
 import com.termux.shared.termux.TermuxConstants;
@@ -17,8 +20,20 @@ import com.termux.shared.termux.shell.am.TermuxAmSocketServer;
 import com.termux.shared.termux.shell.TermuxShellManager;
 import com.termux.shared.termux.theme.TermuxThemeUtils;
 
+import java.io.File;
+
 public class TermuxApplication extends Application {
 
+    /**
+     * The name of the directory of the app log file in the private app data directory. It is
+     * outside the {@link TermuxConstants#TERMUX_FILES_DIR_PATH} so that the log file is not
+     * written into the rootfs or deleted with it, like when the bootstrap is reinstalled.
+     */
+    private static final String APP_LOG_DIRECTORY_NAME = "logs";
+
+    /** The name of the app log file in the {@link #APP_LOG_DIRECTORY_NAME} directory. */
+    private static final String APP_LOG_FILE_NAME = "termux-app.log";
+
     private static final String LOG_TAG = "TermuxApplication";
 
     public void onCreate() {
@@ -80,6 +95,29 @@ public class TermuxApplication extends Application {
         TermuxAppSharedPreferences preferences = TermuxAppSharedPreferences.build(context);
         if (preferences == null) return;
         preferences.setLogLevel(null, preferences.getLogLevel());
+
+        setLogFileConfig(context, preferences.isLogFileEnabled());
+    }
+
+    /**
+     * Set whether log entries are written on a background thread, and also to a log file that
+     * can be attached to bug reports, since logcat of the app may not be accessible to the user.
+     * The entries written are the ones enabled by the log level.
+     *
+     * @param context The {@link Context} for operations.
+     * @param enabled Whether to enable the log file.
+     */
+    public static void setLogFileConfig(@NonNull Context context, boolean enabled) {
+        if (!enabled) {
+            Logger.setAsyncLogWriter(null);
+            return;
+        }
+
+        if (Logger.getAsyncLogWriter() == null) {
+            File logDirectory = context.getDir(APP_LOG_DIRECTORY_NAME, Context.MODE_PRIVATE);
+            Logger.setAsyncLogWriter(new AsyncLogWriter(new File(logDirectory, APP_LOG_FILE_NAME),
+                AsyncLogWriter.DEFAULT_MAX_FILE_SIZE, AsyncLogWriter.DEFAULT_MAX_BACKUP_FILES));
+        }
     }
 
 }
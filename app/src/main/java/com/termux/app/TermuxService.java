@@ -20,6 +20,7 @@ import androidx.annotation.Nullable;
 
 import com.termux.R;
 import com.termux.app.event.SystemEventReceiver;
+import com.termux.app.terminal.TermuxTerminalOutputScheduler;
 import com.termux.app.terminal.TermuxTerminalSessionActivityClient;
 import com.termux.app.terminal.TermuxTerminalSessionServiceClient;
 import com.termux.shared.termux.plugins.TermuxPluginUtils;
@@ -45,6 +46,7 @@ import com.termux.shared.data.DataUtils;
 import com.termux.shared.shell.command.ExecutionCommand;
 import com.termux.shared.shell.command.ExecutionCommand.Runner;
 import com.termux.shared.shell.command.ExecutionCommand.ShellCreateMode;
+import com.termux.shared.shell.command.result.ResultOutputSink;
 import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalSession;
 import com.termux.terminal.TerminalSessionClient;
@@ -88,6 +90,11 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
      */
     private final TermuxTerminalSessionServiceClient mTermuxTerminalSessionServiceClient = new TermuxTerminalSessionServiceClient(this);
 
+    /** The scheduler of the emulation of the process output of all the {@link TerminalSession}s, so that
+     * a session with a lot of output does not starve the others.
+     */
+    private final TermuxTerminalOutputScheduler mTerminalOutputScheduler = new TermuxTerminalOutputScheduler();
+
     /**
      * Termux app shared properties manager, loaded from termux.properties
      */
@@ -105,6 +112,12 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
     /** If the user has executed the {@link TERMUX_SERVICE#ACTION_STOP_SERVICE} intent. */
     boolean mWantsToStop = false;
 
+    /**
+     * The max bytes of the start and of the end of the stdout and stderr of background commands
+     * to keep in memory, so that both fit in {@link DataUtils#TRANSACTION_SIZE_LIMIT_IN_BYTES}.
+     */
+    private static final int BACKGROUND_OUTPUT_CAPTURE_HEAD_AND_TAIL_LIMIT = DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES / 4;
+
     private static final String LOG_TAG = "TermuxService";
 
     @Override
@@ -177,6 +190,8 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
 
         TermuxShellManager.onAppExit(this);
 
+        mTerminalOutputScheduler.removeAllSessions();
+
         SystemEventReceiver.unregisterPackageUpdateEvents(this);
 
         runStopForeground();
@@ -405,6 +420,28 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
             executionCommand.resultConfig.resultFileOutputFormat = IntentUtils.getStringExtraIfSet(intent, TERMUX_SERVICE.EXTRA_RESULT_FILE_OUTPUT_FORMAT, null);
             executionCommand.resultConfig.resultFileErrorFormat = IntentUtils.getStringExtraIfSet(intent, TERMUX_SERVICE.EXTRA_RESULT_FILE_ERROR_FORMAT, null);
             executionCommand.resultConfig.resultFilesSuffix = IntentUtils.getStringExtraIfSet(intent, TERMUX_SERVICE.EXTRA_RESULT_FILES_SUFFIX, null);
+            executionCommand.resultConfig.resultStreamOutput = intent.getBooleanExtra(TERMUX_SERVICE.EXTRA_RESULT_STREAM_OUTPUT, false);
+        }
+
+        // Capture output of background commands with a bounded head and tail, since only that much
+        // can be sent back with the result intent. If result is to be written to separate files,
+        // then all the output is spilled to a cache file which is moved to the result directory,
+        // or streamed to the partial result files if requested.
+        // Output is not bounded if result is to be written to a single file that is formatted with it.
+        if (Runner.APP_SHELL.equalsRunner(executionCommand.runner)) {
+            if (executionCommand.resultConfig.resultDirectoryPath == null)
+                executionCommand.backgroundOutputCapturePolicy = new ResultOutputSink.CapturePolicy(
+                    BACKGROUND_OUTPUT_CAPTURE_HEAD_AND_TAIL_LIMIT, BACKGROUND_OUTPUT_CAPTURE_HEAD_AND_TAIL_LIMIT, null);
+            else if (!executionCommand.resultConfig.resultSingleFile) {
+                executionCommand.backgroundOutputCapturePolicy = new ResultOutputSink.CapturePolicy(
+                    BACKGROUND_OUTPUT_CAPTURE_HEAD_AND_TAIL_LIMIT, BACKGROUND_OUTPUT_CAPTURE_HEAD_AND_TAIL_LIMIT,
+                    getCacheDir().getAbsolutePath());
+
+                // The result directory path must be canonical and its allowed parent set before
+                // output is streamed into it, instead of only when the result is processed
+                if (executionCommand.resultConfig.resultStreamOutput)
+                    TermuxPluginUtils.setPluginResultDirectoryVariables(executionCommand);
+            }
         }
 
         if (executionCommand.shellCreateMode == null)
@@ -473,6 +510,9 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
         }
 
         executionCommand.setShellCommandShellEnvironment = true;
+        // The onAppShellExited() callback only posts to the main thread, so it does not block the
+        // reactor thread
+        executionCommand.backgroundRunInReactor = true;
 
         if (Logger.getLogLevel() >= Logger.LOG_LEVEL_VERBOSE)
             Logger.logVerboseExtended(LOG_TAG, executionCommand.toString());
@@ -606,6 +646,7 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
         }
 
         mShellManager.mTermuxSessions.add(newTermuxSession);
+        mTerminalOutputScheduler.addSession(newTermuxSession.getTerminalSession());
 
         // Remove the execution command from the pending plugin execution commands list since it has
         // now been processed
@@ -648,6 +689,7 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
                 TermuxPluginUtils.processPluginExecutionCommandResult(this, LOG_TAG, executionCommand);
 
             mShellManager.mTermuxSessions.remove(termuxSession);
+            mTerminalOutputScheduler.removeSession(termuxSession.getTerminalSession());
 
             // Notify {@link TermuxSessionsListViewController} that sessions list has been updated if
             // activity in is foreground
@@ -749,6 +791,11 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
             return mTermuxTerminalSessionServiceClient;
     }
 
+    /** Get the {@link TermuxTerminalOutputScheduler} of the {@link TerminalSession}s. */
+    public TermuxTerminalOutputScheduler getTerminalOutputScheduler() {
+        return mTerminalOutputScheduler;
+    }
+
     /** This should be called when {@link TermuxActivity#onServiceConnected} is called to set the
      * {@link TermuxService#mTermuxTerminalSessionActivityClient} variable and update the {@link TerminalSession}
      * and {@link TerminalEmulator} clients in case they were passed {@link TermuxTerminalSessionServiceClient}
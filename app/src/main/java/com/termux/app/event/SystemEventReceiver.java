@@ -11,6 +11,7 @@ import androidx.annotation.Nullable;
 
 import com.termux.shared.data.IntentUtils;
 import com.termux.shared.logger.Logger;
+import com.termux.shared.shell.command.environment.UnixShellEnvironment;
 import com.termux.shared.termux.TermuxUtils;
 import com.termux.shared.termux.file.TermuxFileUtils;
 import com.termux.shared.termux.shell.command.environment.TermuxShellEnvironment;
@@ -60,6 +61,7 @@ public class SystemEventReceiver extends BroadcastReceiver {
         if (data != null && TermuxUtils.isUriDataForTermuxPluginPackage(data)) {
             Logger.logDebug(LOG_TAG, intent.getAction().replaceAll("^android.intent.action.", "") +
                 " event received for \"" + data.toString().replaceAll("^package:", "") + "\"");
+            UnixShellEnvironment.invalidateEnvironmentSnapshots();
             if (TermuxFileUtils.isTermuxFilesDirectoryAccessible(context, false, false) == null)
                 TermuxShellEnvironment.writeEnvironmentToFile(context);
         }
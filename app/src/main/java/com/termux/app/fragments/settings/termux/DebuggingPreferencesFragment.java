@@ -13,6 +13,7 @@ import androidx.preference.PreferenceFragmentCompat;
 import androidx.preference.PreferenceManager;
 
 import com.termux.R;
+import com.termux.app.TermuxApplication;
 import com.termux.shared.termux.settings.preferences.TermuxAppSharedPreferences;
 import com.termux.shared.logger.Logger;
 
@@ -123,6 +124,10 @@ class DebuggingPreferencesDataStore extends PreferenceDataStore {
         if (key == null) return;
 
         switch (key) {
+            case "log_file_enabled":
+                mPreferences.setLogFileEnabled(value);
+                TermuxApplication.setLogFileConfig(mContext, value);
+                break;
             case "terminal_view_key_logging_enabled":
                     mPreferences.setTerminalViewKeyLoggingEnabled(value);
                 break;
@@ -141,6 +146,8 @@ class DebuggingPreferencesDataStore extends PreferenceDataStore {
     public boolean getBoolean(String key, boolean defValue) {
         if (mPreferences == null) return false;
         switch (key) {
+            case "log_file_enabled":
+                return mPreferences.isLogFileEnabled();
             case "terminal_view_key_logging_enabled":
                 return mPreferences.isTerminalViewKeyLoggingEnabled();
             case "plugin_error_notifications_enabled":
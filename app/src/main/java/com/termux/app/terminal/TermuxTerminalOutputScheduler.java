@@ -0,0 +1,283 @@
+package com.termux.app.terminal;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.markdown.MarkdownUtils;
+import com.termux.terminal.TerminalOutputScheduler;
+import com.termux.terminal.TerminalSession;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@link TerminalOutputScheduler} shared by all the {@link TerminalSession}s of the
+ * {@link com.termux.app.TermuxService}, so that a session with a lot of output does not starve the
+ * other sessions, like delaying the echo of user input in the foreground session.
+ * <p>
+ * Process output is emulated once per frame for up to {@link #FRAME_BUDGET_NANOS}, which is split
+ * between the sessions with queued output by their weight. The foreground session has the highest
+ * weight and is always processed first. The other sessions are processed in an order that rotates
+ * every frame, and the ones that received user input recently get a larger weight than the rest.
+ * Time not used by a session is given to the next ones. Output left after the budget is used stays
+ * queued for the next frame, during which the reader threads of the sessions stop reading from their
+ * processes once their queues are full.
+ */
+public class TermuxTerminalOutputScheduler implements TerminalOutputScheduler, Choreographer.FrameCallback {
+
+    /** The max time spent emulating process output per frame. */
+    private static final long FRAME_BUDGET_NANOS = 8_000_000L;
+
+    private static final int FOREGROUND_SESSION_WEIGHT = 8;
+    private static final int RECENT_INPUT_SESSION_WEIGHT = 4;
+    private static final int BACKGROUND_SESSION_WEIGHT = 1;
+
+    /** The time after user input during which a session is given {@link #RECENT_INPUT_SESSION_WEIGHT}. */
+    private static final long RECENT_INPUT_DURATION_MILLIS = 2000;
+
+    /** The weight of the previous average latency when a new latency is added to it. */
+    private static final int LATENCY_AVERAGE_SMOOTHING = 8;
+
+    /** The state of sessions added to the scheduler, looked up from their reader threads. */
+    private final ConcurrentHashMap<TerminalSession, SessionState> mSessionStates = new ConcurrentHashMap<>();
+    /** The sessions added to the scheduler in the order they are processed. Only accessed from the main thread. */
+    private final List<SessionState> mSessionsOrder = new ArrayList<>();
+
+    private TerminalSession mForegroundSession;
+
+    private final Handler mMainThreadHandler = new Handler(Looper.getMainLooper());
+    /** If a frame callback has been posted or is about to be posted by {@link #mPostFrameCallback}. */
+    private final AtomicBoolean mFrameCallbackPosted = new AtomicBoolean();
+    private final Runnable mPostFrameCallback = () -> Choreographer.getInstance().postFrameCallback(this);
+
+    /** The scheduling state and diagnostics of a session. */
+    public static class SessionState {
+
+        private final TerminalSession mSession;
+
+        /** The {@link System#nanoTime()} since output has been waiting to be emulated, or 0 if none. */
+        private final AtomicLong mPendingSinceNanos = new AtomicLong();
+        /** The {@link SystemClock#uptimeMillis()} of the last user input. */
+        private long mLastUserInputTime;
+
+        private long mLastLatencyNanos;
+        private long mMaxLatencyNanos;
+        private long mAverageLatencyNanos;
+        private long mEmulatedBytes;
+
+        SessionState(@NonNull TerminalSession session) {
+            mSession = session;
+        }
+
+        /** Get the number of bytes of process output waiting to be emulated, including deferred output. */
+        public int getQueueDepth() {
+            return mSession.getPendingOutputSize() + mSession.getDeferredOutputSize();
+        }
+
+        /** Get the time between output being queued and all the queued output being processed the last time. */
+        public long getLastLatencyMillis() {
+            return mLastLatencyNanos / 1_000_000L;
+        }
+
+        public long getMaxLatencyMillis() {
+            return mMaxLatencyNanos / 1_000_000L;
+        }
+
+        public long getAverageLatencyMillis() {
+            return mAverageLatencyNanos / 1_000_000L;
+        }
+
+        /** Get the total number of bytes of process output processed by the scheduler. */
+        public long getEmulatedBytes() {
+            return mEmulatedBytes;
+        }
+
+        /** Get the time output has been waiting to be processed for, or 0 if none is waiting. */
+        public long getPendingMillis() {
+            long pendingSinceNanos = mPendingSinceNanos.get();
+            return pendingSinceNanos == 0 ? 0 : (System.nanoTime() - pendingSinceNanos) / 1_000_000L;
+        }
+
+        private void onOutputDrained(long nowNanos) {
+            long pendingSinceNanos = mPendingSinceNanos.getAndSet(0);
+            if (pendingSinceNanos == 0) return;
+
+            long latencyNanos = nowNanos - pendingSinceNanos;
+            mLastLatencyNanos = latencyNanos;
+            mMaxLatencyNanos = Math.max(mMaxLatencyNanos, latencyNanos);
+            mAverageLatencyNanos = (mAverageLatencyNanos == 0) ? latencyNanos :
+                (mAverageLatencyNanos * (LATENCY_AVERAGE_SMOOTHING - 1) + latencyNanos) / LATENCY_AVERAGE_SMOOTHING;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "\"" + mSession.mSessionName + "\" (" + mSession.mHandle + "): queueDepth=" + getQueueDepth() +
+                ", pendingMillis=" + getPendingMillis() + ", lastLatencyMillis=" + getLastLatencyMillis() +
+                ", averageLatencyMillis=" + getAverageLatencyMillis() + ", maxLatencyMillis=" + getMaxLatencyMillis() +
+                ", emulatedBytes=" + mEmulatedBytes;
+        }
+
+    }
+
+
+
+    /** Start scheduling the emulation of the process output of session. */
+    @MainThread
+    public void addSession(@NonNull TerminalSession session) {
+        if (mSessionStates.containsKey(session)) return;
+
+        SessionState sessionState = new SessionState(session);
+        mSessionStates.put(session, sessionState);
+        mSessionsOrder.add(sessionState);
+        session.setOutputScheduler(this);
+    }
+
+    /** Stop scheduling the emulation of the process output of session, which will emulate it as soon as it is received. */
+    @MainThread
+    public void removeSession(@NonNull TerminalSession session) {
+        SessionState sessionState = mSessionStates.remove(session);
+        if (sessionState == null) return;
+
+        mSessionsOrder.remove(sessionState);
+        if (mForegroundSession == session) mForegroundSession = null;
+        if (session.getOutputScheduler() == this) session.setOutputScheduler(null);
+    }
+
+    /** Remove all sessions from the scheduler. */
+    @MainThread
+    public void removeAllSessions() {
+        for (SessionState sessionState : new ArrayList<>(mSessionsOrder))
+            removeSession(sessionState.mSession);
+    }
+
+    /** Set the session shown to the user, or null if none is shown. */
+    @MainThread
+    public void setForegroundSession(@Nullable TerminalSession session) {
+        mForegroundSession = session;
+    }
+
+    /** Record user input sent to session, so that its output, like the echo of the input, is prioritized. */
+    @MainThread
+    public void onUserInput(@Nullable TerminalSession session) {
+        if (session == null) return;
+        SessionState sessionState = mSessionStates.get(session);
+        if (sessionState != null)
+            sessionState.mLastUserInputTime = SystemClock.uptimeMillis();
+    }
+
+    /** Get the scheduling state and diagnostics of session, or null if it has not been added. */
+    @Nullable
+    SessionState getSessionState(@NonNull TerminalSession session) {
+        return mSessionStates.get(session);
+    }
+
+    /** Get a markdown {@link String} for the scheduling state and diagnostics of all sessions. */
+    @MainThread
+    @NonNull
+    public String getSessionStatesMarkdownString() {
+        StringBuilder markdownString = new StringBuilder();
+
+        markdownString.append("## Terminal Output Scheduler\n");
+        if (mSessionsOrder.isEmpty()) {
+            markdownString.append("\n").append("No sessions");
+        } else {
+            for (SessionState sessionState : mSessionsOrder)
+                markdownString.append("\n").append(MarkdownUtils.getMarkdownCodeForString(sessionState.toString(), false)).append("  ");
+        }
+        markdownString.append("\n##\n");
+
+        return markdownString.toString();
+    }
+
+
+
+    @Override
+    public void onOutputAvailable(@NonNull TerminalSession session) {
+        SessionState sessionState = mSessionStates.get(session);
+        if (sessionState != null)
+            sessionState.mPendingSinceNanos.compareAndSet(0, System.nanoTime());
+
+        if (!mFrameCallbackPosted.getAndSet(true))
+            mMainThreadHandler.post(mPostFrameCallback);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        // Allow output received from now on to post the next frame callback.
+        mFrameCallbackPosted.set(false);
+
+        final long startTimeNanos = System.nanoTime();
+        final long now = SystemClock.uptimeMillis();
+
+        List<SessionState> pendingSessions = new ArrayList<>();
+        int totalWeight = 0;
+        for (SessionState sessionState : mSessionsOrder) {
+            if (sessionState.mSession.getPendingOutputSize() == 0) {
+                // Output may have been processed outside the scheduler, like when the process exited.
+                sessionState.onOutputDrained(startTimeNanos);
+                continue;
+            }
+
+            int weight = getWeight(sessionState, now);
+            // Process the foreground session first so that its output is never starved by the budget.
+            if (weight == FOREGROUND_SESSION_WEIGHT)
+                pendingSessions.add(0, sessionState);
+            else
+                pendingSessions.add(sessionState);
+            totalWeight += weight;
+        }
+        if (pendingSessions.isEmpty()) return;
+
+        // Rotate the order of background sessions so that they are not always processed in the same order.
+        SessionState first = mSessionsOrder.remove(0);
+        mSessionsOrder.add(first);
+
+        long remainingNanos = FRAME_BUDGET_NANOS;
+        boolean hasPendingOutput = false;
+        for (SessionState sessionState : pendingSessions) {
+            int weight = getWeight(sessionState, now);
+            // The slice of the session, plus any time not used by the sessions before it.
+            long sliceNanos = Math.max(remainingNanos * weight / totalWeight, 0);
+            totalWeight -= weight;
+
+            long sliceStartNanos = System.nanoTime();
+            long sliceEndNanos = sliceStartNanos + sliceNanos;
+            long nowNanos = sliceStartNanos;
+            do {
+                int emulatedBytes = sessionState.mSession.emulatePendingOutput();
+                nowNanos = System.nanoTime();
+                if (emulatedBytes == 0) {
+                    sessionState.onOutputDrained(nowNanos);
+                    break;
+                }
+                sessionState.mEmulatedBytes += emulatedBytes;
+            } while (nowNanos < sliceEndNanos);
+
+            if (sessionState.mSession.getPendingOutputSize() > 0) hasPendingOutput = true;
+            remainingNanos -= nowNanos - sliceStartNanos;
+        }
+
+        if (hasPendingOutput && !mFrameCallbackPosted.getAndSet(true))
+            Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    int getWeight(@NonNull SessionState sessionState, long now) {
+        if (sessionState.mSession == mForegroundSession)
+            return FOREGROUND_SESSION_WEIGHT;
+        else if (sessionState.mLastUserInputTime > 0 && now - sessionState.mLastUserInputTime < RECENT_INPUT_DURATION_MILLIS)
+            return RECENT_INPUT_SESSION_WEIGHT;
+        else
+            return BACKGROUND_SESSION_WEIGHT;
+    }
+
+}
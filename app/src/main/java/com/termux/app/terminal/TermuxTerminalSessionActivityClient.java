@@ -97,6 +97,11 @@ public class TermuxTerminalSessionActivityClient extends TermuxTerminalSessionCl
         // {@link #onStart} if needed.
         setCurrentStoredSession();
 
+        // The current session is not shown anymore either, it will be resumed by setCurrentSession()
+        // in onStart()
+        deferSessionEmulationIfEnabled(mActivity.getCurrentSession());
+        setForegroundSessionOfOutputScheduler(null);
+
         // Release mBellSoundPool resources, specially to prevent exceptions like the following to be thrown
         // java.util.concurrent.TimeoutException: android.media.SoundPool.finalize() timed out after 10 seconds
         // Bell is not played in background anyways
@@ -261,6 +266,11 @@ public class TermuxTerminalSessionActivityClient extends TermuxTerminalSessionCl
         return mActivity.getProperties().getTerminalCursorStyle();
     }
 
+    @Override
+    public Integer getTerminalOsc52MaxBytes() {
+        return mActivity.getProperties().getTerminalOsc52MaxBytes();
+    }
+
 
 
     /** Load mBellSoundPool */
@@ -293,10 +303,15 @@ public class TermuxTerminalSessionActivityClient extends TermuxTerminalSessionCl
     public void setCurrentSession(TerminalSession session) {
         if (session == null) return;
 
+        TerminalSession previousSession = mActivity.getCurrentSession();
+        // Catch up with any output received while the session was not shown
+        session.setEmulationDeferred(false);
         if (mActivity.getTerminalView().attachSession(session)) {
+            deferSessionEmulationIfEnabled(previousSession);
             // notify about switched session if not already displaying the session
             notifyOfSessionChange();
         }
+        setForegroundSessionOfOutputScheduler(mActivity.getCurrentSession());
 
         // We call the following even when the session is already being displayed since config may
         // be stale, like current session not selected or scrolled to.
@@ -304,6 +319,19 @@ public class TermuxTerminalSessionActivityClient extends TermuxTerminalSessionCl
         updateBackgroundColor();
     }
 
+    /** Defer emulation of output of a session that is not shown anymore if enabled by the user. */
+    private void deferSessionEmulationIfEnabled(TerminalSession session) {
+        if (session == null || !mActivity.getProperties().shouldDeferBackgroundTerminalEmulation()) return;
+        session.setEmulationDeferred(true);
+    }
+
+    /** Prioritize emulation of the output of the session shown, if any. */
+    private void setForegroundSessionOfOutputScheduler(TerminalSession session) {
+        TermuxService service = mActivity.getTermuxService();
+        if (service != null)
+            service.getTerminalOutputScheduler().setForegroundSession(session);
+    }
+
     void notifyOfSessionChange() {
         if (!mActivity.isVisible()) return;
 
@@ -19,6 +19,7 @@ import android.widget.Toast;
 
 import com.termux.R;
 import com.termux.app.TermuxActivity;
+import com.termux.app.TermuxService;
 import com.termux.shared.file.FileUtils;
 import com.termux.shared.interact.MessageDialogUtils;
 import com.termux.shared.interact.ShareUtils;
@@ -138,6 +139,7 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
      */
     public void onReloadProperties() {
         setSessionShortcuts();
+        mActivity.getTerminalView().setScrollBlittingEnabled(mActivity.getProperties().isTerminalScrollBlittingEnabled());
     }
 
     /**
@@ -239,6 +241,7 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
     @SuppressLint("RtlHardcoded")
     @Override
     public boolean onKeyDown(int keyCode, KeyEvent e, TerminalSession currentSession) {
+        onUserInput(currentSession);
         if (handleVirtualKeys(keyCode, e, true)) return true;
 
         if (keyCode == KeyEvent.KEYCODE_ENTER && !currentSession.isRunning()) {
@@ -359,6 +362,7 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
 
     @Override
     public boolean onCodePoint(final int codePoint, boolean ctrlDown, TerminalSession session) {
+        onUserInput(session);
         if (mVirtualFnKeyDown) {
             int resultingKeyCode = -1;
             int resultingCodePoint = -1;
@@ -512,6 +516,13 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
         }
     }
 
+    /** Prioritize emulation of the output of the session that user input is sent to, like its echo. */
+    private void onUserInput(TerminalSession session) {
+        TermuxService service = mActivity.getTermuxService();
+        if (service != null)
+            service.getTerminalOutputScheduler().onUserInput(session);
+    }
+
 
 
 
@@ -743,6 +754,11 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
     private void reportIssueFromTranscript(String transcriptText, boolean addTermuxDebugInfo) {
         Logger.showToast(mActivity, mActivity.getString(R.string.msg_generating_report), true);
 
+        // The scheduler state must be read on the main thread.
+        TermuxService service = mActivity.getTermuxService();
+        final String outputSchedulerInfo = (addTermuxDebugInfo && service != null) ?
+            service.getTerminalOutputScheduler().getSessionStatesMarkdownString() : null;
+
         new Thread() {
             @Override
             public void run() {
@@ -774,6 +790,9 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
                         reportString.append("\n\n").append(termuxDebugInfo);
                 }
 
+                if (outputSchedulerInfo != null)
+                    reportString.append("\n\n").append(outputSchedulerInfo);
+
                 String userActionName = UserAction.REPORT_ISSUE_FROM_TRANSCRIPT.getName();
 
                 ReportInfo reportInfo = new ReportInfo(userActionName,
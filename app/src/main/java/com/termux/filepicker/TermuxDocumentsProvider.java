@@ -1,24 +1,32 @@
 package com.termux.filepicker;
 
+import android.content.ContentResolver;
 import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.graphics.Point;
+import android.os.Build;
+import android.os.Bundle;
 import android.os.CancellationSignal;
 import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.provider.DocumentsContract;
 import android.provider.DocumentsContract.Document;
 import android.provider.DocumentsContract.Root;
 import android.provider.DocumentsProvider;
 import android.webkit.MimeTypeMap;
 
+import androidx.annotation.RequiresApi;
+
 import com.termux.R;
+import com.termux.shared.file.filesystem.DirectoryListing;
 import com.termux.shared.termux.TermuxConstants;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * A document provider for the Storage Access Framework which exposes the files in the
@@ -37,6 +45,13 @@ public class TermuxDocumentsProvider extends DocumentsProvider {
 
     private static final File BASE_DIR = TermuxConstants.TERMUX_HOME_DIR;
 
+    private static final String AUTHORITY = TermuxConstants.TERMUX_PACKAGE_NAME + ".documents";
+
+    // The default number of search results if no limit is requested in a query.
+    private static final int MAX_SEARCH_RESULTS = 50;
+
+    private TermuxDocumentsSearchIndex mSearchIndex;
+    private TermuxDocumentsThumbnailCache mThumbnailCache;
 
     // The default columns to return information about a root if no specific
     // columns are requested in a query.
@@ -90,8 +105,22 @@ public class TermuxDocumentsProvider extends DocumentsProvider {
     public Cursor queryChildDocuments(String parentDocumentId, String[] projection, String sortOrder) throws FileNotFoundException {
         final MatrixCursor result = new MatrixCursor(projection != null ? projection : DEFAULT_DOCUMENT_PROJECTION);
         final File parent = getFileForDocId(parentDocumentId);
-        for (File file : parent.listFiles()) {
-            includeFile(result, null, file);
+
+        // Read the children along with their attributes in one batch instead of a stat of every
+        // child for each attribute
+        final DirectoryListing directoryListing;
+        try {
+            directoryListing = DirectoryListing.read(parent.getAbsolutePath(), true);
+        } catch (IOException e) {
+            throw new FileNotFoundException("Failed to list " + parent.getAbsolutePath() + ": " + e.getMessage());
+        }
+
+        final int uid = Process.myUid();
+        final boolean parentCanWrite = parent.canWrite();
+        for (int i = 0; i < directoryListing.getCount(); i++) {
+            includeFile(result, directoryListing.getPath(i), directoryListing.getName(i),
+                directoryListing.isDirectory(i), directoryListing.getSize(i), directoryListing.getLastModified(i),
+                directoryListing.isWritableBy(i, uid), parentCanWrite);
         }
         return result;
     }
@@ -106,15 +135,27 @@ public class TermuxDocumentsProvider extends DocumentsProvider {
     @Override
     public AssetFileDescriptor openDocumentThumbnail(String documentId, Point sizeHint, CancellationSignal signal) throws FileNotFoundException {
         final File file = getFileForDocId(documentId);
-        final ParcelFileDescriptor pfd = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
-        return new AssetFileDescriptor(pfd, 0, file.length());
+        if (!getMimeType(file).startsWith("image/"))
+            throw new FileNotFoundException(file.getAbsolutePath() + " is not an image");
+
+        // Return a cached downscaled thumbnail instead of the whole image for the caller to decode
+        final ParcelFileDescriptor pfd = mThumbnailCache.openThumbnail(file, sizeHint, signal);
+        return new AssetFileDescriptor(pfd, 0, AssetFileDescriptor.UNKNOWN_LENGTH);
     }
 
     @Override
     public boolean onCreate() {
+        mSearchIndex = new TermuxDocumentsSearchIndex(BASE_DIR.getAbsolutePath(),
+            new File(getContext().getCacheDir(), "documents_search_index"), this::notifySearchIndexUpdated);
+        mThumbnailCache = new TermuxDocumentsThumbnailCache(new File(getContext().getCacheDir(), "document_thumbnails"));
         return true;
     }
 
+    @Override
+    public void shutdown() {
+        mSearchIndex.stop();
+    }
+
     @Override
     public String createDocument(String parentDocumentId, String mimeType, String displayName) throws FileNotFoundException {
         File newFile = new File(parentDocumentId, displayName);
@@ -154,41 +195,60 @@ public class TermuxDocumentsProvider extends DocumentsProvider {
 
     @Override
     public Cursor querySearchDocuments(String rootId, String query, String[] projection) throws FileNotFoundException {
+        return querySearchDocuments(rootId, query, projection, 0, MAX_SEARCH_RESULTS);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.Q)
+    @Override
+    public Cursor querySearchDocuments(String rootId, String[] projection, Bundle queryArgs) throws FileNotFoundException {
+        final String query = queryArgs.getString(DocumentsContract.QUERY_ARG_DISPLAY_NAME);
+        if (query == null) return super.querySearchDocuments(rootId, projection, queryArgs);
+
+        return querySearchDocuments(rootId, query, projection, queryArgs.getInt(ContentResolver.QUERY_ARG_OFFSET, 0),
+            queryArgs.getInt(ContentResolver.QUERY_ARG_LIMIT, MAX_SEARCH_RESULTS));
+    }
+
+    private Cursor querySearchDocuments(String rootId, String query, String[] projection, int offset, int limit) throws FileNotFoundException {
         final MatrixCursor result = new MatrixCursor(projection != null ? projection : DEFAULT_DOCUMENT_PROJECTION);
-        final File parent = getFileForDocId(rootId);
-
-        // This example implementation searches file names for the query and doesn't rank search
-        // results, so we can stop as soon as we find a sufficient number of matches.  Other
-        // implementations might rank results and use other data about files, rather than the file
-        // name, to produce a match.
-        final LinkedList<File> pending = new LinkedList<>();
-        pending.add(parent);
-
-        final int MAX_SEARCH_RESULTS = 50;
-        while (!pending.isEmpty() && result.getCount() < MAX_SEARCH_RESULTS) {
-            final File file = pending.removeFirst();
-            // Avoid directories outside the $HOME directory linked with symlinks (to avoid e.g. search
-            // through the whole SD card).
-            boolean isInsideHome;
-            try {
-                isInsideHome = file.getCanonicalPath().startsWith(TermuxConstants.TERMUX_HOME_DIR_PATH);
-            } catch (IOException e) {
-                isInsideHome = true;
-            }
-            if (isInsideHome) {
-                if (file.isDirectory()) {
-                    Collections.addAll(pending, file.listFiles());
-                } else {
-                    if (file.getName().toLowerCase().contains(query)) {
-                        includeFile(result, null, file);
-                    }
-                }
+        getFileForDocId(rootId);
+
+        // Search file names in the index of $HOME/ that is built in the background and kept fresh
+        // with file observers, instead of walking the whole directory for every query. Results are
+        // ranked, so the requested page of them is returned along with their total count.
+        final TermuxDocumentsSearchIndex.SearchResult searchResult = mSearchIndex.search(query, offset, limit);
+
+        final int uid = Process.myUid();
+        final Map<String, Boolean> parentsCanWrite = new HashMap<>();
+        for (TermuxDocumentsSearchIndex.Entry entry : searchResult.entries) {
+            final String parentPath = entry.getParentPath();
+            Boolean parentCanWrite = parentsCanWrite.get(parentPath);
+            if (parentCanWrite == null) {
+                parentCanWrite = new File(parentPath).canWrite();
+                parentsCanWrite.put(parentPath, parentCanWrite);
             }
+
+            includeFile(result, entry.path, entry.name, entry.isDirectory, entry.size, entry.lastModified,
+                DirectoryListing.isWritableBy(entry.path, entry.mode, entry.uid, uid), parentCanWrite);
         }
 
+        // If the index is still being built, then the results are refreshed once it is
+        final Bundle extras = new Bundle();
+        extras.putBoolean(DocumentsContract.EXTRA_LOADING, searchResult.loading);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+            extras.putInt(ContentResolver.EXTRA_TOTAL_COUNT, searchResult.totalCount);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)
+            result.setExtras(extras);
+        result.setNotificationUri(getContext().getContentResolver(), DocumentsContract.buildSearchDocumentsUri(AUTHORITY, rootId, query));
+
         return result;
     }
 
+    /** Notify the cursors of previous searches that the search index has been updated. */
+    private void notifySearchIndexUpdated() {
+        // Search uris are under the root uri, so all of them are notified
+        getContext().getContentResolver().notifyChange(DocumentsContract.buildRootUri(AUTHORITY, getDocIdForFile(BASE_DIR)), null);
+    }
+
     @Override
     public boolean isChildDocument(String parentDocumentId, String documentId) {
         return documentId.startsWith(parentDocumentId);
@@ -214,10 +274,13 @@ public class TermuxDocumentsProvider extends DocumentsProvider {
     }
 
     private static String getMimeType(File file) {
-        if (file.isDirectory()) {
+        return getMimeType(file.getName(), file.isDirectory());
+    }
+
+    private static String getMimeType(String name, boolean isDirectory) {
+        if (isDirectory) {
             return Document.MIME_TYPE_DIR;
         } else {
-            final String name = file.getName();
             final int lastDot = name.lastIndexOf('.');
             if (lastDot >= 0) {
                 final String extension = name.substring(lastDot + 1).toLowerCase();
@@ -243,24 +306,41 @@ public class TermuxDocumentsProvider extends DocumentsProvider {
             file = getFileForDocId(docId);
         }
 
+        includeFile(result, docId, file.getName(), file.isDirectory(), file.length(), file.lastModified(),
+            file.canWrite(), file.getParentFile().canWrite());
+    }
+
+    /**
+     * Add a representation of a file to a cursor from its already known attributes.
+     *
+     * @param result         the cursor to modify
+     * @param docId          the document ID representing the file
+     * @param displayName    the name of the file
+     * @param isDirectory    whether the file is a directory
+     * @param size           the size of the file
+     * @param lastModified   the last modified time of the file
+     * @param canWrite       whether the file is writable
+     * @param parentCanWrite whether the parent directory of the file is writable
+     */
+    private void includeFile(MatrixCursor result, String docId, String displayName, boolean isDirectory,
+                             long size, long lastModified, boolean canWrite, boolean parentCanWrite) {
         int flags = 0;
-        if (file.isDirectory()) {
-            if (file.canWrite()) flags |= Document.FLAG_DIR_SUPPORTS_CREATE;
-        } else if (file.canWrite()) {
+        if (isDirectory) {
+            if (canWrite) flags |= Document.FLAG_DIR_SUPPORTS_CREATE;
+        } else if (canWrite) {
             flags |= Document.FLAG_SUPPORTS_WRITE;
         }
-        if (file.getParentFile().canWrite()) flags |= Document.FLAG_SUPPORTS_DELETE;
+        if (parentCanWrite) flags |= Document.FLAG_SUPPORTS_DELETE;
 
-        final String displayName = file.getName();
-        final String mimeType = getMimeType(file);
+        final String mimeType = getMimeType(displayName, isDirectory);
         if (mimeType.startsWith("image/")) flags |= Document.FLAG_SUPPORTS_THUMBNAIL;
 
         final MatrixCursor.RowBuilder row = result.newRow();
         row.add(Document.COLUMN_DOCUMENT_ID, docId);
         row.add(Document.COLUMN_DISPLAY_NAME, displayName);
-        row.add(Document.COLUMN_SIZE, file.length());
+        row.add(Document.COLUMN_SIZE, size);
         row.add(Document.COLUMN_MIME_TYPE, mimeType);
-        row.add(Document.COLUMN_LAST_MODIFIED, file.lastModified());
+        row.add(Document.COLUMN_LAST_MODIFIED, lastModified);
         row.add(Document.COLUMN_FLAGS, flags);
         row.add(Document.COLUMN_ICON, R.mipmap.ic_launcher);
     }
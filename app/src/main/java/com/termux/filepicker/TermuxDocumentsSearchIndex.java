@@ -0,0 +1,896 @@
+package com.termux.filepicker;
+
+import android.os.FileObserver;
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.file.filesystem.DirectoryListing;
+import com.termux.shared.file.filesystem.FileType;
+import com.termux.shared.logger.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An index of the names of the files under a root directory that
+ * {@link TermuxDocumentsProvider#querySearchDocuments} answers searches from, instead of walking
+ * the whole root directory for every query.
+ *
+ * - The index is built on a background thread by reading the directories with
+ *   {@link DirectoryListing} without following symlinks, so directories linked with symlinks are
+ *   not walked and symlinks to files outside the root are not indexed.
+ * - The index is saved to a file, so that searches can be answered from the last index right
+ *   after the app starts while the root is being read again.
+ * - The index is kept fresh with a {@link FileObserver} on every indexed directory, up to
+ *   {@link #MAX_WATCHED_DIRECTORIES}, and a directory is read again shortly after a change in it.
+ *   If not all directories could be watched, then the whole root is read again on a search if it
+ *   was last read more than {@link #REFRESH_INTERVAL} ago.
+ * - The directories are only watched while searches are being made, and the watches are released
+ *   after {@link #WATCH_IDLE_TIMEOUT} without searches. The whole root is read again on the next
+ *   search, while the results are returned from the last index.
+ * - Names are matched case insensitively with a trigram index for queries with at least 3
+ *   characters, and results are ranked by exact, prefix, word and then substring matches, followed
+ *   by shallower and then more recently modified files.
+ */
+public class TermuxDocumentsSearchIndex {
+
+    /**
+     * The maximum number of directories watched with a {@link FileObserver}, since every watch
+     * uses kernel memory and the number of inotify watches of a user is limited.
+     */
+    private static final int MAX_WATCHED_DIRECTORIES = 1024;
+
+    /** The time without searches after which the directories are no longer watched. */
+    private static final long WATCH_IDLE_TIMEOUT = 10 * 60 * 1000;
+
+    /** The maximum number of files indexed. */
+    private static final int MAX_ENTRIES = 500000;
+
+    /** The interval after which the root is read again on a search if not all directories are watched. */
+    private static final long REFRESH_INTERVAL = 5 * 60 * 1000;
+
+    /** The delay after a change in a directory before it is read again, so that the events of multiple changes are coalesced. */
+    private static final long RESCAN_DELAY = 500;
+
+    /** The delay after a change in the index before it is saved. */
+    private static final long SAVE_DELAY = 30 * 1000;
+
+    /** The events of an indexed directory that cause it to be read again. */
+    private static final int OBSERVER_EVENTS = FileObserver.CREATE | FileObserver.DELETE |
+        FileObserver.MOVED_FROM | FileObserver.MOVED_TO | FileObserver.CLOSE_WRITE |
+        FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+    private static final int INDEX_FILE_MAGIC = 0x54445349; // "TDSI"
+    private static final int INDEX_FILE_VERSION = 1;
+
+    /** The match ranks, lower is better. */
+    private static final int MATCH_EXACT = 0;
+    private static final int MATCH_PREFIX = 1;
+    private static final int MATCH_WORD = 2;
+    private static final int MATCH_SUBSTRING = 3;
+
+    @NonNull private final String mRootPath;
+    @NonNull private final String mCanonicalRootPath;
+    @NonNull private final File mIndexFile;
+    @Nullable private final Runnable mOnIndexUpdated;
+
+    /** The single thread the index is built and updated on. */
+    @NonNull private final ScheduledExecutorService mExecutor;
+
+    /** The current index, guarded by {@link #mLock}. */
+    @NonNull private Index mIndex = new Index();
+    @NonNull private final Object mLock = new Object();
+
+    /** The observers of the indexed directories, only accessed on {@link #mExecutor}. */
+    @NonNull private final Map<String, DirectoryObserver> mObservers = new HashMap<>();
+
+    /** The directories waiting to be read again after a change. */
+    @NonNull private final Set<String> mPendingDirectories = new HashSet<>();
+
+    private boolean mStarted;
+    private boolean mSaveScheduled;
+    private boolean mScanScheduled;
+    private boolean mReleaseWatchesScheduled;
+    private volatile boolean mReady;
+    private volatile boolean mScanning;
+    private volatile boolean mWatching;
+    private volatile boolean mAllDirectoriesWatched;
+    private volatile long mLastScanTime;
+    private volatile long mLastSearchTime;
+
+    private static final String LOG_TAG = "TermuxDocumentsSearchIndex";
+
+    /**
+     * Create a {@link TermuxDocumentsSearchIndex}. The index is not loaded or built till
+     * {@link #start()} is called.
+     *
+     * @param rootPath The path to the root directory whose files are indexed.
+     * @param indexFile The file the index is saved to.
+     * @param onIndexUpdated The {@link Runnable} called on the index thread after the index has
+     *                       been loaded from the index file or the root has been read again, so
+     *                       that the results of previous searches can be refreshed.
+     */
+    public TermuxDocumentsSearchIndex(@NonNull String rootPath, @NonNull File indexFile,
+                                      @Nullable Runnable onIndexUpdated) {
+        mRootPath = rootPath;
+        mIndexFile = indexFile;
+        mOnIndexUpdated = onIndexUpdated;
+
+        String canonicalRootPath;
+        try {
+            canonicalRootPath = new File(rootPath).getCanonicalPath();
+        } catch (IOException e) {
+            canonicalRootPath = rootPath;
+        }
+        mCanonicalRootPath = canonicalRootPath;
+
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, LOG_TAG);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        mExecutor = executor;
+    }
+
+    /** Load the index from the index file and read the root again in the background, if not already started. */
+    public synchronized void start() {
+        if (mStarted || mExecutor.isShutdown()) return;
+        mStarted = true;
+
+        mLastSearchTime = System.currentTimeMillis();
+        mScanning = true;
+        mExecutor.execute(() -> {
+            load();
+            scan();
+        });
+    }
+
+    /** Stop watching the indexed directories and updating the index, and save it if it has changed. */
+    public synchronized void stop() {
+        if (mExecutor.isShutdown()) return;
+
+        final boolean save = mSaveScheduled;
+        mExecutor.execute(() -> {
+            for (DirectoryObserver observer : mObservers.values())
+                observer.stopWatching();
+            mObservers.clear();
+            if (save) save();
+        });
+        mExecutor.shutdown();
+    }
+
+    /** Whether the root is being read, so that searches may not return all results yet. */
+    public boolean isLoading() {
+        return mScanning || !mReady;
+    }
+
+    /**
+     * Search the index for files whose name contains {@code query}, ignoring case.
+     *
+     * @param query The query to search for.
+     * @param offset The number of ranked results to skip.
+     * @param limit The maximum number of ranked results to return.
+     * @return Returns the {@link SearchResult}.
+     */
+    @NonNull
+    public SearchResult search(@NonNull String query, int offset, int limit) {
+        mLastSearchTime = System.currentTimeMillis();
+        start();
+        refreshIfStale();
+
+        String lowerQuery = query.toLowerCase(Locale.ROOT);
+        List<Match> matches;
+        synchronized (mLock) {
+            matches = mIndex.search(lowerQuery);
+        }
+
+        return new SearchResult(getPage(matches, offset, limit), matches.size(), isLoading());
+    }
+
+    /**
+     * Get the entries of a page of ranked matches.
+     *
+     * @param matches The matches, which are not modified.
+     * @param offset The number of ranked matches to skip.
+     * @param limit The maximum number of ranked matches to return.
+     * @return Returns the entries of the matches in the page, in ranked order.
+     */
+    @NonNull
+    static List<Entry> getPage(@NonNull List<Match> matches, int offset, int limit) {
+        // Only keep the best matches up to the requested page, since short queries may match most files
+        offset = Math.max(offset, 0);
+        int count = (int) Math.min((long) offset + Math.max(limit, 0), matches.size());
+        List<Match> bestMatches;
+        if (count < matches.size()) {
+            PriorityQueue<Match> queue = new PriorityQueue<>(count + 1, Collections.reverseOrder());
+            for (Match match : matches) {
+                queue.add(match);
+                if (queue.size() > count) queue.poll();
+            }
+            bestMatches = new ArrayList<>(queue);
+        } else {
+            bestMatches = new ArrayList<>(matches);
+        }
+        Collections.sort(bestMatches);
+
+        List<Entry> entries = new ArrayList<>();
+        for (int i = offset; i < bestMatches.size(); i++)
+            entries.add(bestMatches.get(i).entry);
+        return entries;
+    }
+
+    /**
+     * Read the root again if the directories are no longer watched, or if not all directories
+     * are watched and it was last read more than {@link #REFRESH_INTERVAL} ago.
+     */
+    private synchronized void refreshIfStale() {
+        if (mScanScheduled || mScanning || mExecutor.isShutdown()) return;
+        if (mWatching) {
+            if (mAllDirectoriesWatched) return;
+            if (System.currentTimeMillis() - mLastScanTime < REFRESH_INTERVAL) return;
+        }
+
+        mScanScheduled = true;
+        mScanning = true;
+        mExecutor.execute(() -> {
+            synchronized (TermuxDocumentsSearchIndex.this) {
+                mScanScheduled = false;
+            }
+            scan();
+        });
+    }
+
+
+
+    /** Load the index from {@link #mIndexFile} if it exists and is for {@link #mRootPath}. */
+    private void load() {
+        if (!mIndexFile.isFile()) return;
+
+        long startTime = System.currentTimeMillis();
+        Index index = new Index();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mIndexFile)))) {
+            if (in.readInt() != INDEX_FILE_MAGIC || in.readInt() != INDEX_FILE_VERSION ||
+                !mRootPath.equals(in.readUTF())) {
+                Logger.logDebug(LOG_TAG, "Ignoring index file for a different version or root");
+                return;
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = mRootPath + "/" + in.readUTF();
+                int flags = in.readByte();
+                int mode = in.readInt();
+                int uid = in.readInt();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                index.add(new Entry(path, getDepth(path), (flags & 1) != 0, (flags & 2) != 0, mode, uid, size, lastModified));
+            }
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to load index from \"" + mIndexFile.getAbsolutePath() + "\"", e);
+            return;
+        }
+
+        synchronized (mLock) {
+            mIndex = index;
+        }
+        mReady = true;
+        Logger.logDebug(LOG_TAG, "Loaded " + index.getCount() + " entries in " + (System.currentTimeMillis() - startTime) + "ms");
+
+        if (mOnIndexUpdated != null) mOnIndexUpdated.run();
+    }
+
+    /** Save the index to {@link #mIndexFile}. */
+    private void save() {
+        synchronized (this) {
+            mSaveScheduled = false;
+        }
+
+        List<Entry> entries;
+        synchronized (mLock) {
+            entries = mIndex.getEntries();
+        }
+
+        File tempFile = new File(mIndexFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(INDEX_FILE_MAGIC);
+            out.writeInt(INDEX_FILE_VERSION);
+            out.writeUTF(mRootPath);
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                out.writeUTF(entry.path.substring(mRootPath.length() + 1));
+                out.writeByte((entry.isDirectory ? 1 : 0) | (entry.isLink ? 2 : 0));
+                out.writeInt(entry.mode);
+                out.writeInt(entry.uid);
+                out.writeLong(entry.size);
+                out.writeLong(entry.lastModified);
+            }
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to save index to \"" + mIndexFile.getAbsolutePath() + "\"", e);
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+            return;
+        }
+
+        if (!tempFile.renameTo(mIndexFile))
+            Logger.logError(LOG_TAG, "Failed to rename \"" + tempFile.getAbsolutePath() + "\" to \"" + mIndexFile.getAbsolutePath() + "\"");
+    }
+
+    private synchronized void scheduleSave() {
+        if (mSaveScheduled || mExecutor.isShutdown()) return;
+        mSaveScheduled = true;
+        mExecutor.schedule(this::save, SAVE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+
+
+    /**
+     * Read the whole root into a new index and replace the current one with it. The directories
+     * are watched before they are read, so that changes made while reading are not missed.
+     */
+    private void scan() {
+        long startTime = System.currentTimeMillis();
+        mWatching = true;
+        Index index = new Index();
+        Set<String> directories = new HashSet<>();
+        directories.add(mRootPath);
+        scanTree(index, mRootPath, directories);
+
+        // Stop watching directories that no longer exist
+        for (Iterator<Map.Entry<String, DirectoryObserver>> it = mObservers.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, DirectoryObserver> observer = it.next();
+            if (!directories.contains(observer.getKey())) {
+                observer.getValue().stopWatching();
+                it.remove();
+            }
+        }
+
+        synchronized (mLock) {
+            mIndex = index;
+        }
+        mAllDirectoriesWatched = mObservers.keySet().containsAll(directories);
+        mLastScanTime = System.currentTimeMillis();
+        mReady = true;
+        mScanning = false;
+        Logger.logDebug(LOG_TAG, "Indexed " + index.getCount() + " entries in " + directories.size() +
+            " directories in " + (mLastScanTime - startTime) + "ms");
+
+        save();
+        scheduleReleaseWatches(WATCH_IDLE_TIMEOUT);
+
+        if (mOnIndexUpdated != null) mOnIndexUpdated.run();
+    }
+
+    /**
+     * Read the tree of a directory into an index.
+     *
+     * @param index The index to add the entries to.
+     * @param directoryPath The path to the directory, which must already be in the index unless it is the root.
+     * @param directories The set to add the paths of the directories read to, if not {@code null}.
+     */
+    private void scanTree(@NonNull Index index, @NonNull String directoryPath, @Nullable Set<String> directories) {
+        ArrayDeque<String> pending = new ArrayDeque<>();
+        pending.add(directoryPath);
+        while (!pending.isEmpty()) {
+            String path = pending.removeFirst();
+            watch(path);
+
+            DirectoryListing directoryListing;
+            try {
+                directoryListing = DirectoryListing.read(path, false);
+            } catch (IOException e) {
+                Logger.logDebug(LOG_TAG, "Failed to read \"" + path + "\": " + e.getMessage());
+                continue;
+            }
+
+            List<Entry> entries = createEntries(directoryListing);
+            synchronized (mLock) {
+                for (Entry entry : entries) {
+                    if (index.getCount() >= MAX_ENTRIES) return;
+                    if (index.get(entry.path) != null) continue;
+                    index.add(entry);
+                    if (entry.isDirectory && !entry.isLink) {
+                        pending.add(entry.path);
+                        if (directories != null) directories.add(entry.path);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Read a directory again after a change in it and update its entries in the index. */
+    private void rescanDirectory(@NonNull String directoryPath) {
+        synchronized (this) {
+            mPendingDirectories.remove(directoryPath);
+        }
+
+        Index index;
+        synchronized (mLock) {
+            index = mIndex;
+            // The parent has been removed from the index since the change
+            if (!directoryPath.equals(mRootPath) && index.get(directoryPath) == null) return;
+        }
+
+        DirectoryListing directoryListing;
+        try {
+            directoryListing = DirectoryListing.read(directoryPath, false);
+        } catch (IOException e) {
+            directoryListing = null;
+        }
+        List<Entry> listedEntries = directoryListing != null ? createEntries(directoryListing) : Collections.emptyList();
+
+        List<String> newDirectories = new ArrayList<>();
+        List<String> removedDirectories = new ArrayList<>();
+        synchronized (mLock) {
+            if (index != mIndex) return;
+
+            if (directoryListing == null) {
+                Entry entry = index.get(directoryPath);
+                if (entry != null) index.removeTree(entry, removedDirectories);
+            } else {
+                Set<String> listedPaths = new HashSet<>();
+                for (Entry entry : listedEntries) {
+                    listedPaths.add(entry.path);
+                    Entry existingEntry = index.get(entry.path);
+                    if (existingEntry != null) {
+                        if (existingEntry.isDirectory == entry.isDirectory && existingEntry.isLink == entry.isLink) {
+                            index.replace(existingEntry, entry);
+                            continue;
+                        }
+                        index.removeTree(existingEntry, removedDirectories);
+                    }
+
+                    if (index.getCount() >= MAX_ENTRIES) continue;
+                    index.add(entry);
+                    if (entry.isDirectory && !entry.isLink)
+                        newDirectories.add(entry.path);
+                }
+
+                for (Entry child : index.getChildren(directoryPath)) {
+                    if (!listedPaths.contains(child.path))
+                        index.removeTree(child, removedDirectories);
+                }
+            }
+        }
+
+        for (String path : removedDirectories)
+            unwatch(path);
+
+        for (String path : newDirectories)
+            scanTree(index, path, null);
+
+        scheduleSave();
+    }
+
+    private synchronized void scheduleRescan(@NonNull String directoryPath) {
+        if (mExecutor.isShutdown() || !mPendingDirectories.add(directoryPath)) return;
+        mExecutor.schedule(() -> rescanDirectory(directoryPath), RESCAN_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create the entries for a {@link DirectoryListing}. Symlinks are resolved to know if they
+     * are for directories, and symlinks to files outside the root are not returned.
+     */
+    @NonNull
+    private List<Entry> createEntries(@NonNull DirectoryListing directoryListing) {
+        List<Entry> entries = new ArrayList<>(directoryListing.getCount());
+        for (int i = 0; i < directoryListing.getCount(); i++) {
+            String path = directoryListing.getPath(i);
+            int mode = directoryListing.getMode(i);
+            boolean isLink = directoryListing.getFileType(i) == FileType.SYMLINK;
+            boolean isDirectory = directoryListing.isDirectory(i);
+            if (isLink) {
+                File file = new File(path);
+                try {
+                    String canonicalPath = file.getCanonicalPath();
+                    if (!canonicalPath.startsWith(mCanonicalRootPath + "/")) continue;
+                } catch (IOException e) {
+                    continue;
+                }
+                isDirectory = file.isDirectory();
+            }
+
+            entries.add(new Entry(path, getDepth(path), isDirectory, isLink, mode, directoryListing.getUid(i),
+                directoryListing.getSize(i), directoryListing.getLastModified(i)));
+        }
+        return entries;
+    }
+
+    private int getDepth(@NonNull String path) {
+        int depth = 0;
+        for (int i = mRootPath.length() + 1; i < path.length(); i++) {
+            if (path.charAt(i) == '/') depth++;
+        }
+        return depth;
+    }
+
+
+
+    /**
+     * Watch a directory for changes if the directories are being watched and
+     * {@link #MAX_WATCHED_DIRECTORIES} has not been reached.
+     */
+    private void watch(@NonNull String directoryPath) {
+        if (!mWatching || mObservers.containsKey(directoryPath)) return;
+        if (mObservers.size() >= MAX_WATCHED_DIRECTORIES) {
+            mAllDirectoriesWatched = false;
+            return;
+        }
+
+        DirectoryObserver observer = new DirectoryObserver(directoryPath);
+        observer.startWatching();
+        mObservers.put(directoryPath, observer);
+    }
+
+    private void unwatch(@NonNull String directoryPath) {
+        DirectoryObserver observer = mObservers.remove(directoryPath);
+        if (observer != null) observer.stopWatching();
+    }
+
+    /**
+     * Stop watching the directories if there have been no searches for {@link #WATCH_IDLE_TIMEOUT},
+     * so that the inotify watches are not held while the index is not used, otherwise check again
+     * when the timeout would be reached.
+     */
+    private void releaseWatchesIfIdle() {
+        synchronized (this) {
+            mReleaseWatchesScheduled = false;
+        }
+
+        long idleTime = System.currentTimeMillis() - mLastSearchTime;
+        if (idleTime < WATCH_IDLE_TIMEOUT) {
+            scheduleReleaseWatches(WATCH_IDLE_TIMEOUT - idleTime);
+            return;
+        }
+
+        Logger.logDebug(LOG_TAG, "Releasing " + mObservers.size() + " directory watches after " + idleTime + "ms without searches");
+        for (DirectoryObserver observer : mObservers.values())
+            observer.stopWatching();
+        mObservers.clear();
+        mWatching = false;
+        mAllDirectoriesWatched = false;
+    }
+
+    private synchronized void scheduleReleaseWatches(long delay) {
+        if (mReleaseWatchesScheduled || mExecutor.isShutdown()) return;
+        mReleaseWatchesScheduled = true;
+        mExecutor.schedule(this::releaseWatchesIfIdle, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /** A {@link FileObserver} that reads its directory again after a change in it. */
+    private class DirectoryObserver extends FileObserver {
+
+        @NonNull private final String mDirectoryPath;
+
+        @SuppressWarnings("deprecation")
+        DirectoryObserver(@NonNull String directoryPath) {
+            super(directoryPath, OBSERVER_EVENTS);
+            mDirectoryPath = directoryPath;
+        }
+
+        @Override
+        public void onEvent(int event, @Nullable String path) {
+            event &= FileObserver.ALL_EVENTS;
+            if (event == 0) return;
+
+            if ((event & (FileObserver.DELETE_SELF | FileObserver.MOVE_SELF)) != 0) {
+                // The parent is read again to remove the directory from the index
+                int index = mDirectoryPath.lastIndexOf('/');
+                if (!mDirectoryPath.equals(mRootPath) && index > 0)
+                    scheduleRescan(mDirectoryPath.substring(0, index));
+            } else {
+                scheduleRescan(mDirectoryPath);
+            }
+        }
+
+    }
+
+
+
+    /** The ranked results of a {@link #search(String, int, int)}. */
+    public static class SearchResult {
+
+        /** The entries of the requested page of results. */
+        @NonNull public final List<Entry> entries;
+        /** The total number of results. */
+        public final int totalCount;
+        /** Whether the index is being built, so the results may not be complete. */
+        public final boolean loading;
+
+        SearchResult(@NonNull List<Entry> entries, int totalCount, boolean loading) {
+            this.entries = entries;
+            this.totalCount = totalCount;
+            this.loading = loading;
+        }
+
+    }
+
+    /**
+     * An indexed file along with the attributes of it when it was last read. The attributes of an
+     * entry are not modified, the entry is replaced in the index when its file is read again, so
+     * the entries returned by searches are snapshots that are safe to read on any thread.
+     */
+    public static class Entry {
+
+        @NonNull public final String path;
+        @NonNull public final String name;
+        @NonNull final String lowerName;
+        final int depth;
+        /** Whether the file is a directory, or a symlink to one. */
+        public final boolean isDirectory;
+        public final boolean isLink;
+        public final int mode;
+        public final int uid;
+        public final long size;
+        public final long lastModified;
+
+        /** The id of the entry in {@link Index#mEntries}. */
+        int id = -1;
+        boolean deleted;
+
+        Entry(@NonNull String path, int depth, boolean isDirectory, boolean isLink, int mode, int uid,
+              long size, long lastModified) {
+            this.path = path;
+            this.name = path.substring(path.lastIndexOf('/') + 1);
+            this.lowerName = name.toLowerCase(Locale.ROOT);
+            this.depth = depth;
+            this.isDirectory = isDirectory;
+            this.isLink = isLink;
+            this.mode = mode;
+            this.uid = uid;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        /** Get the path of the parent directory. */
+        @NonNull
+        public String getParentPath() {
+            return path.substring(0, path.lastIndexOf('/'));
+        }
+
+    }
+
+    /** An {@link Entry} matching a query along with its rank. */
+    static class Match implements Comparable<Match> {
+
+        @NonNull final Entry entry;
+        final int rank;
+
+        Match(@NonNull Entry entry, int rank) {
+            this.entry = entry;
+            this.rank = rank;
+        }
+
+        @Override
+        public int compareTo(@NonNull Match other) {
+            if (rank != other.rank) return Integer.compare(rank, other.rank);
+            if (entry.depth != other.entry.depth) return Integer.compare(entry.depth, other.entry.depth);
+            if (entry.lastModified != other.entry.lastModified) return Long.compare(other.entry.lastModified, entry.lastModified);
+            return entry.path.compareTo(other.entry.path);
+        }
+
+    }
+
+    /**
+     * Get the rank of a match of {@code query} in {@code name}, or {@code -1} if {@code name}
+     * does not contain it.
+     */
+    static int getMatchRank(@NonNull String name, @NonNull String query) {
+        if (name.equals(query)) return MATCH_EXACT;
+        if (name.startsWith(query)) return MATCH_PREFIX;
+
+        int index = name.indexOf(query);
+        if (index < 0) return -1;
+        while (index > 0) {
+            // The match starts a word, like "config" in "termux.config" or "my-config"
+            if (!Character.isLetterOrDigit(name.charAt(index - 1))) return MATCH_WORD;
+            index = name.indexOf(query, index + 1);
+        }
+        return MATCH_SUBSTRING;
+    }
+
+
+
+    /**
+     * The entries of an index, with the ids of the entries whose lowercase name contains each
+     * trigram. Entries are only appended, so the ids for a trigram are in ascending order, and
+     * removed entries are marked as deleted till the index is compacted.
+     */
+    static class Index {
+
+        @NonNull private final List<Entry> mEntries = new ArrayList<>();
+        @NonNull private final Map<String, Entry> mEntriesByPath = new HashMap<>();
+        /** The paths of the children of each directory. */
+        @NonNull private final Map<String, Set<String>> mChildren = new HashMap<>();
+        @NonNull private final Map<Long, IdList> mTrigrams = new HashMap<>();
+        private int mDeletedCount;
+
+        int getCount() {
+            return mEntriesByPath.size();
+        }
+
+        @Nullable
+        Entry get(@NonNull String path) {
+            return mEntriesByPath.get(path);
+        }
+
+        /** Get the entries that have not been removed, in the order they were added. */
+        @NonNull
+        List<Entry> getEntries() {
+            List<Entry> entries = new ArrayList<>(getCount());
+            for (Entry entry : mEntries) {
+                if (!entry.deleted) entries.add(entry);
+            }
+            return entries;
+        }
+
+        /** Get the entries of the children of a directory. */
+        @NonNull
+        List<Entry> getChildren(@NonNull String directoryPath) {
+            Set<String> childPaths = mChildren.get(directoryPath);
+            if (childPaths == null) return Collections.emptyList();
+            List<Entry> children = new ArrayList<>(childPaths.size());
+            for (String childPath : childPaths)
+                children.add(mEntriesByPath.get(childPath));
+            return children;
+        }
+
+        void add(@NonNull Entry entry) {
+            entry.id = mEntries.size();
+            mEntries.add(entry);
+            mEntriesByPath.put(entry.path, entry);
+
+            String parentPath = entry.getParentPath();
+            Set<String> childPaths = mChildren.get(parentPath);
+            if (childPaths == null) {
+                childPaths = new HashSet<>();
+                mChildren.put(parentPath, childPaths);
+            }
+            childPaths.add(entry.path);
+
+            String name = entry.lowerName;
+            for (int i = 0; i + 3 <= name.length(); i++) {
+                long trigram = getTrigram(name, i);
+                IdList ids = mTrigrams.get(trigram);
+                if (ids == null) {
+                    ids = new IdList();
+                    mTrigrams.put(trigram, ids);
+                }
+                ids.add(entry.id);
+            }
+        }
+
+        /**
+         * Replace an entry with the entry of its file read again, which takes its id, since the
+         * name and so the trigrams of the entry are the same.
+         */
+        void replace(@NonNull Entry entry, @NonNull Entry newEntry) {
+            newEntry.id = entry.id;
+            mEntries.set(entry.id, newEntry);
+            mEntriesByPath.put(newEntry.path, newEntry);
+        }
+
+        /**
+         * Remove an entry and, if it is a directory, all the entries under it.
+         *
+         * @param entry The entry to remove.
+         * @param removedDirectories The list to add the paths of the directories removed to.
+         */
+        void removeTree(@NonNull Entry entry, @NonNull List<String> removedDirectories) {
+            Set<String> siblingPaths = mChildren.get(entry.getParentPath());
+            if (siblingPaths != null) siblingPaths.remove(entry.path);
+
+            ArrayDeque<Entry> pending = new ArrayDeque<>();
+            pending.add(entry);
+            while (!pending.isEmpty()) {
+                Entry removed = pending.removeFirst();
+                removed.deleted = true;
+                mEntriesByPath.remove(removed.path);
+                mDeletedCount++;
+
+                Set<String> childPaths = mChildren.remove(removed.path);
+                if (childPaths != null) {
+                    for (String childPath : childPaths)
+                        pending.add(mEntriesByPath.get(childPath));
+                }
+                if (removed.isDirectory && !removed.isLink) removedDirectories.add(removed.path);
+            }
+
+            if (mDeletedCount > 1000 && mDeletedCount > mEntries.size() / 2)
+                compact();
+        }
+
+        /** Rebuild the index without the removed entries. */
+        private void compact() {
+            List<Entry> entries = getEntries();
+            mEntries.clear();
+            mEntriesByPath.clear();
+            mChildren.clear();
+            mTrigrams.clear();
+            mDeletedCount = 0;
+            for (Entry entry : entries)
+                add(entry);
+        }
+
+        /** Get the files whose lowercase name contains {@code query}, which must be lowercase. */
+        @NonNull
+        List<Match> search(@NonNull String query) {
+            List<Match> matches = new ArrayList<>();
+            if (query.isEmpty()) return matches;
+
+            if (query.length() < 3) {
+                for (Entry entry : mEntries)
+                    addMatch(matches, entry, query);
+                return matches;
+            }
+
+            // Only the entries with the least common trigram of the query need to be checked
+            IdList candidates = null;
+            for (int i = 0; i + 3 <= query.length(); i++) {
+                IdList ids = mTrigrams.get(getTrigram(query, i));
+                if (ids == null) return matches;
+                if (candidates == null || ids.size < candidates.size) candidates = ids;
+            }
+
+            for (int i = 0; i < candidates.size; i++)
+                addMatch(matches, mEntries.get(candidates.ids[i]), query);
+            return matches;
+        }
+
+        private static void addMatch(@NonNull List<Match> matches, @NonNull Entry entry, @NonNull String query) {
+            if (entry.deleted || entry.isDirectory) return;
+            int rank = getMatchRank(entry.lowerName, query);
+            if (rank >= 0) matches.add(new Match(entry, rank));
+        }
+
+        private static long getTrigram(@NonNull String string, int index) {
+            return ((long) string.charAt(index) << 32) | ((long) string.charAt(index + 1) << 16) | string.charAt(index + 2);
+        }
+
+    }
+
+    /** A growable array of ascending entry ids. */
+    private static class IdList {
+
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            // A trigram may occur more than once in a name
+            if (size > 0 && ids[size - 1] == id) return;
+            if (size == ids.length) {
+                int[] newIds = new int[size * 2];
+                System.arraycopy(ids, 0, newIds, 0, size);
+                ids = newIds;
+            }
+            ids[size++] = id;
+        }
+
+    }
+
+}
@@ -0,0 +1,397 @@
+package com.termux.filepicker;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.graphics.Point;
+import android.media.ExifInterface;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.data.DataUtils;
+import com.termux.shared.file.filesystem.DirectoryListing;
+import com.termux.shared.logger.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A size bounded LRU disk cache of downscaled thumbnails of images for
+ * {@link TermuxDocumentsProvider#openDocumentThumbnail}, so that the full image is not decoded
+ * by the caller every time a thumbnail is shown.
+ *
+ * Thumbnails are keyed by the path, last modified time and size of the image and the thumbnail
+ * size, which is the size hint rounded up to a power of two so that similar hints share a
+ * thumbnail. They are created on background priority threads, with concurrent requests for the
+ * same thumbnail waiting for the same task, and are returned as a {@link ParcelFileDescriptor} of
+ * the cached file. Thumbnails are rotated and flipped as per the EXIF orientation of the image,
+ * since callers display them as is. The least recently used thumbnails are deleted once the cache
+ * grows beyond {@link #MAX_CACHE_SIZE}.
+ */
+public class TermuxDocumentsThumbnailCache {
+
+    /** The maximum size of the cached thumbnails. */
+    private static final long MAX_CACHE_SIZE = 32 * 1024 * 1024;
+
+    /** The suffix of the files thumbnails are written to before they are renamed into the cache. */
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    /** The minimum and maximum size of the shorter side of a thumbnail. */
+    private static final int MIN_THUMBNAIL_SIZE = 64;
+    private static final int MAX_THUMBNAIL_SIZE = 1024;
+
+    /** The number of threads thumbnails are created on. */
+    private static final int THREADS = 2;
+
+    /** The interval at which a wait for a thumbnail checks if it has been cancelled. */
+    private static final long CANCEL_CHECK_INTERVAL = 100;
+
+    private static final int JPEG_QUALITY = 90;
+
+    @NonNull private final File mCacheDir;
+    @NonNull private final ThreadPoolExecutor mExecutor;
+
+    /** The maximum size of the cached thumbnails, which is {@link #MAX_CACHE_SIZE} unless set by tests. */
+    private final long mMaxCacheSize;
+    /** The size of the cache after the least recently used thumbnails have been deleted. */
+    private final long mTrimmedCacheSize;
+
+    /** The thumbnails being created, keyed by the names of their files. */
+    @NonNull private final Map<String, Future<File>> mPendingThumbnails = new HashMap<>();
+
+    /** The size of the cached thumbnails, or {@code -1} if not known yet. */
+    private long mCacheSize = -1;
+
+    private static final String LOG_TAG = "TermuxDocumentsThumbnailCache";
+
+    public TermuxDocumentsThumbnailCache(@NonNull File cacheDir) {
+        this(cacheDir, MAX_CACHE_SIZE);
+    }
+
+    TermuxDocumentsThumbnailCache(@NonNull File cacheDir, long maxCacheSize) {
+        mCacheDir = cacheDir;
+        mMaxCacheSize = maxCacheSize;
+        mTrimmedCacheSize = maxCacheSize * 3 / 4;
+        mExecutor = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            new ThumbnailThreadFactory());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Open the thumbnail of an image, creating it if it is not cached.
+     *
+     * @param file The image file.
+     * @param sizeHint The desired size of the thumbnail. The thumbnail has the aspect ratio of
+     *                 the image, and its shorter side is at least as large as the larger
+     *                 dimension of the hint, unless the image itself is smaller.
+     * @param signal The {@link CancellationSignal} for the request, if any.
+     * @return Returns the read only {@link ParcelFileDescriptor} of the thumbnail.
+     * @throws FileNotFoundException If the thumbnail could not be created.
+     */
+    @NonNull
+    public ParcelFileDescriptor openThumbnail(@NonNull File file, @NonNull Point sizeHint,
+                                              @Nullable CancellationSignal signal) throws FileNotFoundException {
+        int size = getThumbnailSize(sizeHint);
+        String thumbnailName = getThumbnailName(file, size);
+        File thumbnailFile = new File(mCacheDir, thumbnailName);
+
+        for (int attempt = 1; ; attempt++) {
+            if (thumbnailFile.isFile()) {
+                // Mark the thumbnail as recently used
+                //noinspection ResultOfMethodCallIgnored
+                thumbnailFile.setLastModified(System.currentTimeMillis());
+            } else {
+                waitForThumbnail(getThumbnailFuture(file, thumbnailFile, size), file, signal);
+            }
+
+            try {
+                return ParcelFileDescriptor.open(thumbnailFile, ParcelFileDescriptor.MODE_READ_ONLY);
+            } catch (FileNotFoundException e) {
+                // The thumbnail was deleted by a trim of the cache after it was found or created,
+                // so create it again once
+                if (attempt >= 2) throw e;
+                Logger.logDebug(LOG_TAG, "Creating thumbnail for " + file.getAbsolutePath() + " again after it was deleted");
+            }
+        }
+    }
+
+    /** Get the {@link Future} of the task creating a thumbnail, submitting it if not already pending. */
+    @NonNull
+    private Future<File> getThumbnailFuture(@NonNull File file, @NonNull File thumbnailFile, int size) {
+        String thumbnailName = thumbnailFile.getName();
+        synchronized (mPendingThumbnails) {
+            Future<File> future = mPendingThumbnails.get(thumbnailName);
+            if (future == null) {
+                future = mExecutor.submit(() -> {
+                    try {
+                        createThumbnail(file, thumbnailFile, size);
+                        return thumbnailFile;
+                    } finally {
+                        synchronized (mPendingThumbnails) {
+                            mPendingThumbnails.remove(thumbnailName);
+                        }
+                    }
+                });
+                mPendingThumbnails.put(thumbnailName, future);
+            }
+            return future;
+        }
+    }
+
+    /**
+     * Wait for a thumbnail to be created. If the request is cancelled, then the thumbnail is
+     * still created and cached, since another request may be waiting for it or request it again.
+     */
+    private static void waitForThumbnail(@NonNull Future<File> future, @NonNull File file,
+                                         @Nullable CancellationSignal signal) throws FileNotFoundException {
+        try {
+            if (signal == null) {
+                future.get();
+                return;
+            }
+
+            while (true) {
+                signal.throwIfCanceled();
+                try {
+                    future.get(CANCEL_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+                    return;
+                } catch (TimeoutException e) {
+                    // Check if cancelled again
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw new FileNotFoundException("Failed to create thumbnail for " + file.getAbsolutePath() + ": " + cause.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FileNotFoundException("Interrupted while creating thumbnail for " + file.getAbsolutePath());
+        }
+    }
+
+    /** Get the size of the shorter side of the thumbnail for a size hint, rounded up to a power of two. */
+    static int getThumbnailSize(@NonNull Point sizeHint) {
+        int size = DataUtils.clamp(Math.max(sizeHint.x, sizeHint.y), MIN_THUMBNAIL_SIZE, MAX_THUMBNAIL_SIZE);
+        return Integer.highestOneBit(size - 1) << 1;
+    }
+
+    /** Get the name of the cached thumbnail of an image, which changes if the image is modified. */
+    @NonNull
+    static String getThumbnailName(@NonNull File file, int size) throws FileNotFoundException {
+        long lastModified = file.lastModified();
+        if (lastModified == 0) throw new FileNotFoundException(file.getAbsolutePath() + " not found");
+
+        String key = file.getAbsolutePath() + "\0" + lastModified + "\0" + file.length() + "\0" + size;
+        try {
+            return DataUtils.bytesToHex(MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+
+    /**
+     * Decode an image downscaled so that its shorter side is at least {@code size}, transform it
+     * as per its EXIF orientation and save it to the cache, as a PNG if it has transparency,
+     * otherwise as a JPEG.
+     */
+    private void createThumbnail(@NonNull File file, @NonNull File thumbnailFile, int size) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            throw new IOException("Not a supported image");
+
+        // Let the decoder skip pixels in powers of two before scaling the rest
+        int shorterSide = Math.min(options.outWidth, options.outHeight);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        while (shorterSide / (options.inSampleSize * 2) >= size)
+            options.inSampleSize *= 2;
+
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        if (bitmap == null)
+            throw new IOException("Failed to decode image");
+
+        // Scaling commutes with the rotations and flips of the orientation, so they are done in one pass
+        float scale = (float) size / Math.min(bitmap.getWidth(), bitmap.getHeight());
+        Matrix matrix = getOrientationMatrix(getExifOrientation(file));
+        if (scale < 1) {
+            if (matrix == null) matrix = new Matrix();
+            matrix.postScale(scale, scale);
+        }
+        if (matrix != null) {
+            Bitmap transformedBitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+            if (transformedBitmap != bitmap) bitmap.recycle();
+            bitmap = transformedBitmap;
+        }
+
+        if (!mCacheDir.isDirectory() && !mCacheDir.mkdirs())
+            throw new IOException("Failed to create thumbnail cache directory " + mCacheDir.getAbsolutePath());
+
+        File tempFile = new File(mCacheDir, thumbnailFile.getName() + TEMP_FILE_SUFFIX);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+            if (bitmap.hasAlpha())
+                bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+            else
+                bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+            throw e;
+        } finally {
+            bitmap.recycle();
+        }
+
+        if (!tempFile.renameTo(thumbnailFile)) {
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+            throw new IOException("Failed to rename " + tempFile.getAbsolutePath() + " to " + thumbnailFile.getAbsolutePath());
+        }
+
+        addToCacheSize(thumbnailFile.length());
+    }
+
+    /** Get the EXIF orientation of an image, or {@link ExifInterface#ORIENTATION_NORMAL} if it has none. */
+    private static int getExifOrientation(@NonNull File file) {
+        try {
+            return new ExifInterface(file.getAbsolutePath()).getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            Logger.logDebug(LOG_TAG, "Failed to read EXIF orientation of " + file.getAbsolutePath() + ": " + e.getMessage());
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    /**
+     * Get the {@link Matrix} that displays an image with an EXIF orientation upright, or
+     * {@code null} if it is already upright.
+     */
+    @Nullable
+    static Matrix getOrientationMatrix(int orientation) {
+        Matrix matrix = new Matrix();
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.setScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.setRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.setScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.setRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.setRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.setRotate(-90);
+                break;
+            default:
+                return null;
+        }
+        return matrix;
+    }
+
+    private synchronized void addToCacheSize(long size) {
+        if (mCacheSize < 0)
+            mCacheSize = trim(Long.MAX_VALUE);
+        else
+            mCacheSize += size;
+
+        if (mCacheSize > mMaxCacheSize)
+            mCacheSize = trim(mTrimmedCacheSize);
+    }
+
+    /**
+     * Delete the least recently used thumbnails till the cache is not larger than {@code maxSize}.
+     * The temp files of thumbnails are ignored, since they may be being written by another thread.
+     *
+     * @return Returns the size of the cache after it has been trimmed.
+     */
+    private long trim(long maxSize) {
+        DirectoryListing directoryListing;
+        try {
+            directoryListing = DirectoryListing.read(mCacheDir.getAbsolutePath(), false);
+        } catch (IOException e) {
+            Logger.logError(LOG_TAG, "Failed to read thumbnail cache: " + e.getMessage());
+            return 0;
+        }
+
+        long cacheSize = 0;
+        List<Integer> indexes = new ArrayList<>(directoryListing.getCount());
+        for (int i = 0; i < directoryListing.getCount(); i++) {
+            if (directoryListing.getName(i).endsWith(TEMP_FILE_SUFFIX)) continue;
+            cacheSize += directoryListing.getSize(i);
+            indexes.add(i);
+        }
+        if (cacheSize <= maxSize) return cacheSize;
+
+        Collections.sort(indexes, (a, b) -> Long.compare(directoryListing.getLastModified(a), directoryListing.getLastModified(b)));
+        int deleted = 0;
+        for (int i = 0; i < indexes.size() && cacheSize > maxSize; i++) {
+            int index = indexes.get(i);
+            if (new File(directoryListing.getPath(index)).delete()) {
+                cacheSize -= directoryListing.getSize(index);
+                deleted++;
+            }
+        }
+
+        Logger.logDebug(LOG_TAG, "Deleted " + deleted + " least recently used thumbnails");
+        return cacheSize;
+    }
+
+
+
+    /**
+     * The {@link ThreadFactory} of the threads thumbnails are created on, which are named after
+     * the cache and run at background priority so that decoding images does not slow down the ui.
+     */
+    static class ThumbnailThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger mCreatedThreadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, LOG_TAG + "-" + mCreatedThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
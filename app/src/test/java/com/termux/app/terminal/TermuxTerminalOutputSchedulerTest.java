@@ -0,0 +1,113 @@
+package com.termux.app.terminal;
+
+import android.os.SystemClock;
+
+import com.termux.terminal.TerminalSession;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class TermuxTerminalOutputSchedulerTest {
+
+    private static TerminalSession newSession(String name) {
+        TerminalSession session = new TerminalSession("/system/bin/sh", "/", new String[0], new String[0], null, null);
+        session.mSessionName = name;
+        return session;
+    }
+
+    @Test
+    public void testAddAndRemoveSessions() {
+        TermuxTerminalOutputScheduler scheduler = new TermuxTerminalOutputScheduler();
+        TerminalSession session1 = newSession("session1");
+        TerminalSession session2 = newSession("session2");
+
+        scheduler.addSession(session1);
+        scheduler.addSession(session1);
+        scheduler.addSession(session2);
+        Assert.assertSame(scheduler, session1.getOutputScheduler());
+        Assert.assertSame(scheduler, session2.getOutputScheduler());
+
+        scheduler.removeSession(session1);
+        Assert.assertNull(session1.getOutputScheduler());
+        Assert.assertNull(scheduler.getSessionState(session1));
+        Assert.assertNotNull(scheduler.getSessionState(session2));
+
+        // A session moved to another scheduler must keep it.
+        TermuxTerminalOutputScheduler otherScheduler = new TermuxTerminalOutputScheduler();
+        otherScheduler.addSession(session2);
+        scheduler.removeAllSessions();
+        Assert.assertSame(otherScheduler, session2.getOutputScheduler());
+        Assert.assertNull(scheduler.getSessionState(session2));
+    }
+
+    @Test
+    public void testWeights() {
+        TermuxTerminalOutputScheduler scheduler = new TermuxTerminalOutputScheduler();
+        TerminalSession foregroundSession = newSession("foreground");
+        TerminalSession inputSession = newSession("input");
+        TerminalSession backgroundSession = newSession("background");
+        scheduler.addSession(foregroundSession);
+        scheduler.addSession(inputSession);
+        scheduler.addSession(backgroundSession);
+
+        scheduler.setForegroundSession(foregroundSession);
+        scheduler.onUserInput(inputSession);
+        long now = SystemClock.uptimeMillis();
+
+        int foregroundWeight = scheduler.getWeight(scheduler.getSessionState(foregroundSession), now);
+        int inputWeight = scheduler.getWeight(scheduler.getSessionState(inputSession), now);
+        int backgroundWeight = scheduler.getWeight(scheduler.getSessionState(backgroundSession), now);
+        Assert.assertTrue(foregroundWeight > inputWeight);
+        Assert.assertTrue(inputWeight > backgroundWeight);
+
+        // Recent input stops being prioritized after a while.
+        Assert.assertEquals(backgroundWeight, scheduler.getWeight(scheduler.getSessionState(inputSession), now + 10_000));
+
+        // The foreground session is no longer prioritized once removed.
+        scheduler.removeSession(foregroundSession);
+        scheduler.addSession(foregroundSession);
+        Assert.assertEquals(backgroundWeight, scheduler.getWeight(scheduler.getSessionState(foregroundSession), now + 10_000));
+    }
+
+    @Test
+    public void testDrainedOutputRecordsLatency() throws InterruptedException {
+        TermuxTerminalOutputScheduler scheduler = new TermuxTerminalOutputScheduler();
+        TerminalSession session = newSession("session");
+        scheduler.addSession(session);
+
+        TermuxTerminalOutputScheduler.SessionState sessionState = scheduler.getSessionState(session);
+        Assert.assertNotNull(sessionState);
+
+        // Adding the session marks its output as pending, until a frame finds that none is queued.
+        Thread.sleep(20);
+        Assert.assertTrue(sessionState.getPendingMillis() >= 20);
+        scheduler.doFrame(System.nanoTime());
+        Assert.assertEquals(0, sessionState.getPendingMillis());
+        Assert.assertTrue(sessionState.getLastLatencyMillis() >= 20);
+        Assert.assertEquals(sessionState.getLastLatencyMillis(), sessionState.getMaxLatencyMillis());
+        Assert.assertEquals(sessionState.getLastLatencyMillis(), sessionState.getAverageLatencyMillis());
+        Assert.assertEquals(0, sessionState.getEmulatedBytes());
+
+        // A frame without new output does not record another latency.
+        long lastLatencyMillis = sessionState.getLastLatencyMillis();
+        scheduler.doFrame(System.nanoTime());
+        Assert.assertEquals(lastLatencyMillis, sessionState.getLastLatencyMillis());
+    }
+
+    @Test
+    public void testSessionStatesMarkdownString() {
+        TermuxTerminalOutputScheduler scheduler = new TermuxTerminalOutputScheduler();
+        Assert.assertTrue(scheduler.getSessionStatesMarkdownString().contains("No sessions"));
+
+        TerminalSession session = newSession("session-name");
+        scheduler.addSession(session);
+        String markdownString = scheduler.getSessionStatesMarkdownString();
+        Assert.assertTrue(markdownString.startsWith("## Terminal Output Scheduler\n"));
+        Assert.assertTrue(markdownString.contains("\"session-name\" (" + session.mHandle + ")"));
+        Assert.assertTrue(markdownString.contains("queueDepth=0"));
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.termux.filepicker;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class TermuxDocumentsSearchIndexTest {
+
+    private static final String ROOT = "/home";
+
+    private static TermuxDocumentsSearchIndex.Entry newEntry(String relativePath, boolean isDirectory, long lastModified) {
+        String path = ROOT + "/" + relativePath;
+        int depth = relativePath.length() - relativePath.replace("/", "").length();
+        return new TermuxDocumentsSearchIndex.Entry(path, depth, isDirectory, false, 0, 0, 0, lastModified);
+    }
+
+    private static List<String> getPaths(List<TermuxDocumentsSearchIndex.Entry> entries) {
+        List<String> paths = new ArrayList<>();
+        for (TermuxDocumentsSearchIndex.Entry entry : entries)
+            paths.add(entry.path.substring(ROOT.length() + 1));
+        return paths;
+    }
+
+    private static List<String> search(TermuxDocumentsSearchIndex.Index index, String query, int offset, int limit) {
+        return getPaths(TermuxDocumentsSearchIndex.getPage(index.search(query), offset, limit));
+    }
+
+    @Test
+    public void testGetMatchRank() {
+        Assert.assertEquals(0, TermuxDocumentsSearchIndex.getMatchRank("config", "config"));
+        Assert.assertEquals(1, TermuxDocumentsSearchIndex.getMatchRank("config.txt", "config"));
+        Assert.assertEquals(2, TermuxDocumentsSearchIndex.getMatchRank("termux.config", "config"));
+        Assert.assertEquals(2, TermuxDocumentsSearchIndex.getMatchRank("my-config", "config"));
+        Assert.assertEquals(3, TermuxDocumentsSearchIndex.getMatchRank("myconfig", "config"));
+        Assert.assertEquals(-1, TermuxDocumentsSearchIndex.getMatchRank("conf", "config"));
+
+        // A later match that starts a word ranks better than an earlier substring match
+        Assert.assertEquals(2, TermuxDocumentsSearchIndex.getMatchRank("myconfig.config", "config"));
+    }
+
+    @Test
+    public void testRanking() {
+        TermuxDocumentsSearchIndex.Index index = new TermuxDocumentsSearchIndex.Index();
+        index.add(newEntry("a", true, 0));
+        index.add(newEntry("a/myconfig", false, 0));
+        index.add(newEntry("a/my-config", false, 0));
+        index.add(newEntry("a/config.txt", false, 0));
+        index.add(newEntry("a/config", false, 0));
+        index.add(newEntry("config.old", false, 1));
+        index.add(newEntry("config.new", false, 2));
+        // Directories are not returned
+        index.add(newEntry("config", true, 0));
+        index.add(newEntry("other", false, 0));
+
+        // Exact, prefix, word and then substring matches, with shallower and then more recently modified files first
+        Assert.assertEquals(Arrays.asList("a/config", "config.new", "config.old", "a/config.txt", "a/my-config", "a/myconfig"),
+            search(index, "config", 0, 10));
+
+        // Queries shorter than a trigram are matched against all entries
+        Assert.assertEquals(Arrays.asList("other"), search(index, "ot", 0, 10));
+        Assert.assertEquals(new ArrayList<String>(), search(index, "", 0, 10));
+        Assert.assertEquals(new ArrayList<String>(), search(index, "missing", 0, 10));
+    }
+
+    @Test
+    public void testPaging() {
+        TermuxDocumentsSearchIndex.Index index = new TermuxDocumentsSearchIndex.Index();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            index.add(newEntry("file" + i, false, i));
+            expected.add(0, "file" + i);
+        }
+
+        Assert.assertEquals(20, index.search("file").size());
+        Assert.assertEquals(expected.subList(0, 5), search(index, "file", 0, 5));
+        Assert.assertEquals(expected.subList(5, 10), search(index, "file", 5, 5));
+        Assert.assertEquals(expected.subList(15, 20), search(index, "file", 15, 10));
+        Assert.assertEquals(new ArrayList<String>(), search(index, "file", 20, 10));
+        Assert.assertEquals(new ArrayList<String>(), search(index, "file", 0, 0));
+        Assert.assertEquals(expected.subList(0, 3), search(index, "file", -1, 3));
+    }
+
+    @Test
+    public void testReplaceAndRemove() {
+        TermuxDocumentsSearchIndex.Index index = new TermuxDocumentsSearchIndex.Index();
+        TermuxDocumentsSearchIndex.Entry directory = newEntry("dir", true, 0);
+        TermuxDocumentsSearchIndex.Entry file = newEntry("dir/file", false, 1);
+        index.add(directory);
+        index.add(file);
+        index.add(newEntry("dir/sub", true, 0));
+        index.add(newEntry("dir/sub/file", false, 0));
+
+        // The entries returned by a search are not modified when their files are read again
+        List<TermuxDocumentsSearchIndex.Entry> entries = TermuxDocumentsSearchIndex.getPage(index.search("file"), 0, 10);
+        TermuxDocumentsSearchIndex.Entry updatedFile = newEntry("dir/file", false, 2);
+        index.replace(file, updatedFile);
+        Assert.assertEquals(1, entries.get(0).lastModified);
+        Assert.assertSame(updatedFile, index.get(updatedFile.path));
+        Assert.assertSame(updatedFile, TermuxDocumentsSearchIndex.getPage(index.search("file"), 0, 10).get(0));
+        Assert.assertEquals(2, index.getChildren(directory.path).size());
+
+        List<String> removedDirectories = new ArrayList<>();
+        index.removeTree(directory, removedDirectories);
+        Assert.assertEquals(Arrays.asList(ROOT + "/dir", ROOT + "/dir/sub"), removedDirectories);
+        Assert.assertEquals(0, index.getCount());
+        Assert.assertEquals(new ArrayList<TermuxDocumentsSearchIndex.Match>(), index.search("file"));
+        Assert.assertEquals(new ArrayList<TermuxDocumentsSearchIndex.Entry>(), index.getChildren(directory.path));
+    }
+
+}
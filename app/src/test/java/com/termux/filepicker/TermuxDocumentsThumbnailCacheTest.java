@@ -0,0 +1,193 @@
+package com.termux.filepicker;
+
+import android.graphics.Matrix;
+import android.graphics.Point;
+import android.media.ExifInterface;
+import android.os.ParcelFileDescriptor;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.imageio.ImageIO;
+
+@RunWith(RobolectricTestRunner.class)
+public class TermuxDocumentsThumbnailCacheTest {
+
+    private File mDirectory;
+    private File mCacheDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("TermuxDocumentsThumbnailCacheTest").toFile();
+        mCacheDir = new File(mDirectory, "cache");
+    }
+
+    @After
+    public void tearDown() {
+        deleteTree(mDirectory);
+    }
+
+    @Test
+    public void testGetThumbnailSize() {
+        Assert.assertEquals(64, TermuxDocumentsThumbnailCache.getThumbnailSize(new Point(0, 0)));
+        Assert.assertEquals(64, TermuxDocumentsThumbnailCache.getThumbnailSize(new Point(10, 64)));
+        Assert.assertEquals(128, TermuxDocumentsThumbnailCache.getThumbnailSize(new Point(100, 50)));
+        Assert.assertEquals(128, TermuxDocumentsThumbnailCache.getThumbnailSize(new Point(1, 128)));
+        Assert.assertEquals(256, TermuxDocumentsThumbnailCache.getThumbnailSize(new Point(129, 0)));
+        Assert.assertEquals(1024, TermuxDocumentsThumbnailCache.getThumbnailSize(new Point(5000, 5000)));
+    }
+
+    @Test
+    public void testGetThumbnailName() throws IOException {
+        File image = writeFile(new File(mDirectory, "image.jpg"), "image");
+        String name = TermuxDocumentsThumbnailCache.getThumbnailName(image, 64);
+        Assert.assertEquals(name, TermuxDocumentsThumbnailCache.getThumbnailName(image, 64));
+        Assert.assertNotEquals(name, TermuxDocumentsThumbnailCache.getThumbnailName(image, 128));
+
+        // The thumbnail of a modified image is not reused
+        Assert.assertTrue(image.setLastModified(image.lastModified() - 10000));
+        Assert.assertNotEquals(name, TermuxDocumentsThumbnailCache.getThumbnailName(image, 64));
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testOpenThumbnailOfMissingImage() throws FileNotFoundException {
+        new TermuxDocumentsThumbnailCache(mCacheDir).openThumbnail(new File(mDirectory, "missing.jpg"), new Point(64, 64), null);
+    }
+
+    @Test
+    public void testOpenCachedThumbnail() throws IOException {
+        File image = writeFile(new File(mDirectory, "image.jpg"), "image");
+        Assert.assertTrue(mCacheDir.mkdirs());
+        File thumbnailFile = writeFile(new File(mCacheDir, TermuxDocumentsThumbnailCache.getThumbnailName(image, 64)), "thumbnail");
+        long lastModified = thumbnailFile.lastModified() - 10000;
+        Assert.assertTrue(thumbnailFile.setLastModified(lastModified));
+
+        ParcelFileDescriptor pfd = new TermuxDocumentsThumbnailCache(mCacheDir).openThumbnail(image, new Point(64, 64), null);
+        try (InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pfd)) {
+            byte[] data = new byte[64];
+            int length = in.read(data);
+            Assert.assertEquals("thumbnail", new String(data, 0, length, StandardCharsets.UTF_8));
+        }
+
+        // The thumbnail is marked as recently used
+        Assert.assertTrue(thumbnailFile.lastModified() > lastModified);
+    }
+
+    @Test
+    public void testGetOrientationMatrix() {
+        Assert.assertNull(TermuxDocumentsThumbnailCache.getOrientationMatrix(ExifInterface.ORIENTATION_UNDEFINED));
+        Assert.assertNull(TermuxDocumentsThumbnailCache.getOrientationMatrix(ExifInterface.ORIENTATION_NORMAL));
+
+        assertOrientation(ExifInterface.ORIENTATION_FLIP_HORIZONTAL, -1, 2);
+        assertOrientation(ExifInterface.ORIENTATION_ROTATE_180, -1, -2);
+        assertOrientation(ExifInterface.ORIENTATION_FLIP_VERTICAL, 1, -2);
+        assertOrientation(ExifInterface.ORIENTATION_TRANSPOSE, 2, 1);
+        assertOrientation(ExifInterface.ORIENTATION_ROTATE_90, -2, 1);
+        assertOrientation(ExifInterface.ORIENTATION_TRANSVERSE, -2, -1);
+        assertOrientation(ExifInterface.ORIENTATION_ROTATE_270, 2, -1);
+    }
+
+    @Test
+    public void testThumbnailThreadFactory() {
+        TermuxDocumentsThumbnailCache.ThumbnailThreadFactory threadFactory = new TermuxDocumentsThumbnailCache.ThumbnailThreadFactory();
+        Thread thread1 = threadFactory.newThread(() -> {});
+        Thread thread2 = threadFactory.newThread(() -> {});
+        Assert.assertEquals("TermuxDocumentsThumbnailCache-1", thread1.getName());
+        Assert.assertEquals("TermuxDocumentsThumbnailCache-2", thread2.getName());
+        Assert.assertTrue(thread1.isDaemon());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedThumbnailsAreEvicted() throws IOException {
+        // The images are identical, so their thumbnails have the same size
+        File[] images = new File[5];
+        for (int i = 0; i < images.length; i++)
+            images[i] = writeImage(new File(mDirectory, "image" + i + ".png"));
+        File measureCacheDir = new File(mDirectory, "measure");
+        openThumbnail(new TermuxDocumentsThumbnailCache(measureCacheDir), images[0]);
+        long thumbnailSize = getThumbnailFile(measureCacheDir, images[0]).length();
+        Assert.assertTrue(thumbnailSize > 0);
+
+        // Four thumbnails fit in the cache, and it is trimmed to three once it grows beyond that
+        TermuxDocumentsThumbnailCache cache = new TermuxDocumentsThumbnailCache(mCacheDir, thumbnailSize * 4 + thumbnailSize / 2);
+
+        // A thumbnail being written by another thread must not be counted or deleted, even if it is the oldest file
+        Assert.assertTrue(mCacheDir.mkdirs());
+        File tempFile = writeFile(new File(mCacheDir, "pending.tmp"), new String(new char[(int) thumbnailSize * 10]));
+        long lastModified = System.currentTimeMillis() / 1000 * 1000 - 3600_000;
+        Assert.assertTrue(tempFile.setLastModified(lastModified));
+
+        for (int i = 0; i < 4; i++) {
+            openThumbnail(cache, images[i]);
+            Assert.assertTrue(getThumbnailFile(mCacheDir, images[i]).setLastModified(lastModified + (i + 1) * 10000));
+        }
+        for (int i = 0; i < 4; i++)
+            Assert.assertTrue(getThumbnailFile(mCacheDir, images[i]).isFile());
+
+        // Opening the oldest thumbnail again marks it as recently used, so the next ones are evicted instead
+        openThumbnail(cache, images[0]);
+        openThumbnail(cache, images[4]);
+
+        Assert.assertTrue(getThumbnailFile(mCacheDir, images[0]).isFile());
+        Assert.assertFalse(getThumbnailFile(mCacheDir, images[1]).exists());
+        Assert.assertFalse(getThumbnailFile(mCacheDir, images[2]).exists());
+        Assert.assertTrue(getThumbnailFile(mCacheDir, images[3]).isFile());
+        Assert.assertTrue(getThumbnailFile(mCacheDir, images[4]).isFile());
+        Assert.assertTrue(tempFile.isFile());
+    }
+
+    /** Assert that an orientation maps the point (1, 2) to (x, y). */
+    private static void assertOrientation(int orientation, float x, float y) {
+        Matrix matrix = TermuxDocumentsThumbnailCache.getOrientationMatrix(orientation);
+        Assert.assertNotNull(matrix);
+        float[] point = {1, 2};
+        matrix.mapPoints(point);
+        Assert.assertEquals(x, point[0], 0.001);
+        Assert.assertEquals(y, point[1], 0.001);
+    }
+
+    private static void openThumbnail(TermuxDocumentsThumbnailCache cache, File image) throws IOException {
+        cache.openThumbnail(image, new Point(64, 64), null).close();
+    }
+
+    private static File getThumbnailFile(File cacheDir, File image) throws FileNotFoundException {
+        return new File(cacheDir, TermuxDocumentsThumbnailCache.getThumbnailName(image, 64));
+    }
+
+    private static File writeImage(File file) throws IOException {
+        BufferedImage image = new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB);
+        Assert.assertTrue(ImageIO.write(image, "png", file));
+        return file;
+    }
+
+    private static File writeFile(File file, String content) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+
+    private static void deleteTree(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files)
+                deleteTree(child);
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+}
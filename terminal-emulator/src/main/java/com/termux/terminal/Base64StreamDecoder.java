@@ -0,0 +1,145 @@
+package com.termux.terminal;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A base64 decoder that is fed one character at a time, used for decoding OSC 52 clipboard payloads as they are
+ * received instead of first collecting them in a {@link StringBuilder}. The decoded bytes are stored in a buffer that
+ * grows with the decoded payload, up to the max length passed to {@link #reset(int)}.
+ * <p>
+ * Both the standard and the URL safe alphabets are accepted, whitespace is ignored and the trailing padding is optional.
+ */
+final class Base64StreamDecoder {
+
+    private static final int INITIAL_BUFFER_SIZE = 256;
+    /** Buffers larger than this are released on {@link #reset(int)} instead of being kept for the next payload. */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 8192;
+
+    private byte[] mBuffer = new byte[INITIAL_BUFFER_SIZE];
+    /** The number of decoded bytes in {@link #mBuffer}. */
+    private int mLength;
+    /** The max number of decoded bytes allowed. */
+    private int mMaxLength;
+
+    /** The 6-bit values of the current 4 character quantum and the number of characters collected for it. */
+    private int mQuantum, mQuantumLength;
+    /** The number of '=' padding characters received. No more data characters are allowed after padding. */
+    private int mPaddingLength;
+
+    private boolean mInvalid, mOverflowed;
+
+    /** Reset the decoder for a new payload that may decode to at most maxLength bytes. */
+    void reset(int maxLength) {
+        if (mBuffer.length > MAX_RETAINED_BUFFER_SIZE)
+            mBuffer = new byte[INITIAL_BUFFER_SIZE];
+        mMaxLength = maxLength;
+        mLength = 0;
+        mQuantum = 0;
+        mQuantumLength = 0;
+        mPaddingLength = 0;
+        mInvalid = false;
+        mOverflowed = false;
+    }
+
+    /**
+     * Decode the next character of the payload.
+     *
+     * @return Returns {@code false} if the payload is invalid or its decoded length exceeds the max length. Characters
+     * passed after that are ignored.
+     */
+    boolean decode(int c) {
+        if (mInvalid || mOverflowed) return false;
+
+        int value;
+        if (c >= 'A' && c <= 'Z') {
+            value = c - 'A';
+        } else if (c >= 'a' && c <= 'z') {
+            value = c - 'a' + 26;
+        } else if (c >= '0' && c <= '9') {
+            value = c - '0' + 52;
+        } else if (c == '+' || c == '-') {
+            value = 62;
+        } else if (c == '/' || c == '_') {
+            value = 63;
+        } else if (c == '=') {
+            if (mQuantumLength < 2 || mQuantumLength + ++mPaddingLength > 4) mInvalid = true;
+            return !mInvalid;
+        } else if (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+            return true;
+        } else {
+            mInvalid = true;
+            return false;
+        }
+
+        if (mPaddingLength > 0) {
+            mInvalid = true;
+            return false;
+        }
+
+        mQuantum = (mQuantum << 6) | value;
+        if (++mQuantumLength == 4) {
+            int quantum = mQuantum;
+            mQuantum = 0;
+            mQuantumLength = 0;
+            return append(quantum >> 16, quantum >> 8, quantum, 3);
+        }
+        return true;
+    }
+
+    /**
+     * Decode the last partial quantum of the payload, if any.
+     *
+     * @return Returns {@code true} if the full payload was valid and within the max length.
+     */
+    boolean finish() {
+        if (mInvalid || mOverflowed) return false;
+
+        switch (mQuantumLength) {
+            case 0:
+                return true;
+            case 2: // 12 bits, of which the last 4 are padding.
+                mQuantumLength = 0;
+                return append(mQuantum >> 4, 0, 0, 1);
+            case 3: // 18 bits, of which the last 2 are padding.
+                mQuantumLength = 0;
+                return append(mQuantum >> 10, mQuantum >> 2, 0, 2);
+            default:
+                mInvalid = true;
+                return false;
+        }
+    }
+
+    private boolean append(int b1, int b2, int b3, int count) {
+        if (mLength + count > mMaxLength) {
+            mOverflowed = true;
+            return false;
+        }
+
+        if (mLength + count > mBuffer.length) {
+            byte[] newBuffer = new byte[Math.min(Math.max(mBuffer.length * 2, mLength + count), mMaxLength)];
+            System.arraycopy(mBuffer, 0, newBuffer, 0, mLength);
+            mBuffer = newBuffer;
+        }
+
+        mBuffer[mLength++] = (byte) b1;
+        if (count > 1) mBuffer[mLength++] = (byte) b2;
+        if (count > 2) mBuffer[mLength++] = (byte) b3;
+        return true;
+    }
+
+    /** If the decoded length of the payload exceeded the max length. */
+    boolean isOverflowed() {
+        return mOverflowed;
+    }
+
+    /** The number of bytes decoded so far. */
+    int getLength() {
+        return mLength;
+    }
+
+    /** Get the decoded bytes as an UTF-8 string. */
+    String getText() {
+        return new String(mBuffer, 0, mLength, StandardCharsets.UTF_8);
+    }
+
+}
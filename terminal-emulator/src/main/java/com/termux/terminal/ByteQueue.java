@@ -17,6 +17,11 @@ final class ByteQueue {
         notify();
     }
 
+    /** The number of bytes currently stored in the queue. */
+    public synchronized int size() {
+        return mStoredBytes;
+    }
+
     public synchronized int read(byte[] buffer, boolean block) {
         while (mStoredBytes == 0 && mOpen) {
             if (block) {
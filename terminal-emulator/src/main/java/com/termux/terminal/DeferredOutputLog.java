@@ -0,0 +1,127 @@
+package com.termux.terminal;
+
+/**
+ * A bounded circular byte buffer that holds process output of a {@link TerminalSession} whose emulation is deferred,
+ * see {@link TerminalSession#setEmulationDeferred(boolean)}. Only accessed from the main thread.
+ * <p>
+ * The buffer grows as needed up to its max capacity. If more output is appended than fits, the oldest output is
+ * dropped, since the output that was not dropped would have scrolled it out of the transcript anyway. Since the
+ * dropped output may have ended in the middle of a line or an escape sequence, the output returned by the next
+ * {@link #read(byte[], int)} call starts after the first new line that was not dropped.
+ */
+final class DeferredOutputLog {
+
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private final int mMaxCapacity;
+    private byte[] mBuffer;
+    private int mHead;
+    private int mStoredBytes;
+
+    /** The total number of bytes dropped, including the ones skipped to the next new line. */
+    private long mDroppedBytes;
+    /** If output was dropped since the last read, so that the next read must skip to the next new line. */
+    private boolean mSkipToNextLine;
+
+    DeferredOutputLog(int maxCapacity) {
+        mMaxCapacity = maxCapacity;
+        mBuffer = new byte[Math.min(INITIAL_CAPACITY, maxCapacity)];
+    }
+
+    /** Append output, dropping the oldest output if the max capacity is reached. */
+    void append(byte[] data, int length) {
+        int offset = 0;
+        if (length > mMaxCapacity) {
+            // Only the tail of the data can be kept.
+            discard(mStoredBytes);
+            mDroppedBytes += length - mMaxCapacity;
+            mSkipToNextLine = true;
+            offset = length - mMaxCapacity;
+            length = mMaxCapacity;
+        }
+
+        if (mStoredBytes + length > mBuffer.length) {
+            if (mBuffer.length < mMaxCapacity)
+                grow(Math.min(Math.max(mBuffer.length * 2, mStoredBytes + length), mMaxCapacity));
+            if (mStoredBytes + length > mBuffer.length) {
+                discard(mStoredBytes + length - mBuffer.length);
+                mSkipToNextLine = true;
+            }
+        }
+
+        int bufferLength = mBuffer.length;
+        while (length > 0) {
+            int tail = (mHead + mStoredBytes) % bufferLength;
+            int bytesToCopy = Math.min(length, bufferLength - tail);
+            System.arraycopy(data, offset, mBuffer, tail, bytesToCopy);
+            offset += bytesToCopy;
+            length -= bytesToCopy;
+            mStoredBytes += bytesToCopy;
+        }
+    }
+
+    /**
+     * Read up to maxLength bytes of the oldest output into buffer.
+     *
+     * @return Returns the number of bytes read.
+     */
+    int read(byte[] buffer, int maxLength) {
+        if (mSkipToNextLine) {
+            mSkipToNextLine = false;
+            int skip = indexOfNewLine();
+            // If there is no new line, there is nothing to sync to, so just emulate everything.
+            if (skip >= 0) discard(skip + 1);
+        }
+
+        int length = Math.min(Math.min(maxLength, buffer.length), mStoredBytes);
+        int bufferLength = mBuffer.length;
+        int offset = 0;
+        while (offset < length) {
+            int bytesToCopy = Math.min(length - offset, bufferLength - mHead);
+            System.arraycopy(mBuffer, mHead, buffer, offset, bytesToCopy);
+            offset += bytesToCopy;
+            mHead = (mHead + bytesToCopy) % bufferLength;
+            mStoredBytes -= bytesToCopy;
+        }
+
+        if (mStoredBytes == 0) {
+            mHead = 0;
+            // Do not hold on to a large buffer of a session that has been caught up with.
+            if (mBuffer.length > INITIAL_CAPACITY) mBuffer = new byte[INITIAL_CAPACITY];
+        }
+        return length;
+    }
+
+    /** The number of bytes waiting to be emulated. */
+    int size() {
+        return mStoredBytes;
+    }
+
+    /** The total number of bytes that were dropped since they did not fit or to sync to the next new line. */
+    long getDroppedBytes() {
+        return mDroppedBytes;
+    }
+
+    private int indexOfNewLine() {
+        for (int i = 0; i < mStoredBytes; i++) {
+            if (mBuffer[(mHead + i) % mBuffer.length] == '\n') return i;
+        }
+        return -1;
+    }
+
+    private void discard(int count) {
+        mHead = (mHead + count) % mBuffer.length;
+        mStoredBytes -= count;
+        mDroppedBytes += count;
+    }
+
+    private void grow(int newCapacity) {
+        byte[] newBuffer = new byte[newCapacity];
+        int firstRun = Math.min(mStoredBytes, mBuffer.length - mHead);
+        System.arraycopy(mBuffer, mHead, newBuffer, 0, firstRun);
+        System.arraycopy(mBuffer, 0, newBuffer, firstRun, mStoredBytes - firstRun);
+        mBuffer = newBuffer;
+        mHead = 0;
+    }
+
+}
@@ -1,8 +1,5 @@
 package com.termux.terminal;
 
-import android.util.Base64;
-
-import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Locale;
 import java.util.Objects;
@@ -83,7 +80,10 @@ public final class TerminalEmulator {
     /** The number of parameter arguments. This name comes from the ANSI standard for terminal escape codes. */
     private static final int MAX_ESCAPE_PARAMETERS = 16;
 
-    /** Needs to be large enough to contain reasonable OSC 52 pastes. */
+    /**
+     * The max length of OSC and device control strings. OSC 52 clipboard payloads are not limited by this since they
+     * are decoded as they are received, see {@link #mOscClipboardDecoder}.
+     */
     private static final int MAX_OSC_STRING_LENGTH = 8192;
 
     /** DECSET 1 - application cursor keys. */
@@ -142,6 +142,11 @@ public final class TerminalEmulator {
     public static final int TERMINAL_TRANSCRIPT_ROWS_MAX = 50000;
     public static final int DEFAULT_TERMINAL_TRANSCRIPT_ROWS = 2000;
 
+    /** The max number of decoded bytes of an OSC 52 clipboard payload. */
+    public static final int TERMINAL_OSC52_MAX_BYTES_MIN = 8 * 1024;
+    public static final int TERMINAL_OSC52_MAX_BYTES_MAX = 8 * 1024 * 1024;
+    public static final int DEFAULT_TERMINAL_OSC52_MAX_BYTES = 100 * 1024;
+
 
     /* The supported terminal cursor styles. */
 
@@ -156,7 +161,7 @@ public final class TerminalEmulator {
 
 
     /** The normal screen buffer. Stores the characters that appear on the screen of the emulated terminal. */
-    private final TerminalBuffer mMainBuffer;
+    final TerminalBuffer mMainBuffer;
     /**
      * The alternate screen buffer, exactly as large as the display and contains no additional saved lines (so that when
      * the alternate screen buffer is active, you cannot scroll back to view saved lines).
@@ -180,6 +185,16 @@ public final class TerminalEmulator {
     /** Holds OSC and device control arguments, which can be strings. */
     private final StringBuilder mOSCOrDeviceControlArgs = new StringBuilder();
 
+    /**
+     * Decodes the base64 payload of an OSC 52 sequence while it is received. Once the "52;$selection;" prefix has been
+     * collected in {@link #mOSCOrDeviceControlArgs}, the following characters are passed to this instead.
+     */
+    private final Base64StreamDecoder mOscClipboardDecoder = new Base64StreamDecoder();
+    /** If the payload of an OSC 52 sequence is currently being passed to {@link #mOscClipboardDecoder}. */
+    private boolean mOscClipboardDecoding;
+    /** The max number of decoded bytes of an OSC 52 clipboard payload, {@link #setOsc52MaxBytes()}. */
+    private int mOsc52MaxBytes = DEFAULT_TERMINAL_OSC52_MAX_BYTES;
+
     /**
      * True if the current escape sequence should continue, false if the current escape sequence should be terminated.
      * Used when parsing a single character.
@@ -329,6 +344,7 @@ public final class TerminalEmulator {
     public void updateTerminalSessionClient(TerminalSessionClient client) {
         mClient = client;
         setCursorStyle();
+        setOsc52MaxBytes();
         setCursorBlinkState(true);
     }
 
@@ -432,6 +448,19 @@ public final class TerminalEmulator {
             mCursorStyle = cursorStyle;
     }
 
+    /** Set the max number of decoded bytes of an OSC 52 clipboard payload. */
+    public void setOsc52MaxBytes() {
+        Integer osc52MaxBytes = null;
+
+        if (mClient != null)
+            osc52MaxBytes = mClient.getTerminalOsc52MaxBytes();
+
+        if (osc52MaxBytes == null || osc52MaxBytes < TERMINAL_OSC52_MAX_BYTES_MIN || osc52MaxBytes > TERMINAL_OSC52_MAX_BYTES_MAX)
+            mOsc52MaxBytes = DEFAULT_TERMINAL_OSC52_MAX_BYTES;
+        else
+            mOsc52MaxBytes = osc52MaxBytes;
+    }
+
     public boolean isReverseVideo() {
         return isDecsetInternalBitSet(DECSET_BIT_REVERSE_VIDEO);
     }
@@ -1401,6 +1430,7 @@ public final class TerminalEmulator {
                 break;
             case ']': // OSC
                 mOSCOrDeviceControlArgs.setLength(0);
+                mOscClipboardDecoding = false;
                 continueSequence(ESC_OSC);
                 break;
             case '>': // DECKPNM
@@ -1992,13 +2022,23 @@ public final class TerminalEmulator {
                 }
                 break;
             case 52: // Manipulate Selection Data. Skip the optional first selection parameter(s).
-                int startIndex = textParameter.indexOf(";") + 1;
-                try {
-                    String clipboardText = new String(Base64.decode(textParameter.substring(startIndex), 0), StandardCharsets.UTF_8);
-                    mSession.onCopyTextToClipboard(clipboardText);
-                } catch (Exception e) {
-                    Logger.logError(mClient, LOG_TAG, "OSC Manipulate selection, invalid string '" + textParameter + "");
+                if (!mOscClipboardDecoding) {
+                    // The payload was not decoded while being received since the selection parameter was not
+                    // followed by a ';', so decode whatever follows the first ';' now.
+                    mOscClipboardDecoder.reset(mOsc52MaxBytes);
+                    for (int i = textParameter.indexOf(";") + 1; i < textParameter.length(); i++)
+                        mOscClipboardDecoder.decode(textParameter.charAt(i));
                 }
+                mOscClipboardDecoding = false;
+
+                if (mOscClipboardDecoder.finish()) {
+                    mSession.onCopyTextToClipboard(mOscClipboardDecoder.getText());
+                } else if (mOscClipboardDecoder.isOverflowed()) {
+                    Logger.logError(mClient, LOG_TAG, "OSC Manipulate selection, decoded payload exceeds max length " + mOsc52MaxBytes);
+                } else {
+                    Logger.logError(mClient, LOG_TAG, "OSC Manipulate selection, invalid base64 payload after " + mOscClipboardDecoder.getLength() + " decoded bytes");
+                }
+                mOscClipboardDecoder.reset(0);
                 break;
             case 104:
                 // "104;$c" → Reset Color Number $c. It is reset to the color specified by the corresponding X
@@ -2173,7 +2213,15 @@ public final class TerminalEmulator {
     }
 
     private void collectOSCArgs(int b) {
-        if (mOSCOrDeviceControlArgs.length() < MAX_OSC_STRING_LENGTH) {
+        if (mOscClipboardDecoding) {
+            // Invalid or too large payloads are still consumed until the string terminator, and reported then.
+            mOscClipboardDecoder.decode(b);
+            continueSequence(mEscapeState);
+        } else if (mOSCOrDeviceControlArgs.length() < MAX_OSC_STRING_LENGTH) {
+            if (b == ';' && isOscClipboardSelectionParameterCollected()) {
+                mOscClipboardDecoder.reset(mOsc52MaxBytes);
+                mOscClipboardDecoding = true;
+            }
             mOSCOrDeviceControlArgs.appendCodePoint(b);
             continueSequence(mEscapeState);
         } else {
@@ -2181,6 +2229,18 @@ public final class TerminalEmulator {
         }
     }
 
+    /** If {@link #mOSCOrDeviceControlArgs} contains "52;$selection", so that the next ';' starts the OSC 52 payload. */
+    private boolean isOscClipboardSelectionParameterCollected() {
+        int length = mOSCOrDeviceControlArgs.length();
+        if (length < 3 || mOSCOrDeviceControlArgs.charAt(0) != '5' || mOSCOrDeviceControlArgs.charAt(1) != '2'
+            || mOSCOrDeviceControlArgs.charAt(2) != ';')
+            return false;
+        for (int i = 3; i < length; i++) {
+            if (mOSCOrDeviceControlArgs.charAt(i) == ';') return false;
+        }
+        return true;
+    }
+
     private void unimplementedSequence(int b) {
         logError("Unimplemented sequence char '" + (char) b + "' (U+" + String.format("%04x", b) + ")");
         finishSequence();
@@ -2424,12 +2484,25 @@ public final class TerminalEmulator {
     }
 
 
+    /**
+     * Abort any escape or UTF-8 sequence currently being processed, like when the rest of it was dropped from the
+     * output, so that the next output is processed from the start of a sequence.
+     */
+    void abortSequence() {
+        mEscapeState = ESC_NONE;
+        mContinueSequence = false;
+        mOscClipboardDecoding = false;
+        mUtf8Index = mUtf8ToFollow = 0;
+    }
+
     /** Reset terminal state so user can interact with it regardless of present state. */
     public void reset() {
         setCursorStyle();
+        setOsc52MaxBytes();
         mArgIndex = 0;
         mContinueSequence = false;
         mEscapeState = ESC_NONE;
+        mOscClipboardDecoding = false;
         mInsertMode = false;
         mTopMargin = mLeftMargin = 0;
         mBottomMargin = mRows;
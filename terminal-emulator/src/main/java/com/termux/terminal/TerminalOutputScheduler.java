@@ -0,0 +1,19 @@
+package com.termux.terminal;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The interface for a scheduler that decides when the process output of {@link TerminalSession}s is emulated, instead
+ * of each session emulating its output as soon as it is received, see
+ * {@link TerminalSession#setOutputScheduler(TerminalOutputScheduler)}.
+ */
+public interface TerminalOutputScheduler {
+
+    /**
+     * Called from the session's reader thread when new process output has been queued. The scheduler must eventually
+     * call {@link TerminalSession#emulatePendingOutput()} on the main thread until it returns 0. While the output is
+     * not emulated, the queue fills up and the reader thread stops reading from the process.
+     */
+    void onOutputAvailable(@NonNull TerminalSession session);
+
+}
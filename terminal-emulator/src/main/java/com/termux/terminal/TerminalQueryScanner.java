@@ -0,0 +1,106 @@
+package com.termux.terminal;
+
+/**
+ * A minimal escape sequence scanner run over the process output of a {@link TerminalSession} whose emulation is
+ * deferred, to detect sequences that the {@link TerminalEmulator} replies to, so that the session can catch up with
+ * emulation and reply to them without waiting for the deferred output to be emulated. Since the replies may depend on
+ * emulator state like the cursor position, the scanner only detects queries and does not reply to them itself.
+ * <p>
+ * The detected queries are:
+ * <ul>
+ * <li>"ESC Z" - DECID.</li>
+ * <li>"CSI ... c" - Primary and secondary Device Attributes (DA).</li>
+ * <li>"CSI ... n" - Device Status Report (DSR).</li>
+ * <li>"CSI ... $ p" - Request mode (DECRQM).</li>
+ * <li>"CSI ... t" - Window manipulation, which includes reports.</li>
+ * <li>"ESC P ... ST" - Device control strings, which includes DECRQSS and XTGETTCAP requests.</li>
+ * <li>"ESC ] Ps ; ... ; ? ST" - OSC queries like color queries, where a whole parameter is "?".</li>
+ * </ul>
+ */
+final class TerminalQueryScanner {
+
+    private static final int STATE_NONE = 0;
+    private static final int STATE_ESC = 1;
+    private static final int STATE_CSI = 2;
+    private static final int STATE_CSI_DOLLAR = 3;
+    private static final int STATE_OSC = 4;
+    /** In an OSC string right after a ';' parameter separator. */
+    private static final int STATE_OSC_PARAM = 5;
+    /** In an OSC string after a parameter that so far is only a '?'. */
+    private static final int STATE_OSC_QUERY = 6;
+
+    private int mState = STATE_NONE;
+
+    /** Reset the scanner state, like if the output before the next scanned output was not a partial sequence. */
+    void reset() {
+        mState = STATE_NONE;
+    }
+
+    /**
+     * Scan the next process output.
+     *
+     * @return Returns {@code true} if a query was found in the output. The rest of the output is not scanned, so
+     * {@link #reset()} should be called before scanning further output.
+     */
+    boolean scan(byte[] data, int length) {
+        for (int i = 0; i < length; i++) {
+            byte b = data[i];
+            switch (mState) {
+                case STATE_NONE:
+                    if (b == 27) mState = STATE_ESC;
+                    break;
+                case STATE_ESC:
+                    if (b == '[') {
+                        mState = STATE_CSI;
+                    } else if (b == ']') {
+                        mState = STATE_OSC;
+                    } else if (b == 'Z' || b == 'P') {
+                        return true;
+                    } else if (b != 27) {
+                        mState = STATE_NONE;
+                    }
+                    break;
+                case STATE_CSI:
+                case STATE_CSI_DOLLAR:
+                    if (b == '$') {
+                        mState = STATE_CSI_DOLLAR;
+                    } else if (b >= 0x40 && b <= 0x7E) {
+                        // Final byte.
+                        if (b == 'c' || b == 'n' || b == 't' || (b == 'p' && mState == STATE_CSI_DOLLAR))
+                            return true;
+                        mState = STATE_NONE;
+                    } else if (b == 27) {
+                        mState = STATE_ESC;
+                    } else if (b < 0 || b == 0x7F) {
+                        mState = STATE_NONE;
+                    }
+                    // Parameter and intermediate bytes continue the sequence, and control characters are
+                    // executed in the middle of it.
+                    break;
+                case STATE_OSC:
+                case STATE_OSC_PARAM:
+                case STATE_OSC_QUERY:
+                    if (b == 7 || b == 27 || b == ';') {
+                        // A "?" parameter terminated by a separator or the string terminator is a query, like
+                        // the "OSC 11 ; ? ST" and "OSC 4 ; 1 ; ? ST" color queries.
+                        if (mState == STATE_OSC_QUERY) return true;
+                        if (b == 7) {
+                            mState = STATE_NONE;
+                        } else if (b == 27) {
+                            // Either the string terminator or an ESC that the emulator would include in the string.
+                            mState = STATE_ESC;
+                        } else {
+                            mState = STATE_OSC_PARAM;
+                        }
+                    } else if (b == '?' && mState == STATE_OSC_PARAM) {
+                        mState = STATE_OSC_QUERY;
+                    } else {
+                        mState = STATE_OSC;
+                    }
+                    break;
+            }
+        }
+        return false;
+    }
+
+}
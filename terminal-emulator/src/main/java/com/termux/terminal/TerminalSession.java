@@ -26,13 +26,31 @@ import java.util.UUID;
  * <p>
  * The child process may be exited forcefully by using the {@link #finishIfRunning()} method.
  * <p>
+ * Emulation of the process output may be deferred while the session is not visible, see
+ * {@link #setEmulationDeferred(boolean)}, and when it is emulated may be decided by a {@link TerminalOutputScheduler}
+ * shared between sessions, see {@link #setOutputScheduler(TerminalOutputScheduler)}.
+ * <p>
  * NOTE: The terminal session may outlive the EmulatorView, so be careful with callbacks!
  */
 public final class TerminalSession extends TerminalOutput {
 
     private static final int MSG_NEW_INPUT = 1;
+    private static final int MSG_EMULATE_DEFERRED_OUTPUT = 2;
     private static final int MSG_PROCESS_EXITED = 4;
 
+    /** The delay between the low priority batches in which deferred process output is emulated. */
+    private static final int DEFERRED_OUTPUT_EMULATION_DELAY_MILLIS = 500;
+    /** The max number of bytes of deferred process output emulated per batch. */
+    private static final int DEFERRED_OUTPUT_EMULATION_BATCH_SIZE = 64 * 1024;
+    /**
+     * The estimated number of bytes of process output per cell of the terminal transcript, including escape sequences.
+     * Used for the max capacity of {@link #mDeferredOutputLog}, since older output would have scrolled out of the
+     * transcript anyway.
+     */
+    private static final int DEFERRED_OUTPUT_BYTES_PER_CELL = 4;
+    private static final int DEFERRED_OUTPUT_LOG_MIN_CAPACITY = 64 * 1024;
+    private static final int DEFERRED_OUTPUT_LOG_MAX_CAPACITY = 4 * 1024 * 1024;
+
     public final String mHandle = UUID.randomUUID().toString();
 
     TerminalEmulator mEmulator;
@@ -50,6 +68,18 @@ public final class TerminalSession extends TerminalOutput {
     /** Buffer to write translate code points into utf8 before writing to mTerminalToProcessIOQueue */
     private final byte[] mUtf8InputBuffer = new byte[5];
 
+    /** If emulation of process output is deferred, see {@link #setEmulationDeferred(boolean)}. */
+    private boolean mEmulationDeferred;
+    /** The process output waiting to be emulated. Created the first time output is deferred. */
+    private DeferredOutputLog mDeferredOutputLog;
+    /** The {@link DeferredOutputLog#getDroppedBytes()} when deferred output was last emulated. */
+    private long mDeferredOutputDroppedBytes;
+    /** Detects queries in deferred process output that need to be replied to without delay. */
+    private final TerminalQueryScanner mDeferredOutputQueryScanner = new TerminalQueryScanner();
+
+    /** The scheduler that decides when process output is emulated, or null to emulate it as soon as it is received. */
+    private volatile TerminalOutputScheduler mOutputScheduler;
+
     /** Callback which gets notified when a session finishes or changes title. */
     TerminalSessionClient mClient;
 
@@ -68,7 +98,7 @@ public final class TerminalSession extends TerminalOutput {
     /** Set by the application for user identification of session, not by terminal. */
     public String mSessionName;
 
-    final Handler mMainThreadHandler = new MainThreadHandler();
+    final MainThreadHandler mMainThreadHandler = new MainThreadHandler();
 
     private final String mShellPath;
     private final String mCwd;
@@ -139,7 +169,11 @@ public final class TerminalSession extends TerminalOutput {
                         int read = termIn.read(buffer);
                         if (read == -1) return;
                         if (!mProcessToTerminalIOQueue.write(buffer, 0, read)) return;
-                        mMainThreadHandler.sendEmptyMessage(MSG_NEW_INPUT);
+                        TerminalOutputScheduler outputScheduler = mOutputScheduler;
+                        if (outputScheduler != null)
+                            outputScheduler.onOutputAvailable(TerminalSession.this);
+                        else
+                            mMainThreadHandler.sendEmptyMessage(MSG_NEW_INPUT);
                     }
                 } catch (Exception e) {
                     // Ignore, just shutting down.
@@ -220,6 +254,131 @@ public final class TerminalSession extends TerminalOutput {
         return mEmulator;
     }
 
+    /**
+     * Set the scheduler that decides when process output is emulated, so that a session with a lot of output does not
+     * starve other sessions sharing the main thread. If null, process output is emulated as soon as it is received.
+     * Must be called from the main thread.
+     */
+    public void setOutputScheduler(TerminalOutputScheduler outputScheduler) {
+        if (mOutputScheduler == outputScheduler) return;
+
+        mOutputScheduler = outputScheduler;
+        // Do not leave output queued before the change behind.
+        if (outputScheduler != null)
+            outputScheduler.onOutputAvailable(this);
+        else
+            mMainThreadHandler.sendEmptyMessage(MSG_NEW_INPUT);
+    }
+
+    public TerminalOutputScheduler getOutputScheduler() {
+        return mOutputScheduler;
+    }
+
+    /**
+     * Emulate the next chunk of queued process output, or append it to the deferred output if emulation is deferred.
+     * Called by the {@link TerminalOutputScheduler} on the main thread.
+     *
+     * @return Returns the number of bytes of process output processed, which is 0 if no output is queued.
+     */
+    public int emulatePendingOutput() {
+        if (mEmulator == null) return 0;
+
+        final byte[] buffer = mMainThreadHandler.mReceiveBuffer;
+        int bytesRead = mProcessToTerminalIOQueue.read(buffer, false);
+        if (bytesRead <= 0) return 0;
+
+        if (mEmulationDeferred) {
+            deferOutput(buffer, bytesRead);
+        } else {
+            mEmulator.append(buffer, bytesRead);
+            notifyScreenUpdate();
+        }
+        return bytesRead;
+    }
+
+    /** Get the number of bytes of process output queued and not yet emulated or deferred. */
+    public int getPendingOutputSize() {
+        return mProcessToTerminalIOQueue.size();
+    }
+
+    /**
+     * Set whether emulation of process output should be deferred, like while the session is not attached to a
+     * terminal view. Must be called from the main thread.
+     * <p>
+     * While deferred, process output is only appended to a bounded log, which is emulated in low priority batches. If
+     * more output is received than would fit in the transcript, only the tail of it is emulated. If the output contains
+     * a query that the emulator replies to, like DA, DSR or DECRQM, all the deferred output is emulated immediately so
+     * that the reply is not delayed. All deferred output is also emulated once emulation stops being deferred.
+     */
+    public void setEmulationDeferred(boolean deferred) {
+        if (mEmulationDeferred == deferred) return;
+
+        mEmulationDeferred = deferred;
+        if (deferred) {
+            mDeferredOutputQueryScanner.reset();
+        } else {
+            mMainThreadHandler.removeMessages(MSG_EMULATE_DEFERRED_OUTPUT);
+            emulateDeferredOutput(Integer.MAX_VALUE);
+        }
+    }
+
+    /** If emulation of process output is deferred, see {@link #setEmulationDeferred(boolean)}. */
+    public boolean isEmulationDeferred() {
+        return mEmulationDeferred;
+    }
+
+    /** Get the number of bytes of deferred process output waiting to be emulated. */
+    public int getDeferredOutputSize() {
+        return (mDeferredOutputLog == null) ? 0 : mDeferredOutputLog.size();
+    }
+
+    /** Get the number of bytes of deferred process output that were dropped instead of emulated. */
+    public long getDeferredOutputDroppedBytes() {
+        return (mDeferredOutputLog == null) ? 0 : mDeferredOutputLog.getDroppedBytes();
+    }
+
+    private void deferOutput(byte[] data, int length) {
+        if (mDeferredOutputLog == null) {
+            int transcriptCells = mEmulator.mMainBuffer.mTotalRows * mEmulator.mColumns;
+            mDeferredOutputLog = new DeferredOutputLog(Math.max(DEFERRED_OUTPUT_LOG_MIN_CAPACITY,
+                Math.min(transcriptCells * DEFERRED_OUTPUT_BYTES_PER_CELL, DEFERRED_OUTPUT_LOG_MAX_CAPACITY)));
+        }
+
+        mDeferredOutputLog.append(data, length);
+
+        if (mDeferredOutputQueryScanner.scan(data, length)) {
+            mDeferredOutputQueryScanner.reset();
+            mMainThreadHandler.removeMessages(MSG_EMULATE_DEFERRED_OUTPUT);
+            emulateDeferredOutput(Integer.MAX_VALUE);
+        } else if (!mMainThreadHandler.hasMessages(MSG_EMULATE_DEFERRED_OUTPUT)) {
+            mMainThreadHandler.sendEmptyMessageDelayed(MSG_EMULATE_DEFERRED_OUTPUT, DEFERRED_OUTPUT_EMULATION_DELAY_MILLIS);
+        }
+    }
+
+    /** Emulate up to maxBytes of the deferred process output. */
+    private void emulateDeferredOutput(int maxBytes) {
+        if (mDeferredOutputLog == null || mDeferredOutputLog.size() == 0) return;
+
+        final byte[] buffer = mMainThreadHandler.mReceiveBuffer;
+        int emulatedBytes = 0;
+        while (emulatedBytes < maxBytes) {
+            int bytesRead = mDeferredOutputLog.read(buffer, maxBytes - emulatedBytes);
+            if (mDeferredOutputLog.getDroppedBytes() != mDeferredOutputDroppedBytes) {
+                // The emulator may have been in the middle of a sequence whose end was dropped.
+                mDeferredOutputDroppedBytes = mDeferredOutputLog.getDroppedBytes();
+                mEmulator.abortSequence();
+            }
+            if (bytesRead == 0) break;
+            mEmulator.append(buffer, bytesRead);
+            emulatedBytes += bytesRead;
+        }
+
+        if (emulatedBytes > 0) notifyScreenUpdate();
+
+        if (mEmulationDeferred && mDeferredOutputLog.size() > 0 && !mMainThreadHandler.hasMessages(MSG_EMULATE_DEFERRED_OUTPUT))
+            mMainThreadHandler.sendEmptyMessageDelayed(MSG_EMULATE_DEFERRED_OUTPUT, DEFERRED_OUTPUT_EMULATION_DELAY_MILLIS);
+    }
+
     /** Notify the {@link #mClient} that the screen has changed. */
     protected void notifyScreenUpdate() {
         mClient.onTextChanged(this);
@@ -340,13 +499,18 @@ public final class TerminalSession extends TerminalOutput {
 
         @Override
         public void handleMessage(Message msg) {
-            int bytesRead = mProcessToTerminalIOQueue.read(mReceiveBuffer, false);
-            if (bytesRead > 0) {
-                mEmulator.append(mReceiveBuffer, bytesRead);
-                notifyScreenUpdate();
+            if (msg.what == MSG_EMULATE_DEFERRED_OUTPUT) {
+                emulateDeferredOutput(DEFERRED_OUTPUT_EMULATION_BATCH_SIZE);
+                return;
             }
 
+            emulatePendingOutput();
+
             if (msg.what == MSG_PROCESS_EXITED) {
+                // Emulate all deferred output so that the exit description is shown after it.
+                removeMessages(MSG_EMULATE_DEFERRED_OUTPUT);
+                emulateDeferredOutput(Integer.MAX_VALUE);
+
                 int exitCode = (Integer) msg.obj;
                 cleanupResources(exitCode);
 
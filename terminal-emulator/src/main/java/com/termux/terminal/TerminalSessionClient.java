@@ -32,6 +32,16 @@ public interface TerminalSessionClient {
 
     Integer getTerminalCursorStyle();
 
+    /**
+     * Get the max number of decoded bytes of an OSC 52 clipboard payload.
+     *
+     * @return Returns the max bytes, or {@code null} to use the
+     * {@link TerminalEmulator#DEFAULT_TERMINAL_OSC52_MAX_BYTES}.
+     */
+    default Integer getTerminalOsc52MaxBytes() {
+        return null;
+    }
+
 
 
     void logError(String tag, String message);
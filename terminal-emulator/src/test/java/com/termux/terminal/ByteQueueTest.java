@@ -51,4 +51,20 @@ public class ByteQueueTest extends TestCase {
 		assertEquals(0, q.read(new byte[128], false));
 	}
 
+	public void testSize() throws Exception {
+		ByteQueue q = new ByteQueue(10);
+		assertEquals(0, q.size());
+		q.write(new byte[]{1, 2, 3, 4, 5, 6}, 0, 6);
+		assertEquals(6, q.size());
+
+		byte[] readArray = new byte[4];
+		assertEquals(4, q.read(readArray, true));
+		assertEquals(2, q.size());
+		q.write(new byte[]{7, 8, 9, 10, 11, 12}, 0, 6);
+		assertEquals(8, q.size());
+		assertEquals(4, q.read(readArray, true));
+		assertEquals(4, q.read(readArray, true));
+		assertEquals(0, q.size());
+	}
+
 }
@@ -0,0 +1,83 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.nio.charset.StandardCharsets;
+
+public class DeferredOutputLogTest extends TestCase {
+
+	private static void append(DeferredOutputLog log, String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		log.append(bytes, bytes.length);
+	}
+
+	private static String readAll(DeferredOutputLog log) {
+		byte[] buffer = new byte[log.size() + 1];
+		int read = log.read(buffer, buffer.length);
+		return new String(buffer, 0, read, StandardCharsets.UTF_8);
+	}
+
+	public void testAppendAndRead() {
+		DeferredOutputLog log = new DeferredOutputLog(100);
+		append(log, "hello ");
+		append(log, "world");
+		assertEquals(11, log.size());
+		assertEquals("hello world", readAll(log));
+		assertEquals(0, log.size());
+		assertEquals(0, log.getDroppedBytes());
+	}
+
+	public void testReadInBatches() {
+		DeferredOutputLog log = new DeferredOutputLog(100);
+		append(log, "abcdefgh");
+		byte[] buffer = new byte[16];
+		assertEquals(3, log.read(buffer, 3));
+		assertEquals("abc", new String(buffer, 0, 3, StandardCharsets.UTF_8));
+		assertEquals(5, log.read(buffer, 16));
+		assertEquals("defgh", new String(buffer, 0, 5, StandardCharsets.UTF_8));
+		assertEquals(0, log.read(buffer, 16));
+	}
+
+	public void testGrowsAcrossWraparound() {
+		DeferredOutputLog log = new DeferredOutputLog(1 << 20);
+		StringBuilder expected = new StringBuilder();
+		byte[] buffer = new byte[1000];
+		for (int i = 0; i < 2000; i++) {
+			append(log, "line " + i + "\n");
+			expected.append("line ").append(i).append('\n');
+			// Read some in between so that the stored output wraps around the end of the buffer.
+			if (i % 100 == 0) {
+				int read = log.read(buffer, 7);
+				assertEquals(expected.substring(0, read), new String(buffer, 0, read, StandardCharsets.UTF_8));
+				expected.delete(0, read);
+			}
+		}
+		assertEquals(expected.toString(), readAll(log));
+		assertEquals(0, log.getDroppedBytes());
+	}
+
+	public void testOnlyTailIsKeptAndSyncedToNextLine() {
+		DeferredOutputLog log = new DeferredOutputLog(20);
+		append(log, "first line\n");
+		append(log, "second line\nthird\n");
+		// "first lin" no longer fits, so output starts after the first new line that was kept.
+		assertEquals("second line\nthird\n", readAll(log));
+		assertEquals(11, log.getDroppedBytes());
+	}
+
+	public void testAppendLargerThanCapacity() {
+		DeferredOutputLog log = new DeferredOutputLog(10);
+		append(log, "abc");
+		append(log, "0123456789\nxyz");
+		assertEquals("xyz", readAll(log));
+		assertEquals(14, log.getDroppedBytes());
+	}
+
+	public void testNoNewLineToSyncTo() {
+		DeferredOutputLog log = new DeferredOutputLog(4);
+		append(log, "abcdef");
+		assertEquals("cdef", readAll(log));
+		assertEquals(2, log.getDroppedBytes());
+	}
+
+}
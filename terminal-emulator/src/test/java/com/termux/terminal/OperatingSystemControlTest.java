@@ -1,8 +1,9 @@
 package com.termux.terminal;
 
-import android.util.Base64;
-
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
 import java.util.Random;
 
@@ -137,9 +138,51 @@ public class OperatingSystemControlTest extends TerminalTestCase {
 		assertIndexColorsMatch(TerminalColors.COLOR_SCHEME.mDefaultColors);
 	}
 
-	public void disabledTestSetClipboard() {
-		// Cannot run this as a unit test since Base64 is a android.util class.
-		enterString("\033]52;c;" + Base64.encodeToString("Hello, world".getBytes(), 0) + "\007");
+	private static String base64(String text) {
+		return Base64.getEncoder().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	public void testSetClipboard() {
+		withTerminalSized(10, 10);
+		enterString("\033]52;c;" + base64("Hello, world") + "\007");
+		enterString("\033]52;;" + base64("Hi") + "\033\\");
+		enterString("\033]52;" + base64("No selection") + "\007");
+		enterString("\033]52;c;" + base64("\u00e5\u00e4\u00f6 \uD83D\uDE00").replace("=", "") + "\007");
+		assertEquals(Arrays.asList("Hello, world", "Hi", "No selection", "\u00e5\u00e4\u00f6 \uD83D\uDE00"), mOutput.clipboardPuts);
+		assertLineIs(0, "          ");
+	}
+
+	public void testSetClipboardLargerThanMaxOscStringLength() {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 10000; i++) text.append("line ").append(i).append('\n');
+		String expected = text.toString();
+
+		withTerminalSized(10, 10);
+		enterString("\033]52;c;" + base64(expected) + "\007");
+		assertEquals(1, mOutput.clipboardPuts.size());
+		assertEquals(expected, mOutput.clipboardPuts.get(0));
+	}
+
+	public void testSetClipboardLargerThanMaxBytesIsIgnored() {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i <= TerminalEmulator.DEFAULT_TERMINAL_OSC52_MAX_BYTES; i++) text.append('a');
+
+		withTerminalSized(10, 10);
+		enterString("\033]52;c;" + base64(text.toString()) + "\007");
+		assertEquals(0, mOutput.clipboardPuts.size());
+		// The payload should have been consumed and not printed to the screen.
+		assertLineIs(0, "          ");
+		enterString("\033]52;c;" + base64("ok") + "\007");
+		assertEquals(Arrays.asList("ok"), mOutput.clipboardPuts);
+	}
+
+	public void testSetClipboardInvalidPayload() {
+		withTerminalSized(10, 10);
+		enterString("\033]52;c;?\007");
+		enterString("\033]52;c;SGVsbG8*\007");
+		enterString("\033]52;c;SGVsbG8=x\007");
+		assertEquals(0, mOutput.clipboardPuts.size());
+		assertLineIs(0, "          ");
 	}
 
 	public void testResettingTerminalResetsColor() throws Exception {
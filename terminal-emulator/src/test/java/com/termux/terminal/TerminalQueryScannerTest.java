@@ -0,0 +1,63 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.nio.charset.StandardCharsets;
+
+public class TerminalQueryScannerTest extends TestCase {
+
+	private final TerminalQueryScanner mScanner = new TerminalQueryScanner();
+
+	private boolean scan(String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		return mScanner.scan(bytes, bytes.length);
+	}
+
+	private void assertQuery(String s) {
+		mScanner.reset();
+		assertTrue("Expected query in " + s, scan(s));
+	}
+
+	private void assertNoQuery(String s) {
+		mScanner.reset();
+		assertFalse("Expected no query in " + s, scan(s));
+	}
+
+	public void testQueries() {
+		assertQuery("\033[c");
+		assertQuery("output\033[0c");
+		assertQuery("\033[>c");
+		assertQuery("\033[6n");
+		assertQuery("\033[?6n");
+		assertQuery("\033[?2004$p");
+		assertQuery("\033[18t");
+		assertQuery("\033Z");
+		assertQuery("\033P$qm\033\\");
+		assertQuery("\033]11;?\007");
+		assertQuery("\033]10;?\033\\");
+		assertQuery("\033]4;1;?\007");
+		assertQuery("\033]4;1;?;2;?\007");
+	}
+
+	public void testNoQueries() {
+		assertNoQuery("plain output c n t p\n");
+		assertNoQuery("\033[31mred\033[0m");
+		assertNoQuery("\033[2J\033[H");
+		assertNoQuery("\033[4p");
+		assertNoQuery("\033]0;title\007after?");
+		assertNoQuery("\033]0;title\033\\after?");
+		assertNoQuery("\033(B\033=");
+		assertNoQuery("\033]0;what?\007");
+		assertNoQuery("\033]2;?title\007");
+		assertNoQuery("\033]8;;https://example.com/?q=1\007link\033]8;;\007");
+		assertNoQuery("å\033[1;åc");
+	}
+
+	public void testQuerySplitAcrossOutput() {
+		mScanner.reset();
+		assertFalse(scan("text\033"));
+		assertFalse(scan("[?"));
+		assertTrue(scan("6n"));
+	}
+
+}
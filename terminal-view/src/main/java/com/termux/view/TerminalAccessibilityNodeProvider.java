@@ -0,0 +1,294 @@
+package com.termux.view;
+
+import android.graphics.Rect;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewParent;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.view.accessibility.AccessibilityNodeProvider;
+
+import com.termux.terminal.TerminalBuffer;
+import com.termux.terminal.TerminalEmulator;
+
+/**
+ * The {@link AccessibilityNodeProvider} of a {@link TerminalView}, which exposes each row shown as a virtual view with
+ * the text of the row, instead of the whole screen being set as the content description of the view on every update.
+ * <p>
+ * Updates are coalesced to at most one per {@link #UPDATE_INTERVAL_MILLIS}, and only rows whose text changed are
+ * reported. Rows are tracked across scrolling, so that text that only moved to another row is not reported as
+ * changed. Text that changed in new output is announced, at most once per {@link #ANNOUNCEMENT_INTERVAL_MILLIS}.
+ */
+final class TerminalAccessibilityNodeProvider extends AccessibilityNodeProvider {
+
+    /** The min time between updates of the row texts. */
+    private static final long UPDATE_INTERVAL_MILLIS = 200;
+    /** The min time between announcements of new output. */
+    private static final long ANNOUNCEMENT_INTERVAL_MILLIS = 1000;
+    /** The max length of an announcement, of which the latest output is kept. */
+    private static final int MAX_ANNOUNCEMENT_LENGTH = 2000;
+
+    private static final int INVALID_ROW = Integer.MIN_VALUE;
+
+    private final TerminalView mView;
+
+    /** The text of each row shown, as last reported. */
+    private String[] mRowTexts = new String[0];
+    /** The line of the top row when the row texts were last updated, see {@link TerminalView#getTopLine()}. */
+    private long mTopLine;
+    /** The top row when the row texts were last updated. */
+    private int mTopRow;
+    private TerminalEmulator mEmulator;
+
+    private int mAccessibilityFocusedRow = INVALID_ROW;
+    private int mHoveredRow = INVALID_ROW;
+
+    private long mLastUpdateTime;
+    private boolean mUpdateScheduled;
+    private final Runnable mUpdateRunnable = () -> {
+        mUpdateScheduled = false;
+        updateRowTexts();
+    };
+
+    /** The changed output not announced yet. */
+    private final StringBuilder mPendingAnnouncement = new StringBuilder();
+    private long mLastAnnouncementTime;
+    private boolean mAnnouncementScheduled;
+    private final Runnable mAnnouncementRunnable = () -> {
+        mAnnouncementScheduled = false;
+        announcePendingText();
+    };
+
+    private final Rect mTempRect = new Rect();
+    private final int[] mTempLocation = new int[2];
+
+    TerminalAccessibilityNodeProvider(TerminalView view) {
+        mView = view;
+    }
+
+    /** Called when the screen of the terminal view changed, to update the row texts after the update interval. */
+    void onScreenUpdated() {
+        if (mUpdateScheduled) return;
+        mUpdateScheduled = true;
+        long delay = mLastUpdateTime + UPDATE_INTERVAL_MILLIS - SystemClock.uptimeMillis();
+        mView.postDelayed(mUpdateRunnable, Math.max(delay, 0));
+    }
+
+    /** Called when the terminal view is detached from its window. */
+    void onDetached() {
+        mView.removeCallbacks(mUpdateRunnable);
+        mView.removeCallbacks(mAnnouncementRunnable);
+        mUpdateScheduled = false;
+        mAnnouncementScheduled = false;
+        mPendingAnnouncement.setLength(0);
+    }
+
+    private void updateRowTexts() {
+        mLastUpdateTime = SystemClock.uptimeMillis();
+
+        final TerminalEmulator emulator = mView.mEmulator;
+        if (emulator == null) return;
+
+        final TerminalBuffer screen = emulator.getScreen();
+        final int rows = emulator.mRows;
+        final int columns = emulator.mColumns;
+        final int topRow = mView.getTopRow();
+        final long topLine = mView.getTopLine();
+
+        boolean rowsMoved = false;
+        boolean rowsReset = false;
+        if (emulator != mEmulator || rows != mRowTexts.length) {
+            mEmulator = emulator;
+            mRowTexts = new String[rows];
+            rowsMoved = true;
+            rowsReset = true;
+        } else if (topLine != mTopLine) {
+            // Keep the texts of rows that were scrolled to another row, so that they are not considered changed.
+            String[] rowTexts = new String[rows];
+            int scrolled = (int) Math.max(Math.min(topLine - mTopLine, rows), -rows);
+            for (int i = 0; i < rows; i++) {
+                int oldRow = i + scrolled;
+                if (oldRow >= 0 && oldRow < rows) rowTexts[i] = mRowTexts[oldRow];
+            }
+            mRowTexts = rowTexts;
+            rowsMoved = true;
+        }
+        // Only output is announced, and not rows shown due to the user scrolling through the transcript or
+        // switching sessions.
+        final boolean announceChanges = !rowsReset && topRow == 0 && mTopRow == 0;
+        mTopLine = topLine;
+        mTopRow = topRow;
+
+        int changedRows = 0;
+        int firstChangedRow = -1;
+        for (int i = 0; i < rows; i++) {
+            String text = screen.getSelectedText(0, topRow + i, columns, topRow + i, false);
+            if (text.equals(mRowTexts[i])) continue;
+
+            mRowTexts[i] = text;
+            if (changedRows++ == 0) firstChangedRow = i;
+            if (announceChanges && !text.trim().isEmpty())
+                appendAnnouncement(text);
+        }
+
+        if (rowsMoved || changedRows > 1) {
+            sendContentChangedEvent(HOST_VIEW_ID, AccessibilityEvent.CONTENT_CHANGE_TYPE_SUBTREE);
+        } else if (changedRows == 1) {
+            sendContentChangedEvent(firstChangedRow, AccessibilityEvent.CONTENT_CHANGE_TYPE_TEXT);
+        }
+
+        if (mPendingAnnouncement.length() > 0 && !mAnnouncementScheduled) {
+            mAnnouncementScheduled = true;
+            long delay = mLastAnnouncementTime + ANNOUNCEMENT_INTERVAL_MILLIS - SystemClock.uptimeMillis();
+            mView.postDelayed(mAnnouncementRunnable, Math.max(delay, 0));
+        }
+    }
+
+    private void appendAnnouncement(String text) {
+        if (mPendingAnnouncement.length() > 0) mPendingAnnouncement.append('\n');
+        mPendingAnnouncement.append(text);
+        if (mPendingAnnouncement.length() > MAX_ANNOUNCEMENT_LENGTH)
+            mPendingAnnouncement.delete(0, mPendingAnnouncement.length() - MAX_ANNOUNCEMENT_LENGTH);
+    }
+
+    private void announcePendingText() {
+        if (mPendingAnnouncement.length() == 0) return;
+        mLastAnnouncementTime = SystemClock.uptimeMillis();
+        mView.announceForAccessibility(mPendingAnnouncement.toString());
+        mPendingAnnouncement.setLength(0);
+    }
+
+    /**
+     * Handle a hover event for explore by touch, by sending hover events for the row hovered.
+     *
+     * @return Returns {@code true} if the event was handled.
+     */
+    boolean onHoverEvent(MotionEvent event) {
+        switch (event.getAction()) {
+            case MotionEvent.ACTION_HOVER_ENTER:
+            case MotionEvent.ACTION_HOVER_MOVE:
+                int row = getRowAt(event.getY());
+                if (row == INVALID_ROW) return false;
+                setHoveredRow(row);
+                return true;
+            case MotionEvent.ACTION_HOVER_EXIT:
+                if (mHoveredRow == INVALID_ROW) return false;
+                setHoveredRow(INVALID_ROW);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void setHoveredRow(int row) {
+        if (row == mHoveredRow) return;
+        int previousRow = mHoveredRow;
+        mHoveredRow = row;
+        if (row != INVALID_ROW) sendEventForRow(row, AccessibilityEvent.TYPE_VIEW_HOVER_ENTER);
+        if (previousRow != INVALID_ROW) sendEventForRow(previousRow, AccessibilityEvent.TYPE_VIEW_HOVER_EXIT);
+    }
+
+    private int getRowAt(float y) {
+        if (mView.mRenderer == null) return INVALID_ROW;
+        int row = (int) ((y - mView.mRenderer.mFontLineSpacingAndAscent) / mView.mRenderer.mFontLineSpacing);
+        return (row >= 0 && row < mRowTexts.length) ? row : INVALID_ROW;
+    }
+
+    @Override
+    public AccessibilityNodeInfo createAccessibilityNodeInfo(int virtualViewId) {
+        if (virtualViewId == HOST_VIEW_ID) {
+            AccessibilityNodeInfo info = AccessibilityNodeInfo.obtain(mView);
+            mView.onInitializeAccessibilityNodeInfo(info);
+            for (int i = 0; i < mRowTexts.length; i++)
+                info.addChild(mView, i);
+            return info;
+        }
+
+        if (virtualViewId < 0 || virtualViewId >= mRowTexts.length) return null;
+
+        AccessibilityNodeInfo info = AccessibilityNodeInfo.obtain(mView, virtualViewId);
+        info.setPackageName(mView.getContext().getPackageName());
+        info.setClassName(TerminalView.class.getName());
+        info.setParent(mView);
+        info.setText(mRowTexts[virtualViewId]);
+        info.setEnabled(true);
+        info.setVisibleToUser(true);
+
+        getRowBounds(virtualViewId, mTempRect);
+        info.setBoundsInParent(mTempRect);
+        mView.getLocationOnScreen(mTempLocation);
+        mTempRect.offset(mTempLocation[0], mTempLocation[1]);
+        info.setBoundsInScreen(mTempRect);
+
+        if (mAccessibilityFocusedRow == virtualViewId) {
+            info.setAccessibilityFocused(true);
+            info.addAction(AccessibilityNodeInfo.AccessibilityAction.ACTION_CLEAR_ACCESSIBILITY_FOCUS);
+        } else {
+            info.addAction(AccessibilityNodeInfo.AccessibilityAction.ACTION_ACCESSIBILITY_FOCUS);
+        }
+        return info;
+    }
+
+    @Override
+    public boolean performAction(int virtualViewId, int action, Bundle arguments) {
+        if (virtualViewId == HOST_VIEW_ID)
+            return mView.performAccessibilityAction(action, arguments);
+
+        if (virtualViewId < 0 || virtualViewId >= mRowTexts.length) return false;
+
+        switch (action) {
+            case AccessibilityNodeInfo.ACTION_ACCESSIBILITY_FOCUS:
+                if (mAccessibilityFocusedRow == virtualViewId) return false;
+                mAccessibilityFocusedRow = virtualViewId;
+                mView.invalidate();
+                sendEventForRow(virtualViewId, AccessibilityEvent.TYPE_VIEW_ACCESSIBILITY_FOCUSED);
+                return true;
+            case AccessibilityNodeInfo.ACTION_CLEAR_ACCESSIBILITY_FOCUS:
+                if (mAccessibilityFocusedRow != virtualViewId) return false;
+                mAccessibilityFocusedRow = INVALID_ROW;
+                mView.invalidate();
+                sendEventForRow(virtualViewId, AccessibilityEvent.TYPE_VIEW_ACCESSIBILITY_FOCUS_CLEARED);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void getRowBounds(int row, Rect bounds) {
+        int lineSpacing = mView.mRenderer.mFontLineSpacing;
+        int top = mView.mRenderer.mFontLineSpacingAndAscent + row * lineSpacing;
+        bounds.set(0, top, mView.getWidth(), top + lineSpacing);
+    }
+
+    private void sendEventForRow(int row, int eventType) {
+        AccessibilityEvent event = AccessibilityEvent.obtain(eventType);
+        event.setPackageName(mView.getContext().getPackageName());
+        event.setClassName(TerminalView.class.getName());
+        event.setSource(mView, row);
+        event.setEnabled(true);
+        if (row >= 0 && row < mRowTexts.length && mRowTexts[row] != null)
+            event.getText().add(mRowTexts[row]);
+        sendEvent(event);
+    }
+
+    private void sendContentChangedEvent(int virtualViewId, int changeType) {
+        AccessibilityEvent event = AccessibilityEvent.obtain(AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED);
+        event.setPackageName(mView.getContext().getPackageName());
+        event.setClassName(TerminalView.class.getName());
+        if (virtualViewId == HOST_VIEW_ID)
+            event.setSource(mView);
+        else
+            event.setSource(mView, virtualViewId);
+        event.setContentChangeTypes(changeType);
+        sendEvent(event);
+    }
+
+    private void sendEvent(AccessibilityEvent event) {
+        ViewParent parent = mView.getParent();
+        if (parent != null)
+            parent.requestSendAccessibilityEvent(mView, event);
+    }
+
+}
@@ -0,0 +1,217 @@
+package com.termux.view;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+
+import com.termux.terminal.TerminalBuffer;
+import com.termux.terminal.TerminalEmulator;
+import com.termux.terminal.TerminalRow;
+import com.termux.terminal.TextStyle;
+
+import java.util.Arrays;
+
+/**
+ * A cache of the last frame rendered for a {@link TerminalView} in an offscreen bitmap, used for rendering scrolling,
+ * like during a fling or while new output scrolls the screen, by shifting the previous frame by the number of rows
+ * scrolled and only rendering the rows whose content changed, which are usually just the newly exposed rows and the
+ * cursor row.
+ * <p>
+ * The content of each rendered row is kept to detect which rows changed, so a row is rendered again whether it
+ * changed due to scrolling or due to new output, and the frame does not depend on the number of rows scrolled being
+ * exact. Rows are clipped to their own line when rendered, so that glyphs overflowing the line do not leave stale
+ * pixels in rows that are not rendered again.
+ */
+final class TerminalFrameCache {
+
+    /** The frame shown and the frame the shown frame is shifted into when scrolling, which are swapped after. */
+    private Bitmap mFrontBitmap, mBackBitmap;
+    private final Canvas mCanvas = new Canvas();
+    private final Rect mSourceRect = new Rect(), mDestinationRect = new Rect();
+
+    /** The state the cached frame was rendered with. If any of it changes, all rows are rendered again. */
+    private TerminalRenderer mRenderer;
+    private TerminalEmulator mEmulator;
+    private int mColumns, mRows;
+    private int[] mPalette;
+    private boolean mReverseVideo;
+    private int mCursorStyle;
+    private boolean mValid;
+
+    /** The line of the top row of the cached frame, as passed to {@link #render}. */
+    private long mTopLine;
+
+    /**
+     * The content of each row of the cached frame, stored in a ring starting at {@link #mFirstRowSlot} so that it does
+     * not need to be moved when scrolling.
+     */
+    private char[][] mRowText;
+    private int[] mRowTextLength;
+    private long[][] mRowStyles;
+    private int[] mRowCursorX, mRowSelectionX1, mRowSelectionX2;
+    private boolean[] mRowValid;
+    private int mFirstRowSlot;
+
+    /**
+     * Render the terminal to a canvas like {@link TerminalRenderer#render(TerminalEmulator, Canvas, int, int, int, int, int)},
+     * reusing the rows of the cached frame that did not change.
+     *
+     * @param topLine The line of the top row, which must stay the same for the same row of text when the screen is
+     *                scrolled or the top row changes, so that the cached frame can be shifted to match.
+     */
+    void render(TerminalRenderer renderer, TerminalEmulator emulator, Canvas canvas, int width, int height,
+                int topRow, long topLine, int selectionY1, int selectionY2, int selectionX1, int selectionX2) {
+        if (width <= 0 || height <= 0) return;
+
+        final int rows = emulator.mRows;
+        final int columns = emulator.mColumns;
+        final int[] palette = emulator.mColors.mCurrentColors;
+        final boolean reverseVideo = emulator.isReverseVideo();
+        final int backgroundColor = palette[reverseVideo ? TextStyle.COLOR_INDEX_FOREGROUND : TextStyle.COLOR_INDEX_BACKGROUND];
+
+        if (mFrontBitmap == null || mFrontBitmap.getWidth() != width || mFrontBitmap.getHeight() != height) {
+            release();
+            mFrontBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mBackBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+
+        if (!mValid || renderer != mRenderer || emulator != mEmulator || rows != mRows || columns != mColumns ||
+            reverseVideo != mReverseVideo || emulator.getCursorStyle() != mCursorStyle || !Arrays.equals(palette, mPalette)) {
+            if (rows != mRows || mRowText == null) {
+                mRowText = new char[rows][];
+                mRowTextLength = new int[rows];
+                mRowStyles = new long[rows][];
+                mRowCursorX = new int[rows];
+                mRowSelectionX1 = new int[rows];
+                mRowSelectionX2 = new int[rows];
+                mRowValid = new boolean[rows];
+            }
+            Arrays.fill(mRowValid, false);
+            mFirstRowSlot = 0;
+
+            mRenderer = renderer;
+            mEmulator = emulator;
+            mRows = rows;
+            mColumns = columns;
+            mPalette = palette.clone();
+            mReverseVideo = reverseVideo;
+            mCursorStyle = emulator.getCursorStyle();
+            mValid = true;
+
+            mFrontBitmap.eraseColor(backgroundColor);
+        } else if (topLine != mTopLine) {
+            shift(topLine - mTopLine, width, backgroundColor);
+        }
+        mTopLine = topLine;
+
+        final TerminalBuffer screen = emulator.getScreen();
+        final int lineSpacing = renderer.mFontLineSpacing;
+        mCanvas.setBitmap(mFrontBitmap);
+        for (int i = 0; i < rows; i++) {
+            final int row = topRow + i;
+            final int cursorX = TerminalRenderer.getCursorColumnInRow(emulator, row);
+            int selx1 = -1, selx2 = -1;
+            if (row >= selectionY1 && row <= selectionY2) {
+                if (row == selectionY1) selx1 = selectionX1;
+                selx2 = (row == selectionY2) ? selectionX2 : columns;
+            }
+
+            TerminalRow lineObject = screen.allocateFullLineIfNecessary(screen.externalToInternalRow(row));
+            final int slot = (mFirstRowSlot + i) % rows;
+            if (isRowUnchanged(slot, lineObject, cursorX, selx1, selx2)) continue;
+
+            final int rowTop = renderer.mFontLineSpacingAndAscent + i * lineSpacing;
+            mCanvas.save();
+            mCanvas.clipRect(0, rowTop, width, rowTop + lineSpacing);
+            mCanvas.drawColor(backgroundColor, PorterDuff.Mode.SRC);
+            renderer.renderRow(emulator, mCanvas, lineObject, rowTop + lineSpacing, cursorX, selx1, selx2);
+            mCanvas.restore();
+
+            storeRow(slot, lineObject, cursorX, selx1, selx2);
+        }
+        mCanvas.setBitmap(null);
+
+        canvas.drawBitmap(mFrontBitmap, 0, 0, null);
+    }
+
+    /** Shift the cached frame by rowsScrolled rows, which are positive if the text moved up. */
+    private void shift(long rowsScrolled, int width, int backgroundColor) {
+        if (Math.abs(rowsScrolled) >= mRows) {
+            Arrays.fill(mRowValid, false);
+            return;
+        }
+
+        final int scrolled = (int) rowsScrolled;
+        final int lineSpacing = mRenderer.mFontLineSpacing;
+        final int rowsTop = mRenderer.mFontLineSpacingAndAscent;
+        final int keptRows = mRows - Math.abs(scrolled);
+        final int sourceRow = Math.max(scrolled, 0);
+        final int destinationRow = Math.max(-scrolled, 0);
+        mSourceRect.set(0, rowsTop + sourceRow * lineSpacing, width, rowsTop + (sourceRow + keptRows) * lineSpacing);
+        mDestinationRect.set(0, rowsTop + destinationRow * lineSpacing, width, rowsTop + (destinationRow + keptRows) * lineSpacing);
+
+        mBackBitmap.eraseColor(backgroundColor);
+        mCanvas.setBitmap(mBackBitmap);
+        mCanvas.drawBitmap(mFrontBitmap, mSourceRect, mDestinationRect, null);
+        mCanvas.setBitmap(null);
+
+        Bitmap bitmap = mFrontBitmap;
+        mFrontBitmap = mBackBitmap;
+        mBackBitmap = bitmap;
+
+        // The slots of the rows scrolled out are reused for the newly exposed rows.
+        mFirstRowSlot = ((mFirstRowSlot + scrolled) % mRows + mRows) % mRows;
+        for (int i = 0; i < mRows - keptRows; i++) {
+            int exposedRow = (scrolled > 0) ? keptRows + i : i;
+            mRowValid[(mFirstRowSlot + exposedRow) % mRows] = false;
+        }
+    }
+
+    private boolean isRowUnchanged(int slot, TerminalRow lineObject, int cursorX, int selx1, int selx2) {
+        if (!mRowValid[slot] || mRowCursorX[slot] != cursorX || mRowSelectionX1[slot] != selx1 || mRowSelectionX2[slot] != selx2)
+            return false;
+
+        final int textLength = lineObject.getSpaceUsed();
+        if (mRowTextLength[slot] != textLength) return false;
+        final char[] text = lineObject.mText;
+        final char[] cachedText = mRowText[slot];
+        for (int i = 0; i < textLength; i++) {
+            if (text[i] != cachedText[i]) return false;
+        }
+        final long[] cachedStyles = mRowStyles[slot];
+        for (int column = 0; column < mColumns; column++) {
+            if (lineObject.getStyle(column) != cachedStyles[column]) return false;
+        }
+        return true;
+    }
+
+    private void storeRow(int slot, TerminalRow lineObject, int cursorX, int selx1, int selx2) {
+        final int textLength = lineObject.getSpaceUsed();
+        if (mRowText[slot] == null || mRowText[slot].length < textLength)
+            mRowText[slot] = new char[lineObject.mText.length];
+        System.arraycopy(lineObject.mText, 0, mRowText[slot], 0, textLength);
+        mRowTextLength[slot] = textLength;
+
+        if (mRowStyles[slot] == null || mRowStyles[slot].length != mColumns)
+            mRowStyles[slot] = new long[mColumns];
+        final long[] styles = mRowStyles[slot];
+        for (int column = 0; column < mColumns; column++)
+            styles[column] = lineObject.getStyle(column);
+
+        mRowCursorX[slot] = cursorX;
+        mRowSelectionX1[slot] = selx1;
+        mRowSelectionX2[slot] = selx2;
+        mRowValid[slot] = true;
+    }
+
+    /** Release the bitmaps of the cached frame, which will be rendered from scratch the next time. */
+    void release() {
+        if (mFrontBitmap != null) mFrontBitmap.recycle();
+        if (mBackBitmap != null) mBackBitmap.recycle();
+        mFrontBitmap = null;
+        mBackBitmap = null;
+        mValid = false;
+    }
+
+}
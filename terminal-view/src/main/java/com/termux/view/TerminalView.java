@@ -27,6 +27,7 @@ import android.view.View;
 import android.view.ViewConfiguration;
 import android.view.ViewTreeObserver;
 import android.view.accessibility.AccessibilityManager;
+import android.view.accessibility.AccessibilityNodeProvider;
 import android.view.autofill.AutofillValue;
 import android.view.inputmethod.BaseInputConnection;
 import android.view.inputmethod.EditorInfo;
@@ -54,6 +55,14 @@ public final class TerminalView extends View {
 
     public TerminalRenderer mRenderer;
 
+    /** The cache of the last rendered frame if scroll blitting is enabled, see {@link #setScrollBlittingEnabled(boolean)}. */
+    private TerminalFrameCache mFrameCache;
+    /**
+     * The sum of the {@link TerminalEmulator#getScrollCounter()} values, which added to a row gives the same value for
+     * the same text after the screen has scrolled. Used to shift the frame cached by {@link #mFrameCache}.
+     */
+    private long mTotalScrollCounter;
+
     public TerminalViewClient mClient;
 
     private TextSelectionCursorController mTextSelectionCursorController;
@@ -86,6 +95,8 @@ public final class TerminalView extends View {
     int mCombiningAccent;
 
     private final boolean mAccessibilityEnabled;
+    /** The provider of the accessibility nodes of the rows, created when first requested if accessibility is enabled. */
+    private TerminalAccessibilityNodeProvider mAccessibilityNodeProvider;
 
     /** The {@link KeyEvent} is generated from a virtual keyboard, like manually with the {@link KeyEvent#KeyEvent(int, int)} constructor. */
     public final static int KEY_EVENT_SOURCE_VIRTUAL_KEYBOARD = KeyCharacterMap.VIRTUAL_KEYBOARD; // -1
@@ -454,10 +465,11 @@ public final class TerminalView extends View {
             mTopRow = 0;
         }
 
+        mTotalScrollCounter += mEmulator.getScrollCounter();
         mEmulator.clearScrollCounter();
 
         invalidate();
-        if (mAccessibilityEnabled) setContentDescription(getText());
+        if (mAccessibilityNodeProvider != null) mAccessibilityNodeProvider.onScreenUpdated();
     }
 
     /** This must be called by the hosting activity in {@link Activity#onContextMenuClosed(Menu)}
@@ -478,6 +490,24 @@ public final class TerminalView extends View {
         updateSize();
     }
 
+    /**
+     * Set whether scrolling should be rendered by shifting the previously rendered frame and only rendering the rows
+     * whose content changed, instead of rendering all the rows of every frame, see {@link TerminalFrameCache}. This
+     * makes scrolling through large amounts of output cheaper, at the cost of keeping two bitmaps of the size of
+     * the view.
+     */
+    public void setScrollBlittingEnabled(boolean enabled) {
+        if (enabled == (mFrameCache != null)) return;
+
+        if (enabled) {
+            mFrameCache = new TerminalFrameCache();
+        } else {
+            mFrameCache.release();
+            mFrameCache = null;
+        }
+        invalidate();
+    }
+
     public void setTypeface(Typeface newTypeface) {
         mRenderer = new TerminalRenderer(mRenderer.mTextSize, newTypeface);
         updateSize();
@@ -975,7 +1005,11 @@ public final class TerminalView extends View {
                 mTextSelectionCursorController.getSelectors(sel);
             }
 
-            mRenderer.render(mEmulator, canvas, mTopRow, sel[0], sel[1], sel[2], sel[3]);
+            if (mFrameCache != null)
+                mFrameCache.render(mRenderer, mEmulator, canvas, getWidth(), getHeight(), mTopRow,
+                    getTopLine(), sel[0], sel[1], sel[2], sel[3]);
+            else
+                mRenderer.render(mEmulator, canvas, mTopRow, sel[0], sel[1], sel[2], sel[3]);
 
             // render the text selection handles
             renderTextSelection();
@@ -986,10 +1020,6 @@ public final class TerminalView extends View {
         return mTermSession;
     }
 
-    private CharSequence getText() {
-        return mEmulator.getScreen().getSelectedText(0, mTopRow, mEmulator.mColumns, mTopRow + mEmulator.mRows);
-    }
-
     public int getCursorX(float x) {
         return (int) (x / mRenderer.mFontWidth);
     }
@@ -1017,6 +1047,32 @@ public final class TerminalView extends View {
         this.mTopRow = mTopRow;
     }
 
+    /**
+     * Get the line of the top row, which stays the same for the same row of text when the screen is scrolled by
+     * output or the top row changes.
+     */
+    long getTopLine() {
+        return mTopRow + mTotalScrollCounter;
+    }
+
+    @Override
+    public AccessibilityNodeProvider getAccessibilityNodeProvider() {
+        if (!mAccessibilityEnabled) return super.getAccessibilityNodeProvider();
+
+        if (mAccessibilityNodeProvider == null) {
+            mAccessibilityNodeProvider = new TerminalAccessibilityNodeProvider(this);
+            mAccessibilityNodeProvider.onScreenUpdated();
+        }
+        return mAccessibilityNodeProvider;
+    }
+
+    @Override
+    public boolean dispatchHoverEvent(MotionEvent event) {
+        if (mAccessibilityNodeProvider != null && mAccessibilityNodeProvider.onHoverEvent(event))
+            return true;
+        return super.dispatchHoverEvent(event);
+    }
+
 
 
     /**
@@ -1305,6 +1361,9 @@ public final class TerminalView extends View {
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
 
+        if (mFrameCache != null) mFrameCache.release();
+        if (mAccessibilityNodeProvider != null) mAccessibilityNodeProvider.onDetached();
+
         if (mTextSelectionCursorController != null) {
             // Might solve the following exception
             // android.view.WindowLeaked: Activity com.termux.app.TermuxActivity has leaked window android.widget.PopupWindow
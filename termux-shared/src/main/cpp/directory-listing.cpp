@@ -0,0 +1,238 @@
+#include <cerrno>
+#include <cstring>
+#include <dirent.h>
+#include <fcntl.h>
+#include <jni.h>
+#include <string>
+#include <unistd.h>
+#include <vector>
+
+#include <sys/stat.h>
+#include <sys/types.h>
+
+#define LOG_TAG "directory-listing"
+
+#include "jni-utils.h"
+
+/* The number of values in the stats array for every entry: mode, uid, size and mtime in milliseconds. */
+#define STAT_FIELDS 4
+
+using namespace std;
+
+
+
+/* Put the stat values of an entry at the end of stats. */
+static void add_stats(vector<jlong> &stats, const struct stat &st) {
+    stats.push_back(st.st_mode);
+    stats.push_back(st.st_uid);
+    stats.push_back(st.st_size);
+    stats.push_back(((jlong) st.st_mtim.tv_sec) * 1000 + st.st_mtim.tv_nsec / 1000000);
+}
+
+/*
+ * Get a path or file name passed as a byte array, since it may not be valid modified UTF-8.
+ *
+ * Returns false if it is empty or contains a null byte, or a JNI exception is pending.
+ */
+static bool get_path(JNIEnv *env, jbyteArray pathArray, string &path) {
+    jsize pathLength = env->GetArrayLength(pathArray);
+    path.assign(pathLength, '\0');
+    if (pathLength > 0)
+        env->GetByteArrayRegion(pathArray, 0, pathLength, reinterpret_cast<jbyte*>(&path[0]));
+    if (checkJniException(env)) return false;
+    return !path.empty() && path.find('\0') == string::npos;
+}
+
+/*
+ * Read the entries of the directory of dir_fd into the result array and close dir_fd.
+ *
+ * The entries are stat relative to dir_fd, so that the path of the directory is not resolved
+ * again for every entry.
+ */
+static jobject read_directory(JNIEnv *env, jstring logTitle, const char *function, int dir_fd,
+                              const string &path, jboolean followLinks, jobjectArray result) {
+    DIR *dir = fdopendir(dir_fd);
+    if (dir == NULL) {
+        int errnoBackup = errno;
+        close(dir_fd);
+        return getJniResult(env, logTitle, -1, errnoBackup, string(function) + ": Failed to open directory stream for \"" + path + "\"");
+    }
+
+    string names;
+    vector<jlong> stats;
+    struct dirent *entry;
+    struct stat st = {};
+    int read_errno;
+    while (true) {
+        errno = 0;
+        entry = readdir(dir);
+        if (entry == NULL) {
+            read_errno = errno;
+            break;
+        }
+
+        const char *name = entry->d_name;
+        if (strcmp(name, ".") == 0 || strcmp(name, "..") == 0) continue;
+
+        if (fstatat(dir_fd, name, &st, followLinks ? 0 : AT_SYMLINK_NOFOLLOW) == -1) {
+            if (errno == ENOENT && followLinks && fstatat(dir_fd, name, &st, AT_SYMLINK_NOFOLLOW) == 0) {
+                // Dangling symlink, return the symlink itself like File.listFiles() would
+            } else if (errno == ENOENT) {
+                // Deleted after being read
+                continue;
+            } else {
+                // Return the entry with an unknown type and zero values, like File.length() and
+                // File.lastModified() would for a file that cannot be stat
+                memset(&st, 0, sizeof(st));
+            }
+        }
+
+        names.append(name);
+        names.push_back('\0');
+        add_stats(stats, st);
+    }
+    closedir(dir);
+
+    if (read_errno != 0) {
+        return getJniResult(env, logTitle, -1, read_errno, string(function) + ": Failed to read directory \"" + path + "\"");
+    }
+
+    // Return the names as a single byte array of null terminated names, since file names may not
+    // be valid modified UTF-8 required by NewStringUTF(), along with a single array of the stats
+    jbyteArray namesArray = env->NewByteArray((jsize) names.size());
+    if (checkJniException(env)) return NULL;
+    if (!names.empty())
+        env->SetByteArrayRegion(namesArray, 0, (jsize) names.size(), reinterpret_cast<const jbyte*>(names.data()));
+    if (checkJniException(env)) return NULL;
+
+    jlongArray statsArray = env->NewLongArray((jsize) stats.size());
+    if (checkJniException(env)) return NULL;
+    if (!stats.empty())
+        env->SetLongArrayRegion(statsArray, 0, (jsize) stats.size(), stats.data());
+    if (checkJniException(env)) return NULL;
+
+    env->SetObjectArrayElement(result, 0, namesArray);
+    if (checkJniException(env)) return NULL;
+    env->SetObjectArrayElement(result, 1, statsArray);
+    if (checkJniException(env)) return NULL;
+
+    // Return the number of entries in JniResult.intData field
+    return getJniResult(env, logTitle, (int) (stats.size() / STAT_FIELDS));
+}
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_file_filesystem_DirectoryListing_readDirectoryNative(JNIEnv *env, jclass clazz,
+                                                                            jstring logTitle,
+                                                                            jbyteArray pathArray,
+                                                                            jboolean followLinks,
+                                                                            jobjectArray result) {
+    if (pathArray == NULL) {
+        return getJniResult(env, logTitle, -1, "readDirectoryNative(): Path passed is null");
+    }
+    if (result == NULL || env->GetArrayLength(result) < 2) {
+        return getJniResult(env, logTitle, -1, "readDirectoryNative(): Result array passed is invalid");
+    }
+
+    string path;
+    if (!get_path(env, pathArray, path)) {
+        if (env->ExceptionCheck()) return NULL;
+        return getJniResult(env, logTitle, -1, "readDirectoryNative(): Invalid path \"" + path + "\" passed");
+    }
+
+    int dir_fd = open(path.c_str(), O_RDONLY | O_DIRECTORY | O_CLOEXEC);
+    if (dir_fd == -1) {
+        return getJniResult(env, logTitle, -1, errno, "readDirectoryNative(): Failed to open directory \"" + path + "\"");
+    }
+
+    return read_directory(env, logTitle, "readDirectoryNative()", dir_fd, path, followLinks, result);
+}
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_file_filesystem_DirectoryListing_readDirectoryFdNative(JNIEnv *env, jclass clazz,
+                                                                              jstring logTitle,
+                                                                              jint fd,
+                                                                              jbyteArray pathArray,
+                                                                              jboolean followLinks,
+                                                                              jobjectArray result) {
+    if (result == NULL || env->GetArrayLength(result) < 2) {
+        return getJniResult(env, logTitle, -1, "readDirectoryFdNative(): Result array passed is invalid");
+    }
+
+    // The path is only used for errors
+    string path;
+    if (pathArray != NULL && !get_path(env, pathArray, path) && env->ExceptionCheck()) return NULL;
+
+    // Read a duplicate, since the directory stream closes its fd, but the fd of the caller is
+    // still needed to delete the entries relative to it. The duplicate shares the offset of the
+    // fd, so the stream is rewound in case the fd has been read before.
+    int dir_fd = fcntl(fd, F_DUPFD_CLOEXEC, 0);
+    if (dir_fd == -1) {
+        return getJniResult(env, logTitle, -1, errno, "readDirectoryFdNative(): Failed to duplicate fd of directory \"" + path + "\"");
+    }
+    if (lseek(dir_fd, 0, SEEK_SET) == -1) {
+        int errnoBackup = errno;
+        close(dir_fd);
+        return getJniResult(env, logTitle, -1, errnoBackup, "readDirectoryFdNative(): Failed to rewind directory \"" + path + "\"");
+    }
+
+    return read_directory(env, logTitle, "readDirectoryFdNative()", dir_fd, path, followLinks, result);
+}
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_file_filesystem_DirectoryListing_openDirectoryNative(JNIEnv *env, jclass clazz,
+                                                                            jstring logTitle,
+                                                                            jint dirFd,
+                                                                            jbyteArray nameArray) {
+    if (nameArray == NULL) {
+        return getJniResult(env, logTitle, -1, "openDirectoryNative(): Name passed is null");
+    }
+
+    string name;
+    if (!get_path(env, nameArray, name)) {
+        if (env->ExceptionCheck()) return NULL;
+        return getJniResult(env, logTitle, -1, "openDirectoryNative(): Invalid name \"" + name + "\" passed");
+    }
+
+    // Do not follow the name if it is a symlink, so that a directory replaced with a symlink
+    // after it was read is not opened
+    int fd = openat(dirFd, name.c_str(), O_RDONLY | O_DIRECTORY | O_NOFOLLOW | O_CLOEXEC);
+    if (fd == -1) {
+        return getJniResult(env, logTitle, -1, errno, "openDirectoryNative(): Failed to open directory \"" + name + "\"");
+    }
+
+    // Return the fd in JniResult.intData field
+    return getJniResult(env, logTitle, fd);
+}
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_file_filesystem_DirectoryListing_unlinkNative(JNIEnv *env, jclass clazz,
+                                                                     jstring logTitle,
+                                                                     jint dirFd,
+                                                                     jbyteArray nameArray,
+                                                                     jboolean isDirectory) {
+    if (nameArray == NULL) {
+        return getJniResult(env, logTitle, -1, "unlinkNative(): Name passed is null");
+    }
+
+    string name;
+    if (!get_path(env, nameArray, name)) {
+        if (env->ExceptionCheck()) return NULL;
+        return getJniResult(env, logTitle, -1, "unlinkNative(): Invalid name \"" + name + "\" passed");
+    }
+
+    if (unlinkat(dirFd, name.c_str(), isDirectory ? AT_REMOVEDIR : 0) == -1) {
+        return getJniResult(env, logTitle, -1, errno, "unlinkNative(): Failed to delete \"" + name + "\"");
+    }
+
+    return getJniResult(env, logTitle);
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_termux_shared_file_filesystem_DirectoryListing_closeNative(JNIEnv *env, jclass clazz, jint fd) {
+    close(fd);
+}
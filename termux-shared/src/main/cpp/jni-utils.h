@@ -0,0 +1,134 @@
+/*
+ * The helpers shared by the JNI libraries of termux-shared for logging, checking JNI exceptions
+ * and creating "com/termux/shared/jni/models/JniResult" objects.
+ *
+ * The LOG_TAG of the library must be defined before including this header.
+ */
+
+#ifndef TERMUX_SHARED_JNI_UTILS_H
+#define TERMUX_SHARED_JNI_UTILS_H
+
+#include <cstring>
+#include <jni.h>
+#include <string>
+
+#include <android/log.h>
+
+#ifndef LOG_TAG
+#error "LOG_TAG must be defined before including jni-utils.h"
+#endif
+
+
+/* Convert a jstring to a std:string. */
+inline std::string jstring_to_stdstr(JNIEnv *env, jstring jString) {
+    if (jString == NULL) return "";
+    jclass stringClass = env->FindClass("java/lang/String");
+    jmethodID getBytes = env->GetMethodID(stringClass, "getBytes", "()[B");
+    jbyteArray jStringBytesArray = (jbyteArray) env->CallObjectMethod(jString, getBytes);
+    jsize length = env->GetArrayLength(jStringBytesArray);
+    jbyte* jStringBytes = env->GetByteArrayElements(jStringBytesArray, nullptr);
+    std::string stdString((char *)jStringBytes, length);
+    env->ReleaseByteArrayElements(jStringBytesArray, jStringBytes, JNI_ABORT);
+    return stdString;
+}
+
+
+/* Send an ERROR log message to android logcat. */
+inline void log_error(std::string message) {
+    __android_log_write(ANDROID_LOG_ERROR, LOG_TAG, message.c_str());
+}
+
+/* Send an WARN log message to android logcat. */
+inline void log_warn(std::string message) {
+    __android_log_write(ANDROID_LOG_WARN, LOG_TAG, message.c_str());
+}
+
+/* Get "title: message" formatted string. */
+inline std::string get_title_and_message(JNIEnv *env, jstring title, std::string message) {
+    if (title)
+        message = jstring_to_stdstr(env, title) + ": " + message;
+    return message;
+}
+
+
+// Note: Exceptions thrown from JNI must be caught with Throwable class instead of Exception,
+// otherwise exception will be sent to UncaughtExceptionHandler of the thread.
+// Android studio complains that getJniResult functions always return nullptr since linter is broken
+// for jboolean and jobject if comparisons.
+inline bool checkJniException(JNIEnv *env) {
+    if (env->ExceptionCheck()) {
+        jthrowable throwable = env->ExceptionOccurred();
+        if (throwable != NULL) {
+            env->ExceptionClear();
+            env->Throw(throwable);
+            return true;
+        }
+    }
+
+    return false;
+}
+
+inline std::string getJniResultString(const int retvalParam, const int errnoParam,
+                                      std::string errmsgParam, const int intDataParam) {
+    return "retval=" + std::to_string(retvalParam) + ", errno=" + std::to_string(errnoParam) +
+           ", errmsg=\"" + errmsgParam + "\"" + ", intData=" + std::to_string(intDataParam);
+}
+
+/* Get "com/termux/shared/jni/models/JniResult" object that can be returned as result for a JNI call. */
+inline jobject getJniResult(JNIEnv *env, jstring title, const int retvalParam, const int errnoParam,
+                            std::string errmsgParam, const int intDataParam) {
+    jclass clazz = env->FindClass("com/termux/shared/jni/models/JniResult");
+    if (checkJniException(env)) return NULL;
+    if (!clazz) {
+        log_error(get_title_and_message(env, title,
+                                        "Failed to find JniResult class to create object for " +
+                                        getJniResultString(retvalParam, errnoParam, errmsgParam, intDataParam)));
+        return NULL;
+    }
+
+    jmethodID constructor = env->GetMethodID(clazz, "<init>", "(IILjava/lang/String;I)V");
+    if (checkJniException(env)) return NULL;
+    if (!constructor) {
+        log_error(get_title_and_message(env, title,
+                                        "Failed to get constructor for JniResult class to create object for " +
+                                        getJniResultString(retvalParam, errnoParam, errmsgParam, intDataParam)));
+        return NULL;
+    }
+
+    if (!errmsgParam.empty())
+        errmsgParam = get_title_and_message(env, title, std::string(errmsgParam));
+
+    jobject obj = env->NewObject(clazz, constructor, retvalParam, errnoParam, env->NewStringUTF(errmsgParam.c_str()), intDataParam);
+    if (checkJniException(env)) return NULL;
+    if (obj == NULL) {
+        log_error(get_title_and_message(env, title,
+                                        "Failed to get JniResult object for " +
+                                        getJniResultString(retvalParam, errnoParam, errmsgParam, intDataParam)));
+        return NULL;
+    }
+
+    return obj;
+}
+
+
+inline jobject getJniResult(JNIEnv *env, jstring title, const int retvalParam, const int errnoParam) {
+    return getJniResult(env, title, retvalParam, errnoParam, strerror(errnoParam), 0);
+}
+
+inline jobject getJniResult(JNIEnv *env, jstring title, const int retvalParam, std::string errmsgPrefixParam) {
+    return getJniResult(env, title, retvalParam, 0, errmsgPrefixParam, 0);
+}
+
+inline jobject getJniResult(JNIEnv *env, jstring title, const int retvalParam, const int errnoParam, std::string errmsgPrefixParam) {
+    return getJniResult(env, title, retvalParam, errnoParam, errmsgPrefixParam + ": " + std::string(strerror(errnoParam)), 0);
+}
+
+inline jobject getJniResult(JNIEnv *env, jstring title, const int intDataParam) {
+    return getJniResult(env, title, 0, 0, "", intDataParam);
+}
+
+inline jobject getJniResult(JNIEnv *env, jstring title) {
+    return getJniResult(env, title, 0, 0, "", 0);
+}
+
+#endif // TERMUX_SHARED_JNI_UTILS_H
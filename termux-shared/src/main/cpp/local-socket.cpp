@@ -1,4 +1,5 @@
 #include <cstdio>
+#include <cstring>
 #include <ctime>
 #include <cerrno>
 #include <jni.h>
@@ -6,8 +7,9 @@
 #include <string>
 #include <unistd.h>
 
-#include <android/log.h>
-
+#include <linux/sockios.h>
+#include <poll.h>
+#include <sys/epoll.h>
 #include <sys/ioctl.h>
 #include <sys/socket.h>
 #include <sys/types.h>
@@ -16,20 +18,13 @@
 #define LOG_TAG "local-socket"
 #define JNI_EXCEPTION "jni-exception"
 
-using namespace std;
+#include "jni-utils.h"
 
+/* The max number of fds returned by a single call to wait for or accept client sockets. */
+#define MAX_CLIENT_SOCKET_EVENTS 64
+
+using namespace std;
 
-/* Convert a jstring to a std:string. */
-string jstring_to_stdstr(JNIEnv *env, jstring jString) {
-    jclass stringClass = env->FindClass("java/lang/String");
-    jmethodID getBytes = env->GetMethodID(stringClass, "getBytes", "()[B");
-    jbyteArray jStringBytesArray = (jbyteArray) env->CallObjectMethod(jString, getBytes);
-    jsize length = env->GetArrayLength(jStringBytesArray);
-    jbyte* jStringBytes = env->GetByteArrayElements(jStringBytesArray, nullptr);
-    std::string stdString((char *)jStringBytes, length);
-    env->ReleaseByteArrayElements(jStringBytesArray, jStringBytes, JNI_ABORT);
-    return stdString;
-}
 
 /* Get characters before first occurrence of the delim in a std:string. */
 string get_string_till_first_delim(string str, char delim) {
@@ -105,24 +100,6 @@ string get_process_cmdline_spaced(string cmdline) {
 }
 
 
-/* Send an ERROR log message to android logcat. */
-void log_error(string message) {
-    __android_log_write(ANDROID_LOG_ERROR, LOG_TAG, message.c_str());
-}
-
-/* Send an WARN log message to android logcat. */
-void log_warn(string message) {
-    __android_log_write(ANDROID_LOG_WARN, LOG_TAG, message.c_str());
-}
-
-/* Get "title: message" formatted string. */
-string get_title_and_message(JNIEnv *env, jstring title, string message) {
-    if (title)
-        message = jstring_to_stdstr(env, title) + ": " + message;
-    return message;
-}
-
-
 /* Convert timespec to milliseconds. */
 int64_t timespec_to_milliseconds(const struct timespec* const time) {
     return (((int64_t)time->tv_sec) * 1000) + (((int64_t)time->tv_nsec)/1000000);
@@ -137,87 +114,6 @@ timeval milliseconds_to_timeval(int milliseconds) {
 }
 
 
-// Note: Exceptions thrown from JNI must be caught with Throwable class instead of Exception,
-// otherwise exception will be sent to UncaughtExceptionHandler of the thread.
-// Android studio complains that getJniResult functions always return nullptr since linter is broken
-// for jboolean and jobject if comparisons.
-bool checkJniException(JNIEnv *env) {
-    if (env->ExceptionCheck()) {
-        jthrowable throwable = env->ExceptionOccurred();
-        if (throwable != NULL) {
-            env->ExceptionClear();
-            env->Throw(throwable);
-            return true;
-        }
-    }
-
-    return false;
-}
-
-string getJniResultString(const int retvalParam, const int errnoParam,
-                          string errmsgParam, const int intDataParam) {
-    return "retval=" + to_string(retvalParam) + ", errno=" + to_string(errnoParam) +
-           ", errmsg=\"" + errmsgParam + "\"" + ", intData=" + to_string(intDataParam);
-}
-
-/* Get "com/termux/shared/jni/models/JniResult" object that can be returned as result for a JNI call. */
-jobject getJniResult(JNIEnv *env, jstring title, const int retvalParam, const int errnoParam,
-                     string errmsgParam, const int intDataParam) {
-    jclass clazz = env->FindClass("com/termux/shared/jni/models/JniResult");
-    if (checkJniException(env)) return NULL;
-    if (!clazz) {
-        log_error(get_title_and_message(env, title,
-                                        "Failed to find JniResult class to create object for " +
-                                        getJniResultString(retvalParam, errnoParam, errmsgParam, intDataParam)));
-        return NULL;
-    }
-
-    jmethodID constructor = env->GetMethodID(clazz, "<init>", "(IILjava/lang/String;I)V");
-    if (checkJniException(env)) return NULL;
-    if (!constructor) {
-        log_error(get_title_and_message(env, title,
-                                        "Failed to get constructor for JniResult class to create object for " +
-                                        getJniResultString(retvalParam, errnoParam, errmsgParam, intDataParam)));
-        return NULL;
-    }
-
-    if (!errmsgParam.empty())
-        errmsgParam = get_title_and_message(env, title, string(errmsgParam));
-
-    jobject obj = env->NewObject(clazz, constructor, retvalParam, errnoParam, env->NewStringUTF(errmsgParam.c_str()), intDataParam);
-    if (checkJniException(env)) return NULL;
-    if (obj == NULL) {
-        log_error(get_title_and_message(env, title,
-                                        "Failed to get JniResult object for " +
-                                        getJniResultString(retvalParam, errnoParam, errmsgParam, intDataParam)));
-        return NULL;
-    }
-
-    return obj;
-}
-
-
-jobject getJniResult(JNIEnv *env, jstring title, const int retvalParam, const int errnoParam) {
-    return getJniResult(env, title, retvalParam, errnoParam, strerror(errnoParam), 0);
-}
-
-jobject getJniResult(JNIEnv *env, jstring title, const int retvalParam, string errmsgPrefixParam) {
-    return getJniResult(env, title, retvalParam, 0, errmsgPrefixParam, 0);
-}
-
-jobject getJniResult(JNIEnv *env, jstring title, const int retvalParam, const int errnoParam, string errmsgPrefixParam) {
-    return getJniResult(env, title, retvalParam, errnoParam, errmsgPrefixParam + ": " + string(strerror(errnoParam)), 0);
-}
-
-jobject getJniResult(JNIEnv *env, jstring title, const int intDataParam) {
-    return getJniResult(env, title, 0, 0, "", intDataParam);
-}
-
-jobject getJniResult(JNIEnv *env, jstring title) {
-    return getJniResult(env, title, 0, 0, "", 0);
-}
-
-
 /* Set int fieldName field for clazz to value. */
 string setIntField(JNIEnv *env, jobject obj, jclass clazz, const string fieldName, const int value) {
     jfieldID field = env->GetFieldID(clazz, fieldName.c_str(), "I");
@@ -348,6 +244,162 @@ Java_com_termux_shared_net_socket_local_LocalSocketManager_acceptNative(JNIEnv *
     return getJniResult(env, logTitle, clientFd);
 }
 
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_net_socket_local_LocalSocketManager_createEpollNative(JNIEnv *env, jclass clazz,
+                                                                             jstring logTitle, jint serverFd) {
+    if (serverFd < 0) {
+        return getJniResult(env, logTitle, -1, "createEpollNative(): Invalid server fd \"" + to_string(serverFd) + "\" passed");
+    }
+
+    int epollFd = epoll_create1(EPOLL_CLOEXEC);
+    if (epollFd == -1) {
+        return getJniResult(env, logTitle, -1, errno, "createEpollNative(): Create epoll instance failed");
+    }
+
+    // Wait for new client sockets on the server socket
+    struct epoll_event event = {};
+    event.events = EPOLLIN;
+    event.data.fd = serverFd;
+    if (epoll_ctl(epollFd, EPOLL_CTL_ADD, serverFd, &event) == -1) {
+        int errnoBackup = errno;
+        close(epollFd);
+        return getJniResult(env, logTitle, -1, errnoBackup,
+                            "createEpollNative(): Failed to add server socket fd " + to_string(serverFd) + " to epoll instance");
+    }
+
+    // Return success and epoll fd in JniResult.intData field
+    return getJniResult(env, logTitle, epollFd);
+}
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_net_socket_local_LocalSocketManager_addEpollClientSocketNative(JNIEnv *env, jclass clazz,
+                                                                                      jstring logTitle,
+                                                                                      jint epollFd, jint fd) {
+    if (epollFd < 0) {
+        return getJniResult(env, logTitle, -1, "addEpollClientSocketNative(): Invalid epoll fd \"" + to_string(epollFd) + "\" passed");
+    }
+    if (fd < 0) {
+        return getJniResult(env, logTitle, -1, "addEpollClientSocketNative(): Invalid fd \"" + to_string(fd) + "\" passed");
+    }
+
+    // Wait until the client sends data or closes its writing end
+    struct epoll_event event = {};
+    event.events = EPOLLIN | EPOLLRDHUP;
+    event.data.fd = fd;
+    if (epoll_ctl(epollFd, EPOLL_CTL_ADD, fd, &event) == -1) {
+        return getJniResult(env, logTitle, -1, errno,
+                            "addEpollClientSocketNative(): Failed to add client socket fd " + to_string(fd) + " to epoll instance");
+    }
+
+    // Return success
+    return getJniResult(env, logTitle);
+}
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_net_socket_local_LocalSocketManager_waitForClientSocketsNative(JNIEnv *env, jclass clazz,
+                                                                                      jstring logTitle,
+                                                                                      jint epollFd, jint serverFd,
+                                                                                      jintArray readyFdsArray,
+                                                                                      jint timeout) {
+    if (epollFd < 0) {
+        return getJniResult(env, logTitle, -1, "waitForClientSocketsNative(): Invalid epoll fd \"" + to_string(epollFd) + "\" passed");
+    }
+
+    int maxEvents = env->GetArrayLength(readyFdsArray);
+    if (checkJniException(env)) return NULL;
+    if (maxEvents < 1) {
+        return getJniResult(env, logTitle, -1, "waitForClientSocketsNative(): readyFds passed is empty");
+    }
+    if (maxEvents > MAX_CLIENT_SOCKET_EVENTS)
+        maxEvents = MAX_CLIENT_SOCKET_EVENTS;
+
+    struct epoll_event events[MAX_CLIENT_SOCKET_EVENTS];
+    int count = epoll_wait(epollFd, events, maxEvents, timeout);
+    if (count == -1) {
+        // Interrupted by a signal, so just return that no fd is ready
+        if (errno == EINTR)
+            return getJniResult(env, logTitle, 0);
+        return getJniResult(env, logTitle, -1, errno, "waitForClientSocketsNative(): Failed to wait on epoll fd " + to_string(epollFd));
+    }
+
+    jint readyFds[MAX_CLIENT_SOCKET_EVENTS];
+    for (int i = 0; i < count; i++) {
+        readyFds[i] = events[i].data.fd;
+        // Client sockets are only waited for until they are ready to be read from, after which
+        // they are handled by the client threads
+        if (readyFds[i] != serverFd)
+            epoll_ctl(epollFd, EPOLL_CTL_DEL, readyFds[i], nullptr);
+    }
+
+    if (count > 0) {
+        env->SetIntArrayRegion(readyFdsArray, 0, count, readyFds);
+        if (checkJniException(env)) return NULL;
+    }
+
+    // Return success and number of ready fds in JniResult.intData field
+    return getJniResult(env, logTitle, count);
+}
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_net_socket_local_LocalSocketManager_acceptClientSocketsNative(JNIEnv *env, jclass clazz,
+                                                                                     jstring logTitle, jint fd,
+                                                                                     jintArray clientFdsArray) {
+    if (fd < 0) {
+        return getJniResult(env, logTitle, -1, "acceptClientSocketsNative(): Invalid fd \"" + to_string(fd) + "\" passed");
+    }
+
+    int maxClients = env->GetArrayLength(clientFdsArray);
+    if (checkJniException(env)) return NULL;
+    if (maxClients < 1) {
+        return getJniResult(env, logTitle, -1, "acceptClientSocketsNative(): clientFds passed is empty");
+    }
+    if (maxClients > MAX_CLIENT_SOCKET_EVENTS)
+        maxClients = MAX_CLIENT_SOCKET_EVENTS;
+
+    jint clientFds[MAX_CLIENT_SOCKET_EVENTS];
+    int count = 0;
+    while (count < maxClients) {
+        // Only accept client sockets that are already pending so that the call does not block
+        struct pollfd pfd = {.fd = fd, .events = POLLIN};
+        int ret = poll(&pfd, 1, 0);
+        if (ret == -1 && errno == EINTR)
+            continue;
+        if (ret <= 0 || !(pfd.revents & POLLIN))
+            break;
+
+        int clientFd = accept4(fd, nullptr, nullptr, SOCK_CLOEXEC);
+        if (clientFd == -1) {
+            if (errno == EINTR || errno == ECONNABORTED)
+                continue;
+            if (errno == EAGAIN || errno == EWOULDBLOCK)
+                break;
+            // Return the client sockets already accepted, the next call will return the error
+            if (count > 0)
+                break;
+            return getJniResult(env, logTitle, -1, errno, "acceptClientSocketsNative(): Failed to accept client on fd " + to_string(fd));
+        }
+
+        clientFds[count++] = clientFd;
+    }
+
+    if (count > 0) {
+        env->SetIntArrayRegion(clientFdsArray, 0, count, clientFds);
+        if (env->ExceptionCheck()) {
+            for (int i = 0; i < count; i++)
+                close(clientFds[i]);
+            checkJniException(env);
+            return NULL;
+        }
+    }
+
+    // Return success and number of client sockets accepted in JniResult.intData field
+    return getJniResult(env, logTitle, count);
+}
+
 extern "C"
 JNIEXPORT jobject JNICALL
 Java_com_termux_shared_net_socket_local_LocalSocketManager_readNative(JNIEnv *env, jclass clazz,
@@ -365,11 +417,10 @@ Java_com_termux_shared_net_socket_local_LocalSocketManager_readNative(JNIEnv *en
     }
 
     struct timespec time = {};
-    jbyte* current = data;
     int bytes = env->GetArrayLength(dataArray);
     if (checkJniException(env)) return NULL;
     int bytesRead = 0;
-    while (bytesRead < bytes) {
+    while (true) {
         if (deadline > 0) {
             if (clock_gettime(CLOCK_REALTIME, &time) != -1) {
                 // If current time is greater than the time defined in deadline
@@ -386,21 +437,20 @@ Java_com_termux_shared_net_socket_local_LocalSocketManager_readNative(JNIEnv *en
             }
         }
 
-        // Read data from socket
-        int ret = read(fd, current, bytes);
+        // Read data from socket. Return as soon as any data has been read instead of waiting for
+        // the data buffer to be filled, so that callers can read in bulk with large buffers.
+        int ret = read(fd, data, bytes);
         if (ret == -1) {
+            if (errno == EINTR)
+                continue;
             int errnoBackup = errno;
             env->ReleaseByteArrayElements(dataArray, data, 0);
             if (checkJniException(env)) return NULL;
             return getJniResult(env, logTitle, -1, errnoBackup, "readNative(): Failed to read on fd "  + to_string(fd));
         }
-        // EOF, peer closed writing end
-        if (ret == 0) {
-            break;
-        }
-
-        bytesRead += ret;
-        current += ret;
+        // Zero if EOF, peer closed writing end
+        bytesRead = ret;
+        break;
     }
 
     env->ReleaseByteArrayElements(dataArray, data, 0);
@@ -0,0 +1,286 @@
+#include <cerrno>
+#include <csignal>
+#include <cstdlib>
+#include <cstdint>
+#include <cstring>
+#include <dirent.h>
+#include <fcntl.h>
+#include <jni.h>
+#include <string>
+#include <unistd.h>
+#include <vector>
+
+#include <sys/syscall.h>
+#include <sys/types.h>
+#include <sys/wait.h>
+
+#define LOG_TAG "process-spawner"
+
+#include "jni-utils.h"
+
+/* The flag to merge the stderr of the process into its stdout, like ProcessBuilder.redirectErrorStream(). */
+#define FLAG_REDIRECT_ERROR_STREAM 1
+/* The flag to use /dev/null as the stdin of the process instead of a pipe. */
+#define FLAG_NULL_STDIN 2
+
+using namespace std;
+
+
+
+/*
+ * Convert a byte[][] of strings to C strings owned by strings, and a null terminated array of
+ * pointers to them in pointers, as required by execve().
+ */
+static bool get_c_string_array(JNIEnv *env, jobjectArray array, vector<string> &strings, vector<char*> &pointers) {
+    jsize length = array ? env->GetArrayLength(array) : 0;
+    strings.reserve(length);
+    for (jsize i = 0; i < length; i++) {
+        auto bytesArray = (jbyteArray) env->GetObjectArrayElement(array, i);
+        if (checkJniException(env)) return false;
+        jsize bytesLength = bytesArray ? env->GetArrayLength(bytesArray) : 0;
+        string bytes(bytesLength, '\0');
+        if (bytesLength > 0)
+            env->GetByteArrayRegion(bytesArray, 0, bytesLength, reinterpret_cast<jbyte*>(&bytes[0]));
+        if (checkJniException(env)) return false;
+        env->DeleteLocalRef(bytesArray);
+        strings.push_back(bytes);
+    }
+
+    pointers.reserve(length + 1);
+    for (string &s : strings)
+        pointers.push_back(&s[0]);
+    pointers.push_back(nullptr);
+    return true;
+}
+
+/*
+ * Get the open fds of the current process. They are closed in the child after vfork(), since
+ * opendir() cannot be used there, but not all fds of the app have FD_CLOEXEC set.
+ */
+static vector<int> get_open_fds() {
+    vector<int> fds;
+    DIR* self_dir = opendir("/proc/self/fd");
+    if (self_dir != NULL) {
+        int self_dir_fd = dirfd(self_dir);
+        struct dirent* entry;
+        while ((entry = readdir(self_dir)) != NULL) {
+            int fd = atoi(entry->d_name);
+            if (fd > 2 && fd != self_dir_fd) fds.push_back(fd);
+        }
+        closedir(self_dir);
+    }
+    return fds;
+}
+
+/* Make sure that the fd is not one of the stdio fds, so that it is not overwritten when they are set in the child. */
+static bool move_above_stdio(int &fd) {
+    if (fd < 0 || fd > 2) return true;
+    int newFd = fcntl(fd, F_DUPFD_CLOEXEC, 3);
+    if (newFd == -1) return false;
+    close(fd);
+    fd = newFd;
+    return true;
+}
+
+static void close_fd(int &fd) {
+    if (fd >= 0) {
+        close(fd);
+        fd = -1;
+    }
+}
+
+/*
+ * The struct sigaction of the kernel for the rt_sigaction system call. The handler is the first
+ * field on all architectures, and a zeroed struct is SIG_DFL without flags or blocked signals,
+ * which is all that is used, so it is larger than needed for architectures without sa_restorer.
+ */
+struct kernel_sigaction {
+    void* handler;
+    unsigned long flags;
+    void* restorer;
+    uint64_t mask;
+};
+
+/*
+ * Reset the signals ignored by the app to SIG_DFL in the child after vfork(), since they stay
+ * ignored after execve(), unlike signals with handlers, which are reset by it.
+ *
+ * The rt_sigaction system call is used directly instead of sigaction(), since the latter is
+ * intercepted by the libsigchain of the runtime, which would update its handlers in the memory
+ * that the child shares with the app.
+ */
+static void reset_ignored_signals() {
+    for (int signal = 1; signal < NSIG; signal++) {
+        struct kernel_sigaction action = {};
+        if (syscall(SYS_rt_sigaction, signal, nullptr, &action, sizeof(action.mask)) == 0 &&
+            action.handler == reinterpret_cast<void*>(SIG_IGN)) {
+            struct kernel_sigaction defaultAction = {};
+            syscall(SYS_rt_sigaction, signal, &defaultAction, nullptr, sizeof(defaultAction.mask));
+        }
+    }
+}
+
+
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_shell_NativeProcess_spawnNative(JNIEnv *env, jclass clazz,
+                                                       jstring logTitle,
+                                                       jobjectArray argvArray,
+                                                       jobjectArray envpArray,
+                                                       jbyteArray cwdArray,
+                                                       jint flags,
+                                                       jintArray fdsArray) {
+    // Everything the child needs must be prepared before vfork(), since the child shares the
+    // memory of the app till it calls execve() and must only make system calls
+    vector<string> argvStrings, envpStrings, cwdStrings;
+    vector<char*> argv, envp, cwd;
+    if (!get_c_string_array(env, argvArray, argvStrings, argv)) return NULL;
+    if (!get_c_string_array(env, envpArray, envpStrings, envp)) return NULL;
+    if (argv.size() < 2 || argvStrings[0].empty()) {
+        return getJniResult(env, logTitle, -1, "spawnNative(): Executable not passed");
+    }
+
+    jsize cwdLength = cwdArray ? env->GetArrayLength(cwdArray) : 0;
+    string cwdString(cwdLength, '\0');
+    if (cwdLength > 0)
+        env->GetByteArrayRegion(cwdArray, 0, cwdLength, reinterpret_cast<jbyte*>(&cwdString[0]));
+    if (checkJniException(env)) return NULL;
+
+    int stdinFds[2] = {-1, -1};
+    int stdoutFds[2] = {-1, -1};
+    int stderrFds[2] = {-1, -1};
+    bool failed;
+    if (flags & FLAG_NULL_STDIN)
+        failed = (stdinFds[0] = open("/dev/null", O_RDONLY | O_CLOEXEC)) == -1;
+    else
+        failed = pipe2(stdinFds, O_CLOEXEC) == -1;
+    failed = failed || pipe2(stdoutFds, O_CLOEXEC) == -1;
+    if (!(flags & FLAG_REDIRECT_ERROR_STREAM))
+        failed = failed || pipe2(stderrFds, O_CLOEXEC) == -1;
+    for (int* fd : {&stdinFds[0], &stdinFds[1], &stdoutFds[0], &stdoutFds[1], &stderrFds[0], &stderrFds[1]})
+        failed = failed || !move_above_stdio(*fd);
+    if (failed) {
+        int errnoBackup = errno;
+        for (int* fd : {&stdinFds[0], &stdinFds[1], &stdoutFds[0], &stdoutFds[1], &stderrFds[0], &stderrFds[1]})
+            close_fd(*fd);
+        return getJniResult(env, logTitle, -1, errnoBackup, "spawnNative(): Failed to create process pipes");
+    }
+
+    // Get the open fds after creating the pipes, so that fds opened by other threads of the app
+    // in the meantime are also closed in the child. The pipe fds are closed too, after being
+    // duplicated to the stdio fds.
+    vector<int> fdsToClose = get_open_fds();
+
+    // Block all signals so that no signal handler of the app runs in the child while it shares
+    // the memory of the app
+    sigset_t allSignals, oldSignals, noSignals;
+    sigfillset(&allSignals);
+    sigemptyset(&noSignals);
+    pthread_sigmask(SIG_SETMASK, &allSignals, &oldSignals);
+
+    volatile int childErrno = 0;
+    const char* volatile childFailedCall = nullptr;
+
+    pid_t pid = vfork();
+    if (pid == 0) {
+        reset_ignored_signals();
+
+        // dup2() clears FD_CLOEXEC for the stdio fds, while all other pipe fds are closed by execve()
+        if (dup2(stdinFds[0], 0) == -1 || dup2(stdoutFds[1], 1) == -1 ||
+            dup2(flags & FLAG_REDIRECT_ERROR_STREAM ? stdoutFds[1] : stderrFds[1], 2) == -1) {
+            childErrno = errno;
+            childFailedCall = "dup2()";
+            _exit(127);
+        }
+
+        for (int fd : fdsToClose)
+            close(fd);
+
+        // Clear signals which the Android java process may have blocked
+        sigprocmask(SIG_SETMASK, &noSignals, nullptr);
+
+        if (!cwdString.empty() && chdir(cwdString.c_str()) == -1) {
+            childErrno = errno;
+            childFailedCall = "chdir()";
+            _exit(127);
+        }
+
+        execve(argv[0], argv.data(), envp.data());
+        childErrno = errno;
+        childFailedCall = "execve()";
+        _exit(127);
+    }
+
+    int vforkErrno = errno;
+    pthread_sigmask(SIG_SETMASK, &oldSignals, nullptr);
+
+    close_fd(stdinFds[0]);
+    close_fd(stdoutFds[1]);
+    close_fd(stderrFds[1]);
+
+    if (pid == -1 || childErrno != 0) {
+        close_fd(stdinFds[1]);
+        close_fd(stdoutFds[0]);
+        close_fd(stderrFds[0]);
+        if (pid == -1)
+            return getJniResult(env, logTitle, -1, vforkErrno, "spawnNative(): vfork() failed");
+
+        // Reap the child that failed to execute
+        while (waitpid(pid, nullptr, 0) == -1 && errno == EINTR);
+        return getJniResult(env, logTitle, -1, childErrno, "spawnNative(): " + string(childFailedCall) +
+            " failed for \"" + argvStrings[0] + "\" in \"" + cwdString + "\"");
+    }
+
+    // Return the stdin, stdout and stderr fds of the process in fdsArray, which will be -1 if
+    // not created, and the pid in JniResult.intData field
+    jint parentFds[3] = {stdinFds[1], stdoutFds[0], stderrFds[0]};
+    env->SetIntArrayRegion(fdsArray, 0, 3, parentFds);
+    if (checkJniException(env)) {
+        for (int* fd : {&stdinFds[1], &stdoutFds[0], &stderrFds[0]})
+            close_fd(*fd);
+        log_error(get_title_and_message(env, logTitle, "spawnNative(): Failed to return fds for process with pid " + to_string(pid)));
+        kill(pid, SIGKILL);
+        while (waitpid(pid, nullptr, 0) == -1 && errno == EINTR);
+        return NULL;
+    }
+
+    return getJniResult(env, logTitle, (int) pid);
+}
+
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_com_termux_shared_shell_NativeProcess_waitForNative(JNIEnv *env, jclass clazz,
+                                                         jstring logTitle, jint pid, jboolean block) {
+    if (pid <= 0) {
+        return getJniResult(env, logTitle, -1, "waitForNative(): Invalid pid \"" + to_string(pid) + "\" passed");
+    }
+
+    // If block is set, then only wait for the process to exit without reaping it, so that it is
+    // only reaped by the caller that calls again without block while holding the lock of the process
+    if (block) {
+        siginfo_t info = {};
+        while (waitid(P_PID, pid, &info, WEXITED | WNOWAIT) == -1) {
+            if (errno != EINTR)
+                return getJniResult(env, logTitle, -1, errno, "waitForNative(): Failed to wait for process with pid " + to_string(pid));
+        }
+        return getJniResult(env, logTitle, -1);
+    }
+
+    int status = 0;
+    pid_t result;
+    while ((result = waitpid(pid, &status, WNOHANG)) == -1 && errno == EINTR);
+    if (result == -1)
+        return getJniResult(env, logTitle, -1, errno, "waitForNative(): Failed to reap process with pid " + to_string(pid));
+
+    // Return -1 in JniResult.intData field if the process has not exited, otherwise its exit code
+    // like the java.lang.Process one, which is 128 + signal number if it was killed by a signal
+    if (result == 0)
+        return getJniResult(env, logTitle, -1);
+    else if (WIFEXITED(status))
+        return getJniResult(env, logTitle, WEXITSTATUS(status));
+    else if (WIFSIGNALED(status))
+        return getJniResult(env, logTitle, 0x80 + WTERMSIG(status));
+    else
+        return getJniResult(env, logTitle, status);
+}
@@ -22,6 +22,9 @@ public class CrashHandler implements Thread.UncaughtExceptionHandler {
     private final Thread.UncaughtExceptionHandler mDefaultUEH;
     private final boolean mIsDefaultHandler;
 
+    /** The max time to wait for pending log entries to be written after a crash is logged. */
+    private static final long FLUSH_LOGS_TIMEOUT = 1000;
+
     private static final String LOG_TAG = "CrashUtils";
 
     private CrashHandler(@NonNull final Context context, @NonNull final CrashHandlerClient crashHandlerClient,
@@ -84,6 +87,9 @@ public class CrashHandler implements Thread.UncaughtExceptionHandler {
             logCrashToFile(mContext, mCrashHandlerClient, thread, throwable);
             mCrashHandlerClient.onPostLogCrash(mContext, thread, throwable);
         }
+
+        // Write any pending log entries, since the app may be about to be killed
+        Logger.flushAsyncLogWriter(FLUSH_LOGS_TIMEOUT);
     }
 
     public void logCrashToFile(@NonNull Context context,
@@ -0,0 +1,71 @@
+package com.termux.shared.data;
+
+import androidx.annotation.NonNull;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link InputStream} that reads the remaining bytes of a {@link ByteBuffer}, like a direct
+ * buffer over native memory, without copying them to the heap first like a
+ * {@link java.io.ByteArrayInputStream} requires.
+ *
+ * The stream reads from its own duplicate of the buffer, so the position of the buffer passed is
+ * not changed and multiple streams can read the same buffer at the same time.
+ */
+public class ByteBufferInputStream extends InputStream {
+
+    @NonNull private final ByteBuffer mBuffer;
+    private int mMark;
+
+    public ByteBufferInputStream(@NonNull ByteBuffer buffer) {
+        mBuffer = buffer.duplicate();
+        mMark = mBuffer.position();
+    }
+
+    @Override
+    public int read() {
+        if (!mBuffer.hasRemaining()) return -1;
+        return mBuffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(@NonNull byte[] bytes, int offset, int length) {
+        if (length == 0) return 0;
+        if (!mBuffer.hasRemaining()) return -1;
+
+        length = Math.min(length, mBuffer.remaining());
+        mBuffer.get(bytes, offset, length);
+        return length;
+    }
+
+    @Override
+    public long skip(long count) {
+        if (count <= 0) return 0;
+
+        int skipped = (int) Math.min(count, mBuffer.remaining());
+        mBuffer.position(mBuffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return mBuffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        mMark = mBuffer.position();
+    }
+
+    @Override
+    public synchronized void reset() {
+        mBuffer.position(mMark);
+    }
+
+}
@@ -0,0 +1,575 @@
+package com.termux.shared.file;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructStat;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.file.filesystem.DirectoryListing;
+import com.termux.shared.file.filesystem.FileType;
+import com.termux.shared.file.filesystem.FileTypes;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Copy or delete a file, or the tree of a directory, in parallel.
+ *
+ * Every directory is read in one batch by {@link DirectoryListing} without following symlinks and
+ * is a {@link RecursiveAction} of a work stealing {@link ForkJoinPool}, so that idle threads take
+ * over the sub directories, and the large files for {@link Type#COPY}, of busy ones.
+ *
+ * - {@link Type#COPY}: Directories are created, regular files are copied with
+ *   {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, which the
+ *   kernel does with `sendfile()` without copying to the heap, and symlinks are created again with
+ *   the same target. The permissions and last modified time of files and directories are kept,
+ *   and those of directories are set after their sub files have been copied. Other file types,
+ *   like sockets and fifos, are skipped. If the destination is under the source directory, then it
+ *   is not copied into itself.
+ * - {@link Type#DELETE}: Delete the file, or the directory after its sub files. The targets of
+ *   symlinks are never deleted.
+ * - {@link Type#DELETE_CONTENTS}: Delete the sub files of the directory but not the directory.
+ *
+ * For the delete types, every directory is opened relative to the fd of its parent without
+ * following symlinks, and its sub files are deleted relative to its own fd with the
+ * {@link DirectoryListing} library, like {@link java.nio.file.SecureDirectoryStream} does, so
+ * that if a directory is replaced with a symlink while the tree is being deleted, then the files
+ * of the target of the symlink are not deleted. Only the last component of the source path itself
+ * is not followed. If the library cannot be loaded, then the files are deleted by their paths,
+ * which does not protect against such a race.
+ *
+ * Operations run with the default number of threads share a pool whose threads exit when idle,
+ * instead of starting new threads for every operation.
+ *
+ * The progress can be reported to a {@link ProgressListener} and the operation can be cancelled
+ * with {@link #cancel()} from another thread. On the first failure, the remaining files are not
+ * processed and {@link #run()} throws the exception, leaving the files already processed.
+ */
+public class FileTreeOperation {
+
+    /** The type of a {@link FileTreeOperation}. */
+    public enum Type {
+
+        COPY("copy"),
+        DELETE("delete"),
+        DELETE_CONTENTS("delete contents");
+
+        private final String name;
+
+        Type(final String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+    }
+
+    /** The listener for the progress of a {@link FileTreeOperation}. */
+    public interface ProgressListener {
+
+        /**
+         * Called on one of the operation threads at most every {@link #PROGRESS_INTERVAL} ms
+         * while the operation is running, and on the thread of {@link #run()} once it has finished.
+         *
+         * @param files The number of files, directories and symlinks processed.
+         * @param bytes The size of the regular files processed.
+         */
+        void onProgress(long files, long bytes);
+
+    }
+
+    /** The minimum interval between calls to {@link ProgressListener#onProgress(long, long)}. */
+    public static final long PROGRESS_INTERVAL = 100;
+
+    /**
+     * The size of a regular file at and above which it is copied by its own task, so that the
+     * large files of a directory are copied in parallel. Smaller files are copied by the task of
+     * their directory.
+     */
+    private static final long FILE_TASK_MIN_SIZE = 256 * 1024;
+
+    /** The maximum size copied by one {@link FileChannel#transferTo} call, so that cancellation is checked in between. */
+    private static final long TRANSFER_SIZE = 8 * 1024 * 1024;
+
+    /** The pool shared by the operations run with the default number of threads. */
+    private static ForkJoinPool sSharedPool;
+
+    @NonNull private final Type mType;
+    @NonNull private final String mSrcPath;
+    @Nullable private final String mDestPath;
+    private final int mThreads;
+    /** Whether the {@link #sSharedPool} is used instead of a pool for the operation. */
+    private final boolean mUseSharedPool;
+    /** Whether the files are deleted relative to the fds of their directories. */
+    private final boolean mDeleteRelativeToDirectories;
+    @Nullable private ProgressListener mProgressListener;
+
+    /** The path under the source directory that must not be copied since it is the destination. */
+    @Nullable private String mExcludedPath;
+
+    @NonNull private final AtomicBoolean mCancelled = new AtomicBoolean();
+    @NonNull private final AtomicReference<IOException> mError = new AtomicReference<>();
+    @NonNull private final AtomicLong mLastProgressTime = new AtomicLong();
+
+    @NonNull private final AtomicLong mFiles = new AtomicLong();
+    @NonNull private final AtomicLong mDirectories = new AtomicLong();
+    @NonNull private final AtomicLong mSymlinks = new AtomicLong();
+    @NonNull private final AtomicLong mSkipped = new AtomicLong();
+    @NonNull private final AtomicLong mBytes = new AtomicLong();
+
+    /**
+     * Create a {@link FileTreeOperation}.
+     *
+     * @param type The {@link Type} of the operation.
+     * @param srcPath The path to the file or directory to copy or delete. Symlinks are not followed.
+     * @param destPath The path to copy to for {@link Type#COPY}, which must not exist, but its
+     *                 parent directory must. It is ignored for other types.
+     * @param threads The number of threads. If {@code <= 0}, then the shared pool with the number
+     *                of available processors is used.
+     */
+    public FileTreeOperation(@NonNull Type type, @NonNull String srcPath, @Nullable String destPath, int threads) {
+        this(type, srcPath, destPath, threads, DirectoryListing.loadLibrary());
+    }
+
+    /**
+     * Create a {@link FileTreeOperation}, deleting by paths instead of relative to the fds of the
+     * directories if {@code deleteRelativeToDirectories} is {@code false}, like if the
+     * {@link DirectoryListing} library cannot be loaded.
+     */
+    FileTreeOperation(@NonNull Type type, @NonNull String srcPath, @Nullable String destPath, int threads,
+                      boolean deleteRelativeToDirectories) {
+        mType = type;
+        mSrcPath = srcPath;
+        mDestPath = type == Type.COPY ? destPath : null;
+        mUseSharedPool = threads <= 0;
+        mThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        mDeleteRelativeToDirectories = type != Type.COPY && deleteRelativeToDirectories;
+    }
+
+    /** Get the pool shared by the operations run with the default number of threads, whose threads exit when idle. */
+    @NonNull
+    private static synchronized ForkJoinPool getSharedPool() {
+        if (sSharedPool == null) {
+            sSharedPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("FileTreeOperation-" + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+        }
+        return sSharedPool;
+    }
+
+    /** Set the {@link ProgressListener}. */
+    public void setProgressListener(@Nullable ProgressListener progressListener) {
+        mProgressListener = progressListener;
+    }
+
+    /** Cancel the operation, after which {@link #run()} throws an {@link InterruptedIOException}. */
+    public void cancel() {
+        mCancelled.set(true);
+    }
+
+    /** Whether the operation has been cancelled. */
+    public boolean isCancelled() {
+        return mCancelled.get();
+    }
+
+    /**
+     * Run the operation.
+     *
+     * @return Returns the {@link Stats} of the operation.
+     * @throws IOException If the operation failed or was cancelled.
+     */
+    @NonNull
+    public Stats run() throws IOException {
+        long startTime = System.nanoTime();
+
+        if (mType == Type.COPY && (mDestPath == null || mDestPath.isEmpty()))
+            throw new IOException("The destination path is null or empty");
+
+        StructStat srcStat;
+        try {
+            srcStat = Os.lstat(mSrcPath);
+        } catch (ErrnoException e) {
+            if (e.errno == OsConstants.ENOENT)
+                throw new FileNotFoundException("\"" + mSrcPath + "\" not found");
+            throw toIOException("stat", mSrcPath, e);
+        }
+
+        FileType srcFileType = FileTypes.getFileType(srcStat.st_mode);
+        if (srcFileType != FileType.DIRECTORY) {
+            if (mType == Type.DELETE_CONTENTS)
+                throw new IOException("\"" + mSrcPath + "\" is not a directory");
+            processFile(mSrcPath, mDestPath, srcFileType, srcStat.st_mode, srcStat.st_size, srcStat.st_mtime * 1000);
+        } else {
+            if (mType == Type.COPY) {
+                // Do not copy the destination into itself if it is under the source directory
+                String srcCanonicalPath = new File(mSrcPath).getCanonicalPath();
+                String destCanonicalPath = new File(mDestPath).getCanonicalPath();
+                if (destCanonicalPath.startsWith(srcCanonicalPath + "/"))
+                    mExcludedPath = new File(mSrcPath).getPath() + destCanonicalPath.substring(srcCanonicalPath.length());
+            }
+
+            ForkJoinPool pool = mUseSharedPool ? getSharedPool() : new ForkJoinPool(mThreads);
+            try {
+                pool.invoke(new DirectoryTask(mSrcPath, mDestPath, DirectoryListing.AT_FDCWD, mSrcPath,
+                    srcStat.st_mode, srcStat.st_mtime * 1000, mType != Type.DELETE_CONTENTS));
+            } catch (RuntimeException e) {
+                if (mError.get() == null)
+                    mError.compareAndSet(null, new IOException("Failed to " + mType.getName() + " \"" + mSrcPath + "\"", e));
+            } finally {
+                if (!mUseSharedPool)
+                    pool.shutdown();
+            }
+        }
+
+        IOException error = mError.get();
+        if (error != null) throw error;
+        if (mCancelled.get()) throw new InterruptedIOException("Cancelled " + mType.getName() + " of \"" + mSrcPath + "\"");
+
+        ProgressListener progressListener = mProgressListener;
+        if (progressListener != null)
+            progressListener.onProgress(getProcessedCount(), mBytes.get());
+
+        return new Stats(mType, mThreads, mFiles.get(), mDirectories.get(), mSymlinks.get(), mSkipped.get(),
+            mBytes.get(), System.nanoTime() - startTime);
+    }
+
+    /** Whether the operation must stop since it has failed or been cancelled. */
+    private boolean isStopped() {
+        return mCancelled.get() || mError.get() != null;
+    }
+
+    private void fail(@NonNull IOException e) {
+        mError.compareAndSet(null, e);
+    }
+
+    private long getProcessedCount() {
+        return mFiles.get() + mDirectories.get() + mSymlinks.get();
+    }
+
+    private void notifyProgress() {
+        ProgressListener progressListener = mProgressListener;
+        if (progressListener == null) return;
+
+        long time = System.currentTimeMillis();
+        long lastTime = mLastProgressTime.get();
+        if (time - lastTime < PROGRESS_INTERVAL || !mLastProgressTime.compareAndSet(lastTime, time)) return;
+        progressListener.onProgress(getProcessedCount(), mBytes.get());
+    }
+
+
+
+    /** The task for a directory, which processes its sub files and forks tasks for its sub directories. */
+    private class DirectoryTask extends RecursiveAction {
+
+        @NonNull private final String mPath;
+        @Nullable private final String mDest;
+        /** The fd of the parent directory, which stays open till the task is done, or {@link DirectoryListing#AT_FDCWD}. */
+        private final int mParentFd;
+        /** The name of the directory in the parent, or its path if {@link #mParentFd} is {@link DirectoryListing#AT_FDCWD}. */
+        @NonNull private final String mName;
+        private final int mMode;
+        private final long mLastModified;
+        /** Whether the directory itself is copied or deleted, or only its sub files. */
+        private final boolean mIncludeSelf;
+
+        DirectoryTask(@NonNull String path, @Nullable String dest, int parentFd, @NonNull String name,
+                      int mode, long lastModified, boolean includeSelf) {
+            mPath = path;
+            mDest = dest;
+            mParentFd = parentFd;
+            mName = name;
+            mMode = mode;
+            mLastModified = lastModified;
+            mIncludeSelf = includeSelf;
+        }
+
+        @Override
+        protected void compute() {
+            if (isStopped()) return;
+
+            int fd = -1;
+            try {
+                if (mType == Type.COPY)
+                    createDirectory(mDest);
+
+                DirectoryListing directoryListing;
+                if (mDeleteRelativeToDirectories) {
+                    fd = openDirectory(mParentFd, mName, mPath);
+                    directoryListing = DirectoryListing.read(fd, mPath, false);
+                } else {
+                    directoryListing = DirectoryListing.read(mPath, false);
+                }
+
+                List<ForkJoinTask<?>> tasks = new ArrayList<>();
+                for (int i = 0; i < directoryListing.getCount(); i++) {
+                    if (isStopped()) break;
+
+                    String path = directoryListing.getPath(i);
+                    if (path.equals(mExcludedPath)) continue;
+
+                    String dest = mDest != null ? mDest + "/" + directoryListing.getName(i) : null;
+                    FileType fileType = directoryListing.getFileType(i);
+                    int mode = directoryListing.getMode(i);
+                    long size = directoryListing.getSize(i);
+                    long lastModified = directoryListing.getLastModified(i);
+                    if (fileType == FileType.DIRECTORY) {
+                        tasks.add(new DirectoryTask(path, dest, fd, directoryListing.getName(i), mode, lastModified, true));
+                    } else if (mType == Type.COPY && fileType == FileType.REGULAR && size >= FILE_TASK_MIN_SIZE) {
+                        tasks.add(new FileTask(path, dest, fileType, mode, size, lastModified));
+                    } else if (mDeleteRelativeToDirectories) {
+                        unlink(fd, directoryListing.getName(i), path, false);
+                        onFileDeleted(fileType, size);
+                        notifyProgress();
+                    } else {
+                        processFile(path, dest, fileType, mode, size, lastModified);
+                    }
+                }
+
+                invokeAll(tasks);
+                if (isStopped() || !mIncludeSelf) return;
+
+                if (mType == Type.COPY) {
+                    // Set after the sub files have been copied, since the mode may not allow writing
+                    chmod(mDest, mMode);
+                    setLastModified(mDest, mLastModified);
+                } else if (mDeleteRelativeToDirectories) {
+                    unlink(mParentFd, mName, mPath, true);
+                } else {
+                    remove(mPath);
+                }
+                mDirectories.incrementAndGet();
+                notifyProgress();
+            } catch (IOException e) {
+                fail(e);
+            } finally {
+                DirectoryListing.close(fd);
+            }
+        }
+
+    }
+
+    /** The task for a large regular file to copy. */
+    private class FileTask extends RecursiveAction {
+
+        @NonNull private final String mPath;
+        @Nullable private final String mDest;
+        @NonNull private final FileType mFileType;
+        private final int mMode;
+        private final long mSize;
+        private final long mLastModified;
+
+        FileTask(@NonNull String path, @Nullable String dest, @NonNull FileType fileType, int mode, long size, long lastModified) {
+            mPath = path;
+            mDest = dest;
+            mFileType = fileType;
+            mMode = mode;
+            mSize = size;
+            mLastModified = lastModified;
+        }
+
+        @Override
+        protected void compute() {
+            if (isStopped()) return;
+
+            try {
+                processFile(mPath, mDest, mFileType, mMode, mSize, mLastModified);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+    }
+
+    /** Copy or delete a file that is not a directory. */
+    private void processFile(@NonNull String path, @Nullable String dest, @NonNull FileType fileType,
+                             int mode, long size, long lastModified) throws IOException {
+        if (mType == Type.COPY) {
+            if (fileType == FileType.REGULAR) {
+                copyRegularFile(path, dest, mode, lastModified);
+                mFiles.incrementAndGet();
+            } else if (fileType == FileType.SYMLINK) {
+                try {
+                    Os.symlink(Os.readlink(path), dest);
+                } catch (ErrnoException e) {
+                    throw toIOException("copy symlink", path, e);
+                }
+                mSymlinks.incrementAndGet();
+            } else {
+                mSkipped.incrementAndGet();
+            }
+        } else {
+            remove(path);
+            onFileDeleted(fileType, size);
+        }
+
+        notifyProgress();
+    }
+
+    /** Count a deleted file that is not a directory. */
+    private void onFileDeleted(@NonNull FileType fileType, long size) {
+        if (fileType == FileType.SYMLINK) {
+            mSymlinks.incrementAndGet();
+        } else {
+            mFiles.incrementAndGet();
+            mBytes.addAndGet(size);
+        }
+    }
+
+    /** Copy a regular file with {@link FileChannel#transferTo} and keep its permissions and last modified time. */
+    private void copyRegularFile(@NonNull String path, @NonNull String dest, int mode, long lastModified) throws IOException {
+        try (FileInputStream in = new FileInputStream(path);
+             FileOutputStream out = new FileOutputStream(dest)) {
+            FileChannel inChannel = in.getChannel();
+            if (!transfer(inChannel, out.getChannel(), inChannel.size(), path, dest)) return;
+        }
+
+        chmod(dest, mode);
+        setLastModified(dest, lastModified);
+    }
+
+    /**
+     * Copy {@code size} bytes from the start of a channel to another.
+     *
+     * @return Returns {@code false} if the operation was cancelled before all the bytes were copied.
+     * @throws IOException If fewer than {@code size} bytes could be copied.
+     */
+    boolean transfer(@NonNull FileChannel inChannel, @NonNull FileChannel outChannel, long size,
+                     @NonNull String path, @NonNull String dest) throws IOException {
+        long position = 0;
+        while (position < size) {
+            if (mCancelled.get()) return false;
+            long transferred = inChannel.transferTo(position, Math.min(TRANSFER_SIZE, size - position), outChannel);
+            if (transferred <= 0) break;
+            position += transferred;
+            mBytes.addAndGet(transferred);
+        }
+
+        // The source was truncated while being copied, or the transfer stopped making progress
+        if (position < size)
+            throw new IOException("Failed to copy \"" + path + "\" to \"" + dest + "\": Only " + position +
+                " of " + size + " bytes were copied");
+        return true;
+    }
+
+    /** Create a directory for {@link Type#COPY}, or use it if it already exists. */
+    private static void createDirectory(@NonNull String path) throws IOException {
+        try {
+            // Only the owner may access it till its mode is set after its sub files have been copied
+            Os.mkdir(path, 0700);
+        } catch (ErrnoException e) {
+            if (e.errno != OsConstants.EEXIST || !new File(path).isDirectory())
+                throw toIOException("create directory", path, e);
+        }
+    }
+
+    private static void chmod(@NonNull String path, int mode) throws IOException {
+        try {
+            Os.chmod(path, mode & 07777);
+        } catch (ErrnoException e) {
+            throw toIOException("chmod", path, e);
+        }
+    }
+
+    private static void setLastModified(@NonNull String path, long lastModified) throws IOException {
+        if (lastModified > 0 && !new File(path).setLastModified(lastModified))
+            throw new IOException("Failed to set last modified time of \"" + path + "\"");
+    }
+
+    /** Open a directory relative to the fd of its parent without following symlinks. */
+    private static int openDirectory(int parentFd, @NonNull String name, @NonNull String path) throws IOException {
+        try {
+            return DirectoryListing.openDirectory(parentFd, name);
+        } catch (IOException e) {
+            throw new IOException("Failed to open directory \"" + path + "\": " + e.getMessage(), e);
+        }
+    }
+
+    /** Delete a file or an empty directory relative to the fd of its parent, ignoring if it was already deleted. */
+    private static void unlink(int parentFd, @NonNull String name, @NonNull String path, boolean isDirectory) throws IOException {
+        try {
+            DirectoryListing.unlink(parentFd, name, isDirectory);
+        } catch (IOException e) {
+            throw new IOException("Failed to delete \"" + path + "\": " + e.getMessage(), e);
+        }
+    }
+
+    /** Delete a file or an empty directory, ignoring if it was already deleted. */
+    private static void remove(@NonNull String path) throws IOException {
+        try {
+            Os.remove(path);
+        } catch (ErrnoException e) {
+            if (e.errno != OsConstants.ENOENT)
+                throw toIOException("delete", path, e);
+        }
+    }
+
+    @NonNull
+    private static IOException toIOException(@NonNull String operation, @NonNull String path, @NonNull ErrnoException e) {
+        return new IOException("Failed to " + operation + " \"" + path + "\": " + e.getMessage(), e);
+    }
+
+
+
+    /** The stats of a {@link FileTreeOperation}. */
+    public static class Stats {
+
+        /** The {@link Type} of the operation. */
+        @NonNull public final Type type;
+        /** The number of threads the operation ran with. */
+        public final int threads;
+        /** The number of files processed that are not directories or symlinks. */
+        public final long files;
+        /** The number of directories processed. */
+        public final long directories;
+        /** The number of symlinks processed. */
+        public final long symlinks;
+        /** The number of files skipped since their type is not supported for {@link Type#COPY}. */
+        public final long skipped;
+        /** The total size of the regular files processed. */
+        public final long bytes;
+        /** The time taken in nanoseconds. */
+        public final long time;
+
+        Stats(@NonNull Type type, int threads, long files, long directories, long symlinks, long skipped, long bytes, long time) {
+            this.type = type;
+            this.threads = threads;
+            this.files = files;
+            this.directories = directories;
+            this.symlinks = symlinks;
+            this.skipped = skipped;
+            this.bytes = bytes;
+            this.time = time;
+        }
+
+        @NonNull
+        public String getLogString() {
+            return String.format(Locale.ROOT, "Ran %s of %d files (%d bytes), %d directories and %d symlinks, skipping %d files, with %d threads in %d ms",
+                type.getName(), files, bytes, directories, symlinks, skipped, threads, TimeUnit.NANOSECONDS.toMillis(time));
+        }
+
+    }
+
+}
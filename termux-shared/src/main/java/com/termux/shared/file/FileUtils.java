@@ -1,12 +1,11 @@
 package com.termux.shared.file;
 
-import android.os.Build;
 import android.system.Os;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import com.google.common.io.RecursiveDeleteOption;
+import com.termux.shared.file.filesystem.DirectoryListing;
 import com.termux.shared.file.filesystem.FileType;
 import com.termux.shared.file.filesystem.FileTypes;
 import com.termux.shared.data.DataUtils;
@@ -31,8 +30,6 @@ import java.io.ObjectOutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Serializable;
 import java.nio.charset.Charset;
-import java.nio.file.LinkOption;
-import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
@@ -230,8 +227,10 @@ public class FileUtils {
                 }
             }
 
-            File[] subFiles = file.listFiles();
-            if (subFiles == null || subFiles.length == 0)
+            // Read the sub files along with their types in one batch, an unreadable directory is
+            // considered empty like File.listFiles() returning null is
+            DirectoryListing directoryListing = readDirectoryListing(file.getAbsolutePath());
+            if (directoryListing == null || directoryListing.getCount() == 0)
                 return null;
 
             // If sub files exists but no file should be ignored
@@ -239,7 +238,7 @@ public class FileUtils {
                 return FileUtilsErrno.ERRNO_NON_EMPTY_DIRECTORY_FILE.getError(label, filePath);
 
             // If a sub file does not exist in ignored file path
-            if (nonIgnoredSubFileExists(subFiles, ignoredSubFilePaths)) {
+            if (nonIgnoredSubFileExists(directoryListing, ignoredSubFilePaths)) {
                 return FileUtilsErrno.ERRNO_NON_EMPTY_DIRECTORY_FILE.getError(label, filePath);
             }
 
@@ -296,6 +295,64 @@ public class FileUtils {
         return false;
     }
 
+    /**
+     * Check if {@code directoryListing} contains a file not in {@code ignoredSubFilePaths}, like
+     * {@link #nonIgnoredSubFileExists(File[], List)} does, but with the file types of the sub files
+     * read in one batch for every directory.
+     *
+     * @param directoryListing The {@link DirectoryListing} of a directory to check, read without
+     *                         following symlinks.
+     * @param ignoredSubFilePaths The list of absolute file paths under {@code filePath} dir.
+     *                            Validation is done for the paths.
+     * @return Returns {@code true} if a file was found that did not exist in the {@code ignoredSubFilePaths},
+     * otherwise  {@code false}.
+     */
+    public static boolean nonIgnoredSubFileExists(@NonNull DirectoryListing directoryListing, @NonNull List<String> ignoredSubFilePaths) {
+        String subFilePath;
+        for (int i = 0; i < directoryListing.getCount(); i++) {
+            subFilePath = directoryListing.getPath(i);
+            // If sub file does not exist in ignored sub file paths
+            if (!ignoredSubFilePaths.contains(subFilePath)) {
+                boolean isParentPath = false;
+                for (String ignoredSubFilePath : ignoredSubFilePaths) {
+                    if (ignoredSubFilePath.startsWith(subFilePath + "/") && fileExists(ignoredSubFilePath, false)) {
+                        isParentPath = true;
+                        break;
+                    }
+                }
+                // If sub file is not a parent of any existing ignored sub file paths
+                if (!isParentPath) {
+                    return true;
+                }
+            }
+
+            if (directoryListing.getFileType(i) == FileType.DIRECTORY) {
+                // If non ignored sub file found, then early exit, otherwise continue looking
+                DirectoryListing subDirectoryListing = readDirectoryListing(subFilePath);
+                if (subDirectoryListing != null && nonIgnoredSubFileExists(subDirectoryListing, ignoredSubFilePaths))
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Read the {@link DirectoryListing} of a directory without following symlinks.
+     *
+     * @param directoryPath The {@code path} for directory to read.
+     * @return Returns the {@link DirectoryListing}, or {@code null} if the directory could not be read.
+     */
+    @Nullable
+    private static DirectoryListing readDirectoryListing(@NonNull String directoryPath) {
+        try {
+            return DirectoryListing.read(directoryPath, false);
+        } catch (IOException e) {
+            Logger.logVerbose(LOG_TAG, e.getMessage());
+            return null;
+        }
+    }
+
 
 
     /**
@@ -1123,7 +1180,7 @@ public class FileUtils {
                 // Uses File.getPath() to get the path of source and destination and not the canonical path
                 if (!srcFile.renameTo(destFile)) {
                     // If destination directory is a subdirectory of the source directory
-                    // Copying is still allowed by copyDirectory() by excluding destination directory files
+                    // Copying is still allowed by FileTreeOperation by excluding destination directory files
                     if (srcFileType == FileType.DIRECTORY && destFileCanonicalPath.startsWith(srcFileCanonicalPath + File.separator))
                         return FileUtilsErrno.ERRNO_CANNOT_MOVE_DIRECTORY_TO_SUB_DIRECTORY_OF_ITSELF.getError(label + "source directory", srcFilePath, destFilePath);
 
@@ -1142,27 +1199,9 @@ public class FileUtils {
                 if (error != null)
                     return error;
 
-                if (srcFileType == FileType.DIRECTORY) {
-                    // Will give runtime exceptions on android < 8 due to missing classes like java.nio.file.Path if org.apache.commons.io version > 2.5
-                    org.apache.commons.io.FileUtils.copyDirectory(srcFile, destFile, true);
-                } else if (srcFileType == FileType.SYMLINK) {
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                        java.nio.file.Files.copy(srcFile.toPath(), destFile.toPath(), LinkOption.NOFOLLOW_LINKS, StandardCopyOption.REPLACE_EXISTING);
-                    } else {
-                        // read the target for the source file and create a symlink at dest
-                        // source file metadata will be lost
-                        error = createSymlinkFile(label + "dest", Os.readlink(srcFilePath), destFilePath);
-                        if (error != null)
-                            return error;
-                    }
-                } else {
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                        java.nio.file.Files.copy(srcFile.toPath(), destFile.toPath(), LinkOption.NOFOLLOW_LINKS, StandardCopyOption.REPLACE_EXISTING);
-                    } else {
-                        // Will give runtime exceptions on android < 8 due to missing classes like java.nio.file.Path if org.apache.commons.io version > 2.5
-                        org.apache.commons.io.FileUtils.copyFile(srcFile, destFile, true);
-                    }
-                }
+                // Copy the file, or the tree of the directory in parallel, keeping symlinks,
+                // permissions and last modified times
+                new FileTreeOperation(FileTreeOperation.Type.COPY, srcFilePath, destFilePath, 0).run();
             }
 
             // If source file had to be moved
@@ -1285,7 +1324,6 @@ public class FileUtils {
         if (filePath == null || filePath.isEmpty()) return FunctionErrno.ERRNO_NULL_OR_EMPTY_PARAMETER.getError(label + "file path", "deleteFile");
 
         try {
-            File file = new File(filePath);
             FileType fileType = getFileType(filePath, false);
 
             Logger.logVerbose(LOG_TAG, "Processing delete of " + label + "file at path \"" + filePath + "\" of type \"" + fileType.getName() + "\"");
@@ -1316,37 +1354,11 @@ public class FileUtils {
 
             Logger.logVerbose(LOG_TAG, "Deleting " + label + "file at path \"" + filePath + "\"");
 
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                /*
-                 * Try to use {@link SecureDirectoryStream} if available for safer directory
-                 * deletion, it should be available for android >= 8.0
-                 * https://guava.dev/releases/24.1-jre/api/docs/com/google/common/io/MoreFiles.html#deleteRecursively-java.nio.file.Path-com.google.common.io.RecursiveDeleteOption...-
-                 * https://github.com/google/guava/issues/365
-                 * https://cs.android.com/android/platform/superproject/+/android-11.0.0_r3:libcore/ojluni/src/main/java/sun/nio/fs/UnixSecureDirectoryStream.java
-                 *
-                 * MoreUtils is marked with the @Beta annotation so the API may be removed in
-                 * future but has been there for a few years now.
-                 *
-                 * If an exception is thrown, the exception message might not contain the full errors.
-                 * Individual failures get added to suppressed throwables which can be extracted
-                 * from the exception object by calling `Throwable[] getSuppressed()`. So just logging
-                 * the exception message and stacktrace may not be enough, the suppressed throwables
-                 * need to be logged as well, which the Logger class does if they are found in the
-                 * exception added to the Error that's returned by this function.
-                 * https://github.com/google/guava/blob/v30.1.1/guava/src/com/google/common/io/MoreFiles.java#L775
-                 */
-                //noinspection UnstableApiUsage
-                com.google.common.io.MoreFiles.deleteRecursively(file.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
-            } else {
-                if (fileType == FileType.DIRECTORY) {
-                    // deleteDirectory() instead of forceDelete() gets the files list first instead of walking directory tree, so seems safer
-                    // Will give runtime exceptions on android < 8 due to missing classes like java.nio.file.Path if org.apache.commons.io version > 2.5
-                    org.apache.commons.io.FileUtils.deleteDirectory(file);
-                } else {
-                    // Will give runtime exceptions on android < 8 due to missing classes like java.nio.file.Path if org.apache.commons.io version > 2.5
-                    org.apache.commons.io.FileUtils.forceDelete(file);
-                }
-            }
+            // Delete the file, or the tree of the directory in parallel, without following symlinks.
+            // Sub files are deleted relative to the fds of their directories, like with the
+            // SecureDirectoryStream of MoreFiles.deleteRecursively(), so that a directory replaced
+            // with a symlink while deleting does not cause the files of its target to be deleted.
+            new FileTreeOperation(FileTreeOperation.Type.DELETE, filePath, null, 0).run();
 
             // If file still exists after deleting it
             fileType = getFileType(filePath, false);
@@ -1396,7 +1408,6 @@ public class FileUtils {
         try {
             Logger.logVerbose(LOG_TAG, "Clearing " + label + "directory at path \"" + filePath + "\"");
 
-            File file = new File(filePath);
             FileType fileType = getFileType(filePath, false);
 
             // If file exists but not a directory file
@@ -1406,15 +1417,7 @@ public class FileUtils {
 
             // If directory exists, clear its contents
             if (fileType == FileType.DIRECTORY) {
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                    /* If an exception is thrown, the exception message might not contain the full errors.
-                     * Individual failures get added to suppressed throwables. */
-                    //noinspection UnstableApiUsage
-                    com.google.common.io.MoreFiles.deleteDirectoryContents(file.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
-                } else {
-                    // Will give runtime exceptions on android < 8 due to missing classes like java.nio.file.Path if org.apache.commons.io version > 2.5
-                    org.apache.commons.io.FileUtils.cleanDirectory(new File(filePath));
-                }
+                new FileTreeOperation(FileTreeOperation.Type.DELETE_CONTENTS, filePath, null, 0).run();
             }
             // Else create it
             else {
@@ -0,0 +1,345 @@
+package com.termux.shared.file.filesystem;
+
+import android.os.Process;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructStat;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.jni.models.JniResult;
+import com.termux.shared.logger.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The entries of a directory along with their mode, owner uid, size and last modified time.
+ *
+ * The entries are read in one batch by the native `directory-listing` library with `readdir()` and
+ * `fstatat()` relative to the fd of the directory, instead of {@link File#listFiles()} followed by
+ * separate `stat()` calls for the type, size, time and permissions of every file, each of which
+ * resolves the full path again. If the library cannot be loaded, then the entries are read with
+ * {@link File#list()} and {@link Os#stat(String)} or {@link Os#lstat(String)}.
+ *
+ * Entries deleted while the directory is being read are not returned, and entries that could not
+ * be stat are returned with zero values and the {@link FileType#UNKNOWN} type.
+ *
+ * The library can also open directories relative to the fd of their parent without following
+ * symlinks, read them from their fd and delete their entries relative to it, like
+ * {@link java.nio.file.SecureDirectoryStream} does, so that a tree can be walked without a
+ * directory replaced with a symlink while it is being walked redirecting the walk outside it.
+ */
+public class DirectoryListing {
+
+    /** The native library used for reading directories. */
+    protected static String DIRECTORY_LISTING_LIBRARY = "directory-listing";
+
+    /** Whether {@link #DIRECTORY_LISTING_LIBRARY} has been loaded or not. */
+    protected static Boolean directoryListingLibraryLoaded;
+
+    /**
+     * The `AT_FDCWD` value for the `dirFd` of {@link #openDirectory(int, String)} and
+     * {@link #unlink(int, String, boolean)}, to resolve the name relative to the working directory.
+     */
+    public static final int AT_FDCWD = -100;
+
+    /** The number of values in {@link #mStats} for every entry: mode, uid, size and last modified time. */
+    private static final int STAT_FIELDS = 4;
+
+    @NonNull private final String mDirectoryPath;
+    @NonNull private final String[] mNames;
+    @NonNull private final long[] mStats;
+
+    private static final String LOG_TAG = "DirectoryListing";
+
+    private DirectoryListing(@NonNull String directoryPath, @NonNull String[] names, @NonNull long[] stats) {
+        mDirectoryPath = directoryPath;
+        mNames = names;
+        mStats = stats;
+    }
+
+    /** Load the {@link #DIRECTORY_LISTING_LIBRARY} if not already tried to. */
+    public static synchronized boolean loadLibrary() {
+        if (directoryListingLibraryLoaded == null) {
+            try {
+                Logger.logDebug(LOG_TAG, "Loading \"" + DIRECTORY_LISTING_LIBRARY + "\" library");
+                System.loadLibrary(DIRECTORY_LISTING_LIBRARY);
+                directoryListingLibraryLoaded = true;
+            } catch (Throwable t) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to load \"" + DIRECTORY_LISTING_LIBRARY + "\" library", t);
+                directoryListingLibraryLoaded = false;
+            }
+        }
+        return directoryListingLibraryLoaded;
+    }
+
+    /**
+     * Read the entries of a directory.
+     *
+     * @param directoryPath The path to the directory.
+     * @param followLinks If set to {@code true}, then the attributes of the targets of symlink
+     *                    entries are returned like {@link File#isDirectory()} does, unless the
+     *                    symlink is dangling, otherwise the attributes of the symlinks themselves.
+     * @return Returns the {@link DirectoryListing}.
+     * @throws IOException If the directory could not be read.
+     */
+    @NonNull
+    public static DirectoryListing read(@NonNull String directoryPath, boolean followLinks) throws IOException {
+        if (directoryPath.isEmpty()) throw new IOException("The path is null or empty");
+
+        if (loadLibrary())
+            return readWithLibrary(directoryPath, followLinks);
+        else
+            return readWithOs(directoryPath, followLinks);
+    }
+
+    /**
+     * Read the entries of a directory from its fd opened by {@link #openDirectory(int, String)}.
+     * The fd is not closed, and may be used to {@link #unlink(int, String, boolean)} the entries.
+     *
+     * @param fd The fd of the directory.
+     * @param directoryPath The path to the directory, for the paths of the entries and for errors.
+     * @param followLinks If set to {@code true}, then the attributes of the targets of symlink
+     *                    entries are returned, unless the symlink is dangling.
+     * @return Returns the {@link DirectoryListing}.
+     * @throws IOException If the library is not loaded or the directory could not be read.
+     */
+    @NonNull
+    public static DirectoryListing read(int fd, @NonNull String directoryPath, boolean followLinks) throws IOException {
+        checkLibraryLoaded();
+        Object[] result = new Object[2];
+        JniResult jniResult = readDirectoryFdNative(LOG_TAG, fd, directoryPath.getBytes(StandardCharsets.UTF_8), followLinks, result);
+        return fromResult(directoryPath, jniResult, result);
+    }
+
+    @NonNull
+    private static DirectoryListing readWithLibrary(@NonNull String directoryPath, boolean followLinks) throws IOException {
+        Object[] result = new Object[2];
+        JniResult jniResult = readDirectoryNative(LOG_TAG, directoryPath.getBytes(StandardCharsets.UTF_8), followLinks, result);
+        return fromResult(directoryPath, jniResult, result);
+    }
+
+    @NonNull
+    private static DirectoryListing fromResult(@NonNull String directoryPath, @Nullable JniResult jniResult,
+                                               @NonNull Object[] result) throws IOException {
+        if (jniResult == null || jniResult.retval != 0)
+            throw new IOException(jniResult != null ? jniResult.errmsg : "Failed to read directory \"" + directoryPath + "\"");
+
+        int count = jniResult.intData;
+        byte[] namesBytes = (byte[]) result[0];
+        String[] names = new String[count];
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            int end = start;
+            while (namesBytes[end] != 0) end++;
+            names[i] = new String(namesBytes, start, end - start, StandardCharsets.UTF_8);
+            start = end + 1;
+        }
+
+        return new DirectoryListing(directoryPath, names, (long[]) result[1]);
+    }
+
+    @NonNull
+    private static DirectoryListing readWithOs(@NonNull String directoryPath, boolean followLinks) throws IOException {
+        String[] list = new File(directoryPath).list();
+        if (list == null)
+            throw new IOException("Failed to read directory \"" + directoryPath + "\"");
+
+        List<String> names = new ArrayList<>(list.length);
+        long[] stats = new long[list.length * STAT_FIELDS];
+        for (String name : list) {
+            String path = directoryPath + "/" + name;
+            StructStat structStat = null;
+            try {
+                structStat = followLinks ? Os.stat(path) : Os.lstat(path);
+            } catch (ErrnoException e) {
+                try {
+                    // Dangling symlink
+                    if (followLinks && e.errno == OsConstants.ENOENT)
+                        structStat = Os.lstat(path);
+                } catch (ErrnoException e2) {
+                    e = e2;
+                }
+                // Deleted after being read
+                if (structStat == null && e.errno == OsConstants.ENOENT)
+                    continue;
+            }
+
+            int index = names.size() * STAT_FIELDS;
+            if (structStat != null) {
+                stats[index] = structStat.st_mode;
+                stats[index + 1] = structStat.st_uid;
+                stats[index + 2] = structStat.st_size;
+                stats[index + 3] = structStat.st_mtime * 1000;
+            }
+            names.add(name);
+        }
+
+        long[] validStats = new long[names.size() * STAT_FIELDS];
+        System.arraycopy(stats, 0, validStats, 0, validStats.length);
+        return new DirectoryListing(directoryPath, names.toArray(new String[0]), validStats);
+    }
+
+    /**
+     * Open a directory relative to the fd of its parent without following it if it is a symlink.
+     *
+     * @param dirFd The fd of the parent directory, or {@link #AT_FDCWD}.
+     * @param name The name of the directory in the parent, or its path if {@code dirFd} is
+     *             {@link #AT_FDCWD}, in which case only its last component is not followed.
+     * @return Returns the fd of the directory, which must be closed with {@link #close(int)}.
+     * @throws IOException If the library is not loaded or the directory could not be opened,
+     *                     including if it is a symlink.
+     */
+    public static int openDirectory(int dirFd, @NonNull String name) throws IOException {
+        checkLibraryLoaded();
+        JniResult jniResult = openDirectoryNative(LOG_TAG, dirFd, name.getBytes(StandardCharsets.UTF_8));
+        if (jniResult == null || jniResult.retval != 0)
+            throw new IOException(jniResult != null ? jniResult.errmsg : "Failed to open directory \"" + name + "\"");
+        return jniResult.intData;
+    }
+
+    /**
+     * Delete a file or an empty directory relative to the fd of its parent. Symlinks are deleted
+     * and not their targets.
+     *
+     * @param dirFd The fd of the parent directory, or {@link #AT_FDCWD}.
+     * @param name The name of the file in the parent, or its path if {@code dirFd} is {@link #AT_FDCWD}.
+     * @param isDirectory Whether the file is a directory.
+     * @return Returns {@code true} if the file was deleted, or {@code false} if it did not exist.
+     * @throws IOException If the library is not loaded or the file could not be deleted.
+     */
+    public static boolean unlink(int dirFd, @NonNull String name, boolean isDirectory) throws IOException {
+        checkLibraryLoaded();
+        JniResult jniResult = unlinkNative(LOG_TAG, dirFd, name.getBytes(StandardCharsets.UTF_8), isDirectory);
+        if (jniResult != null && jniResult.retval == 0) return true;
+        if (jniResult != null && jniResult.errno == OsConstants.ENOENT) return false;
+        throw new IOException(jniResult != null ? jniResult.errmsg : "Failed to delete \"" + name + "\"");
+    }
+
+    /** Close a directory fd opened by {@link #openDirectory(int, String)}. */
+    public static void close(int fd) {
+        if (fd >= 0) closeNative(fd);
+    }
+
+    private static void checkLibraryLoaded() throws IOException {
+        if (!loadLibrary())
+            throw new IOException("The \"" + DIRECTORY_LISTING_LIBRARY + "\" library is not loaded");
+    }
+
+
+
+    /** Get the path of the directory. */
+    @NonNull
+    public String getDirectoryPath() {
+        return mDirectoryPath;
+    }
+
+    /** Get the number of entries. */
+    public int getCount() {
+        return mNames.length;
+    }
+
+    /** Get the name of the entry at {@code index}. */
+    @NonNull
+    public String getName(int index) {
+        return mNames[index];
+    }
+
+    /** Get the path of the entry at {@code index}. */
+    @NonNull
+    public String getPath(int index) {
+        return mDirectoryPath.endsWith("/") ? mDirectoryPath + mNames[index] : mDirectoryPath + "/" + mNames[index];
+    }
+
+    /** Get the `st_mode` of the entry at {@code index}. */
+    public int getMode(int index) {
+        return (int) mStats[index * STAT_FIELDS];
+    }
+
+    /** Get the `st_uid` of the entry at {@code index}. */
+    public int getUid(int index) {
+        return (int) mStats[index * STAT_FIELDS + 1];
+    }
+
+    /** Get the size of the entry at {@code index}. */
+    public long getSize(int index) {
+        return mStats[index * STAT_FIELDS + 2];
+    }
+
+    /** Get the last modified time of the entry at {@code index} in milliseconds since epoch. */
+    public long getLastModified(int index) {
+        return mStats[index * STAT_FIELDS + 3];
+    }
+
+    /** Get the {@link FileType} of the entry at {@code index}. */
+    @NonNull
+    public FileType getFileType(int index) {
+        return FileTypes.getFileType(getMode(index));
+    }
+
+    /** Whether the entry at {@code index} is a directory. */
+    public boolean isDirectory(int index) {
+        return (getMode(index) & UnixConstants.S_IFMT) == UnixConstants.S_IFDIR;
+    }
+
+    /**
+     * Whether the entry at {@code index} is writable by {@code uid}. The mode bits are checked
+     * without a separate `access()` call like {@link File#canWrite()} if the entry is owned by the
+     * uid, otherwise its group and ACLs may grant write access, so `access()` is called for it.
+     */
+    public boolean isWritableBy(int index, int uid) {
+        return isWritableBy(getPath(index), getMode(index), getUid(index), uid);
+    }
+
+    /**
+     * Whether a file at {@code path} with {@code mode} owned by {@code fileUid} is writable by
+     * {@code uid}, like {@link #isWritableBy(int, int)} for attributes already read.
+     *
+     * Since `access()` checks for the uid of the app, if the file is not owned by {@code uid}
+     * and it is not the uid of the app, then only the mode bits for others are checked.
+     */
+    public static boolean isWritableBy(@NonNull String path, int mode, int fileUid, int uid) {
+        if (uid == 0) return true;
+        if (fileUid == uid)
+            return (mode & UnixConstants.S_IWUSR) != 0;
+        if (uid != Process.myUid())
+            return (mode & UnixConstants.S_IWOTH) != 0;
+
+        try {
+            return Os.access(path, OsConstants.W_OK);
+        } catch (ErrnoException e) {
+            return false;
+        }
+    }
+
+    /** Get the index of the entry with {@code name}, or {@code -1} if not found. */
+    public int indexOf(@Nullable String name) {
+        for (int i = 0; i < mNames.length; i++) {
+            if (mNames[i].equals(name))
+                return i;
+        }
+        return -1;
+    }
+
+
+
+    @Nullable private static native JniResult readDirectoryNative(@NonNull String logTitle, @NonNull byte[] path,
+                                                                  boolean followLinks, @NonNull Object[] result);
+
+    @Nullable private static native JniResult readDirectoryFdNative(@NonNull String logTitle, int fd, @NonNull byte[] path,
+                                                                    boolean followLinks, @NonNull Object[] result);
+
+    @Nullable private static native JniResult openDirectoryNative(@NonNull String logTitle, int dirFd, @NonNull byte[] name);
+
+    @Nullable private static native JniResult unlinkNative(@NonNull String logTitle, int dirFd, @NonNull byte[] name,
+                                                           boolean isDirectory);
+
+    private static native void closeNative(int fd);
+
+}
@@ -116,4 +116,26 @@ public class FileTypes {
             return FileType.UNKNOWN;
     }
 
+    /** Get the {@link FileType} for the type bits of a `st_mode`, like of a {@link DirectoryListing} entry. */
+    @NonNull
+    public static FileType getFileType(final int mode) {
+        int type = mode & UnixConstants.S_IFMT;
+        if (type == UnixConstants.S_IFREG)
+            return FileType.REGULAR;
+        else if (type == UnixConstants.S_IFDIR)
+            return FileType.DIRECTORY;
+        else if (type == UnixConstants.S_IFLNK)
+            return FileType.SYMLINK;
+        else if (type == UnixConstants.S_IFSOCK)
+            return FileType.SOCKET;
+        else if (type == UnixConstants.S_IFCHR)
+            return FileType.CHARACTER;
+        else if (type == UnixConstants.S_IFIFO)
+            return FileType.FIFO;
+        else if (type == UnixConstants.S_IFBLK)
+            return FileType.BLOCK;
+        else
+            return FileType.UNKNOWN;
+    }
+
 }
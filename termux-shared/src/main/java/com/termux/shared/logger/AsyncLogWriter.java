@@ -0,0 +1,396 @@
+package com.termux.shared.logger;
+
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A writer for the {@link Logger} that moves the cost of logging off the calling thread.
+ *
+ * Log entries are added to a lock-free queue by any number of threads and a single background
+ * thread drains it, writing the entries to logcat, splitting extended messages into
+ * {@link Logger#LOGGER_ENTRY_MAX_PAYLOAD} sized chunks as required, and appending them to a log
+ * file. The calling thread only allocates the entry, so a log call costs the same regardless of
+ * the message length. The timestamp and line prefixes of the log file are formatted on the
+ * background thread.
+ *
+ * The log file entries are buffered and written in batches when the queue has been drained and
+ * {@link #FLUSH_INTERVAL} has passed since the last write, or the buffer is full. Once the log
+ * file grows beyond its max size, it is rotated to "<name>.1", and older files are shifted up
+ * till the max backup files count, so that the space used is capped.
+ *
+ * Entries are dropped if more than {@link #MAX_PENDING_CHARS} are waiting to be written, and
+ * the number of dropped entries is logged once the writer catches up. Call {@link #flush(long)}
+ * to wait for pending entries to be written, like before the app crashes.
+ *
+ * If writing to the log file fails, then entries are only written to logcat until
+ * {@link #FILE_WRITE_RETRY_INTERVAL} has passed, after which writing to it is tried again.
+ */
+public class AsyncLogWriter {
+
+    /** The default max size of the log file before it is rotated. */
+    public static final long DEFAULT_MAX_FILE_SIZE = 512 * 1024;
+
+    /** The default max number of rotated log files kept. */
+    public static final int DEFAULT_MAX_BACKUP_FILES = 1;
+
+    /** The max length of the messages waiting to be written after which new entries are dropped. */
+    private static final long MAX_PENDING_CHARS = 2 * 1024 * 1024;
+
+    /** The time after a failure to write to the log file after which writing to it is tried again. */
+    private static final long FILE_WRITE_RETRY_INTERVAL = 60 * 1000;
+
+    /** The max time log file entries are buffered for before they are written. */
+    private static final long FLUSH_INTERVAL = 1000;
+
+    /** The size of the log file buffer. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @NonNull private final File mLogFile;
+    private final long mMaxFileSize;
+    private final int mMaxBackupFiles;
+    private final long mMaxPendingChars;
+    private final long mFileWriteRetryInterval;
+
+    @NonNull private final ConcurrentLinkedQueue<Entry> mQueue = new ConcurrentLinkedQueue<>();
+    @NonNull private final AtomicLong mPendingChars = new AtomicLong();
+    @NonNull private final AtomicInteger mDroppedCount = new AtomicInteger();
+    @NonNull private final Thread mThread;
+
+    /** Whether {@link #mThread} is parked or about to park, so that it must be unparked on new entries. */
+    private volatile boolean mIsWaiting;
+    private volatile boolean mIsClosed;
+
+    /** The following are only accessed by {@link #mThread}. */
+    @Nullable private OutputStream mOutputStream;
+    private long mFileSize;
+    private boolean mIsFileWriteFailed;
+    private long mFileWriteFailedTime;
+    private boolean mIsFlushPending;
+    private long mLastFlushTime;
+    private final int mPid = Process.myPid();
+    @NonNull private final SimpleDateFormat mDateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+    @NonNull private final Date mDate = new Date();
+
+    private static final String LOG_TAG = "AsyncLogWriter";
+
+    /**
+     * Create and start an {@link AsyncLogWriter}.
+     *
+     * @param logFile The log file to append entries to. Its parent directory is created if
+     *                required. If it cannot be written, then entries are only written to logcat.
+     * @param maxFileSize The max size of the log file before it is rotated.
+     * @param maxBackupFiles The max number of rotated log files kept.
+     */
+    public AsyncLogWriter(@NonNull File logFile, long maxFileSize, int maxBackupFiles) {
+        this(logFile, maxFileSize, maxBackupFiles, MAX_PENDING_CHARS, FILE_WRITE_RETRY_INTERVAL);
+        start();
+    }
+
+    /** Create an {@link AsyncLogWriter} that is not started, call {@link #start()} to start it. */
+    AsyncLogWriter(@NonNull File logFile, long maxFileSize, int maxBackupFiles, long maxPendingChars, long fileWriteRetryInterval) {
+        mLogFile = logFile;
+        mMaxFileSize = maxFileSize;
+        mMaxBackupFiles = Math.max(0, maxBackupFiles);
+        mMaxPendingChars = maxPendingChars;
+        mFileWriteRetryInterval = fileWriteRetryInterval;
+
+        mThread = new Thread(this::run, LOG_TAG);
+        mThread.setDaemon(true);
+    }
+
+    /** Start the writer thread. */
+    void start() {
+        mThread.start();
+    }
+
+    /** Get the log file. */
+    @NonNull
+    public File getLogFile() {
+        return mLogFile;
+    }
+
+    /**
+     * Add an entry to be written.
+     *
+     * @param logPriority The log priority of the entry, like {@link android.util.Log#DEBUG}.
+     * @param fullTag The full log tag returned by {@link Logger#getFullTag(String)}.
+     * @param message The log message.
+     * @param extended Whether the message should be split for logcat like
+     *                 {@link Logger#logExtendedMessage(int, String, String)} does.
+     */
+    public void log(int logPriority, @NonNull String fullTag, @Nullable String message, boolean extended) {
+        if (mIsClosed) return;
+
+        int length = getEntryLength(message);
+        if (mPendingChars.addAndGet(length) > mMaxPendingChars) {
+            mPendingChars.addAndGet(-length);
+            mDroppedCount.incrementAndGet();
+            return;
+        }
+
+        mQueue.offer(new Entry(logPriority, fullTag, message, extended, System.currentTimeMillis(), Process.myTid()));
+        if (mIsWaiting)
+            LockSupport.unpark(mThread);
+    }
+
+    /**
+     * Wait for the entries added before this call to be written to logcat and the log file.
+     *
+     * @param timeoutMillis The max time to wait for.
+     * @return Returns {@code true} if entries were written, otherwise {@code false} if timed out.
+     */
+    public boolean flush(long timeoutMillis) {
+        // The writer cannot wait for itself, like if it is logging its own errors
+        if (mIsClosed || Thread.currentThread() == mThread) return true;
+
+        CountDownLatch latch = new CountDownLatch(1);
+        mQueue.offer(new Entry(latch));
+        LockSupport.unpark(mThread);
+
+        try {
+            return latch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Write the pending entries and stop the writer. Entries added afterwards are ignored.
+     *
+     * @param timeoutMillis The max time to wait for pending entries to be written.
+     */
+    public void close(long timeoutMillis) {
+        flush(timeoutMillis);
+        mIsClosed = true;
+        LockSupport.unpark(mThread);
+    }
+
+
+
+    private void run() {
+        while (true) {
+            Entry entry = mQueue.poll();
+            if (entry == null) {
+                if (mIsClosed) {
+                    closeFile();
+                    return;
+                }
+
+                reportDroppedEntries();
+
+                long flushDelay = FLUSH_INTERVAL - (System.currentTimeMillis() - mLastFlushTime);
+                if (mIsFlushPending && flushDelay <= 0) {
+                    flushFile();
+                    continue;
+                }
+
+                // Check the queue again after announcing the wait so that an entry added in
+                // between is not missed, since its producer may not have seen the flag
+                mIsWaiting = true;
+                if (mQueue.isEmpty() && !mIsClosed) {
+                    if (mIsFlushPending)
+                        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(flushDelay));
+                    else
+                        LockSupport.park(this);
+                }
+                mIsWaiting = false;
+                continue;
+            }
+
+            if (entry.flushLatch != null) {
+                reportDroppedEntries();
+                flushFile();
+                entry.flushLatch.countDown();
+                continue;
+            }
+
+            mPendingChars.addAndGet(-getEntryLength(entry.message));
+            try {
+                write(entry);
+            } catch (Throwable t) {
+                // Logcat rejects null messages, a writer failure must not stop logging
+                Logger.logcat(Log.ERROR, Logger.getFullTag(LOG_TAG), "Failed to write log entry: " + t, false);
+            }
+        }
+    }
+
+    private void write(@NonNull Entry entry) {
+        if (mIsFileWriteFailed && entry.time - mFileWriteFailedTime >= mFileWriteRetryInterval) {
+            mIsFileWriteFailed = false;
+            Logger.logcat(Log.INFO, Logger.getFullTag(LOG_TAG), "Retrying writing to log file \"" + mLogFile.getAbsolutePath() + "\"", false);
+        }
+
+        if (!mIsFileWriteFailed)
+            writeToFile(entry);
+        Logger.logcat(entry.logPriority, entry.fullTag, entry.message, entry.extended);
+    }
+
+    private void writeToFile(@NonNull Entry entry) {
+        mDate.setTime(entry.time);
+        String prefix = mDateFormat.format(mDate) + " " + mPid + " " + entry.tid + " " +
+            getLogPriorityChar(entry.logPriority) + " " + entry.fullTag + ": ";
+
+        StringBuilder builder = new StringBuilder();
+        String message = entry.message != null ? entry.message : "null";
+        int start = 0;
+        do {
+            int end = message.indexOf('\n', start);
+            if (end == -1) end = message.length();
+            builder.append(prefix).append(message, start, end).append('\n');
+            start = end + 1;
+        } while (start < message.length());
+
+        byte[] bytes = builder.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            if (mOutputStream == null || mFileSize + bytes.length > mMaxFileSize) {
+                if (mOutputStream != null) rotateFile();
+                openFile();
+            }
+            mOutputStream.write(bytes);
+            mFileSize += bytes.length;
+            mIsFlushPending = true;
+        } catch (IOException e) {
+            onFileWriteFailed();
+            Logger.logcat(Log.ERROR, Logger.getFullTag(LOG_TAG), "Failed to write to log file \"" + mLogFile.getAbsolutePath() + "\", only logging to logcat till retrying: " + e.getMessage(), false);
+        }
+    }
+
+    private void openFile() throws IOException {
+        File parent = mLogFile.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Failed to create directory \"" + parent.getAbsolutePath() + "\"");
+
+        mOutputStream = new BufferedOutputStream(new FileOutputStream(mLogFile, true), BUFFER_SIZE);
+        mFileSize = mLogFile.length();
+        mLastFlushTime = System.currentTimeMillis();
+    }
+
+    /** Close the log file and shift it and the older rotated files up by one. */
+    private void rotateFile() {
+        closeFile();
+
+        String path = mLogFile.getAbsolutePath();
+        //noinspection ResultOfMethodCallIgnored
+        new File(path + "." + mMaxBackupFiles).delete();
+        for (int i = mMaxBackupFiles - 1; i >= 1; i--) {
+            //noinspection ResultOfMethodCallIgnored
+            new File(path + "." + i).renameTo(new File(path + "." + (i + 1)));
+        }
+
+        if (mMaxBackupFiles > 0) {
+            //noinspection ResultOfMethodCallIgnored
+            mLogFile.renameTo(new File(path + ".1"));
+        } else {
+            //noinspection ResultOfMethodCallIgnored
+            mLogFile.delete();
+        }
+    }
+
+    private void flushFile() {
+        mLastFlushTime = System.currentTimeMillis();
+        mIsFlushPending = false;
+        if (mOutputStream == null) return;
+        try {
+            mOutputStream.flush();
+        } catch (IOException e) {
+            onFileWriteFailed();
+        }
+    }
+
+    /** Stop writing to the log file until {@link #mFileWriteRetryInterval} has passed. */
+    private void onFileWriteFailed() {
+        mIsFileWriteFailed = true;
+        mFileWriteFailedTime = System.currentTimeMillis();
+        closeFile();
+    }
+
+    private void closeFile() {
+        mIsFlushPending = false;
+        if (mOutputStream == null) return;
+        try {
+            mOutputStream.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+        mOutputStream = null;
+    }
+
+    private void reportDroppedEntries() {
+        int droppedCount = mDroppedCount.getAndSet(0);
+        if (droppedCount > 0)
+            write(new Entry(Log.WARN, Logger.getFullTag(LOG_TAG), "Dropped " + droppedCount + " log entries since too many were pending", false, System.currentTimeMillis(), Process.myTid()));
+    }
+
+    /** Get the length an entry is counted as in {@link #mPendingChars}, including its overhead. */
+    private static int getEntryLength(@Nullable String message) {
+        return 64 + (message != null ? message.length() : 0);
+    }
+
+    private static char getLogPriorityChar(int logPriority) {
+        switch (logPriority) {
+            case Log.ERROR: return 'E';
+            case Log.WARN: return 'W';
+            case Log.INFO: return 'I';
+            case Log.DEBUG: return 'D';
+            case Log.VERBOSE: return 'V';
+            default: return '?';
+        }
+    }
+
+
+
+    private static class Entry {
+
+        final int logPriority;
+        @Nullable final String fullTag;
+        @Nullable final String message;
+        final boolean extended;
+        final long time;
+        final int tid;
+
+        /** The latch to count down once the entries before this one have been written, if a flush marker. */
+        @Nullable final CountDownLatch flushLatch;
+
+        Entry(int logPriority, @NonNull String fullTag, @Nullable String message, boolean extended, long time, int tid) {
+            this.logPriority = logPriority;
+            this.fullTag = fullTag;
+            this.message = message;
+            this.extended = extended;
+            this.time = time;
+            this.tid = tid;
+            this.flushLatch = null;
+        }
+
+        Entry(@NonNull CountDownLatch flushLatch) {
+            this.logPriority = 0;
+            this.fullTag = null;
+            this.message = null;
+            this.extended = false;
+            this.time = 0;
+            this.tid = 0;
+            this.flushLatch = flushLatch;
+        }
+
+    }
+
+}
@@ -7,6 +7,7 @@ import android.util.Log;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.termux.shared.R;
 import com.termux.shared.data.DataUtils;
@@ -53,20 +54,73 @@ public class Logger {
 
 
 
+    /**
+     * The {@link AsyncLogWriter} that log entries are written with, if set with
+     * {@link #setAsyncLogWriter(AsyncLogWriter)}, otherwise entries are written to logcat on the
+     * calling thread.
+     */
+    private static volatile AsyncLogWriter ASYNC_LOG_WRITER;
+
+    /**
+     * Supplies a log message, so that large messages are only built if the log level they are
+     * logged at is enabled, like with
+     * {@code Logger.logVerbose(LOG_TAG, () -> "Environment:\n" + Joiner.on("\n").join(environment))}.
+     */
+    public interface MessageSupplier {
+        String get();
+    }
+
+
+
     public static void logMessage(int logPriority, String tag, String message) {
-        if (logPriority == Log.ERROR && CURRENT_LOG_LEVEL >= LOG_LEVEL_NORMAL)
-            Log.e(getFullTag(tag), message);
-        else if (logPriority == Log.WARN && CURRENT_LOG_LEVEL >= LOG_LEVEL_NORMAL)
-            Log.w(getFullTag(tag), message);
-        else if (logPriority == Log.INFO && CURRENT_LOG_LEVEL >= LOG_LEVEL_NORMAL)
-            Log.i(getFullTag(tag), message);
-        else if (logPriority == Log.DEBUG && CURRENT_LOG_LEVEL >= LOG_LEVEL_DEBUG)
-            Log.d(getFullTag(tag), message);
-        else if (logPriority == Log.VERBOSE && CURRENT_LOG_LEVEL >= LOG_LEVEL_VERBOSE)
-            Log.v(getFullTag(tag), message);
+        if (!isLogPriorityEnabled(logPriority)) return;
+
+        AsyncLogWriter asyncLogWriter = ASYNC_LOG_WRITER;
+        if (asyncLogWriter != null)
+            asyncLogWriter.log(logPriority, getFullTag(tag), message, false);
+        else
+            logcat(logPriority, getFullTag(tag), message, false);
     }
 
     public static void logExtendedMessage(int logLevel, String tag, String message) {
+        if (message == null || !isLogPriorityEnabled(logLevel)) return;
+
+        AsyncLogWriter asyncLogWriter = ASYNC_LOG_WRITER;
+        if (asyncLogWriter != null)
+            asyncLogWriter.log(logLevel, getFullTag(tag), message, true);
+        else
+            logcat(logLevel, getFullTag(tag), message, true);
+    }
+
+    /**
+     * Log the message returned by {@code messageSupplier}, which is only called if
+     * {@code logPriority} is enabled for the {@link #CURRENT_LOG_LEVEL}.
+     */
+    public static void logMessage(int logPriority, String tag, @NonNull MessageSupplier messageSupplier) {
+        if (isLogPriorityEnabled(logPriority))
+            logMessage(logPriority, tag, messageSupplier.get());
+    }
+
+    /**
+     * Log the message returned by {@code messageSupplier} like
+     * {@link #logExtendedMessage(int, String, String)}, which is only called if {@code logLevel}
+     * is enabled for the {@link #CURRENT_LOG_LEVEL}.
+     */
+    public static void logExtendedMessage(int logLevel, String tag, @NonNull MessageSupplier messageSupplier) {
+        if (isLogPriorityEnabled(logLevel))
+            logExtendedMessage(logLevel, tag, messageSupplier.get());
+    }
+
+    /**
+     * Write a message to logcat. If {@code extended} is {@code true}, then the message is split
+     * into {@link #LOGGER_ENTRY_MAX_PAYLOAD} sized entries, at newlines if possible.
+     */
+    static void logcat(int logPriority, String fullTag, String message, boolean extended) {
+        if (!extended) {
+            Log.println(logPriority, fullTag, message);
+            return;
+        }
+
         if (message == null) return;
 
         int cutOffIndex;
@@ -74,7 +128,7 @@ public class Logger {
         String prefix = "";
 
         // -8 for prefix "(xx/xx)" (max 99 sections), - log tag length, -4 for log tag prefix "D/" and suffix ": "
-        int maxEntrySize = LOGGER_ENTRY_MAX_PAYLOAD - 8 - getFullTag(tag).length() - 4;
+        int maxEntrySize = LOGGER_ENTRY_MAX_PAYLOAD - 8 - fullTag.length() - 4;
 
         List<String> messagesList = new ArrayList<>();
 
@@ -96,7 +150,23 @@ public class Logger {
         for(int i=0; i<messagesList.size(); i++) {
             if (messagesList.size() > 1)
                 prefix = "(" + (i + 1) + "/" + messagesList.size() + ")\n";
-            logMessage(logLevel, tag, prefix + messagesList.get(i));
+            Log.println(logPriority, fullTag, prefix + messagesList.get(i));
+        }
+    }
+
+    /** Check if log entries of {@code logPriority} should be logged for the {@link #CURRENT_LOG_LEVEL}. */
+    public static boolean isLogPriorityEnabled(int logPriority) {
+        switch (logPriority) {
+            case Log.ERROR:
+            case Log.WARN:
+            case Log.INFO:
+                return CURRENT_LOG_LEVEL >= LOG_LEVEL_NORMAL;
+            case Log.DEBUG:
+                return CURRENT_LOG_LEVEL >= LOG_LEVEL_DEBUG;
+            case Log.VERBOSE:
+                return CURRENT_LOG_LEVEL >= LOG_LEVEL_VERBOSE;
+            default:
+                return false;
         }
     }
 
@@ -194,6 +264,14 @@ public class Logger {
         logExtendedMessage(Log.DEBUG, DEFAULT_LOG_TAG, message);
     }
 
+    public static void logDebug(String tag, @NonNull MessageSupplier messageSupplier) {
+        logMessage(Log.DEBUG, tag, messageSupplier);
+    }
+
+    public static void logDebugExtended(String tag, @NonNull MessageSupplier messageSupplier) {
+        logExtendedMessage(Log.DEBUG, tag, messageSupplier);
+    }
+
 
 
     public static void logVerbose(String tag, String message) {
@@ -212,6 +290,14 @@ public class Logger {
         logExtendedMessage(Log.VERBOSE, DEFAULT_LOG_TAG, message);
     }
 
+    public static void logVerbose(String tag, @NonNull MessageSupplier messageSupplier) {
+        logMessage(Log.VERBOSE, tag, messageSupplier);
+    }
+
+    public static void logVerboseExtended(String tag, @NonNull MessageSupplier messageSupplier) {
+        logExtendedMessage(Log.VERBOSE, tag, messageSupplier);
+    }
+
     public static void logVerboseForce(String tag, String message) {
         Log.v(tag, message);
     }
@@ -456,6 +542,39 @@ public class Logger {
 
 
 
+    @Nullable
+    public static AsyncLogWriter getAsyncLogWriter() {
+        return ASYNC_LOG_WRITER;
+    }
+
+    /**
+     * Set the {@link AsyncLogWriter} that log entries are written with. Any previously set writer
+     * is closed after its pending entries are written.
+     *
+     * @param asyncLogWriter The {@link AsyncLogWriter} to set. If this is {@code null}, then entries
+     *                       are written to logcat on the calling thread.
+     */
+    public static synchronized void setAsyncLogWriter(@Nullable AsyncLogWriter asyncLogWriter) {
+        AsyncLogWriter oldAsyncLogWriter = ASYNC_LOG_WRITER;
+        ASYNC_LOG_WRITER = asyncLogWriter;
+        if (oldAsyncLogWriter != null && oldAsyncLogWriter != asyncLogWriter)
+            oldAsyncLogWriter.close(1000);
+    }
+
+    /**
+     * Wait for the pending entries of the {@link #ASYNC_LOG_WRITER}, if set, to be written, like
+     * before the app crashes.
+     *
+     * @param timeoutMillis The max time to wait for.
+     */
+    public static void flushAsyncLogWriter(long timeoutMillis) {
+        AsyncLogWriter asyncLogWriter = ASYNC_LOG_WRITER;
+        if (asyncLogWriter != null)
+            asyncLogWriter.flush(timeoutMillis);
+    }
+
+
+
     public static int getLogLevel() {
         return CURRENT_LOG_LEVEL;
     }
@@ -8,13 +8,15 @@ import com.termux.shared.jni.models.JniResult;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.markdown.MarkdownUtils;
 
-import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /** The client socket for {@link LocalSocketManager}. */
 public class LocalClientSocket implements Closeable {
@@ -173,10 +175,13 @@ public class LocalClientSocket implements Closeable {
     }
 
     /**
-     * Attempts to read all the bytes available on {@link SocketInputStream} and appends them to
-     * {@code data} {@link StringBuilder}.
+     * Attempts to read all the bytes available on {@link SocketInputStream} until end of file or
+     * a null `\0` byte and appends them to {@code data} {@link StringBuilder} after decoding them
+     * as UTF-8. Any bytes received after the null byte are kept in {@link SocketInputStream}
+     * for the next read.
      *
-     * This is a wrapper for {@link #read(byte[], MutableInt)} called via {@link SocketInputStream#read()}.
+     * The bytes are read in bulk with {@link SocketInputStream#fill()}, which is a wrapper for
+     * {@link #read(byte[], MutableInt)}.
      *
      * @param data The data {@link StringBuilder} to append the bytes read into.
      * @param closeStreamOnFinish If set to {@code true}, then underlying input stream will closed
@@ -185,12 +190,10 @@ public class LocalClientSocket implements Closeable {
      * error {@link String}, otherwise {@code null}.
      */
     public Error readDataOnInputStream(@NonNull StringBuilder data, boolean closeStreamOnFinish) {
-        int c;
-        InputStreamReader inputStreamReader = getInputStreamReader();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
         try {
-            while ((c = inputStreamReader.read()) > 0) {
-                data.append((char) c);
-            }
+            mInputStream.readUntilNull(bytes);
+            data.append(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
         } catch (IOException e) {
             // The SocketInputStream.read() throws the Error message in an IOException,
             // so just read the exception message and not the stack trace, otherwise it would result
@@ -202,7 +205,8 @@ public class LocalClientSocket implements Closeable {
                 e, mLocalSocketRunConfig.getTitle(), e.getMessage());
         } finally {
             if (closeStreamOnFinish) {
-                try { inputStreamReader.close();
+                try {
+                    mInputStream.close();
                 } catch (IOException e) {
                     // Ignore
                 }
@@ -213,9 +217,28 @@ public class LocalClientSocket implements Closeable {
     }
 
     /**
-     * Attempts to send all the bytes passed to {@link SocketOutputStream} .
+     * Attempts to get the next byte that will be read from {@link SocketInputStream} without
+     * consuming it, blocking until it is available.
      *
-     * This is a wrapper for {@link #send(byte[])} called via {@link SocketOutputStream#write(int)}.
+     * @param nextByte The next byte, or -1 if end of file was reached.
+     * @return Returns the {@code error} if reading was not successful containing {@link JniResult}
+     * error {@link String}, otherwise {@code null}.
+     */
+    public Error peekDataOnInputStream(MutableInt nextByte) {
+        nextByte.value = -1;
+        try {
+            nextByte.value = mInputStream.peek();
+        } catch (IOException e) {
+            return LocalSocketErrno.ERRNO_READ_DATA_FROM_INPUT_STREAM_OF_CLIENT_SOCKET_FAILED_WITH_EXCEPTION.getError(
+                mLocalSocketRunConfig.getTitle(), DataUtils.getSpaceIndentedString(e.getMessage(), 1));
+        }
+
+        return null;
+    }
+
+    /**
+     * Attempts to send all the bytes of {@code data} encoded as UTF-8 to {@link SocketOutputStream}
+     * with a single call to {@link #send(byte[])}.
      *
      * @param data The {@link String} bytes to send.
      * @param closeStreamOnFinish If set to {@code true}, then underlying output stream will closed
@@ -224,12 +247,8 @@ public class LocalClientSocket implements Closeable {
      * error {@link String}, otherwise {@code null}.
      */
     public Error sendDataToOutputStream(@NonNull String data, boolean closeStreamOnFinish) {
-
-        OutputStreamWriter outputStreamWriter = getOutputStreamWriter();
-
-        try (BufferedWriter byteStreamWriter = new BufferedWriter(outputStreamWriter)) {
-            byteStreamWriter.write(data);
-            byteStreamWriter.flush();
+        try {
+            mOutputStream.write(data.getBytes(StandardCharsets.UTF_8));
         } catch (IOException e) {
             // The SocketOutputStream.write() throws the Error message in an IOException,
             // so just read the exception message and not the stack trace, otherwise it would result
@@ -242,7 +261,7 @@ public class LocalClientSocket implements Closeable {
         } finally {
             if (closeStreamOnFinish) {
                 try {
-                    outputStreamWriter.close();
+                    mOutputStream.close();
                 } catch (IOException e) {
                     // Ignore
                 }
@@ -288,12 +307,17 @@ public class LocalClientSocket implements Closeable {
 
     /** Set {@link LocalClientSocket} receiving (SO_RCVTIMEO) timeout to value returned by {@link LocalSocketRunConfig#getReceiveTimeout()}. */
     public Error setReadTimeout() {
+        return setReadTimeout(mLocalSocketRunConfig.getReceiveTimeout());
+    }
+
+    /** Set {@link LocalClientSocket} receiving (SO_RCVTIMEO) timeout in milliseconds, or no timeout if 0. */
+    public Error setReadTimeout(int timeout) {
         if (mFD >= 0) {
             JniResult result = LocalSocketManager.setSocketReadTimeout(mLocalSocketRunConfig.getLogTitle() + " (client)",
-                mFD, mLocalSocketRunConfig.getReceiveTimeout());
+                mFD, timeout);
             if (result == null || result.retval != 0) {
                 return LocalSocketErrno.ERRNO_SET_CLIENT_SOCKET_READ_TIMEOUT_FAILED.getError(
-                    mLocalSocketRunConfig.getTitle(), mLocalSocketRunConfig.getReceiveTimeout(), JniResult.getErrorString(result));
+                    mLocalSocketRunConfig.getTitle(), timeout, JniResult.getErrorString(result));
             }
         }
         return null;
@@ -345,7 +369,7 @@ public class LocalClientSocket implements Closeable {
     /** Get {@link OutputStreamWriter} for {@link #mOutputStream} for the client socket. The stream will automatically close when client socket is closed. */
     @NonNull
     public OutputStreamWriter getOutputStreamWriter() {
-        return new OutputStreamWriter(getOutputStream());
+        return new OutputStreamWriter(getOutputStream(), StandardCharsets.UTF_8);
     }
 
     /** Get {@link #mInputStream} for the client socket. The stream will automatically close when client socket is closed. */
@@ -356,7 +380,7 @@ public class LocalClientSocket implements Closeable {
     /** Get {@link InputStreamReader} for {@link #mInputStream} for the client socket. The stream will automatically close when client socket is closed. */
     @NonNull
     public InputStreamReader getInputStreamReader() {
-        return new InputStreamReader(getInputStream());
+        return new InputStreamReader(getInputStream(), StandardCharsets.UTF_8);
     }
 
 
@@ -406,23 +430,25 @@ public class LocalClientSocket implements Closeable {
 
 
 
-    /** The {@link InputStream} implementation for the {@link LocalClientSocket}. */
+    /**
+     * The {@link InputStream} implementation for the {@link LocalClientSocket}.
+     *
+     * Bytes are read from the socket in bulk into {@link #mBuffer}, so that reading a request
+     * byte by byte, like with an {@link InputStreamReader}, does not require a JNI call for each byte.
+     */
     protected class SocketInputStream extends InputStream {
-        private final byte[] mBytes = new byte[1];
+        /** The buffer for the bytes read from the socket that have not been returned yet. */
+        private final byte[] mBuffer = new byte[8192];
+        private int mPosition;
+        private int mCount;
+        private final MutableInt mBytesRead = new MutableInt(0);
 
         @Override
         public int read() throws IOException {
-            MutableInt bytesRead = new MutableInt(0);
-            Error error = LocalClientSocket.this.read(mBytes, bytesRead);
-            if (error != null) {
-                throw new IOException(error.getErrorMarkdownString());
-            }
-
-            if (bytesRead.value == 0) {
+            if (mPosition >= mCount && !fill())
                 return -1;
-            }
 
-            return mBytes[0];
+            return mBuffer[mPosition++] & 0xFF;
         }
 
         @Override
@@ -431,17 +457,39 @@ public class LocalClientSocket implements Closeable {
                 throw new NullPointerException("Read buffer can't be null");
             }
 
-            MutableInt bytesRead = new MutableInt(0);
-            Error error = LocalClientSocket.this.read(bytes, bytesRead);
-            if (error != null) {
-                throw new IOException(error.getErrorMarkdownString());
+            return read(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (bytes == null) {
+                throw new NullPointerException("Read buffer can't be null");
+            }
+            if (offset < 0 || length < 0 || length > bytes.length - offset) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (length == 0) {
+                return 0;
             }
 
-            if (bytesRead.value == 0) {
-                return -1;
+            if (mPosition >= mCount) {
+                // Read directly into large buffers instead of copying through mBuffer
+                if (offset == 0 && length == bytes.length && length >= mBuffer.length) {
+                    Error error = LocalClientSocket.this.read(bytes, mBytesRead);
+                    if (error != null) {
+                        throw new IOException(error.getErrorMarkdownString());
+                    }
+                    return mBytesRead.value == 0 ? -1 : mBytesRead.value;
+                }
+
+                if (!fill())
+                    return -1;
             }
 
-            return bytesRead.value;
+            int bytesToCopy = Math.min(length, mCount - mPosition);
+            System.arraycopy(mBuffer, mPosition, bytes, offset, bytesToCopy);
+            mPosition += bytesToCopy;
+            return bytesToCopy;
         }
 
         @Override
@@ -451,7 +499,58 @@ public class LocalClientSocket implements Closeable {
             if (error != null) {
                 throw new IOException(error.getErrorMarkdownString());
             }
-            return available.value;
+            return (mCount - mPosition) + available.value;
+        }
+
+        /** Get the next byte without consuming it, or -1 if end of file was reached. */
+        protected int peek() throws IOException {
+            if (mPosition >= mCount && !fill())
+                return -1;
+
+            return mBuffer[mPosition] & 0xFF;
+        }
+
+        /**
+         * Read bytes into {@code bytes} until a null `\0` byte or end of file. The null byte is
+         * consumed but not written.
+         *
+         * @return Returns {@code true} if a null byte was read, otherwise {@code false} if end of
+         * file was reached.
+         */
+        protected boolean readUntilNull(@NonNull ByteArrayOutputStream bytes) throws IOException {
+            while (true) {
+                if (mPosition >= mCount && !fill())
+                    return false;
+
+                for (int i = mPosition; i < mCount; i++) {
+                    if (mBuffer[i] == 0) {
+                        bytes.write(mBuffer, mPosition, i - mPosition);
+                        mPosition = i + 1;
+                        return true;
+                    }
+                }
+
+                bytes.write(mBuffer, mPosition, mCount - mPosition);
+                mPosition = mCount;
+            }
+        }
+
+        /**
+         * Read the bytes available on the socket into {@link #mBuffer}, blocking until at least
+         * one byte is available.
+         *
+         * @return Returns {@code true} if bytes were read, otherwise {@code false} if end of file
+         * was reached.
+         */
+        protected boolean fill() throws IOException {
+            Error error = LocalClientSocket.this.read(mBuffer, mBytesRead);
+            if (error != null) {
+                throw new IOException(error.getErrorMarkdownString());
+            }
+
+            mPosition = 0;
+            mCount = mBytesRead.value;
+            return mCount > 0;
         }
     }
 
@@ -478,6 +577,19 @@ public class LocalClientSocket implements Closeable {
                 throw new IOException(error.getErrorMarkdownString());
             }
         }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (offset < 0 || length < 0 || length > bytes.length - offset) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (length == 0) {
+                return;
+            }
+
+            // Send the bytes with a single call instead of a call per byte, like when writers flush their buffers
+            write(offset == 0 && length == bytes.length ? bytes : Arrays.copyOfRange(bytes, offset, offset + length));
+        }
     }
 
 }
@@ -11,6 +11,8 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 
 /** The server socket for {@link LocalSocketManager}. */
 public class LocalServerSocket implements Closeable {
@@ -36,6 +38,15 @@ public class LocalServerSocket implements Closeable {
      */
     public static final String SERVER_SOCKET_PARENT_DIRECTORY_PERMISSIONS = "rwx"; // Default: "rwx"
 
+    /**
+     * The max time in milliseconds the {@link ClientSocketListener} waits for client sockets before
+     * checking if the server socket has been closed.
+     */
+    protected static final int CLIENT_SOCKET_LISTENER_WAIT_TIMEOUT = 1000;
+
+    /** The max number of client sockets accepted or found ready by a single wait of the {@link ClientSocketListener}. */
+    protected static final int CLIENT_SOCKET_LISTENER_MAX_EVENTS = 64;
+
     /**
      * Create an new instance of {@link LocalServerSocket}.
      *
@@ -209,87 +220,130 @@ public class LocalServerSocket implements Closeable {
                 continue;
             }
 
-            PeerCred peerCred = new PeerCred();
-            result = LocalSocketManager.getPeerCred(mLocalSocketRunConfig.getLogTitle() + " (client)", clientFD, peerCred);
-            if (result == null || result.retval != 0) {
-                mLocalSocketManager.onError(
-                    LocalSocketErrno.ERRNO_GET_CLIENT_SOCKET_PEER_UID_FAILED.getError(mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result)));
-                LocalClientSocket.closeClientSocket(mLocalSocketManager, clientFD);
+            LocalClientSocket clientSocket = createClientSocket(clientFD);
+            if (clientSocket == null)
                 continue;
-            }
 
-            int peerUid = peerCred.uid;
-            if (peerUid < 0) {
-                mLocalSocketManager.onError(
-                    LocalSocketErrno.ERRNO_CLIENT_SOCKET_PEER_UID_INVALID.getError(peerUid, mLocalSocketRunConfig.getTitle()));
-                LocalClientSocket.closeClientSocket(mLocalSocketManager, clientFD);
-                continue;
-            }
+            return clientSocket;
+        }
+    }
 
-            LocalClientSocket clientSocket =  new LocalClientSocket(mLocalSocketManager, clientFD, peerCred);
-            Logger.logVerbose(LOG_TAG, "Client socket accept for \"" + mLocalSocketRunConfig.getTitle() + "\" server\n" + clientSocket.getLogString());
+    /**
+     * Create a {@link LocalClientSocket} for a client socket fd that has been accepted.
+     *
+     * @param clientFD The client socket fd.
+     * @return Returns the {@link LocalClientSocket}, otherwise {@code null} if getting peer credentials
+     * failed or the peer is not allowed to connect, in which case the client socket is closed.
+     */
+    protected LocalClientSocket createClientSocket(int clientFD) {
+        PeerCred peerCred = new PeerCred();
+        JniResult result = LocalSocketManager.getPeerCred(mLocalSocketRunConfig.getLogTitle() + " (client)", clientFD, peerCred);
+        if (result == null || result.retval != 0) {
+            mLocalSocketManager.onError(
+                LocalSocketErrno.ERRNO_GET_CLIENT_SOCKET_PEER_UID_FAILED.getError(mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result)));
+            LocalClientSocket.closeClientSocket(mLocalSocketManager, clientFD);
+            return null;
+        }
 
-            // Only allow connection if the peer has the same uid as server app's user id or root user id
-            if (peerUid != mLocalSocketManager.getContext().getApplicationInfo().uid && peerUid != 0) {
-                mLocalSocketManager.onDisallowedClientConnected(clientSocket,
-                    LocalSocketErrno.ERRNO_CLIENT_SOCKET_PEER_UID_DISALLOWED.getError(clientSocket.getPeerCred().getMinimalString(),
-                        mLocalSocketManager.getLocalSocketRunConfig().getTitle()));
-                clientSocket.closeClientSocket(true);
-                continue;
-            }
+        int peerUid = peerCred.uid;
+        if (peerUid < 0) {
+            mLocalSocketManager.onError(
+                LocalSocketErrno.ERRNO_CLIENT_SOCKET_PEER_UID_INVALID.getError(peerUid, mLocalSocketRunConfig.getTitle()));
+            LocalClientSocket.closeClientSocket(mLocalSocketManager, clientFD);
+            return null;
+        }
 
-            return clientSocket;
+        LocalClientSocket clientSocket =  new LocalClientSocket(mLocalSocketManager, clientFD, peerCred);
+        Logger.logVerbose(LOG_TAG, () -> "Client socket accept for \"" + mLocalSocketRunConfig.getTitle() + "\" server\n" + clientSocket.getLogString());
+
+        // Only allow connection if the peer has the same uid as server app's user id or root user id
+        if (peerUid != mLocalSocketManager.getContext().getApplicationInfo().uid && peerUid != 0) {
+            mLocalSocketManager.onDisallowedClientConnected(clientSocket,
+                LocalSocketErrno.ERRNO_CLIENT_SOCKET_PEER_UID_DISALLOWED.getError(clientSocket.getPeerCred().getMinimalString(),
+                    mLocalSocketManager.getLocalSocketRunConfig().getTitle()));
+            clientSocket.closeClientSocket(true);
+            return null;
         }
+
+        return clientSocket;
     }
 
+    /**
+     * Set the read and write timeouts of a {@link LocalClientSocket}.
+     *
+     * @return Returns {@code true} if timeouts were set, otherwise {@code false}, in which case the
+     * client socket is closed.
+     */
+    protected boolean setClientSocketTimeouts(@NonNull LocalClientSocket clientSocket) {
+        Error error;
+
+        error = clientSocket.setReadTimeout();
+        if (error != null) {
+            mLocalSocketManager.onError(clientSocket, error);
+            clientSocket.closeClientSocket(true);
+            return false;
+        }
 
+        error = clientSocket.setWriteTimeout();
+        if (error != null) {
+            mLocalSocketManager.onError(clientSocket, error);
+            clientSocket.closeClientSocket(true);
+            return false;
+        }
 
+        return true;
+    }
 
-    /** The {@link LocalClientSocket} listener {@link java.lang.Runnable} for {@link LocalServerSocket}. */
+
+
+
+    /**
+     * The {@link LocalClientSocket} listener {@link java.lang.Runnable} for {@link LocalServerSocket}.
+     *
+     * The listener waits on an epoll instance for new client sockets on the server socket and
+     * accepts all the pending ones at once. If {@link LocalSocketRunConfig#shouldWaitForClientData()}
+     * is enabled, accepted client sockets are then added to the epoll instance and only passed to
+     * the {@link ILocalSocketManager} once they are ready to be read from, so that clients that
+     * connect and are slow to send their request do not hold a client thread of the
+     * {@link LocalSocketClientExecutor}. Clients that do not send anything within the
+     * {@link LocalSocketRunConfig#getReceiveTimeout()} or {@link LocalSocketRunConfig#getDeadline()}
+     * are closed. If the epoll instance can not be used, the listener falls back to blocking
+     * {@link #accept()} calls.
+     */
     protected class ClientSocketListener implements Runnable {
 
+        /** The client sockets accepted that are not ready to be read from yet, in the order they were accepted. */
+        private final LinkedHashMap<Integer, LocalClientSocket> mPendingClientSockets = new LinkedHashMap<>();
+
         @Override
         public void run() {
+            int epollFD = -1;
             try {
                 Logger.logVerbose(LOG_TAG, "ClientSocketListener start");
 
-                while (!Thread.currentThread().isInterrupted()) {
-                    LocalClientSocket clientSocket = null;
-                    try {
-                        // Listen for new client socket connections
-                        clientSocket = null;
-                        clientSocket = accept();
-                        // If server socket is closed, then stop listener thread.
-                        if (clientSocket == null)
-                            break;
-
-                        Error error;
-
-                        error = clientSocket.setReadTimeout();
-                        if (error != null) {
-                            mLocalSocketManager.onError(clientSocket, error);
-                            clientSocket.closeClientSocket(true);
-                            continue;
-                        }
-
-                        error = clientSocket.setWriteTimeout();
-                        if (error != null) {
-                            mLocalSocketManager.onError(clientSocket, error);
-                            clientSocket.closeClientSocket(true);
-                            continue;
-                        }
-
-                        // Start new thread for client logic and pass control to ILocalSocketManager implementation
-                        mLocalSocketManager.onClientAccepted(clientSocket);
-                    } catch (Throwable t) {
-                        mLocalSocketManager.onError(clientSocket,
-                            LocalSocketErrno.ERRNO_CLIENT_SOCKET_LISTENER_FAILED_WITH_EXCEPTION.getError(t, mLocalSocketRunConfig.getTitle(), t.getMessage()));
-                        if (clientSocket != null)
-                            clientSocket.closeClientSocket(true);
-                    }
+                int fd = mLocalSocketRunConfig.getFD();
+                JniResult result = LocalSocketManager.createEpoll(mLocalSocketRunConfig.getLogTitle() + " (server)", fd);
+                boolean epollFailed;
+                if (result == null || result.retval != 0) {
+                    mLocalSocketManager.onError(
+                        LocalSocketErrno.ERRNO_CREATE_SERVER_SOCKET_EPOLL_FAILED.getError(mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result)));
+                    epollFailed = true;
+                } else {
+                    epollFD = result.intData;
+                    epollFailed = listen(fd, epollFD);
                 }
+
+                if (epollFailed)
+                    listen();
             } catch (Exception ignored) {
             } finally {
+                for (LocalClientSocket clientSocket : mPendingClientSockets.values())
+                    clientSocket.closeClientSocket(true);
+                mPendingClientSockets.clear();
+
+                if (epollFD >= 0)
+                    LocalSocketManager.closeSocket(mLocalSocketRunConfig.getLogTitle() + " (server)", epollFD);
+
                 try {
                     close();
                 } catch (Exception ignored) {}
@@ -298,6 +352,176 @@ public class LocalServerSocket implements Closeable {
             Logger.logVerbose(LOG_TAG, "ClientSocketListener end");
         }
 
+        /**
+         * Listen for client sockets with the epoll instance until the server socket is closed or
+         * waiting fails.
+         *
+         * @return Returns {@code true} if waiting failed while the server socket was still open,
+         * otherwise {@code false}.
+         */
+        private boolean listen(int fd, int epollFD) {
+            int[] readyFDs = new int[CLIENT_SOCKET_LISTENER_MAX_EVENTS];
+            int[] clientFDs = new int[CLIENT_SOCKET_LISTENER_MAX_EVENTS];
+
+            // If server socket is closed, then stop listener thread.
+            while (!Thread.currentThread().isInterrupted() && mLocalSocketRunConfig.getFD() == fd) {
+                JniResult result = LocalSocketManager.waitForClientSockets(mLocalSocketRunConfig.getLogTitle() + " (server)",
+                    epollFD, fd, readyFDs, getWaitTimeout());
+                if (result == null || result.retval != 0) {
+                    if (mLocalSocketRunConfig.getFD() != fd)
+                        return false;
+
+                    mLocalSocketManager.onError(
+                        LocalSocketErrno.ERRNO_WAIT_FOR_CLIENT_SOCKETS_FAILED.getError(mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result)));
+                    // Pass pending clients to the ILocalSocketManager since they will not be waited for anymore
+                    for (LocalClientSocket clientSocket : mPendingClientSockets.values())
+                        onClientSocketReady(clientSocket);
+                    mPendingClientSockets.clear();
+                    return true;
+                }
+
+                for (int i = 0; i < result.intData; i++) {
+                    if (readyFDs[i] == fd) {
+                        acceptClientSockets(fd, epollFD, clientFDs);
+                    } else {
+                        LocalClientSocket clientSocket = mPendingClientSockets.remove(readyFDs[i]);
+                        if (clientSocket != null)
+                            onClientSocketReady(clientSocket);
+                    }
+                }
+
+                closeTimedOutClientSockets();
+            }
+
+            return false;
+        }
+
+        /** Listen for client sockets with blocking {@link #accept()} calls until the server socket is closed. */
+        private void listen() {
+            while (!Thread.currentThread().isInterrupted()) {
+                LocalClientSocket clientSocket = null;
+                try {
+                    // Listen for new client socket connections
+                    clientSocket = accept();
+                    // If server socket is closed, then stop listener thread.
+                    if (clientSocket == null)
+                        break;
+
+                    if (!setClientSocketTimeouts(clientSocket))
+                        continue;
+
+                    // Start new thread for client logic and pass control to ILocalSocketManager implementation
+                    mLocalSocketManager.onClientAccepted(clientSocket);
+                } catch (Throwable t) {
+                    mLocalSocketManager.onError(clientSocket,
+                        LocalSocketErrno.ERRNO_CLIENT_SOCKET_LISTENER_FAILED_WITH_EXCEPTION.getError(t, mLocalSocketRunConfig.getTitle(), t.getMessage()));
+                    if (clientSocket != null)
+                        clientSocket.closeClientSocket(true);
+                }
+            }
+        }
+
+        /**
+         * Accept all pending client sockets and pass them to the {@link ILocalSocketManager}, or add
+         * them to the epoll instance to wait for their data if
+         * {@link LocalSocketRunConfig#shouldWaitForClientData()} is enabled.
+         */
+        private void acceptClientSockets(int fd, int epollFD, int[] clientFDs) {
+            JniResult result = LocalSocketManager.acceptClientSockets(mLocalSocketRunConfig.getLogTitle() + " (client)", fd, clientFDs);
+            if (result == null || result.retval != 0) {
+                mLocalSocketManager.onError(
+                    LocalSocketErrno.ERRNO_ACCEPT_CLIENT_SOCKET_FAILED.getError(mLocalSocketRunConfig.getTitle(), JniResult.getErrorString(result)));
+                return;
+            }
+
+            for (int i = 0; i < result.intData; i++) {
+                LocalClientSocket clientSocket = null;
+                try {
+                    clientSocket = createClientSocket(clientFDs[i]);
+                    if (clientSocket == null)
+                        continue;
+
+                    if (!setClientSocketTimeouts(clientSocket))
+                        continue;
+
+                    if (!mLocalSocketRunConfig.shouldWaitForClientData()) {
+                        onClientSocketReady(clientSocket);
+                        continue;
+                    }
+
+                    JniResult addResult = LocalSocketManager.addEpollClientSocket(mLocalSocketRunConfig.getLogTitle() + " (client)",
+                        epollFD, clientSocket.getFD());
+                    if (addResult == null || addResult.retval != 0) {
+                        // Let the client thread block on reading instead
+                        onClientSocketReady(clientSocket);
+                        continue;
+                    }
+
+                    mPendingClientSockets.put(clientSocket.getFD(), clientSocket);
+                } catch (Throwable t) {
+                    mLocalSocketManager.onError(clientSocket,
+                        LocalSocketErrno.ERRNO_CLIENT_SOCKET_LISTENER_FAILED_WITH_EXCEPTION.getError(t, mLocalSocketRunConfig.getTitle(), t.getMessage()));
+                    if (clientSocket != null)
+                        clientSocket.closeClientSocket(true);
+                }
+            }
+        }
+
+        /** Pass control of a client socket to the {@link ILocalSocketManager} implementation. */
+        private void onClientSocketReady(@NonNull LocalClientSocket clientSocket) {
+            try {
+                mLocalSocketManager.onClientAccepted(clientSocket);
+            } catch (Throwable t) {
+                mLocalSocketManager.onError(clientSocket,
+                    LocalSocketErrno.ERRNO_CLIENT_SOCKET_LISTENER_FAILED_WITH_EXCEPTION.getError(t, mLocalSocketRunConfig.getTitle(), t.getMessage()));
+                clientSocket.closeClientSocket(true);
+            }
+        }
+
+        /** Close the pending client sockets that did not send any data within the ready timeout. */
+        private void closeTimedOutClientSockets() {
+            long readyTimeout = getClientSocketReadyTimeout();
+            if (readyTimeout <= 0) return;
+
+            long currentTime = System.currentTimeMillis();
+            Iterator<LocalClientSocket> iterator = mPendingClientSockets.values().iterator();
+            while (iterator.hasNext()) {
+                LocalClientSocket clientSocket = iterator.next();
+                // Client sockets are in the order they were accepted, so the rest have not timed out either.
+                if (currentTime - clientSocket.getCreationTime() < readyTimeout)
+                    break;
+
+                iterator.remove();
+                mLocalSocketManager.onError(clientSocket,
+                    LocalSocketErrno.ERRNO_CLIENT_SOCKET_READY_TIMEOUT.getError(clientSocket.getPeerCred().getMinimalString(),
+                        mLocalSocketRunConfig.getTitle(), readyTimeout));
+                clientSocket.closeClientSocket(true);
+            }
+        }
+
+        /** Get the time to wait for client sockets, which is until the oldest pending client socket would time out. */
+        private int getWaitTimeout() {
+            long readyTimeout = getClientSocketReadyTimeout();
+            if (readyTimeout <= 0 || mPendingClientSockets.isEmpty())
+                return CLIENT_SOCKET_LISTENER_WAIT_TIMEOUT;
+
+            LocalClientSocket oldestClientSocket = mPendingClientSockets.values().iterator().next();
+            long timeout = oldestClientSocket.getCreationTime() + readyTimeout - System.currentTimeMillis();
+            return (int) Math.max(0, Math.min(timeout, CLIENT_SOCKET_LISTENER_WAIT_TIMEOUT));
+        }
+
+        /**
+         * Get the max time a client socket may take to send data after it is accepted, which is the
+         * read timeout or the deadline, whichever is smaller, or 0 if neither is set.
+         */
+        private long getClientSocketReadyTimeout() {
+            long readyTimeout = mLocalSocketRunConfig.getReceiveTimeout();
+            long deadline = mLocalSocketRunConfig.getDeadline();
+            if (deadline > 0 && (readyTimeout <= 0 || deadline < readyTimeout))
+                readyTimeout = deadline;
+            return readyTimeout;
+        }
+
     }
 
 }
@@ -0,0 +1,258 @@
+package com.termux.shared.net.socket.local;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.logger.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The bounded executor that runs the {@link ILocalSocketManager} callbacks of a {@link LocalSocketManager},
+ * like for handling accepted {@link LocalClientSocket}, as per the
+ * {@link LocalSocketRunConfig#getMaxConcurrentClients()}, {@link LocalSocketRunConfig#getClientQueueSize()}
+ * and {@link LocalSocketRunConfig#getClientRejectPolicy()}, instead of starting a new thread for
+ * each callback.
+ *
+ * The executor also records the queue depth and the latency of callbacks, which is the time a
+ * callback waited in the queue before it started to run.
+ */
+public class LocalSocketClientExecutor {
+
+    public static final String LOG_TAG = "LocalSocketClientExecutor";
+
+    /** The time in seconds after which idle threads are stopped. */
+    protected static final int THREAD_KEEP_ALIVE_TIME = 30;
+
+    /** The {@link LocalSocketRunConfig} containing run config for the {@link LocalSocketManager}. */
+    @NonNull protected final LocalSocketRunConfig mLocalSocketRunConfig;
+
+    /** The {@link Thread.UncaughtExceptionHandler} used for the threads started by the executor. */
+    @NonNull protected final Thread.UncaughtExceptionHandler mUncaughtExceptionHandler;
+
+    /** The {@link ThreadPoolExecutor} that runs the callbacks. */
+    @NonNull protected final ThreadPoolExecutor mExecutor;
+
+    /** The number of client threads started by the executor, including the ones already stopped. */
+    @NonNull protected final AtomicInteger mCreatedThreadCount = new AtomicInteger();
+
+    protected long mSubmittedCount;
+    protected long mRejectedCount;
+    protected int mMaxQueueDepth;
+    protected long mStartedCount;
+    protected long mTotalLatencyNanos;
+    protected long mLastLatencyNanos;
+    protected long mMaxLatencyNanos;
+
+    /**
+     * Create an new instance of {@link LocalSocketClientExecutor}.
+     *
+     * @param localSocketRunConfig The {@link #mLocalSocketRunConfig} value.
+     * @param uncaughtExceptionHandler The {@link #mUncaughtExceptionHandler} value.
+     */
+    public LocalSocketClientExecutor(@NonNull LocalSocketRunConfig localSocketRunConfig,
+                                     @NonNull Thread.UncaughtExceptionHandler uncaughtExceptionHandler) {
+        mLocalSocketRunConfig = localSocketRunConfig;
+        mUncaughtExceptionHandler = uncaughtExceptionHandler;
+
+        int maxConcurrentClients = localSocketRunConfig.getMaxConcurrentClients();
+        int clientQueueSize = localSocketRunConfig.getClientQueueSize();
+        BlockingQueue<Runnable> queue = clientQueueSize > 0 ? new ArrayBlockingQueue<>(clientQueueSize) : new SynchronousQueue<>();
+
+        mExecutor = new ThreadPoolExecutor(maxConcurrentClients, maxConcurrentClients,
+            THREAD_KEEP_ALIVE_TIME, TimeUnit.SECONDS, queue, new ClientThreadFactory()) {
+            @Override
+            protected void beforeExecute(Thread t, Runnable r) {
+                super.beforeExecute(t, r);
+                if (r instanceof ClientTask)
+                    onClientTaskStarted((ClientTask) r);
+            }
+        };
+        // Do not keep threads around for servers that are rarely connected to
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Run the runnable in a client thread, or as per {@link LocalSocketRunConfig#getClientRejectPolicy()}
+     * if {@link LocalSocketRunConfig#getMaxConcurrentClients()} runnables are already running and
+     * {@link LocalSocketRunConfig#getClientQueueSize()} runnables are already queued.
+     *
+     * @param runnable The {@link Runnable} to run.
+     * @return Returns {@code true} if the runnable was run or queued to be run, otherwise {@code false}
+     * if it was rejected with {@link LocalSocketRunConfig.ClientRejectPolicy#ABORT} or since the
+     * executor has been shutdown.
+     */
+    public boolean execute(@NonNull Runnable runnable) {
+        ClientTask clientTask = new ClientTask(runnable);
+        synchronized (this) {
+            mSubmittedCount++;
+        }
+
+        try {
+            mExecutor.execute(clientTask);
+            synchronized (this) {
+                mMaxQueueDepth = Math.max(mMaxQueueDepth, mExecutor.getQueue().size());
+            }
+            return true;
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                mRejectedCount++;
+            }
+        }
+
+        // Tasks must not be run by the reject policy after the executor has been shutdown
+        if (mExecutor.isShutdown())
+            return false;
+
+        switch (mLocalSocketRunConfig.getClientRejectPolicy()) {
+            case CALLER_RUNS:
+                onClientTaskStarted(clientTask);
+                clientTask.run();
+                return true;
+            case NEW_THREAD:
+                Thread thread = new Thread(clientTask);
+                thread.setUncaughtExceptionHandler(mUncaughtExceptionHandler);
+                try {
+                    thread.start();
+                    return true;
+                } catch (Exception e) {
+                    Logger.logStackTraceWithMessage(LOG_TAG, "LocalSocketManagerClientThread start failed", e);
+                    return false;
+                }
+            case ABORT:
+            default:
+                return false;
+        }
+    }
+
+    /** Stop accepting new runnables. Runnables already running or queued will still be run. */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    protected synchronized void onClientTaskStarted(@NonNull ClientTask clientTask) {
+        long latencyNanos = System.nanoTime() - clientTask.mSubmitTimeNanos;
+        mStartedCount++;
+        mTotalLatencyNanos += latencyNanos;
+        mLastLatencyNanos = latencyNanos;
+        mMaxLatencyNanos = Math.max(mMaxLatencyNanos, latencyNanos);
+    }
+
+
+
+    /** Get the number of runnables currently queued. */
+    public int getQueueDepth() {
+        return mExecutor.getQueue().size();
+    }
+
+    /** Get the max number of runnables that were queued at the same time. */
+    public synchronized int getMaxQueueDepth() {
+        return mMaxQueueDepth;
+    }
+
+    /** Get the number of client threads currently running runnables. */
+    public int getActiveCount() {
+        return mExecutor.getActiveCount();
+    }
+
+    /** Get the number of client threads started, including the ones stopped after being idle. */
+    public int getCreatedThreadCount() {
+        return mCreatedThreadCount.get();
+    }
+
+    /** Get the max number of client threads that were running at the same time. */
+    public int getLargestPoolSize() {
+        return mExecutor.getLargestPoolSize();
+    }
+
+    /** Get the number of runnables passed to {@link #execute(Runnable)}. */
+    public synchronized long getSubmittedCount() {
+        return mSubmittedCount;
+    }
+
+    /** Get the number of runnables that could not be run or queued by the client threads and were handled as per the reject policy. */
+    public synchronized long getRejectedCount() {
+        return mRejectedCount;
+    }
+
+    /** Get the time the last runnable waited before it started to run. */
+    public synchronized long getLastLatencyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mLastLatencyNanos);
+    }
+
+    /** Get the max time a runnable waited before it started to run. */
+    public synchronized long getMaxLatencyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mMaxLatencyNanos);
+    }
+
+    /** Get the average time runnables waited before they started to run. */
+    public synchronized long getAverageLatencyMillis() {
+        return mStartedCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(mTotalLatencyNanos / mStartedCount);
+    }
+
+    /** Get a log {@link String} for the {@link LocalSocketClientExecutor}. */
+    @NonNull
+    public synchronized String getLogString() {
+        StringBuilder logString = new StringBuilder();
+
+        logString.append(mLocalSocketRunConfig.getTitle()).append(" Socket Server Client Executor:");
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("QueueDepth", getQueueDepth(), "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("MaxQueueDepth", mMaxQueueDepth, "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("ActiveCount", getActiveCount(), "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("CreatedThreadCount", getCreatedThreadCount(), "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("LargestPoolSize", getLargestPoolSize(), "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("SubmittedCount", mSubmittedCount, "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("RejectedCount", mRejectedCount, "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("LastLatencyMillis", getLastLatencyMillis(), "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("AverageLatencyMillis", getAverageLatencyMillis(), "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("MaxLatencyMillis", getMaxLatencyMillis(), "-"));
+
+        return logString.toString();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return getLogString();
+    }
+
+
+
+    /** A {@link Runnable} that records the time it was submitted. */
+    protected static class ClientTask implements Runnable {
+
+        @NonNull protected final Runnable mRunnable;
+        protected final long mSubmitTimeNanos;
+
+        protected ClientTask(@NonNull Runnable runnable) {
+            mRunnable = runnable;
+            mSubmitTimeNanos = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            mRunnable.run();
+        }
+
+    }
+
+    /** The {@link ThreadFactory} for the client threads that sets the {@link #mUncaughtExceptionHandler}. */
+    protected class ClientThreadFactory implements ThreadFactory {
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "LocalSocketManagerClient-" + mLocalSocketRunConfig.getTitle() +
+                "-" + mCreatedThreadCount.incrementAndGet());
+            thread.setUncaughtExceptionHandler(mUncaughtExceptionHandler);
+            return thread;
+        }
+
+    }
+
+}
@@ -24,6 +24,10 @@ public class LocalSocketErrno extends Errno {
     public static final Errno ERRNO_CLIENT_SOCKET_PEER_UID_DISALLOWED = new Errno(TYPE, 160, "Disallowed peer %1$s tried to connect with \"%2$s\" server.");
     public static final Errno ERRNO_CLOSE_SERVER_SOCKET_FAILED_WITH_EXCEPTION = new Errno(TYPE, 161, "Close \"%1$s\" server socket failed.\nException: %2$s");
     public static final Errno ERRNO_CLIENT_SOCKET_LISTENER_FAILED_WITH_EXCEPTION = new Errno(TYPE, 162, "Exception in client socket listener for \"%1$s\" server.\nException: %2$s");
+    public static final Errno ERRNO_CREATE_SERVER_SOCKET_EPOLL_FAILED = new Errno(TYPE, 163, "Create epoll instance for \"%1$s\" server socket failed, falling back to blocking accept.\n%2$s");
+    public static final Errno ERRNO_WAIT_FOR_CLIENT_SOCKETS_FAILED = new Errno(TYPE, 164, "Waiting for client sockets of \"%1$s\" server failed, falling back to blocking accept.\n%2$s");
+    public static final Errno ERRNO_CLIENT_SOCKET_READY_TIMEOUT = new Errno(TYPE, 165, "Client %1$s of \"%2$s\" server did not send any data within %3$s ms.");
+    public static final Errno ERRNO_CLIENT_SOCKET_REJECTED = new Errno(TYPE, 166, "Client %1$s of \"%2$s\" server rejected since max concurrent clients \"%3$s\" and client queue size \"%4$s\" were reached.");
 
     /** Errors for {@link LocalClientSocket} (200-250) */
     public static final Errno ERRNO_SET_CLIENT_SOCKET_READ_TIMEOUT_FAILED = new Errno(TYPE, 200, "Set \"%1$s\" client socket read (SO_RCVTIMEO) timeout to \"%2$s\" failed.\n%3$s");
@@ -45,8 +45,14 @@ public class LocalSocketManager {
     /** The {@link Thread.UncaughtExceptionHandler} used for client thread started by {@link LocalSocketManager}. */
     @NonNull protected final Thread.UncaughtExceptionHandler mLocalSocketManagerClientThreadUEH;
 
+    /**
+     * The {@link LocalSocketClientExecutor} that runs the {@link ILocalSocketManager} callbacks,
+     * created when {@link #start()} is called and shutdown when {@link #stop()} is called.
+     */
+    @Nullable protected volatile LocalSocketClientExecutor mClientExecutor;
+
     /** Whether the {@link LocalServerSocket} managed by {@link LocalSocketManager} in running or not. */
-    protected boolean mIsRunning;
+    protected volatile boolean mIsRunning;
 
 
     /**
@@ -82,6 +88,8 @@ public class LocalSocketManager {
             }
         }
 
+        if (mClientExecutor == null)
+            mClientExecutor = new LocalSocketClientExecutor(mLocalSocketRunConfig, mLocalSocketManagerClientThreadUEH);
         mIsRunning = true;
         return mServerSocket.start();
     }
@@ -93,7 +101,13 @@ public class LocalSocketManager {
         if (mIsRunning) {
             Logger.logDebugExtended(LOG_TAG, "stop\n" + mLocalSocketRunConfig);
             mIsRunning = false;
-            return mServerSocket.stop();
+            Error error = mServerSocket.stop();
+            // Let clients already accepted finish, but do not start new ones.
+            if (mClientExecutor != null) {
+                mClientExecutor.shutdown();
+                mClientExecutor = null;
+            }
+            return error;
         }
         return null;
     }
@@ -171,6 +185,95 @@ public class LocalSocketManager {
         }
     }
 
+    /**
+     * Creates an epoll instance that waits for new client sockets on the supplied server socket fd.
+     *
+     * @param serverTitle The server title used for logging and errors.
+     * @param fd The server socket fd.
+     * @return Returns the {@link JniResult}. If creating epoll instance was successful, then
+     * {@link JniResult#retval} will be 0 and {@link JniResult#intData} will contain the epoll fd,
+     * which must be closed with {@link #closeSocket(String, int)}.
+     */
+    @Nullable
+    public static JniResult createEpoll(@NonNull String serverTitle, int fd) {
+        try {
+            return createEpollNative(serverTitle, fd);
+        } catch (Throwable t) {
+            String message = "Exception in createEpollNative()";
+            Logger.logStackTraceWithMessage(LOG_TAG, message, t);
+            return new JniResult(message, t);
+        }
+    }
+
+    /**
+     * Adds a client socket fd to the epoll instance so that
+     * {@link #waitForClientSockets(String, int, int, int[], int)} returns it once data is available
+     * to read on it or the peer closed its writing end.
+     *
+     * @param serverTitle The server title used for logging and errors.
+     * @param epollFd The epoll fd returned by {@link #createEpoll(String, int)}.
+     * @param fd The client socket fd.
+     * @return Returns the {@link JniResult}. If adding client socket was successful, then
+     * {@link JniResult#retval} will be 0.
+     */
+    @Nullable
+    public static JniResult addEpollClientSocket(@NonNull String serverTitle, int epollFd, int fd) {
+        try {
+            return addEpollClientSocketNative(serverTitle, epollFd, fd);
+        } catch (Throwable t) {
+            String message = "Exception in addEpollClientSocketNative()";
+            Logger.logStackTraceWithMessage(LOG_TAG, message, t);
+            return new JniResult(message, t);
+        }
+    }
+
+    /**
+     * Waits for the server socket of the epoll instance to have new client sockets to accept or for
+     * client sockets added with {@link #addEpollClientSocket(String, int, int)} to be ready to be
+     * read from. Ready client sockets are removed from the epoll instance.
+     *
+     * @param serverTitle The server title used for logging and errors.
+     * @param epollFd The epoll fd returned by {@link #createEpoll(String, int)}.
+     * @param serverFd The server socket fd.
+     * @param readyFds The buffer to fill with the fds that are ready. At most 64 fds are returned.
+     * @param timeout The max time in milliseconds to wait, or -1 to wait indefinitely.
+     * @return Returns the {@link JniResult}. If waiting was successful, then {@link JniResult#retval}
+     * will be 0 and {@link JniResult#intData} will contain the number of fds filled in readyFds,
+     * which will be 0 if timeout elapsed.
+     */
+    @Nullable
+    public static JniResult waitForClientSockets(@NonNull String serverTitle, int epollFd, int serverFd,
+                                                 @NonNull int[] readyFds, int timeout) {
+        try {
+            return waitForClientSocketsNative(serverTitle, epollFd, serverFd, readyFds, timeout);
+        } catch (Throwable t) {
+            String message = "Exception in waitForClientSocketsNative()";
+            Logger.logStackTraceWithMessage(LOG_TAG, message, t);
+            return new JniResult(message, t);
+        }
+    }
+
+    /**
+     * Accepts all the connections pending on the supplied server socket fd without blocking.
+     *
+     * @param serverTitle The server title used for logging and errors.
+     * @param fd The server socket fd.
+     * @param clientFds The buffer to fill with the client socket fds. At most 64 client sockets are accepted.
+     * @return Returns the {@link JniResult}. If accepting sockets was successful, then
+     * {@link JniResult#retval} will be 0 and {@link JniResult#intData} will contain the number of
+     * client socket fds filled in clientFds.
+     */
+    @Nullable
+    public static JniResult acceptClientSockets(@NonNull String serverTitle, int fd, @NonNull int[] clientFds) {
+        try {
+            return acceptClientSocketsNative(serverTitle, fd, clientFds);
+        } catch (Throwable t) {
+            String message = "Exception in acceptClientSocketsNative()";
+            Logger.logStackTraceWithMessage(LOG_TAG, message, t);
+            return new JniResult(message, t);
+        }
+    }
+
     /**
      * Attempts to read up to data buffer length bytes from file descriptor fd into the data buffer.
      * On success, the number of bytes read is returned (zero indicates end of file).
@@ -309,33 +412,58 @@ public class LocalSocketManager {
         onError(null, error);
     }
 
-    /** Wrapper to call {@link ILocalSocketManager#onError(LocalSocketManager, LocalClientSocket, Error)} in a new thread. */
+    /** Wrapper to call {@link ILocalSocketManager#onError(LocalSocketManager, LocalClientSocket, Error)} in a client thread. */
     public void onError(@Nullable LocalClientSocket clientSocket, @NonNull Error error) {
-        startLocalSocketManagerClientThread(() ->
-            mLocalSocketManagerClient.onError(this, clientSocket, error));
+        if (!runLocalSocketManagerClientTask(() ->
+            mLocalSocketManagerClient.onError(this, clientSocket, error))) {
+            Logger.logErrorPrivateExtended(LOG_TAG, getErrorLogString(error, mLocalSocketRunConfig, clientSocket));
+        }
     }
 
-    /** Wrapper to call {@link ILocalSocketManager#onDisallowedClientConnected(LocalSocketManager, LocalClientSocket, Error)} in a new thread. */
+    /** Wrapper to call {@link ILocalSocketManager#onDisallowedClientConnected(LocalSocketManager, LocalClientSocket, Error)} in a client thread. */
     public void onDisallowedClientConnected(@NonNull LocalClientSocket clientSocket, @NonNull Error error) {
-        startLocalSocketManagerClientThread(() ->
-            mLocalSocketManagerClient.onDisallowedClientConnected(this, clientSocket, error));
+        if (!runLocalSocketManagerClientTask(() ->
+            mLocalSocketManagerClient.onDisallowedClientConnected(this, clientSocket, error))) {
+            Logger.logWarnExtended(LOG_TAG, getErrorLogString(error, mLocalSocketRunConfig, clientSocket));
+        }
     }
 
-    /** Wrapper to call {@link ILocalSocketManager#onClientAccepted(LocalSocketManager, LocalClientSocket)} in a new thread. */
+    /**
+     * Wrapper to call {@link ILocalSocketManager#onClientAccepted(LocalSocketManager, LocalClientSocket)} in a client thread.
+     * If the client is rejected by the {@link LocalSocketClientExecutor}, then the client socket is closed.
+     */
     public void onClientAccepted(@NonNull LocalClientSocket clientSocket) {
-        startLocalSocketManagerClientThread(() ->
-            mLocalSocketManagerClient.onClientAccepted(this, clientSocket));
+        if (!runLocalSocketManagerClientTask(() ->
+            mLocalSocketManagerClient.onClientAccepted(this, clientSocket))) {
+            Error error = LocalSocketErrno.ERRNO_CLIENT_SOCKET_REJECTED.getError(clientSocket.getPeerCred().getMinimalString(),
+                mLocalSocketRunConfig.getTitle(), mLocalSocketRunConfig.getMaxConcurrentClients(), mLocalSocketRunConfig.getClientQueueSize());
+            Logger.logErrorPrivateExtended(LOG_TAG, getErrorLogString(error, mLocalSocketRunConfig, clientSocket));
+            clientSocket.closeClientSocket(true);
+        }
     }
 
-    /** All client accept logic must be run on separate threads so that incoming client acceptance is not blocked. */
+    /**
+     * All client accept logic must be run on separate threads so that incoming client acceptance is not blocked.
+     * The runnable is run by the {@link LocalSocketClientExecutor}, and if rejected by it, is not run.
+     */
     public void startLocalSocketManagerClientThread(@NonNull Runnable runnable) {
-        Thread thread = new Thread(runnable);
-        thread.setUncaughtExceptionHandler(getLocalSocketManagerClientThreadUEH());
-        try {
-            thread.start();
-        } catch (Exception e) {
-            Logger.logStackTraceWithMessage(LOG_TAG, "LocalSocketManagerClientThread start failed", e);
+        runLocalSocketManagerClientTask(runnable);
+    }
+
+    /**
+     * Run the runnable with the {@link LocalSocketClientExecutor}.
+     *
+     * @return Returns {@code true} if the runnable was run or queued to be run, otherwise {@code false}
+     * if it was rejected as per {@link LocalSocketRunConfig#getClientRejectPolicy()} or since the
+     * {@link LocalSocketManager} is not running.
+     */
+    protected boolean runLocalSocketManagerClientTask(@NonNull Runnable runnable) {
+        LocalSocketClientExecutor clientExecutor = mClientExecutor;
+        if (!mIsRunning || clientExecutor == null) {
+            Logger.logDebug(LOG_TAG, "Not running client task since the " + mLocalSocketRunConfig.getTitle() + " server is not running");
+            return false;
         }
+        return clientExecutor.execute(runnable);
     }
 
 
@@ -379,6 +507,12 @@ public class LocalSocketManager {
         return uncaughtExceptionHandler;
     }
 
+    /** Get {@link #mClientExecutor}. This will be {@code null} if the {@link LocalSocketManager} is not running. */
+    @Nullable
+    public LocalSocketClientExecutor getClientExecutor() {
+        return mClientExecutor;
+    }
+
     /** Get {@link #mIsRunning}. */
     public boolean isRunning() {
         return mIsRunning;
@@ -435,6 +569,14 @@ public class LocalSocketManager {
 
     @Nullable private static native JniResult acceptNative(@NonNull String serverTitle, int fd);
 
+    @Nullable private static native JniResult createEpollNative(@NonNull String serverTitle, int fd);
+
+    @Nullable private static native JniResult addEpollClientSocketNative(@NonNull String serverTitle, int epollFd, int fd);
+
+    @Nullable private static native JniResult waitForClientSocketsNative(@NonNull String serverTitle, int epollFd, int serverFd, @NonNull int[] readyFds, int timeout);
+
+    @Nullable private static native JniResult acceptClientSocketsNative(@NonNull String serverTitle, int fd, @NonNull int[] clientFds);
+
     @Nullable private static native JniResult readNative(@NonNull String serverTitle, int fd, @NonNull byte[] data, long deadline);
 
     @Nullable private static native JniResult sendNative(@NonNull String serverTitle, int fd, @NonNull byte[] data, long deadline);
@@ -94,6 +94,58 @@ public class LocalSocketRunConfig implements Serializable {
     protected Integer mBacklog;
     public static final int DEFAULT_BACKLOG = 50;
 
+    /**
+     * The max number of {@link ILocalSocketManager} callbacks, like for handling accepted
+     * {@link LocalClientSocket}, that are run concurrently by the {@link LocalSocketClientExecutor}.
+     * Value must be greater than 0.
+     * Defaults to {@link #DEFAULT_MAX_CONCURRENT_CLIENTS}.
+     */
+    protected Integer mMaxConcurrentClients;
+    public static final int DEFAULT_MAX_CONCURRENT_CLIENTS = 10;
+
+    /**
+     * The max number of {@link ILocalSocketManager} callbacks that are queued by the
+     * {@link LocalSocketClientExecutor} while {@link #mMaxConcurrentClients} callbacks are running.
+     * Further callbacks are handled as per {@link #mClientRejectPolicy}. Value must be greater
+     * than or equal to 0.
+     * Defaults to {@link #DEFAULT_CLIENT_QUEUE_SIZE}.
+     */
+    protected Integer mClientQueueSize;
+    public static final int DEFAULT_CLIENT_QUEUE_SIZE = 50;
+
+    /**
+     * The {@link ClientRejectPolicy} for {@link ILocalSocketManager} callbacks that can neither be
+     * run nor queued by the {@link LocalSocketClientExecutor}.
+     * Defaults to {@link #DEFAULT_CLIENT_REJECT_POLICY}.
+     */
+    protected ClientRejectPolicy mClientRejectPolicy;
+    public static final ClientRejectPolicy DEFAULT_CLIENT_REJECT_POLICY = ClientRejectPolicy.CALLER_RUNS;
+
+    /**
+     * Whether accepted {@link LocalClientSocket} should only be passed to the {@link ILocalSocketManager}
+     * once they are ready to be read from, so that clients that connect and are slow to send their
+     * request do not hold a client thread of the {@link LocalSocketClientExecutor}. Clients that do
+     * not send anything within the {@link #mReceiveTimeout} or {@link #mDeadline} are closed, so this
+     * must only be enabled for servers whose clients always send data first.
+     * Defaults to {@link #DEFAULT_WAIT_FOR_CLIENT_DATA}.
+     */
+    protected Boolean mWaitForClientData;
+    public static final boolean DEFAULT_WAIT_FOR_CLIENT_DATA = false;
+
+    /** The policies for {@link ILocalSocketManager} callbacks rejected by the {@link LocalSocketClientExecutor}. */
+    public enum ClientRejectPolicy {
+        /**
+         * Run the callback in the thread that submitted it, which for accepted clients is the
+         * {@link LocalServerSocket} client socket listener thread, so that new clients wait in the
+         * server socket backlog until it returns.
+         */
+        CALLER_RUNS,
+        /** Run the callback in a new thread, like when callbacks were not bounded. */
+        NEW_THREAD,
+        /** Do not run the callback and close the {@link LocalClientSocket} if any. */
+        ABORT
+    }
+
 
     /**
      * Create an new instance of {@link LocalSocketRunConfig}.
@@ -194,6 +246,48 @@ public class LocalSocketRunConfig implements Serializable {
             mBacklog = backlog;
     }
 
+    /** Get {@link #mMaxConcurrentClients} if set, otherwise {@link #DEFAULT_MAX_CONCURRENT_CLIENTS}. */
+    public Integer getMaxConcurrentClients() {
+        return mMaxConcurrentClients != null ? mMaxConcurrentClients : DEFAULT_MAX_CONCURRENT_CLIENTS;
+    }
+
+    /** Set {@link #mMaxConcurrentClients}. Value must be greater than 0. */
+    public void setMaxConcurrentClients(Integer maxConcurrentClients) {
+        if (maxConcurrentClients > 0)
+            mMaxConcurrentClients = maxConcurrentClients;
+    }
+
+    /** Get {@link #mClientQueueSize} if set, otherwise {@link #DEFAULT_CLIENT_QUEUE_SIZE}. */
+    public Integer getClientQueueSize() {
+        return mClientQueueSize != null ? mClientQueueSize : DEFAULT_CLIENT_QUEUE_SIZE;
+    }
+
+    /** Set {@link #mClientQueueSize}. Value must be greater than or equal to 0. */
+    public void setClientQueueSize(Integer clientQueueSize) {
+        if (clientQueueSize >= 0)
+            mClientQueueSize = clientQueueSize;
+    }
+
+    /** Get {@link #mClientRejectPolicy} if set, otherwise {@link #DEFAULT_CLIENT_REJECT_POLICY}. */
+    public ClientRejectPolicy getClientRejectPolicy() {
+        return mClientRejectPolicy != null ? mClientRejectPolicy : DEFAULT_CLIENT_REJECT_POLICY;
+    }
+
+    /** Set {@link #mClientRejectPolicy}. */
+    public void setClientRejectPolicy(ClientRejectPolicy clientRejectPolicy) {
+        mClientRejectPolicy = clientRejectPolicy;
+    }
+
+    /** Get {@link #mWaitForClientData} if set, otherwise {@link #DEFAULT_WAIT_FOR_CLIENT_DATA}. */
+    public boolean shouldWaitForClientData() {
+        return mWaitForClientData != null ? mWaitForClientData : DEFAULT_WAIT_FOR_CLIENT_DATA;
+    }
+
+    /** Set {@link #mWaitForClientData}. */
+    public void setWaitForClientData(Boolean waitForClientData) {
+        mWaitForClientData = waitForClientData;
+    }
+
 
     /**
      * Get a log {@link String} for {@link LocalSocketRunConfig}.
@@ -221,6 +315,10 @@ public class LocalSocketRunConfig implements Serializable {
         logString.append("\n").append(Logger.getSingleLineLogStringEntry("SendTimeout", getSendTimeout(), "-"));
         logString.append("\n").append(Logger.getSingleLineLogStringEntry("Deadline", getDeadline(), "-"));
         logString.append("\n").append(Logger.getSingleLineLogStringEntry("Backlog", getBacklog(), "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("MaxConcurrentClients", getMaxConcurrentClients(), "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("ClientQueueSize", getClientQueueSize(), "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("ClientRejectPolicy", getClientRejectPolicy(), "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("WaitForClientData", shouldWaitForClientData(), "-"));
 
         return logString.toString();
     }
@@ -250,6 +348,10 @@ public class LocalSocketRunConfig implements Serializable {
         markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("SendTimeout", getSendTimeout(), "-"));
         markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Deadline", getDeadline(), "-"));
         markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Backlog", getBacklog(), "-"));
+        markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("MaxConcurrentClients", getMaxConcurrentClients(), "-"));
+        markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("ClientQueueSize", getClientQueueSize(), "-"));
+        markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("ClientRejectPolicy", getClientRejectPolicy(), "-"));
+        markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("WaitForClientData", shouldWaitForClientData(), "-"));
 
         return markdownString.toString();
     }
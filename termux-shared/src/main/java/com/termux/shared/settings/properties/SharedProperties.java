@@ -1,6 +1,10 @@
 package com.termux.shared.settings.properties;
 
 import android.content.Context;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
@@ -20,14 +24,17 @@ import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
 
 /**
  * An implementation similar to android's {@link android.content.SharedPreferences} interface for
  * reading and writing to and from ".properties" files which also maintains an in-memory cache for
- * the key/value pairs when an instance object is used. Operations are done under
- * synchronization locks and should be thread safe.
+ * the key/value pairs when an instance object is used. Loading is done under a synchronization
+ * lock and the cache is an immutable snapshot that is swapped in once loaded, so reading is
+ * lock free and thread safe. The file is not parsed again if it has not changed since it was
+ * last loaded.
  *
  * If {@link SharedProperties} instance object is used, then two types of in-memory cache maps are
  * maintained, one for the literal {@link String} values found in the file for the keys and an
@@ -45,20 +52,11 @@ import java.util.Set;
 public class SharedProperties {
 
     /**
-     * The {@link Properties} object that maintains an in-memory cache of values loaded from the
-     * {@link #mPropertiesFile} file. The key/value pairs are of any keys that are found in the file
-     * against their literal values in the file.
+     * The {@link Snapshot} of the properties last loaded from the {@link #mPropertiesFile} file.
+     * It is never modified after being created and is replaced as a whole by
+     * {@link #loadPropertiesFromDisk()}, so readers do not need to take the {@link #mLock}.
      */
-    private Properties mProperties;
-
-    /**
-     * The {@link HashMap<>} object that maintains an in-memory cache of internal values for the values
-     * loaded from the {@link #mPropertiesFile} file. The key/value pairs are of any keys defined by
-     * {@link #mPropertiesList} that are found in the file against their internal {@link Object} values
-     * returned by the call to
-     * {@link SharedPropertiesParser#getInternalPropertyValueFromValue(Context, String, String)} interface.
-     */
-    private Map<String, Object> mMap;
+    private volatile Snapshot mSnapshot;
 
     private final Context mContext;
     private final File mPropertiesFile;
@@ -99,25 +97,50 @@ public class SharedProperties {
         mPropertiesList = propertiesList;
         mSharedPropertiesParser = sharedPropertiesParser;
 
-        mProperties = new Properties();
-        mMap = new HashMap<>();
+        mSnapshot = new Snapshot(new Properties(), new HashMap<>(), null);
     }
 
     /**
      * Load the properties defined by {@link #mPropertiesList} or all properties if its {@code null}
-     * from the {@link #mPropertiesFile} file to update the {@link #mProperties} and {@link #mMap}
-     * in-memory cache.
+     * from the {@link #mPropertiesFile} file to update the in-memory cache.
      * Properties are not loading automatically when constructor is called and must be manually called.
+     *
+     * The file is always read and parsed again, use {@link #loadPropertiesFromDisk(boolean)} to
+     * skip it if it has not changed.
      */
     public void loadPropertiesFromDisk() {
+        loadPropertiesFromDisk(true);
+    }
+
+    /**
+     * Load the properties defined by {@link #mPropertiesList} or all properties if its {@code null}
+     * from the {@link #mPropertiesFile} file to update the in-memory cache.
+     *
+     * @param force If {@code true}, then the file is always read and parsed again. Otherwise, it
+     *              is not if its {@link FileSignature} has not changed since it was last loaded,
+     *              which should only be relied on if the file is expected to have been replaced
+     *              or modified normally, since a file modified in place while preserving its
+     *              size and last modified time will not be detected as changed.
+     * @return Returns {@code true} if the properties were loaded, otherwise {@code false} if the
+     * file has not changed.
+     */
+    public boolean loadPropertiesFromDisk(boolean force) {
         synchronized (mLock) {
+            FileSignature fileSignature = FileSignature.get(mPropertiesFile);
+            if (!force && fileSignature != null && fileSignature.equals(mSnapshot.fileSignature)) {
+                Logger.logVerbose(LOG_TAG, "Not loading properties since \"" + mPropertiesFile.getAbsolutePath() + "\" file has not changed");
+                return false;
+            }
+
             // Get properties from mPropertiesFile
             Properties properties = getProperties(false);
 
-            // We still need to load default values into mMap, so we assume no properties defined if
-            // reading from mPropertiesFile failed
-            if (properties == null)
+            // We still need to load default values into map, so we assume no properties defined if
+            // reading from mPropertiesFile failed, in which case file is read again on next load
+            if (properties == null) {
                 properties = new Properties();
+                fileSignature = null;
+            }
 
             HashMap<String, Object> map = new HashMap<>();
             Properties newProperties = new Properties();
@@ -133,7 +156,7 @@ public class SharedProperties {
                 // Logger.logVerbose(LOG_TAG, key + " : " + value);
 
                 // Call the {@link SharedPropertiesParser#getInternalPropertyValueFromValue(Context,String,String)}
-                // interface method to get the internal value to store in the {@link #mMap}.
+                // interface method to get the internal value to store in the map.
                 internalValue = mSharedPropertiesParser.getInternalPropertyValueFromValue(mContext, key, value);
 
                 // If the internal value was successfully added to map, then also add value to newProperties
@@ -143,8 +166,8 @@ public class SharedProperties {
                 }
             }
 
-            mMap = map;
-            mProperties = newProperties;
+            mSnapshot = new Snapshot(newProperties, map, fileSignature);
+            return true;
         }
     }
 
@@ -153,18 +176,16 @@ public class SharedProperties {
      * object will also contain properties not defined by the {@link #mPropertiesList} if cache
      * value is {@code false}.
      *
-     * @param cached If {@code true}, then the {@link #mProperties} in-memory cache is returned. Otherwise
+     * @param cached If {@code true}, then a copy of the in-memory cache is returned. Otherwise
      *               the {@link Properties} object is directly read from the {@link #mPropertiesFile}.
-     * @return Returns the {@link Properties} object if read from file, otherwise a copy of {@link #mProperties}.
+     * @return Returns the {@link Properties} object if read from file, otherwise a copy of the
+     * in-memory cache.
      */
     public Properties getProperties(boolean cached) {
-        synchronized (mLock) {
-            if (cached) {
-                if (mProperties == null) mProperties = new Properties();
-                return getPropertiesCopy(mProperties);
-            } else {
-                return getPropertiesFromFile(mContext, mPropertiesFile, mSharedPropertiesParser);
-            }
+        if (cached) {
+            return getPropertiesCopy(mSnapshot.properties);
+        } else {
+            return getPropertiesFromFile(mContext, mPropertiesFile, mSharedPropertiesParser);
         }
     }
 
@@ -172,48 +193,172 @@ public class SharedProperties {
      * Get the {@link String} value for the key passed from the {@link #mPropertiesFile}.
      *
      * @param key The key to read from the {@link Properties} object.
-     * @param cached If {@code true}, then the value is returned from the {@link #mProperties} in-memory cache.
+     * @param cached If {@code true}, then the value is returned from the in-memory cache.
      *               Otherwise the {@link Properties} object is read directly from the {@link #mPropertiesFile}
      *               and value is returned from it against the key.
      * @return Returns the {@link String} object. This will be {@code null} if key is not found.
      */
     public String getProperty(String key, boolean cached) {
-        synchronized (mLock) {
-            return (String) getProperties(cached).get(key);
-        }
+        if (key == null) return null;
+        Properties properties = cached ? mSnapshot.properties : getProperties(false);
+        return properties != null ? (String) properties.get(key) : null;
     }
 
     /**
-     * Get the {@link #mMap} object for the {@link #mPropertiesFile}. A call to
+     * Get the internal values map for the {@link #mPropertiesFile}. A call to
      * {@link #loadPropertiesFromDisk()} must be made before this.
      *
-     * @return Returns a copy of {@link #mMap} object.
+     * @return Returns a copy of the internal values map.
      */
     public Map<String, Object> getInternalProperties() {
-        synchronized (mLock) {
-            if (mMap == null) mMap = new HashMap<>();
-            return getMapCopy(mMap);
-        }
+        return getMapCopy(mSnapshot.map);
     }
 
     /**
      * Get the internal {@link Object} value for the key passed from the {@link #mPropertiesFile}.
-     * The value is returned from the {@link #mMap} in-memory cache, so a call to
+     * The value is returned from the in-memory cache, so a call to
      * {@link #loadPropertiesFromDisk()} must be made before this.
      *
-     * @param key The key to read from the {@link #mMap} object.
+     * @param key The key to read from the internal values map.
      * @return Returns the {@link Object} object. This will be {@code null} if key is not found or
-     * if object was {@code null}. Use {@link HashMap#containsKey(Object)} to detect the later.
+     * if object was {@code null}. Use {@link #containsInternalProperty(String)} to detect the later.
      * situation.
      */
     public Object getInternalProperty(String key) {
-        synchronized (mLock) {
-            // null keys are not allowed to be stored in mMap
-            if (key != null)
-                return getInternalProperties().get(key);
+        // null keys are not allowed to be stored in map
+        if (key != null)
+            return mSnapshot.map.get(key);
+        else
+            return null;
+    }
+
+    /**
+     * Check if the internal value for the key passed exists in the in-memory cache, even if it
+     * is {@code null}.
+     *
+     * @param key The key to check.
+     * @return Returns {@code true} if key exists, otherwise {@code false}.
+     */
+    public boolean containsInternalProperty(String key) {
+        return key != null && mSnapshot.map.containsKey(key);
+    }
+
+    /** Get the {@link Snapshot} of the properties last loaded. */
+    @NonNull
+    Snapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    /** Get the {@link #mPropertiesFile}. */
+    @Nullable
+    public File getPropertiesFile() {
+        return mPropertiesFile;
+    }
+
+
+
+    /**
+     * The properties loaded from the properties file by {@link #loadPropertiesFromDisk()} along
+     * with the {@link FileSignature} of the file they were loaded from. The {@link #properties}
+     * and {@link #map} must not be modified and only copies of them must be returned to callers.
+     */
+    static class Snapshot {
+
+        /**
+         * The key/value pairs of any keys that are found in the file against their literal values
+         * in the file.
+         */
+        @NonNull final Properties properties;
+
+        /**
+         * The key/value pairs of any keys defined by {@link #mPropertiesList} that are found in the
+         * file against their internal {@link Object} values returned by the call to
+         * {@link SharedPropertiesParser#getInternalPropertyValueFromValue(Context, String, String)}
+         * interface.
+         */
+        @NonNull final Map<String, Object> map;
+
+        /**
+         * The signature of the file the properties were loaded from. This will be {@code null}
+         * if the file should be read again on next load.
+         */
+        @Nullable final FileSignature fileSignature;
+
+        Snapshot(@NonNull Properties properties, @NonNull Map<String, Object> map, @Nullable FileSignature fileSignature) {
+            this.properties = properties;
+            this.map = map;
+            this.fileSignature = fileSignature;
+        }
+
+    }
+
+    /**
+     * The device, inode, size and last modified time of a file, used to detect if it has changed
+     * without reading it. A file replaced by editors that write to a temp file and rename it will
+     * have a different inode.
+     */
+    static class FileSignature {
+
+        final long dev;
+        final long ino;
+        final long size;
+        final long mtimeNanos;
+
+        FileSignature(long dev, long ino, long size, long mtimeNanos) {
+            this.dev = dev;
+            this.ino = ino;
+            this.size = size;
+            this.mtimeNanos = mtimeNanos;
+        }
+
+        /**
+         * Get the {@link FileSignature} of a file.
+         *
+         * A file modified within the last couple of seconds is not given a signature, since it
+         * may still be modified again within the granularity of its last modified time without
+         * its size changing, like git does for "racily clean" files, so it will be read again on
+         * next load.
+         *
+         * @param file The {@link File} to get the signature of.
+         * @return Returns the {@link FileSignature}. This will be {@code null} if file is
+         * {@code null}, could not be stat or was recently modified.
+         */
+        @Nullable
+        static FileSignature get(@Nullable File file) {
+            if (file == null) return null;
+
+            StructStat stat;
+            try {
+                stat = Os.stat(file.getAbsolutePath());
+            } catch (ErrnoException e) {
+                return null;
+            }
+
+            long mtimeNanos;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1)
+                mtimeNanos = stat.st_mtim.tv_sec * 1_000_000_000L + stat.st_mtim.tv_nsec;
             else
+                mtimeNanos = stat.st_mtime * 1_000_000_000L;
+
+            if (System.currentTimeMillis() / 1000 - mtimeNanos / 1_000_000_000L < 2)
                 return null;
+
+            return new FileSignature(stat.st_dev, stat.st_ino, stat.st_size, mtimeNanos);
         }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof FileSignature)) return false;
+            FileSignature that = (FileSignature) o;
+            return dev == that.dev && ino == that.ino && size == that.size && mtimeNanos == that.mtimeNanos;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(dev, ino, size, mtimeNanos);
+        }
+
     }
 
 
@@ -379,7 +524,7 @@ public class SharedProperties {
 
 
     /**
-     * Put a value in a {@link #mMap}.
+     * Put a value in a {@link Map}.
      * The key cannot be {@code null}.
      * Only {@code null}, primitive or their wrapper classes or String class objects are allowed to be added to
      * the map, although this limitation may be changed.
@@ -396,7 +541,7 @@ public class SharedProperties {
             return false;
         }
 
-        // null keys are not allowed to be stored in mMap
+        // null keys are not allowed to be stored in map
         if (key == null) {
             Logger.logError(LOG_TAG, "Cannot put a null key into properties map");
             return false;
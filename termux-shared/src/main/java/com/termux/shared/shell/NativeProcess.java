@@ -0,0 +1,284 @@
+package com.termux.shared.shell;
+
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.jni.models.JniResult;
+import com.termux.shared.logger.Logger;
+import com.termux.shared.shell.command.environment.ShellEnvironmentUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * A {@link Process} started by the native `process-spawner` library with `vfork()` and `execve()`
+ * instead of {@link Runtime#exec(String[], String[], File)}.
+ *
+ * The runtime builds the command and environment again and forks a copy of the app process for
+ * every command, whose cost grows with the memory of the app, and a reaper thread waits for the
+ * processes. The child started with `vfork()` shares the memory of the app till it calls `execve()`
+ * with the `argv` and `envp` prepared before, and the process is reaped by {@link #waitFor()},
+ * {@link #exitValue()} and {@link #destroy()}, so one of the former two must be called after the
+ * process exits, otherwise it will remain a zombie.
+ *
+ * The stdin, stdout and stderr streams are unbuffered {@link ParcelFileDescriptor.AutoCloseOutputStream}
+ * and {@link ParcelFileDescriptor.AutoCloseInputStream} over pipes, which own the file descriptors
+ * of the pipes, optionally with stderr merged into stdout and /dev/null used as stdin, as per
+ * {@link #FLAG_REDIRECT_ERROR_STREAM} and {@link #FLAG_NULL_STDIN}.
+ */
+public class NativeProcess extends Process {
+
+    /** The native library used for spawning processes. */
+    protected static String PROCESS_SPAWNER_LIBRARY = "process-spawner";
+
+    /** Whether {@link #PROCESS_SPAWNER_LIBRARY} has been loaded or not. */
+    protected static Boolean processSpawnerLibraryLoaded;
+
+    /** The flag to merge the stderr of the process into its stdout, like {@link ProcessBuilder#redirectErrorStream(boolean)}. */
+    public static final int FLAG_REDIRECT_ERROR_STREAM = 1;
+
+    /** The flag to use /dev/null as the stdin of the process instead of a pipe. */
+    public static final int FLAG_NULL_STDIN = 2;
+
+    private final int mPid;
+    @NonNull private final OutputStream mStdin;
+    @NonNull private final InputStream mStdout;
+    @NonNull private final InputStream mStderr;
+
+    /** The exit code of the process once it has been reaped. */
+    private Integer mExitCode;
+
+    private static final String LOG_TAG = "NativeProcess";
+
+    private NativeProcess(int pid, @NonNull OutputStream stdin, @NonNull InputStream stdout, @NonNull InputStream stderr) {
+        mPid = pid;
+        mStdin = stdin;
+        mStdout = stdout;
+        mStderr = stderr;
+    }
+
+    /**
+     * Whether processes can be spawned with {@link NativeProcess}.
+     *
+     * Before Android 7, the runtime reaps any child process of the app with `waitpid(-1)`, so the
+     * exit status of a {@link NativeProcess} would be lost.
+     */
+    public static synchronized boolean isSupported() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return false;
+        return loadLibrary();
+    }
+
+    /** Load the {@link #PROCESS_SPAWNER_LIBRARY} if not already tried to. */
+    public static synchronized boolean loadLibrary() {
+        if (processSpawnerLibraryLoaded == null) {
+            try {
+                Logger.logDebug(LOG_TAG, "Loading \"" + PROCESS_SPAWNER_LIBRARY + "\" library");
+                System.loadLibrary(PROCESS_SPAWNER_LIBRARY);
+                processSpawnerLibraryLoaded = true;
+            } catch (Throwable t) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to load \"" + PROCESS_SPAWNER_LIBRARY + "\" library", t);
+                processSpawnerLibraryLoaded = false;
+            }
+        }
+        return processSpawnerLibraryLoaded;
+    }
+
+    /**
+     * Start a process like {@link Runtime#exec(String[], String[], File)} does, with
+     * {@link NativeProcess} if {@link #isSupported()} and the executable is a path, since the
+     * `PATH` is not searched for it, otherwise with {@link Runtime}.
+     */
+    @NonNull
+    public static Process exec(@NonNull String[] commandArray, @Nullable String[] environmentArray,
+                               @Nullable File workingDirectory) throws IOException {
+        if (commandArray.length > 0 && commandArray[0].contains("/") && isSupported())
+            return spawn(commandArray, environmentArray, workingDirectory, 0);
+        else
+            return Runtime.getRuntime().exec(commandArray, environmentArray, workingDirectory);
+    }
+
+    /**
+     * Spawn a process with {@link NativeProcess}. The {@link #PROCESS_SPAWNER_LIBRARY} must have
+     * been loaded with {@link #loadLibrary()}.
+     *
+     * @param commandArray The command array, whose first element is the path to the executable.
+     * @param environmentArray The environment in `name=value` format. If {@code null}, then the
+     *                         process inherits the environment of the app.
+     * @param workingDirectory The working directory. If {@code null}, then the process inherits
+     *                         the working directory of the app.
+     * @param flags The flags for the process, like {@link #FLAG_REDIRECT_ERROR_STREAM}.
+     * @return Returns the {@link NativeProcess}.
+     * @throws IOException If the process failed to start.
+     */
+    @NonNull
+    public static NativeProcess spawn(@NonNull String[] commandArray, @Nullable String[] environmentArray,
+                                      @Nullable File workingDirectory, int flags) throws IOException {
+        if (commandArray.length == 0 || commandArray[0] == null)
+            throw new IOException("Executable not passed");
+
+        if (environmentArray == null)
+            environmentArray = ShellEnvironmentUtils.convertEnvironmentToEnviron(new HashMap<>(System.getenv())).toArray(new String[0]);
+
+        int[] fds = new int[3];
+        JniResult result = spawnNative(LOG_TAG, toBytesArray(commandArray), toBytesArray(environmentArray),
+            workingDirectory != null ? workingDirectory.getPath().getBytes(StandardCharsets.UTF_8) : null,
+            flags, fds);
+        if (result == null || result.retval != 0)
+            throw new IOException("Cannot run program \"" + commandArray[0] + "\"" +
+                (workingDirectory != null ? " (in directory \"" + workingDirectory + "\")" : "") + ": " +
+                (result != null ? result.errmsg : "null"));
+
+        return new NativeProcess(result.intData,
+            fds[0] >= 0 ? new ParcelFileDescriptor.AutoCloseOutputStream(ParcelFileDescriptor.adoptFd(fds[0])) : new NullOutputStream(),
+            fds[1] >= 0 ? new ParcelFileDescriptor.AutoCloseInputStream(ParcelFileDescriptor.adoptFd(fds[1])) : new ByteArrayInputStream(new byte[0]),
+            fds[2] >= 0 ? new ParcelFileDescriptor.AutoCloseInputStream(ParcelFileDescriptor.adoptFd(fds[2])) : new ByteArrayInputStream(new byte[0]));
+    }
+
+    @NonNull
+    private static byte[][] toBytesArray(@NonNull String[] strings) {
+        byte[][] bytesArray = new byte[strings.length][];
+        for (int i = 0; i < strings.length; i++)
+            bytesArray[i] = strings[i] != null ? strings[i].getBytes(StandardCharsets.UTF_8) : new byte[0];
+        return bytesArray;
+    }
+
+
+
+    /** Get the pid of the process. */
+    public int getPid() {
+        return mPid;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return mStdin;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return mStdout;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return mStderr;
+    }
+
+    @Override
+    public int waitFor() throws InterruptedException {
+        while (true) {
+            synchronized (this) {
+                if (mExitCode != null) return mExitCode;
+            }
+
+            if (Thread.interrupted())
+                throw new InterruptedException();
+
+            // Wait without holding the lock so that exitValue() and destroy() are not blocked,
+            // the process is only reaped by reap() while holding it
+            JniResult result = waitForNative(LOG_TAG, mPid, true);
+            if (result == null || result.retval != 0) {
+                synchronized (this) {
+                    // The process may have been reaped by another thread before waiting
+                    if (mExitCode == null) {
+                        Logger.logErrorExtended(LOG_TAG, "Failed to wait for process with pid " + mPid + "\n" + JniResult.getErrorString(result));
+                        mExitCode = 1;
+                    }
+                }
+            } else {
+                reap();
+            }
+        }
+    }
+
+    @Override
+    public synchronized int exitValue() {
+        if (!reap())
+            throw new IllegalThreadStateException("process hasn't exited");
+        return mExitCode;
+    }
+
+    /**
+     * Reap the process if it has exited.
+     *
+     * @return Returns {@code true} if the process has been reaped, otherwise {@code false}.
+     */
+    private synchronized boolean reap() {
+        if (mExitCode != null) return true;
+
+        JniResult result = waitForNative(LOG_TAG, mPid, false);
+        if (result == null || result.retval != 0) {
+            Logger.logErrorExtended(LOG_TAG, "Failed to reap process with pid " + mPid + "\n" + JniResult.getErrorString(result));
+            mExitCode = 1;
+        } else if (result.intData >= 0) {
+            mExitCode = result.intData;
+        }
+
+        return mExitCode != null;
+    }
+
+    /** Send SIGKILL to the process if it has not been reaped yet and close its streams. */
+    @Override
+    public void destroy() {
+        synchronized (this) {
+            if (!reap()) {
+                try {
+                    Os.kill(mPid, OsConstants.SIGKILL);
+                } catch (ErrnoException e) {
+                    Logger.logStackTraceWithMessage(LOG_TAG, "Failed to send SIGKILL to process with pid " + mPid, e);
+                }
+            }
+        }
+
+        closeQuietly(mStdin);
+        closeQuietly(mStdout);
+        closeQuietly(mStderr);
+    }
+
+    private static void closeQuietly(@NonNull Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // might be closed already
+        }
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "NativeProcess[pid=" + mPid + ", exitCode=" + mExitCode + "]";
+    }
+
+
+
+    /** The stdin of a process started with {@link #FLAG_NULL_STDIN}, like the runtime one for a redirected stdin. */
+    private static class NullOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            throw new IOException("Stream closed");
+        }
+
+    }
+
+
+
+    @Nullable private static native JniResult spawnNative(@NonNull String logTitle, @NonNull byte[][] argv,
+                                                          @NonNull byte[][] envp, @Nullable byte[] cwd,
+                                                          int flags, @NonNull int[] fds);
+
+    @Nullable private static native JniResult waitForNative(@NonNull String logTitle, int pid, boolean block);
+
+}
@@ -18,6 +18,9 @@ public class ShellUtils {
 
     /** Get process id of {@link Process}. */
     public static int getPid(Process p) {
+        if (p instanceof NativeProcess)
+            return ((NativeProcess) p).getPid();
+
         try {
             Field f = p.getClass().getDeclaredField("pid");
             f.setAccessible(true);
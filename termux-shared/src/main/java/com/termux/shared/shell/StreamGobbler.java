@@ -21,7 +21,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.List;
-import java.util.Locale;
 
 import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
@@ -29,6 +28,7 @@ import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
 import com.termux.shared.logger.Logger;
+import com.termux.shared.shell.command.result.ResultOutputSink;
 
 /**
  * Thread utility class continuously reading from an InputStream
@@ -77,13 +77,16 @@ public class StreamGobbler extends Thread {
     private final String shell;
     @NonNull
     private final InputStream inputStream;
-    @NonNull
+    /** The reader for the {@link #inputStream}, which is {@code null} in byte mode. */
+    @Nullable
     private final BufferedReader reader;
     @Nullable
     private final List<String> listWriter;
     @Nullable
     private final StringBuilder stringWriter;
     @Nullable
+    private final ResultOutputSink sinkWriter;
+    @Nullable
     private final OnLineListener lineListener;
     @Nullable
     private final OnStreamClosedListener streamClosedListener;
@@ -92,6 +95,9 @@ public class StreamGobbler extends Thread {
     private volatile boolean active = true;
     private volatile boolean calledOnClose = false;
 
+    /** The size of the chunks read from the {@link #inputStream} in byte mode. */
+    private static final int BYTE_MODE_CHUNK_SIZE = 8192;
+
     private static final String LOG_TAG = "StreamGobbler";
 
     /**
@@ -119,6 +125,7 @@ public class StreamGobbler extends Thread {
 
         listWriter = outputList;
         stringWriter = null;
+        sinkWriter = null;
         lineListener = null;
 
         mLogLevel = logLevel;
@@ -151,6 +158,43 @@ public class StreamGobbler extends Thread {
 
         listWriter = null;
         stringWriter = outputString;
+        sinkWriter = null;
+        lineListener = null;
+
+        mLogLevel = logLevel;
+    }
+
+    /**
+     * <p>StreamGobbler constructor</p>
+     *
+     * <p>We use this class because shell STDOUT and STDERR should be read as quickly as
+     * possible to prevent a deadlock from occurring, or Process.waitFor() never
+     * returning (as the buffer is full, pausing the native process)</p>
+     *
+     * <p>The stream is read in byte mode, in which raw chunks of bytes are written to the
+     * {@code outputSink} as is, without being decoded or split into lines. Lines are only decoded
+     * if logging is enabled, and are logged with a {@link StreamLineLogger}.</p>
+     *
+     * @param shell Name of the shell
+     * @param inputStream InputStream to read from
+     * @param outputSink {@link ResultOutputSink} to write to, which keeps the output as per its
+     *                   capture policy
+     * @param logLevel The custom log level to use for logging the command output. If set to
+     *                 {@code null}, then {@link Logger#LOG_LEVEL_VERBOSE} will be used.
+     */
+    @AnyThread
+    public StreamGobbler(@NonNull String shell, @NonNull InputStream inputStream,
+                         @NonNull ResultOutputSink outputSink,
+                         @Nullable Integer logLevel) {
+        super("Gobbler#" + incThreadCounter());
+        this.shell = shell;
+        this.inputStream = inputStream;
+        reader = null;
+        streamClosedListener = null;
+
+        listWriter = null;
+        stringWriter = null;
+        sinkWriter = outputSink;
         lineListener = null;
 
         mLogLevel = logLevel;
@@ -183,6 +227,7 @@ public class StreamGobbler extends Thread {
 
         listWriter = null;
         stringWriter = null;
+        sinkWriter = null;
         lineListener = onLineListener;
 
         mLogLevel = logLevel;
@@ -198,22 +243,19 @@ public class StreamGobbler extends Thread {
         // keep reading the InputStream until it ends (or an error occurs)
         // optionally pausing when a command is executed that consumes the InputStream itself
         try {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (loggingEnabled)
-                    Logger.logVerboseForce(defaultLogTag + "Command", String.format(Locale.ENGLISH, "[%s] %s", shell, line)); // This will get truncated by LOGGER_ENTRY_MAX_LEN, likely 4KB
-
-                if (stringWriter != null) stringWriter.append(line).append("\n");
-                if (listWriter != null) listWriter.add(line);
-                if (lineListener != null) lineListener.onLine(line);
-                while (!active) {
-                    synchronized (this) {
-                        try {
-                            this.wait(128);
-                        } catch (InterruptedException e) {
-                            // no action
-                        }
-                    }
+            if (reader == null) {
+                runByteMode(loggingEnabled ? new StreamLineLogger(defaultLogTag + "Command", shell) : null);
+            } else {
+                String line;
+                String logLinePrefix = "[" + shell + "] ";
+                while ((line = reader.readLine()) != null) {
+                    if (loggingEnabled)
+                        Logger.logVerboseForce(defaultLogTag + "Command", logLinePrefix + line); // This will get truncated by LOGGER_ENTRY_MAX_LEN, likely 4KB
+
+                    if (stringWriter != null) stringWriter.append(line).append("\n");
+                    if (listWriter != null) listWriter.add(line);
+                    if (lineListener != null) lineListener.onLine(line);
+                    waitWhileSuspended();
                 }
             }
         } catch (IOException e) {
@@ -226,7 +268,10 @@ public class StreamGobbler extends Thread {
 
         // make sure our stream is closed and resources will be freed
         try {
-            reader.close();
+            if (reader != null)
+                reader.close();
+            else
+                inputStream.close();
         } catch (IOException e) {
             // read already closed
         }
@@ -239,6 +284,38 @@ public class StreamGobbler extends Thread {
         }
     }
 
+    /**
+     * Read the {@link #inputStream} in chunks and write them to the {@link #sinkWriter}.
+     *
+     * @param lineLogger The {@link StreamLineLogger} to log lines with, or {@code null} if
+     *                   logging is disabled.
+     */
+    private void runByteMode(@Nullable StreamLineLogger lineLogger) throws IOException {
+        byte[] buffer = new byte[BYTE_MODE_CHUNK_SIZE];
+        int length;
+        try {
+            while ((length = inputStream.read(buffer)) != -1) {
+                if (sinkWriter != null) sinkWriter.write(buffer, 0, length);
+                if (lineLogger != null) lineLogger.write(buffer, length);
+                waitWhileSuspended();
+            }
+        } finally {
+            if (lineLogger != null) lineLogger.flush();
+        }
+    }
+
+    private void waitWhileSuspended() {
+        while (!active) {
+            synchronized (this) {
+                try {
+                    this.wait(128);
+                } catch (InterruptedException e) {
+                    // no action
+                }
+            }
+        }
+    }
+
     /**
      * <p>Resume consuming the input from the stream</p>
      */
@@ -0,0 +1,98 @@
+package com.termux.shared.shell;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.logger.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Splits the raw bytes read from the stdout or stderr of a command into lines for logging, and logs
+ * at most {@link #MAX_LOG_LINES_PER_INTERVAL} lines per {@link #LOG_INTERVAL_MILLIS}. The number of
+ * lines not logged is logged once the interval ends.
+ *
+ * Lines are expected to be UTF-8 encoded, and are only decoded when they are logged.
+ */
+public class StreamLineLogger {
+
+    /**
+     * The max length of a line logged, after which the line is logged in parts, since longer lines
+     * would get truncated by LOGGER_ENTRY_MAX_LEN anyways.
+     */
+    private static final int MAX_LOG_LINE_LENGTH = 4000;
+
+    /** The max number of lines logged per {@link #LOG_INTERVAL_MILLIS}. */
+    private static final int MAX_LOG_LINES_PER_INTERVAL = 100;
+
+    /** The interval in milliseconds for {@link #MAX_LOG_LINES_PER_INTERVAL}. */
+    private static final int LOG_INTERVAL_MILLIS = 1000;
+
+    @NonNull private final String mLogTag;
+    @NonNull private final String mShell;
+    @NonNull private final byte[] mLine = new byte[MAX_LOG_LINE_LENGTH];
+    private int mLineLength;
+
+    private long mIntervalStartTime;
+    private int mIntervalLoggedLines;
+    private long mIntervalSkippedLines;
+
+    /**
+     * Create an new instance of {@link StreamLineLogger}.
+     *
+     * @param logTag The log tag to log lines with.
+     * @param shell The name of the shell and stream, like "1234-stdout", that lines are prefixed with.
+     */
+    public StreamLineLogger(@NonNull String logTag, @NonNull String shell) {
+        mLogTag = logTag;
+        mShell = shell;
+    }
+
+    /** Log the complete lines in bytes, and keep the last incomplete line till more bytes are written. */
+    public void write(@NonNull byte[] bytes, int length) {
+        for (int i = 0; i < length; i++) {
+            byte b = bytes[i];
+            if (b == '\n') {
+                logLine();
+            } else {
+                if (mLineLength == mLine.length)
+                    logLine();
+                mLine[mLineLength++] = b;
+            }
+        }
+    }
+
+    /** Log the last incomplete line and the number of lines not logged, which should be done once the stream ends. */
+    public void flush() {
+        if (mLineLength > 0)
+            logLine();
+        logSkippedLines();
+    }
+
+    private void logLine() {
+        long currentTime = System.currentTimeMillis();
+        if (currentTime - mIntervalStartTime >= LOG_INTERVAL_MILLIS) {
+            logSkippedLines();
+            mIntervalStartTime = currentTime;
+            mIntervalLoggedLines = 0;
+        }
+
+        if (mIntervalLoggedLines < MAX_LOG_LINES_PER_INTERVAL) {
+            mIntervalLoggedLines++;
+            // Ignore the carriage return of "\r\n" line endings, like BufferedReader.readLine() does
+            int length = (mLineLength > 0 && mLine[mLineLength - 1] == '\r') ? mLineLength - 1 : mLineLength;
+            Logger.logVerboseForce(mLogTag, "[" + mShell + "] " + new String(mLine, 0, length, StandardCharsets.UTF_8));
+        } else {
+            mIntervalSkippedLines++;
+        }
+        mLineLength = 0;
+    }
+
+    private void logSkippedLines() {
+        if (mIntervalSkippedLines > 0) {
+            Logger.logVerboseForce(mLogTag, String.format(Locale.ENGLISH, "[%s] ... %d lines not logged", mShell, mIntervalSkippedLines));
+            mIntervalSkippedLines = 0;
+        }
+    }
+
+}
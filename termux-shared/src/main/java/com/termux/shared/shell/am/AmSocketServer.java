@@ -23,11 +23,22 @@ import com.termux.shared.shell.ArgumentTokenizer;
 import com.termux.shared.shell.command.ExecutionCommand;
 
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A AF_UNIX/SOCK_STREAM local server managed with {@link LocalSocketManager} whose
@@ -40,6 +51,23 @@ import java.util.List;
  * back in the format `exit_code\0stdout\0stderr\0` where `\0` represents a null character.
  * Check termux/termux-am-socket for implementation of a native c client.
  *
+ * Clients that run many am commands can instead opt in to the framed protocol, which keeps the
+ * connection open and pipelines requests, by first sending the {@link #FRAMED_PROTOCOL_HEADER},
+ * which starts with a null character that an am command can not start with. The server replies
+ * with the same header, otherwise the server does not support the protocol and the reply is a
+ * result in the format above. Each request and response is then a frame made of a 4 byte length of
+ * the rest of the frame, a 4 byte request id chosen by the client, and the payload, with integers
+ * in big endian. The payload of a request is the am command string and the payload of its response
+ * is the result in the format `exit_code\0stdout\0stderr`, both UTF-8 encoded. Requests are run
+ * concurrently, so responses may be sent in a different order than the requests were. The
+ * connection is closed if the client does not send a request within the
+ * {@link AmSocketServerRunConfig#getFramedIdleTimeout()}. Each framed client holds a client thread
+ * of the server while connected, so if {@link AmSocketServerRunConfig#getMaxFramedClients()} are
+ * already connected, the reply to the header is an error result in the format above instead, and
+ * the client should send its am commands on separate connections.
+ * The client ends the connection by shutting down its output, after which the server sends the
+ * remaining responses and closes the connection.
+ *
  * Usage:
  * 1. Optionally extend {@link AmSocketServerClient}, the implementation for
  *    {@link ILocalSocketManager} that will receive call backs from the server including
@@ -61,6 +89,26 @@ public class AmSocketServer {
 
     public static final String LOG_TAG = "AmSocketServer";
 
+    /** The header sent by clients to use the framed protocol and sent back by the server if supported. */
+    public static final byte[] FRAMED_PROTOCOL_HEADER = {0, 'A', 'M', 'F', 1};
+
+    /** The max length of a request frame of the framed protocol. */
+    public static final int FRAMED_PROTOCOL_MAX_FRAME_LENGTH = 1024 * 1024;
+
+    /**
+     * The max number of threads shared by all servers that run the requests of clients using the
+     * framed protocol. Requests are not run with the {@link LocalSocketManager#getClientExecutor()},
+     * since the client threads that read the requests of framed clients would otherwise wait for
+     * requests queued behind the clients themselves.
+     */
+    public static final int FRAMED_PROTOCOL_MAX_REQUEST_THREADS = 8;
+
+    /** The time in seconds after which idle framed request threads are stopped. */
+    private static final int FRAMED_PROTOCOL_REQUEST_THREAD_KEEP_ALIVE_TIME = 30;
+
+    /** The {@link ThreadPoolExecutor} that runs the requests of clients using the framed protocol. */
+    private static ThreadPoolExecutor framedRequestExecutor;
+
     /**
      * Create the {@link AmSocketServer} {@link LocalServerSocket} and start listening for new {@link LocalClientSocket}.
      *
@@ -83,6 +131,14 @@ public class AmSocketServer {
                                        @NonNull LocalClientSocket clientSocket) {
         Error error;
 
+        // Clients using the framed protocol start with a null character instead of an am command
+        LocalClientSocket.MutableInt firstByte = new LocalClientSocket.MutableInt(-1);
+        error = clientSocket.peekDataOnInputStream(firstByte);
+        if (error == null && firstByte.value == 0) {
+            processFramedAmClient(localSocketManager, clientSocket);
+            return;
+        }
+
         // Read amCommandString client sent and close input stream
         StringBuilder data = new StringBuilder();
         error = clientSocket.readDataOnInputStream(data, true);
@@ -91,37 +147,157 @@ public class AmSocketServer {
             return;
         }
 
-        String amCommandString = data.toString();
+        AmCommandResult result = runAmCommandString(localSocketManager, clientSocket, data.toString());
+        sendResultToClient(localSocketManager, clientSocket, result.exitCode, result.stdout, result.stderr);
+    }
+
+    /**
+     * Process a {@link LocalClientSocket} that uses the framed protocol described in
+     * {@link AmSocketServer}. Returns once the client has ended the connection or has been idle
+     * for the {@link AmSocketServerRunConfig#getFramedIdleTimeout()}, and responses to all its
+     * requests have been sent, or right after the header if the framed clients limit is reached.
+     *
+     * @param localSocketManager The {@link LocalSocketManager} instance for the local socket.
+     * @param clientSocket The {@link LocalClientSocket} that connected.
+     */
+    public static void processFramedAmClient(@NonNull LocalSocketManager localSocketManager,
+                                             @NonNull LocalClientSocket clientSocket) {
+        AmSocketServerRunConfig amSocketServerRunConfig = (AmSocketServerRunConfig) localSocketManager.getLocalSocketRunConfig();
+        FramedAmClient framedAmClient = new FramedAmClient(localSocketManager, clientSocket,
+            amSocketServerRunConfig.getMaxPipelinedRequests());
+        Error error;
+        DataInputStream inputStream = new DataInputStream(clientSocket.getInputStream());
+
+        try {
+            byte[] header = new byte[FRAMED_PROTOCOL_HEADER.length];
+            inputStream.readFully(header);
+            if (!Arrays.equals(header, FRAMED_PROTOCOL_HEADER)) {
+                sendResultToClient(localSocketManager, clientSocket, 1, null,
+                    AmSocketServerErrno.ERRNO_FRAMED_PROTOCOL_HEADER_UNSUPPORTED.getError(Arrays.toString(header)).toString());
+                return;
+            }
 
-        Logger.logVerbose(LOG_TAG, "am command received from peer " + clientSocket.getPeerCred().getMinimalString() +
+            if (!amSocketServerRunConfig.tryAddFramedClient()) {
+                Logger.logDebug(LOG_TAG, () -> "Rejecting framed protocol for peer " + clientSocket.getPeerCred().getMinimalString() +
+                    " since the max " + amSocketServerRunConfig.getMaxFramedClients() + " framed clients are connected");
+                sendResultToClient(localSocketManager, clientSocket, 1, null,
+                    AmSocketServerErrno.ERRNO_FRAMED_CLIENTS_LIMIT_REACHED.getError(amSocketServerRunConfig.getMaxFramedClients()).toString());
+                return;
+            }
+        } catch (Exception e) {
+            localSocketManager.onError(clientSocket,
+                AmSocketServerErrno.ERRNO_PROCESS_FRAMED_CLIENT_FAILED_WITH_EXCEPTION.getError(e, e.getMessage()));
+            return;
+        }
+
+        try {
+            clientSocket.getOutputStream().write(FRAMED_PROTOCOL_HEADER);
+
+            // The connection is kept open between requests, so only close it once it has been idle
+            // for the framed idle timeout instead of the receive timeout
+            int idleTimeout = amSocketServerRunConfig.getFramedIdleTimeout();
+            error = clientSocket.setReadTimeout(idleTimeout);
+            if (error != null) {
+                localSocketManager.onError(clientSocket, error);
+                return;
+            }
+
+            while (true) {
+                int length;
+                long readStartTime = System.nanoTime();
+                try {
+                    length = inputStream.readInt();
+                } catch (EOFException e) {
+                    // Client ended the connection
+                    break;
+                } catch (IOException e) {
+                    // The read failing once the timeout has passed means the client has been idle
+                    if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - readStartTime) < idleTimeout)
+                        throw e;
+                    Logger.logDebug(LOG_TAG, () -> "Closing framed protocol connection of peer " + clientSocket.getPeerCred().getMinimalString() +
+                        " since it was idle for " + idleTimeout + " ms");
+                    break;
+                }
+
+                if (length < 4 || length > FRAMED_PROTOCOL_MAX_FRAME_LENGTH) {
+                    localSocketManager.onError(clientSocket,
+                        AmSocketServerErrno.ERRNO_FRAMED_REQUEST_LENGTH_INVALID.getError(length, FRAMED_PROTOCOL_MAX_FRAME_LENGTH));
+                    break;
+                }
+
+                int requestId = inputStream.readInt();
+                byte[] amCommandBytes = new byte[length - 4];
+                inputStream.readFully(amCommandBytes);
+                String amCommandString = new String(amCommandBytes, StandardCharsets.UTF_8);
+
+                framedAmClient.runRequest(requestId, amCommandString);
+            }
+        } catch (Exception e) {
+            localSocketManager.onError(clientSocket,
+                AmSocketServerErrno.ERRNO_PROCESS_FRAMED_CLIENT_FAILED_WITH_EXCEPTION.getError(e, e.getMessage()));
+        } finally {
+            framedAmClient.awaitRequests();
+            amSocketServerRunConfig.removeFramedClient();
+        }
+    }
+
+    /**
+     * Get {@link #framedRequestExecutor}, creating it if not already created. Its threads are only
+     * started when needed and requests are not queued, so that a request is run in the client
+     * thread that read it if all the threads are busy.
+     */
+    @NonNull
+    private static synchronized ThreadPoolExecutor getFramedRequestExecutor() {
+        if (framedRequestExecutor == null) {
+            framedRequestExecutor = new ThreadPoolExecutor(0, FRAMED_PROTOCOL_MAX_REQUEST_THREADS,
+                FRAMED_PROTOCOL_REQUEST_THREAD_KEEP_ALIVE_TIME, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                new FramedRequestThreadFactory());
+        }
+        return framedRequestExecutor;
+    }
+
+    /**
+     * Parse and run an am command string received from a {@link LocalClientSocket}.
+     *
+     * @param localSocketManager The {@link LocalSocketManager} instance for the local socket.
+     * @param clientSocket The {@link LocalClientSocket} that sent the am command.
+     * @param amCommandString The am command string.
+     * @return Returns the {@link AmCommandResult} to send to the client.
+     */
+    @NonNull
+    public static AmCommandResult runAmCommandString(@NonNull LocalSocketManager localSocketManager,
+                                                     @NonNull LocalClientSocket clientSocket,
+                                                     String amCommandString) {
+        Error error;
+
+        Logger.logVerbose(LOG_TAG, () -> "am command received from peer " + clientSocket.getPeerCred().getMinimalString() +
             "\nam command: `" + amCommandString + "`");
 
         // Parse am command string and convert it to a list of arguments
         List<String> amCommandList = new ArrayList<>();
         error = parseAmCommand(amCommandString, amCommandList);
         if (error != null) {
-            sendResultToClient(localSocketManager, clientSocket, 1, null, error.toString());
-            return;
+            return new AmCommandResult(1, null, error.toString());
         }
 
         String[] amCommandArray = amCommandList.toArray(new String[0]);
 
-        Logger.logDebug(LOG_TAG, "am command received from peer " + clientSocket.getPeerCred().getMinimalString() +
+        Logger.logDebug(LOG_TAG, () -> "am command received from peer " + clientSocket.getPeerCred().getMinimalString() +
             "\n" + ExecutionCommand.getArgumentsLogString("am command", amCommandArray));
 
         AmSocketServerRunConfig amSocketServerRunConfig = (AmSocketServerRunConfig) localSocketManager.getLocalSocketRunConfig();
 
-        // Run am command and send its result to the client
+        // Run am command and return its result
         StringBuilder stdout = new StringBuilder();
         StringBuilder stderr = new StringBuilder();
         error = runAmCommand(localSocketManager.getContext(), amCommandArray, stdout, stderr,
             amSocketServerRunConfig.shouldCheckDisplayOverAppsPermission());
         if (error != null) {
-            sendResultToClient(localSocketManager, clientSocket, 1, stdout.toString(),
+            return new AmCommandResult(1, stdout.toString(),
                 !stderr.toString().isEmpty() ? stderr + "\n\n" + error : error.toString());
         }
 
-        sendResultToClient(localSocketManager, clientSocket, 0, stdout.toString(), stderr.toString());
+        return new AmCommandResult(0, stdout.toString(), stderr.toString());
     }
 
     /**
@@ -137,18 +313,24 @@ public class AmSocketServer {
                                           @NonNull LocalClientSocket clientSocket,
                                           int exitCode,
                                           @Nullable String stdout, @Nullable String stderr) {
+        // Send result to client and close output stream
+        Error error = clientSocket.sendDataToOutputStream(getResultString(clientSocket, exitCode, stdout, stderr), true);
+        if (error != null) {
+            localSocketManager.onError(clientSocket, error);
+        }
+    }
+
+    /** Get the result {@link String} in the format `exit_code\0stdout\0stderr` to send to a {@link LocalClientSocket}. */
+    @NonNull
+    public static String getResultString(@NonNull LocalClientSocket clientSocket, int exitCode,
+                                         @Nullable String stdout, @Nullable String stderr) {
         StringBuilder result = new StringBuilder();
         result.append(sanitizeExitCode(clientSocket, exitCode));
         result.append('\0');
         result.append(stdout != null ? stdout : "");
         result.append('\0');
         result.append(stderr != null ? stderr : "");
-
-        // Send result to client and close output stream
-        Error error = clientSocket.sendDataToOutputStream(result.toString(), true);
-        if (error != null) {
-            localSocketManager.onError(clientSocket, error);
-        }
+        return result.toString();
     }
 
     /**
@@ -243,6 +425,114 @@ public class AmSocketServer {
 
 
 
+    /** The result of an am command to send to a {@link LocalClientSocket}. */
+    public static class AmCommandResult {
+
+        public final int exitCode;
+        @Nullable public final String stdout;
+        @Nullable public final String stderr;
+
+        public AmCommandResult(int exitCode, @Nullable String stdout, @Nullable String stderr) {
+            this.exitCode = exitCode;
+            this.stdout = stdout;
+            this.stderr = stderr;
+        }
+
+    }
+
+    /**
+     * The state of a {@link LocalClientSocket} using the framed protocol, which runs its requests
+     * with the {@link #getFramedRequestExecutor()} and sends their responses.
+     */
+    private static class FramedAmClient {
+
+        @NonNull private final LocalSocketManager mLocalSocketManager;
+        @NonNull private final LocalClientSocket mClientSocket;
+
+        /** The max number of requests running at the same time, after which reading requests blocks. */
+        private final int mMaxPipelinedRequests;
+        @NonNull private final Semaphore mPipelinedRequests;
+
+        /** Whether sending a response failed, after which no more responses are sent. */
+        private boolean mSendFailed;
+
+        FramedAmClient(@NonNull LocalSocketManager localSocketManager, @NonNull LocalClientSocket clientSocket,
+                       int maxPipelinedRequests) {
+            mLocalSocketManager = localSocketManager;
+            mClientSocket = clientSocket;
+            mMaxPipelinedRequests = maxPipelinedRequests;
+            mPipelinedRequests = new Semaphore(maxPipelinedRequests);
+        }
+
+        /**
+         * Run the request in a framed request thread, or in the current thread if all of them are
+         * busy, blocking while {@link #mMaxPipelinedRequests} requests are running.
+         */
+        void runRequest(int requestId, String amCommandString) throws InterruptedException {
+            mPipelinedRequests.acquire();
+
+            Runnable request = () -> {
+                try {
+                    AmCommandResult result = runAmCommandString(mLocalSocketManager, mClientSocket, amCommandString);
+                    sendResponse(requestId, result);
+                } finally {
+                    mPipelinedRequests.release();
+                }
+            };
+
+            try {
+                getFramedRequestExecutor().execute(request);
+            } catch (RejectedExecutionException e) {
+                request.run();
+            }
+        }
+
+        /** Send a response frame, synchronized so that frames of concurrent requests are not interleaved. */
+        synchronized void sendResponse(int requestId, @NonNull AmCommandResult result) {
+            if (mSendFailed) return;
+
+            byte[] payload = getResultString(mClientSocket, result.exitCode, result.stdout, result.stderr).getBytes(StandardCharsets.UTF_8);
+            ByteBuffer frame = ByteBuffer.allocate(8 + payload.length);
+            frame.putInt(4 + payload.length);
+            frame.putInt(requestId);
+            frame.put(payload);
+
+            try {
+                mClientSocket.getOutputStream().write(frame.array());
+            } catch (IOException e) {
+                mSendFailed = true;
+                mLocalSocketManager.onError(mClientSocket,
+                    AmSocketServerErrno.ERRNO_PROCESS_FRAMED_CLIENT_FAILED_WITH_EXCEPTION.getError(e, e.getMessage()));
+            }
+        }
+
+        /** Wait for all the running requests to send their responses. */
+        void awaitRequests() {
+            mPipelinedRequests.acquireUninterruptibly(mMaxPipelinedRequests);
+            mPipelinedRequests.release(mMaxPipelinedRequests);
+        }
+
+    }
+
+
+
+    /** The {@link ThreadFactory} for the threads of the {@link #getFramedRequestExecutor()}. */
+    private static class FramedRequestThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger mThreadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "AmSocketServerRequest-" + mThreadNumber.getAndIncrement());
+            thread.setUncaughtExceptionHandler((t, e) ->
+                Logger.logStackTraceWithMessage(LOG_TAG, "Uncaught exception for " + t, e));
+            return thread;
+        }
+
+    }
+
+
+
     /** Implementation for {@link ILocalSocketManager} for {@link AmSocketServer}. */
     public abstract static class AmSocketServerClient extends LocalSocketManagerClientBase {
 
@@ -10,6 +10,10 @@ public class AmSocketServerErrno extends Errno {
     /** Errors for {@link AmSocketServer} (100-150) */
     public static final Errno ERRNO_PARSE_AM_COMMAND_FAILED_WITH_EXCEPTION = new Errno(TYPE, 100, "Parse am command `%1$s` failed.\nException: %2$s");
     public static final Errno ERRNO_RUN_AM_COMMAND_FAILED_WITH_EXCEPTION = new Errno(TYPE, 101, "Run am command `%1$s` failed.\nException: %2$s");
+    public static final Errno ERRNO_FRAMED_PROTOCOL_HEADER_UNSUPPORTED = new Errno(TYPE, 102, "The framed protocol header `%1$s` is not supported.");
+    public static final Errno ERRNO_FRAMED_REQUEST_LENGTH_INVALID = new Errno(TYPE, 103, "The framed request length \"%1$s\" is not between 4-%2$s.");
+    public static final Errno ERRNO_PROCESS_FRAMED_CLIENT_FAILED_WITH_EXCEPTION = new Errno(TYPE, 105, "Process framed protocol client failed.\nException: %1$s");
+    public static final Errno ERRNO_FRAMED_CLIENTS_LIMIT_REACHED = new Errno(TYPE, 106, "The framed protocol is not available since the max %1$s framed clients are connected.");
 
     AmSocketServerErrno(final String type, final int code, final String message) {
         super(type, code, message);
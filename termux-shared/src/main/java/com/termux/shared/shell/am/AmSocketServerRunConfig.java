@@ -10,6 +10,7 @@ import com.termux.shared.net.socket.local.ILocalSocketManager;
 import com.termux.shared.net.socket.local.LocalSocketRunConfig;
 
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Run config for {@link AmSocketServer}.
@@ -26,6 +27,37 @@ public class AmSocketServerRunConfig extends LocalSocketRunConfig implements Ser
     private Boolean mCheckDisplayOverAppsPermission;
     public static final boolean DEFAULT_CHECK_DISPLAY_OVER_APPS_PERMISSION = true;
 
+    /**
+     * The max number of requests of a client using the framed protocol of {@link AmSocketServer}
+     * that are run at the same time, after which the server stops reading requests from the client
+     * until a running request finishes. Value must be greater than 0.
+     * Defaults to {@link #DEFAULT_MAX_PIPELINED_REQUESTS}.
+     */
+    private Integer mMaxPipelinedRequests;
+    public static final int DEFAULT_MAX_PIPELINED_REQUESTS = 4;
+
+    /**
+     * The max number of clients using the framed protocol of {@link AmSocketServer} that are
+     * connected at the same time, after which new framed clients are sent an error result instead
+     * of the protocol header. Each of them holds a client thread of the server while connected, so
+     * the value is capped below {@link #getMaxConcurrentClients()} to leave client threads for the
+     * clients that send a single am command.
+     * Defaults to half of {@link #getMaxConcurrentClients()}.
+     */
+    private Integer mMaxFramedClients;
+
+    /**
+     * The time in milliseconds after which a connection of a client using the framed protocol of
+     * {@link AmSocketServer} is closed if the client does not send a request. Value must be
+     * greater than 0.
+     * Defaults to {@link #DEFAULT_FRAMED_IDLE_TIMEOUT}.
+     */
+    private Integer mFramedIdleTimeout;
+    public static final int DEFAULT_FRAMED_IDLE_TIMEOUT = 60000;
+
+    /** The number of clients using the framed protocol that are currently connected. */
+    private final AtomicInteger mFramedClients = new AtomicInteger();
+
     /**
      * Create an new instance of {@link AmSocketServerRunConfig}.
      *
@@ -35,6 +67,8 @@ public class AmSocketServerRunConfig extends LocalSocketRunConfig implements Ser
      */
     public AmSocketServerRunConfig(@NonNull String title, @NonNull String path, @NonNull ILocalSocketManager localSocketManagerClient) {
         super(title, path, localSocketManagerClient);
+        // Clients always send the command first.
+        setWaitForClientData(true);
     }
 
 
@@ -48,6 +82,64 @@ public class AmSocketServerRunConfig extends LocalSocketRunConfig implements Ser
         mCheckDisplayOverAppsPermission = checkDisplayOverAppsPermission;
     }
 
+    /** Get {@link #mMaxPipelinedRequests} if set, otherwise {@link #DEFAULT_MAX_PIPELINED_REQUESTS}. */
+    public int getMaxPipelinedRequests() {
+        return mMaxPipelinedRequests != null ? mMaxPipelinedRequests : DEFAULT_MAX_PIPELINED_REQUESTS;
+    }
+
+    /** Set {@link #mMaxPipelinedRequests}. Value must be greater than 0. */
+    public void setMaxPipelinedRequests(Integer maxPipelinedRequests) {
+        if (maxPipelinedRequests > 0)
+            mMaxPipelinedRequests = maxPipelinedRequests;
+    }
+
+    /**
+     * Get {@link #mMaxFramedClients} if set, otherwise half of {@link #getMaxConcurrentClients()},
+     * capped at one less than {@link #getMaxConcurrentClients()}.
+     */
+    public int getMaxFramedClients() {
+        int maxFramedClients = mMaxFramedClients != null ? mMaxFramedClients : getMaxConcurrentClients() / 2;
+        return Math.max(0, Math.min(maxFramedClients, getMaxConcurrentClients() - 1));
+    }
+
+    /** Set {@link #mMaxFramedClients}. */
+    public void setMaxFramedClients(Integer maxFramedClients) {
+        mMaxFramedClients = maxFramedClients;
+    }
+
+    /** Get {@link #mFramedIdleTimeout} if set, otherwise {@link #DEFAULT_FRAMED_IDLE_TIMEOUT}. */
+    public int getFramedIdleTimeout() {
+        return mFramedIdleTimeout != null ? mFramedIdleTimeout : DEFAULT_FRAMED_IDLE_TIMEOUT;
+    }
+
+    /** Set {@link #mFramedIdleTimeout}. Value must be greater than 0. */
+    public void setFramedIdleTimeout(Integer framedIdleTimeout) {
+        if (framedIdleTimeout > 0)
+            mFramedIdleTimeout = framedIdleTimeout;
+    }
+
+    /**
+     * Add a client using the framed protocol to {@link #mFramedClients} if less than
+     * {@link #getMaxFramedClients()} are connected.
+     *
+     * @return Returns {@code true} if the client was added, otherwise {@code false}.
+     */
+    boolean tryAddFramedClient() {
+        int maxFramedClients = getMaxFramedClients();
+        while (true) {
+            int framedClients = mFramedClients.get();
+            if (framedClients >= maxFramedClients)
+                return false;
+            if (mFramedClients.compareAndSet(framedClients, framedClients + 1))
+                return true;
+        }
+    }
+
+    /** Remove a client added with {@link #tryAddFramedClient()} from {@link #mFramedClients}. */
+    void removeFramedClient() {
+        mFramedClients.decrementAndGet();
+    }
+
 
 
     /**
@@ -70,6 +162,9 @@ public class AmSocketServerRunConfig extends LocalSocketRunConfig implements Ser
 
         logString.append("Am Command:");
         logString.append("\n").append(Logger.getSingleLineLogStringEntry("CheckDisplayOverAppsPermission", shouldCheckDisplayOverAppsPermission(), "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("MaxPipelinedRequests", getMaxPipelinedRequests(), "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("MaxFramedClients", getMaxFramedClients(), "-"));
+        logString.append("\n").append(Logger.getSingleLineLogStringEntry("FramedIdleTimeout", getFramedIdleTimeout(), "-"));
 
         return logString.toString();
     }
@@ -93,6 +188,9 @@ public class AmSocketServerRunConfig extends LocalSocketRunConfig implements Ser
 
         markdownString.append("## ").append("Am Command");
         markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("CheckDisplayOverAppsPermission", shouldCheckDisplayOverAppsPermission(), "-"));
+        markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("MaxPipelinedRequests", getMaxPipelinedRequests(), "-"));
+        markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("MaxFramedClients", getMaxFramedClients(), "-"));
+        markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("FramedIdleTimeout", getFramedIdleTimeout(), "-"));
 
         return markdownString.toString();
     }
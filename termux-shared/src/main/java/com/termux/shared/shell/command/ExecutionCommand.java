@@ -9,11 +9,13 @@ import androidx.annotation.Nullable;
 import com.termux.shared.data.IntentUtils;
 import com.termux.shared.shell.command.result.ResultConfig;
 import com.termux.shared.shell.command.result.ResultData;
+import com.termux.shared.shell.command.result.ResultOutputSink;
 import com.termux.shared.errors.Error;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.markdown.MarkdownUtils;
 import com.termux.shared.data.DataUtils;
 import com.termux.shared.shell.command.runner.app.AppShell;
+import com.termux.shared.shell.command.runner.app.AppShellReactor;
 import com.termux.terminal.TerminalSession;
 
 import java.util.Collections;
@@ -184,6 +186,20 @@ public class ExecutionCommand {
      */
     public Integer backgroundCustomLogLevel;
 
+    /**
+     * The {@link ResultOutputSink.CapturePolicy} for the stdout and stderr of background
+     * {@link AppShell} commands. If {@code null}, then all the output is kept in {@link ResultData}.
+     */
+    public ResultOutputSink.CapturePolicy backgroundOutputCapturePolicy;
+
+    /**
+     * If background {@link AppShell} commands that are run asynchronously should be run by the
+     * {@link AppShellReactor} shared by all such commands instead of in their own threads. The
+     * {@link AppShell.AppShellClient#onAppShellExited(AppShell)} callback is then called in the
+     * reactor thread, so it must not block, like by posting its work to another thread.
+     */
+    public boolean backgroundRunInReactor;
+
 
     /** The session action of {@link Runner#TERMINAL_SESSION} commands. */
     public String sessionAction;
@@ -387,6 +403,11 @@ public class ExecutionCommand {
 
             if (!ignoreNull || executionCommand.backgroundCustomLogLevel != null)
                 logString.append("\n").append(executionCommand.getBackgroundCustomLogLevelLogString());
+
+            if (!ignoreNull || executionCommand.backgroundOutputCapturePolicy != null)
+                logString.append("\n").append(executionCommand.getBackgroundOutputCapturePolicyLogString());
+
+            logString.append("\n").append(executionCommand.getBackgroundRunInReactorLogString());
         }
 
         if (!ignoreNull || executionCommand.sessionAction != null)
@@ -490,6 +511,9 @@ public class ExecutionCommand {
                 markdownString.append("\n").append(MarkdownUtils.getMultiLineMarkdownStringEntry("Stdin", executionCommand.stdin, "-"));
             if (executionCommand.backgroundCustomLogLevel != null)
                 markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Background Custom Log Level", executionCommand.backgroundCustomLogLevel, "-"));
+            if (executionCommand.backgroundOutputCapturePolicy != null)
+                markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Background Output Capture Policy", executionCommand.backgroundOutputCapturePolicy, "-"));
+            markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Background Run In Reactor", executionCommand.backgroundRunInReactor, "-"));
         }
 
         markdownString.append("\n").append(MarkdownUtils.getSingleLineMarkdownStringEntry("Session Action", executionCommand.sessionAction, "-"));
@@ -582,6 +606,14 @@ public class ExecutionCommand {
         return "Background Custom Log Level: `" + backgroundCustomLogLevel + "`";
     }
 
+    public String getBackgroundOutputCapturePolicyLogString() {
+        return "Background Output Capture Policy: `" + backgroundOutputCapturePolicy + "`";
+    }
+
+    public String getBackgroundRunInReactorLogString() {
+        return "Background Run In Reactor: `" + backgroundRunInReactor + "`";
+    }
+
     public String getSessionActionLogString() {
         return Logger.getSingleLineLogStringEntry("Session Action", sessionAction, "-");
     }
@@ -70,6 +70,13 @@ public class ShellCommandConstants {
         /** The prefix for the exitCode result file. */
         public static final String RESULT_FILE_EXIT_CODE_PREFIX = "exit_code";
 
+        /**
+         * The suffix for the stdout and stderr result files that the output is streamed to while
+         * the command is running if `ResultConfig#resultStreamOutput` is `true`, which are renamed
+         * to the result files without it once the command has finished.
+         */
+        public static final String RESULT_FILE_PARTIAL_SUFFIX = ".partial";
+
     }
 
 }
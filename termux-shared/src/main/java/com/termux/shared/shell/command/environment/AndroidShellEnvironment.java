@@ -3,6 +3,7 @@ package com.termux.shared.shell.command.environment;
 import android.content.Context;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.termux.shared.shell.command.ExecutionCommand;
 
@@ -83,13 +84,42 @@ public class AndroidShellEnvironment extends UnixShellEnvironment {
     @Override
     public HashMap<String, String> setupShellCommandEnvironment(@NonNull Context currentPackageContext,
                                                                 @NonNull ExecutionCommand executionCommand) {
-        HashMap<String, String> environment = getEnvironment(currentPackageContext, executionCommand.isFailsafe);
+        ShellEnvironmentSnapshot snapshot = getEnvironmentSnapshot(currentPackageContext, executionCommand.isFailsafe);
+
+        HashMap<String, String> environment = new HashMap<>(snapshot.getEnvironment());
+        environment.putAll(getShellCommandEnvironment(currentPackageContext, executionCommand, snapshot));
+        return environment;
+    }
+
+    @NonNull
+    @Override
+    public String[] setupShellCommandEnviron(@NonNull Context currentPackageContext,
+                                             @NonNull ExecutionCommand executionCommand,
+                                             @Nullable HashMap<String, String> additionalEnvironment) {
+        ShellEnvironmentSnapshot snapshot = getEnvironmentSnapshot(currentPackageContext, executionCommand.isFailsafe);
+
+        // Only the command specific variables need to be added to the cached environ
+        HashMap<String, String> environment = getShellCommandEnvironment(currentPackageContext, executionCommand, snapshot);
+        if (additionalEnvironment != null)
+            environment.putAll(additionalEnvironment);
+        return snapshot.getEnviron(environment);
+    }
+
+    /**
+     * Get the environment variables specific to the {@link ExecutionCommand} that are set on top
+     * of the {@link ShellEnvironmentSnapshot} environment.
+     */
+    @NonNull
+    protected HashMap<String, String> getShellCommandEnvironment(@NonNull Context currentPackageContext,
+                                                                 @NonNull ExecutionCommand executionCommand,
+                                                                 @NonNull ShellEnvironmentSnapshot snapshot) {
+        HashMap<String, String> environment = new HashMap<>();
 
         String workingDirectory = executionCommand.workingDirectory;
         environment.put(ENV_PWD,
             workingDirectory != null && !workingDirectory.isEmpty() ? new File(workingDirectory).getAbsolutePath() : // PWD must be absolute path
             getDefaultWorkingDirectoryPath());
-        ShellEnvironmentUtils.createHomeDir(environment);
+        ShellEnvironmentUtils.createHomeDir(snapshot.getEnvironment());
 
         if (executionCommand.setShellCommandShellEnvironment && shellCommandShellEnvironment != null)
             environment.putAll(shellCommandShellEnvironment.getEnvironment(currentPackageContext, executionCommand));
@@ -7,7 +7,9 @@ import androidx.annotation.Nullable;
 
 import com.termux.shared.shell.command.ExecutionCommand;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 
 public interface IShellEnvironment {
 
@@ -49,4 +51,27 @@ public interface IShellEnvironment {
     HashMap<String, String> setupShellCommandEnvironment(@NonNull Context currentPackageContext,
                                                          @NonNull ExecutionCommand executionCommand);
 
+    /**
+     * Setup shell command environment to be used for commands as a sorted `environ` array
+     * where each item has the format `name=value`.
+     *
+     * @param currentPackageContext The {@link Context} for the current package.
+     * @param executionCommand The {@link ExecutionCommand} for which to set environment.
+     * @param additionalEnvironment The optional additional environment variables that should be
+     *                              added to or replace the shell environment variables.
+     * @return Should return the shell environment `environ` array. By default, it is built from
+     * the {@link #setupShellCommandEnvironment(Context, ExecutionCommand)} environment.
+     */
+    @NonNull
+    default String[] setupShellCommandEnviron(@NonNull Context currentPackageContext,
+                                              @NonNull ExecutionCommand executionCommand,
+                                              @Nullable HashMap<String, String> additionalEnvironment) {
+        HashMap<String, String> environment = setupShellCommandEnvironment(currentPackageContext, executionCommand);
+        if (additionalEnvironment != null)
+            environment.putAll(additionalEnvironment);
+        List<String> environmentList = ShellEnvironmentUtils.convertEnvironmentToEnviron(environment);
+        Collections.sort(environmentList);
+        return environmentList.toArray(new String[0]);
+    }
+
 }
@@ -0,0 +1,89 @@
+package com.termux.shared.shell.command.environment;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of a shell environment, containing both the environment {@link Map} and
+ * its sorted `environ` array, so that they do not need to be built again for every command.
+ *
+ * Check {@link UnixShellEnvironment#getEnvironmentSnapshot(android.content.Context, boolean)}.
+ */
+public class ShellEnvironmentSnapshot {
+
+    /** The environment variables. */
+    @NonNull private final Map<String, String> mEnvironment;
+
+    /** The valid environment variables in the `name=value` format, sorted. */
+    @NonNull private final String[] mEnviron;
+
+    /**
+     * The stamp of the state the environment was built from, which if changed means that the
+     * snapshot is stale.
+     */
+    @Nullable private final String mStamp;
+
+    public ShellEnvironmentSnapshot(@NonNull HashMap<String, String> environment, @Nullable String stamp) {
+        mEnvironment = Collections.unmodifiableMap(new HashMap<>(environment));
+
+        List<String> environmentList = ShellEnvironmentUtils.convertEnvironmentToEnviron(environment);
+        Collections.sort(environmentList);
+        mEnviron = environmentList.toArray(new String[0]);
+
+        mStamp = stamp;
+    }
+
+    /** Get the unmodifiable environment variables {@link Map}. */
+    @NonNull
+    public Map<String, String> getEnvironment() {
+        return mEnvironment;
+    }
+
+    /** Get {@link #mStamp}. */
+    @Nullable
+    public String getStamp() {
+        return mStamp;
+    }
+
+    /**
+     * Get the sorted `environ` array for the environment, with the variables in {@code overlay}
+     * added to or replacing the ones of the snapshot.
+     *
+     * Only the variables of the {@code overlay} are validated and the result is sorted with the
+     * already sorted snapshot variables, so this is much cheaper than building the `environ` from
+     * the whole environment.
+     *
+     * @param overlay The optional variables for a command. A variable with a {@code null} value
+     *                removes the variable of the snapshot, like it would if put in the
+     *                environment {@link Map}.
+     * @return Returns the `environ` array.
+     */
+    @NonNull
+    public String[] getEnviron(@Nullable Map<String, String> overlay) {
+        if (overlay == null || overlay.isEmpty())
+            return mEnviron.clone();
+
+        List<String> environmentList = new ArrayList<>(mEnviron.length + overlay.size());
+        for (String variable : mEnviron) {
+            if (!overlay.containsKey(variable.substring(0, variable.indexOf('='))))
+                environmentList.add(variable);
+        }
+
+        String value;
+        for (String name : overlay.keySet()) {
+            value = overlay.get(name);
+            if (ShellEnvironmentUtils.isValidEnvironmentVariableNameValuePair(name, value, true))
+                environmentList.add(name + "=" + value);
+        }
+
+        Collections.sort(environmentList);
+        return environmentList.toArray(new String[0]);
+    }
+
+}
@@ -167,7 +167,7 @@ public class ShellEnvironmentUtils {
 
 
     /** Create HOME directory in environment {@link Map} if set. */
-    public static void createHomeDir(@NonNull HashMap<String, String> environment) {
+    public static void createHomeDir(@NonNull Map<String, String> environment) {
         String homeDirectory = environment.get(ENV_HOME);
         if (homeDirectory != null && !homeDirectory.isEmpty()) {
             Error error = FileUtils.createDirectoryFile("shell home", homeDirectory);
@@ -9,6 +9,7 @@ import com.termux.shared.shell.ShellUtils;
 import com.termux.shared.shell.command.ExecutionCommand;
 
 import java.util.HashMap;
+import java.util.Objects;
 
 /**
  * Environment for Unix-like systems.
@@ -56,11 +57,77 @@ public abstract class UnixShellEnvironment implements IShellEnvironment {
     public static final String[] LOGIN_SHELL_BINARIES = new String[]{"login", "bash", "zsh", "fish", "sh"};
 
 
+    /**
+     * The cached {@link ShellEnvironmentSnapshot} of {@link #getEnvironment(Context, boolean)} for
+     * each environment class, package and failsafe mode.
+     */
+    private static final HashMap<String, ShellEnvironmentSnapshot> ENVIRONMENT_SNAPSHOTS = new HashMap<>();
+
+    /** The number of times {@link #ENVIRONMENT_SNAPSHOTS} have been invalidated. */
+    private static int environmentSnapshotsGeneration;
+
+
 
     @NonNull
     public abstract HashMap<String, String> getEnvironment(@NonNull Context currentPackageContext,
                                                            boolean isFailSafe);
 
+    /**
+     * Get the {@link ShellEnvironmentSnapshot} of {@link #getEnvironment(Context, boolean)}. It is
+     * cached until {@link #invalidateEnvironmentSnapshots()} is called or the
+     * {@link #getEnvironmentSnapshotStamp(Context)} changes.
+     */
+    @NonNull
+    public ShellEnvironmentSnapshot getEnvironmentSnapshot(@NonNull Context currentPackageContext,
+                                                           boolean isFailSafe) {
+        String key = getClass().getName() + ":" + currentPackageContext.getPackageName() + ":" + isFailSafe;
+        String stamp = getEnvironmentSnapshotStamp(currentPackageContext);
+
+        ShellEnvironmentSnapshot snapshot;
+        int generation;
+        synchronized (ENVIRONMENT_SNAPSHOTS) {
+            snapshot = ENVIRONMENT_SNAPSHOTS.get(key);
+            if (snapshot != null && Objects.equals(snapshot.getStamp(), stamp))
+                return snapshot;
+            generation = environmentSnapshotsGeneration;
+        }
+
+        snapshot = new ShellEnvironmentSnapshot(getEnvironment(currentPackageContext, isFailSafe), stamp);
+
+        synchronized (ENVIRONMENT_SNAPSHOTS) {
+            // Do not cache the snapshot if it was invalidated while being built, since it may be stale
+            if (generation == environmentSnapshotsGeneration)
+                ENVIRONMENT_SNAPSHOTS.put(key, snapshot);
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Get the stamp of the state that {@link #getEnvironment(Context, boolean)} depends on but
+     * whose changes are not notified with {@link #invalidateEnvironmentSnapshots()}, like of other
+     * apps for which package change broadcasts are not received by the current package.
+     *
+     * @return Should return the stamp, or {@code null} if the snapshot is only invalidated by
+     * {@link #invalidateEnvironmentSnapshots()}.
+     */
+    @Nullable
+    protected String getEnvironmentSnapshotStamp(@NonNull Context currentPackageContext) {
+        return null;
+    }
+
+    /**
+     * Invalidate the cached {@link ShellEnvironmentSnapshot} of all environments. This must be
+     * called whenever the state that {@link #getEnvironment(Context, boolean)} depends on changes,
+     * like if packages are installed or updated, or properties are reloaded.
+     */
+    public static void invalidateEnvironmentSnapshots() {
+        synchronized (ENVIRONMENT_SNAPSHOTS) {
+            ENVIRONMENT_SNAPSHOTS.clear();
+            environmentSnapshotsGeneration++;
+        }
+    }
+
     @NonNull
     @Override
     public abstract String getDefaultWorkingDirectoryPath();
@@ -19,6 +19,10 @@ public class ResultData implements Serializable {
     public final StringBuilder stdout = new StringBuilder();
     /** The stderr of command. */
     public final StringBuilder stderr = new StringBuilder();
+    /** The sink the stdout of command was captured with, if it had a capture policy, whose kept output is in {@link #stdout}. */
+    public transient ResultOutputSink stdoutSink;
+    /** The sink the stderr of command was captured with, if it had a capture policy, whose kept output is in {@link #stderr}. */
+    public transient ResultOutputSink stderrSink;
     /** The exit code of command. */
     public Integer exitCode;
 
@@ -72,6 +76,23 @@ public class ResultData implements Serializable {
     }
 
 
+    /** Get the length of the stdout of command, including any output dropped by {@link #stdoutSink}. */
+    public long getStdoutOriginalLength() {
+        return stdoutSink != null ? stdoutSink.getTotalChars() : stdout.length();
+    }
+
+    /** Get the length of the stderr of command, including any output dropped by {@link #stderrSink}. */
+    public long getStderrOriginalLength() {
+        return stderrSink != null ? stderrSink.getTotalChars() : stderr.length();
+    }
+
+    /** Release {@link #stdoutSink} and {@link #stderrSink}, deleting their spill files. */
+    public void releaseOutputSinks() {
+        if (stdoutSink != null) stdoutSink.release();
+        if (stderrSink != null) stderrSink.release();
+    }
+
+
     public synchronized boolean setStateFailed(@NonNull Error error) {
         return setStateFailed(error.getType(), error.getCode(), error.getMessage(), null);
     }
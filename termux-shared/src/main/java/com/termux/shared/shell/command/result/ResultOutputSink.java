@@ -0,0 +1,404 @@
+package com.termux.shared.shell.command.result;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.file.FileUtils;
+import com.termux.shared.logger.Logger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The sink that the stdout or stderr of a command is captured into as per a {@link CapturePolicy},
+ * instead of keeping all of it in memory.
+ *
+ * The first {@link CapturePolicy#headLimit} bytes of the output are kept, followed by a ring
+ * buffer of the last {@link CapturePolicy#tailLimit} bytes. The bytes and lines in between are
+ * dropped and counted. Optionally, all the output is also written to a spill file in
+ * {@link CapturePolicy#spillDirectoryPath} so that it can be sent with the result, like to
+ * {@link ResultConfig#resultDirectoryPath}, without being kept in memory. The output can also be
+ * streamed to a specific file instead, like a partial result file that can be read while the
+ * command is running, for which the output is written as soon as it is received.
+ *
+ * The output is expected to be UTF-8 encoded.
+ */
+public class ResultOutputSink {
+
+    /** The capture policy for the output of a command. */
+    public static class CapturePolicy {
+
+        /** The max number of bytes to keep from the start of the output. If negative, then all the output is kept. */
+        public final int headLimit;
+
+        /** The max number of bytes to keep from the end of the output after the {@link #headLimit} is reached. */
+        public final int tailLimit;
+
+        /**
+         * The path to the directory to write all the output to a spill file in. If {@code null},
+         * then the output that is not kept is discarded.
+         */
+        @Nullable public final String spillDirectoryPath;
+
+        public CapturePolicy(int headLimit, int tailLimit, @Nullable String spillDirectoryPath) {
+            this.headLimit = headLimit;
+            this.tailLimit = Math.max(tailLimit, 0);
+            this.spillDirectoryPath = spillDirectoryPath;
+        }
+
+        /** Get a log friendly {@link String} for {@link CapturePolicy}. */
+        @NonNull
+        @Override
+        public String toString() {
+            return "head=" + headLimit + ", tail=" + tailLimit + ", spill=" + spillDirectoryPath;
+        }
+
+    }
+
+    /** The initial size of {@link #mHead}, which is grown as needed up to {@link CapturePolicy#headLimit}. */
+    private static final int INITIAL_HEAD_SIZE = 1024;
+
+    /** The size of {@link #mSpillBuffer} that the output is buffered in before being written to the spill file. */
+    private static final int SPILL_BUFFER_SIZE = 64 * 1024;
+
+    @NonNull private final String mLabel;
+    @NonNull private final CapturePolicy mCapturePolicy;
+    @Nullable private final String mStreamFilePath;
+
+    private byte[] mHead = new byte[0];
+    private int mHeadLength;
+
+    /** The ring buffer of the tail of the output, which is only allocated once the head is full. */
+    private byte[] mTail;
+    private int mTailStart;
+    private int mTailLength;
+
+    private long mTotalBytes;
+    private long mTotalLines;
+    private long mTotalChars;
+    private long mDroppedBytes;
+    private long mDroppedLines;
+
+    @Nullable private String mSpillFilePath;
+    @Nullable private FileChannel mSpillFileChannel;
+    @Nullable private ByteBuffer mSpillBuffer;
+    private boolean mSpillFailed;
+    private boolean mClosed;
+
+    private static final String LOG_TAG = "ResultOutputSink";
+
+    /**
+     * Create an new instance of {@link ResultOutputSink}.
+     *
+     * @param label The label for the output, like "1234-stdout", used as prefix for the spill file
+     *              and for logging.
+     * @param capturePolicy The {@link CapturePolicy} for the output.
+     */
+    public ResultOutputSink(@NonNull String label, @NonNull CapturePolicy capturePolicy) {
+        this(label, capturePolicy, null);
+    }
+
+    /**
+     * Create an new instance of {@link ResultOutputSink}.
+     *
+     * @param label The label for the output, like "1234-stdout", used as prefix for the spill file
+     *              and for logging.
+     * @param capturePolicy The {@link CapturePolicy} for the output.
+     * @param streamFilePath The optional path to the file to stream all the output to, which is
+     *                       used as the spill file instead of one in
+     *                       {@link CapturePolicy#spillDirectoryPath}.
+     */
+    public ResultOutputSink(@NonNull String label, @NonNull CapturePolicy capturePolicy, @Nullable String streamFilePath) {
+        mLabel = label;
+        mCapturePolicy = capturePolicy;
+        mStreamFilePath = streamFilePath;
+    }
+
+    /** Append bytes to the output. Bytes written after {@link #close()} are ignored. */
+    public synchronized void write(@NonNull byte[] bytes, int offset, int length) {
+        if (mClosed || length <= 0) return;
+
+        writeToSpillFile(bytes, offset, length);
+
+        mTotalBytes += length;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = bytes[i];
+            if (b == '\n') mTotalLines++;
+            // Count UTF-16 chars, where continuation bytes are not counted and 4 byte sequences
+            // are 2 chars
+            if ((b & 0xC0) != 0x80) mTotalChars++;
+            if ((b & 0xF8) == 0xF0) mTotalChars++;
+        }
+
+        int headLimit = mCapturePolicy.headLimit;
+        if (headLimit < 0 || mHeadLength < headLimit) {
+            int count = headLimit < 0 ? length : Math.min(length, headLimit - mHeadLength);
+            appendToHead(bytes, offset, count);
+            offset += count;
+            length -= count;
+        }
+        if (length == 0) return;
+
+        int tailLimit = mCapturePolicy.tailLimit;
+        if (length >= tailLimit) {
+            // The current tail and the start of the bytes are dropped
+            dropFromTail(mTailLength);
+            drop(bytes, offset, length - tailLimit);
+            offset += length - tailLimit;
+            length = tailLimit;
+        } else {
+            // The oldest bytes of the tail are overwritten
+            dropFromTail(Math.max(0, mTailLength + length - tailLimit));
+        }
+        if (length == 0) return;
+
+        if (mTail == null)
+            mTail = new byte[tailLimit];
+
+        int position = (mTailStart + mTailLength) % tailLimit;
+        int count = Math.min(length, tailLimit - position);
+        System.arraycopy(bytes, offset, mTail, position, count);
+        System.arraycopy(bytes, offset + count, mTail, 0, length - count);
+        mTailLength += length;
+    }
+
+    private void appendToHead(@NonNull byte[] bytes, int offset, int length) {
+        if (mHeadLength + length > mHead.length) {
+            int size = Math.max(Math.max(mHead.length * 2, INITIAL_HEAD_SIZE), mHeadLength + length);
+            if (mCapturePolicy.headLimit >= 0)
+                size = Math.min(size, mCapturePolicy.headLimit);
+            mHead = Arrays.copyOf(mHead, size);
+        }
+        System.arraycopy(bytes, offset, mHead, mHeadLength, length);
+        mHeadLength += length;
+    }
+
+    /** Drop the oldest count bytes of {@link #mTail}. */
+    private void dropFromTail(int count) {
+        if (count <= 0) return;
+
+        int tailLimit = mCapturePolicy.tailLimit;
+        int firstCount = Math.min(count, tailLimit - mTailStart);
+        drop(mTail, mTailStart, firstCount);
+        drop(mTail, 0, count - firstCount);
+        mTailStart = (mTailStart + count) % tailLimit;
+        mTailLength -= count;
+    }
+
+    private void drop(@NonNull byte[] bytes, int offset, int length) {
+        mDroppedBytes += length;
+        for (int i = offset; i < offset + length; i++) {
+            if (bytes[i] == '\n') mDroppedLines++;
+        }
+    }
+
+    private void writeToSpillFile(@NonNull byte[] bytes, int offset, int length) {
+        if ((mCapturePolicy.spillDirectoryPath == null && mStreamFilePath == null) || mSpillFailed) return;
+
+        try {
+            if (mSpillFileChannel == null) {
+                File spillFile;
+                if (mStreamFilePath != null)
+                    spillFile = new File(mStreamFilePath);
+                else
+                    spillFile = File.createTempFile(mLabel + "-spill-", ".tmp", new File(mCapturePolicy.spillDirectoryPath));
+                mSpillFilePath = spillFile.getAbsolutePath();
+                mSpillFileChannel = new FileOutputStream(spillFile).getChannel();
+                mSpillBuffer = ByteBuffer.allocate(SPILL_BUFFER_SIZE);
+            }
+
+            while (length > 0) {
+                int count = Math.min(length, mSpillBuffer.remaining());
+                mSpillBuffer.put(bytes, offset, count);
+                offset += count;
+                length -= count;
+                if (!mSpillBuffer.hasRemaining())
+                    flushSpillBuffer();
+            }
+
+            // Output streamed to a file is written as soon as it is received, so that it can be
+            // read while the command is running
+            if (mStreamFilePath != null)
+                flushSpillBuffer();
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to write \"" + mLabel + "\" output to spill file", e);
+            mSpillFailed = true;
+            deleteSpillFile();
+        }
+    }
+
+    /** Close the spill file. Further output is ignored. */
+    public synchronized void close() {
+        mClosed = true;
+        closeSpillFileChannel();
+    }
+
+    /** Close the sink and delete the spill file if it still exists. */
+    public synchronized void release() {
+        close();
+        deleteSpillFile();
+    }
+
+    /** Write the output buffered in {@link #mSpillBuffer} to the spill file. */
+    private void flushSpillBuffer() throws IOException {
+        if (mSpillFileChannel == null || mSpillBuffer == null) return;
+
+        mSpillBuffer.flip();
+        while (mSpillBuffer.hasRemaining())
+            mSpillFileChannel.write(mSpillBuffer);
+        mSpillBuffer.clear();
+    }
+
+    private void closeSpillFileChannel() {
+        if (mSpillFileChannel != null) {
+            try {
+                if (!mSpillFailed)
+                    flushSpillBuffer();
+            } catch (IOException e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to write \"" + mLabel + "\" output to spill file", e);
+                mSpillFailed = true;
+            }
+
+            try {
+                mSpillFileChannel.close();
+            } catch (IOException e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to close \"" + mLabel + "\" output spill file", e);
+                mSpillFailed = true;
+            }
+            mSpillFileChannel = null;
+            mSpillBuffer = null;
+        }
+    }
+
+    private void deleteSpillFile() {
+        closeSpillFileChannel();
+        if (mSpillFilePath != null) {
+            FileUtils.deleteRegularFile(mLabel + " output spill file", mSpillFilePath, true);
+            mSpillFilePath = null;
+        }
+    }
+
+
+
+    /** Get the total number of bytes of the output, including the dropped bytes. */
+    public synchronized long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    /** Get the total number of newlines in the output, including the dropped lines. */
+    public synchronized long getTotalLines() {
+        return mTotalLines;
+    }
+
+    /** Get the length of the whole output as a {@link String}, including the dropped bytes. */
+    public synchronized long getTotalChars() {
+        return mTotalChars;
+    }
+
+    /** Get the number of bytes that were dropped from the middle of the output. */
+    public synchronized long getDroppedBytes() {
+        return mDroppedBytes;
+    }
+
+    /** Get the number of newlines that were dropped from the middle of the output. */
+    public synchronized long getDroppedLines() {
+        return mDroppedLines;
+    }
+
+    /** Whether any output was dropped. */
+    public synchronized boolean isTruncated() {
+        return mDroppedBytes > 0;
+    }
+
+    /**
+     * Get the path to the spill file containing all the output. This will be {@code null} if
+     * {@link CapturePolicy#spillDirectoryPath} and the stream file path are not set, writing to it
+     * failed, or there was no output.
+     * The spill file is only complete after {@link #close()} has been called.
+     */
+    @Nullable
+    public synchronized String getSpillFilePath() {
+        return mSpillFailed ? null : mSpillFilePath;
+    }
+
+    /**
+     * Whether writing all the output to the spill file failed, in which case the spill file is
+     * deleted and only the output kept in memory is available.
+     */
+    public synchronized boolean isSpillFailed() {
+        return mSpillFailed;
+    }
+
+    /** Set the spill file as moved to another path, so that it is not deleted by {@link #release()}. */
+    public synchronized void onSpillFileMoved() {
+        mSpillFilePath = null;
+    }
+
+    /**
+     * Get the output kept as a {@link String}. If output was dropped, then the head and tail are
+     * separated by a line with the number of bytes and lines dropped.
+     */
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        if (mDroppedBytes == 0 && mTailLength == 0)
+            return new String(mHead, 0, mHeadLength, StandardCharsets.UTF_8);
+
+        byte[] tail = new byte[mTailLength];
+        if (mTail != null) {
+            int firstCount = Math.min(mTailLength, mCapturePolicy.tailLimit - mTailStart);
+            System.arraycopy(mTail, mTailStart, tail, 0, firstCount);
+            System.arraycopy(mTail, 0, tail, firstCount, mTailLength - firstCount);
+        }
+
+        if (mDroppedBytes == 0) {
+            byte[] output = Arrays.copyOf(mHead, mHeadLength + mTailLength);
+            System.arraycopy(tail, 0, output, mHeadLength, mTailLength);
+            return new String(output, StandardCharsets.UTF_8);
+        }
+
+        // Do not split a char between the head and the tail
+        int headLength = getCharBoundary(mHead, 0, mHeadLength, false);
+        int tailStart = getCharBoundary(tail, 0, tail.length, true);
+
+        StringBuilder output = new StringBuilder();
+        output.append(new String(mHead, 0, headLength, StandardCharsets.UTF_8));
+        if (headLength > 0 && mHead[headLength - 1] != '\n')
+            output.append("\n");
+        output.append(String.format(Locale.ENGLISH, "[... %d bytes and %d lines truncated ...]\n",
+            mDroppedBytes + (mHeadLength - headLength) + tailStart, mDroppedLines));
+        output.append(new String(tail, tailStart, tail.length - tailStart, StandardCharsets.UTF_8));
+        return output.toString();
+    }
+
+    /**
+     * Get the index in bytes at which a UTF-8 char starts. If fromStart is {@code true}, then the
+     * first index at or after offset is returned, otherwise the end of the last complete char
+     * before offset + length is returned.
+     */
+    private static int getCharBoundary(@NonNull byte[] bytes, int offset, int length, boolean fromStart) {
+        int end = offset + length;
+        if (fromStart) {
+            int i = offset;
+            while (i < end && i < offset + 3 && (bytes[i] & 0xC0) == 0x80)
+                i++;
+            return i;
+        }
+
+        // Find the start of the last char and check if all its bytes are present
+        for (int i = end - 1; i >= offset && i >= end - 4; i--) {
+            int b = bytes[i] & 0xFF;
+            if ((b & 0xC0) == 0x80) continue;
+            int charLength = b < 0x80 ? 1 : (b & 0xE0) == 0xC0 ? 2 : (b & 0xF0) == 0xE0 ? 3 : 4;
+            return i + charLength <= end ? end : i;
+        }
+        return end;
+    }
+
+}
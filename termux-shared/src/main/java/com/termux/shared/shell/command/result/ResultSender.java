@@ -41,16 +41,21 @@ public class ResultSender {
 
         Error error;
 
-        if (resultConfig.resultPendingIntent != null) {
-            error = sendCommandResultDataWithPendingIntent(context, logTag, label, resultConfig, resultData, logStdoutAndStderr);
-            if (error != null || resultConfig.resultDirectoryPath == null)
-                return error;
-        }
+        try {
+            if (resultConfig.resultPendingIntent != null) {
+                error = sendCommandResultDataWithPendingIntent(context, logTag, label, resultConfig, resultData, logStdoutAndStderr);
+                if (error != null || resultConfig.resultDirectoryPath == null)
+                    return error;
+            }
 
-        if (resultConfig.resultDirectoryPath != null) {
-            return sendCommandResultDataToDirectory(context, logTag, label, resultConfig, resultData, logStdoutAndStderr);
-        } else {
-            return FunctionErrno.ERRNO_UNSET_PARAMETERS.getError("resultConfig.resultPendingIntent or resultConfig.resultDirectoryPath", "sendCommandResultData");
+            if (resultConfig.resultDirectoryPath != null) {
+                return sendCommandResultDataToDirectory(context, logTag, label, resultConfig, resultData, logStdoutAndStderr);
+            } else {
+                return FunctionErrno.ERRNO_UNSET_PARAMETERS.getError("resultConfig.resultPendingIntent or resultConfig.resultDirectoryPath", "sendCommandResultData");
+            }
+        } finally {
+            // The spill files of the output sinks are not needed anymore once the result is sent
+            resultData.releaseOutputSinks();
         }
     }
 
@@ -80,8 +85,8 @@ public class ResultSender {
         String truncatedStdout = null;
         String truncatedStderr = null;
 
-        String stdoutOriginalLength = String.valueOf(resultDataStdout.length());
-        String stderrOriginalLength = String.valueOf(resultDataStderr.length());
+        String stdoutOriginalLength = String.valueOf(resultData.getStdoutOriginalLength());
+        String stderrOriginalLength = String.valueOf(resultData.getStderrOriginalLength());
 
         // Truncate stdout and stdout to max TRANSACTION_SIZE_LIMIT_IN_BYTES
         if (resultDataStderr.isEmpty()) {
@@ -280,8 +285,8 @@ public class ResultSender {
             // Write stdout to file
             if (!resultDataStdout.isEmpty()) {
                 filename = RESULT_SENDER.RESULT_FILE_STDOUT_PREFIX + resultConfig.resultFilesSuffix;
-                error = FileUtils.writeTextToFile(filename, resultConfig.resultDirectoryPath + "/" + filename,
-                    null, resultDataStdout, false);
+                error = writeOutputToFile(filename, resultConfig.resultDirectoryPath + "/" + filename,
+                    resultDataStdout, resultData.stdoutSink);
                 if (error != null) {
                     return error;
                 }
@@ -290,8 +295,8 @@ public class ResultSender {
             // Write stderr to file
             if (!resultDataStderr.isEmpty()) {
                 filename = RESULT_SENDER.RESULT_FILE_STDERR_PREFIX + resultConfig.resultFilesSuffix;
-                error = FileUtils.writeTextToFile(filename, resultConfig.resultDirectoryPath + "/" + filename,
-                    null, resultDataStderr, false);
+                error = writeOutputToFile(filename, resultConfig.resultDirectoryPath + "/" + filename,
+                    resultDataStderr, resultData.stderrSink);
                 if (error != null) {
                     return error;
                 }
@@ -346,4 +351,77 @@ public class ResultSender {
         return null;
     }
 
+    /**
+     * Get the path to the partial result file in {@link ResultConfig#resultDirectoryPath} that the
+     * output of a command should be streamed to while it is running, if
+     * {@link ResultConfig#resultStreamOutput} is {@code true} and {@link ResultConfig#resultSingleFile}
+     * is {@code false}. The partial file is moved to the result file by
+     * {@link #sendCommandResultDataToDirectory(Context, String, String, ResultConfig, ResultData, boolean)}
+     * once the command has finished.
+     *
+     * The result directory is validated and created like it is before writing the result files.
+     *
+     * @param resultConfig The {@link ResultConfig} of the command.
+     * @param filePrefix The prefix of the result file, like {@link RESULT_SENDER#RESULT_FILE_STDOUT_PREFIX}.
+     * @return Returns the path to the partial result file, otherwise {@code null} if output should
+     * not be streamed or the result directory is not valid, in which case the result files will be
+     * written after the command has finished.
+     */
+    public static String getStreamedOutputFilePath(ResultConfig resultConfig, String filePrefix) {
+        if (resultConfig == null || !resultConfig.resultStreamOutput || resultConfig.resultSingleFile ||
+            DataUtils.isNullOrEmpty(resultConfig.resultDirectoryPath))
+            return null;
+
+        String resultFilesSuffix = DataUtils.getDefaultIfNull(resultConfig.resultFilesSuffix, "");
+        if (resultFilesSuffix.contains("/"))
+            return null;
+
+        String resultDirectoryPath = FileUtils.getCanonicalPath(resultConfig.resultDirectoryPath, null);
+        Error error = FileUtils.validateDirectoryFileExistenceAndPermissions("result", resultDirectoryPath,
+            resultConfig.resultDirectoryAllowedParentPath, true,
+            FileUtils.APP_WORKING_DIRECTORY_PERMISSIONS, true, true,
+            true, true);
+        if (error != null) {
+            Logger.logErrorExtended(LOG_TAG, "Not streaming output to result directory\n" + error.getErrorLogString());
+            return null;
+        }
+
+        return resultDirectoryPath + "/" + filePrefix + resultFilesSuffix + RESULT_SENDER.RESULT_FILE_PARTIAL_SUFFIX;
+    }
+
+    /**
+     * Write the output of a command to a result file. If the output was captured with a
+     * {@link ResultOutputSink} that has a spill file, then the spill file containing all the output
+     * is moved to the result file, otherwise the output is written to it.
+     *
+     * If the output kept by the {@link ResultOutputSink} was truncated, then it is only written if
+     * the sink was not meant to spill all the output, otherwise an error is returned if the spill
+     * file failed to be written or moved, so that the truncated output is not sent as the complete
+     * result.
+     *
+     * @param label The label for the result file.
+     * @param filePath The path for the result file.
+     * @param output The output to write if there is no spill file.
+     * @param outputSink The optional {@link ResultOutputSink} for the output.
+     * @return Returns the {@link Error} if failed to write the result file, otherwise {@code null}.
+     */
+    private static Error writeOutputToFile(String label, String filePath, String output, ResultOutputSink outputSink) {
+        String spillFilePath = (outputSink == null) ? null : outputSink.getSpillFilePath();
+        if (spillFilePath != null) {
+            Error error = FileUtils.moveRegularFile(label + " spill file", spillFilePath, filePath, false);
+            if (error == null) {
+                outputSink.onSpillFileMoved();
+                return null;
+            }
+
+            if (outputSink.isTruncated())
+                return error;
+            Logger.logErrorExtended(LOG_TAG, "Failed to move " + label + " spill file, writing captured output instead\n" + error.getErrorLogString());
+        } else if (outputSink != null && outputSink.isSpillFailed() && outputSink.isTruncated()) {
+            return ResultSenderErrno.ERROR_OUTPUT_SPILL_FILE_FAILED.getError(label, outputSink.getDroppedBytes());
+        }
+
+        return FileUtils.writeTextToFile(label, filePath, null, output, false);
+    }
+
 }
@@ -15,6 +15,10 @@ public class ResultSenderErrno extends Errno {
     public static final Errno ERROR_FORMAT_RESULT_OUTPUT_FAILED_WITH_EXCEPTION = new Errno(TYPE, 103, "Formatting result output failed.\nException: %1$s");
 
 
+    /* Errors for writing result files (150-200) */
+    public static final Errno ERROR_OUTPUT_SPILL_FILE_FAILED = new Errno(TYPE, 150, "Writing the complete output to the \"%1$s\" spill file failed and %2$d bytes were dropped from the captured output.");
+
+
     ResultSenderErrno(final String type, final int code, final String message) {
         super(type, code, message);
     }
@@ -12,12 +12,16 @@ import com.google.common.base.Joiner;
 import com.termux.shared.R;
 import com.termux.shared.data.DataUtils;
 import com.termux.shared.shell.command.ExecutionCommand;
-import com.termux.shared.shell.command.environment.ShellEnvironmentUtils;
+import com.termux.shared.shell.command.result.ResultConfig;
 import com.termux.shared.shell.command.result.ResultData;
+import com.termux.shared.shell.command.result.ResultOutputSink;
+import com.termux.shared.shell.command.result.ResultSender;
+import com.termux.shared.shell.command.ShellCommandConstants.RESULT_SENDER;
 import com.termux.shared.errors.Errno;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.shell.command.ExecutionCommand.ExecutionState;
 import com.termux.shared.shell.command.environment.IShellEnvironment;
+import com.termux.shared.shell.NativeProcess;
 import com.termux.shared.shell.ShellUtils;
 import com.termux.shared.shell.StreamGobbler;
 
@@ -25,9 +29,7 @@ import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 
 /**
  * A class that maintains info for background app shells run with {@link Runtime#exec(String[], String[], File)}.
@@ -71,8 +73,10 @@ public final class AppShell {
      * @param isSynchronous If set to {@code true}, then the command will be executed in the
      *                      caller thread and results returned synchronously in the {@link ExecutionCommand}
      *                      sub object of the {@link AppShell} returned.
-     *                      If set to {@code false}, then a new thread is started run the commands
-     *                      asynchronously in the background and control is returned to the caller thread.
+     *                      If set to {@code false}, then the command is run asynchronously in a
+     *                      new thread, or by the {@link AppShellReactor} if
+     *                      {@link ExecutionCommand#backgroundRunInReactor} is enabled and that is
+     *                      possible, and control is returned to the caller thread.
      * @return Returns the {@link AppShell}. This will be {@code null} if failed to start the execution command.
      */
     public static AppShell execute(@NonNull final Context currentPackageContext, @NonNull ExecutionCommand executionCommand,
@@ -105,13 +109,8 @@ public final class AppShell {
         final String[] commandArray = shellEnvironmentClient.setupShellCommandArguments(executionCommand.executable, executionCommand.arguments);
 
         // Setup command environment
-        HashMap<String, String> environment = shellEnvironmentClient.setupShellCommandEnvironment(currentPackageContext,
-            executionCommand);
-        if (additionalEnvironment != null)
-            environment.putAll(additionalEnvironment);
-        List<String> environmentList = ShellEnvironmentUtils.convertEnvironmentToEnviron(environment);
-        Collections.sort(environmentList);
-        String[] environmentArray = environmentList.toArray(new String[0]);
+        String[] environmentArray = shellEnvironmentClient.setupShellCommandEnviron(currentPackageContext,
+            executionCommand, additionalEnvironment);
 
         if (!executionCommand.setState(ExecutionState.EXECUTING)) {
             executionCommand.setStateFailed(Errno.ERRNO_FAILED.getCode(), currentPackageContext.getString(R.string.error_failed_to_execute_app_shell_command, executionCommand.getCommandIdAndLabelLogString()));
@@ -120,15 +119,15 @@ public final class AppShell {
         }
 
         // No need to log stdin if logging is disabled, like for app internal scripts
-        Logger.logDebugExtended(LOG_TAG, ExecutionCommand.getExecutionInputLogString(executionCommand,
+        Logger.logDebugExtended(LOG_TAG, () -> ExecutionCommand.getExecutionInputLogString(executionCommand,
             true, Logger.shouldEnableLoggingForCustomLogLevel(executionCommand.backgroundCustomLogLevel)));
-        Logger.logVerboseExtended(LOG_TAG, "\"" + executionCommand.getCommandIdAndLabelLogString() + "\" AppShell Environment:\n" +
+        Logger.logVerboseExtended(LOG_TAG, () -> "\"" + executionCommand.getCommandIdAndLabelLogString() + "\" AppShell Environment:\n" +
             Joiner.on("\n").join(environmentArray));
 
         // Exec the process
         final Process process;
         try {
-            process = Runtime.getRuntime().exec(commandArray, environmentArray, new File(executionCommand.workingDirectory));
+            process = NativeProcess.exec(commandArray, environmentArray, new File(executionCommand.workingDirectory));
         } catch (IOException e) {
             executionCommand.setStateFailed(Errno.ERRNO_FAILED.getCode(), currentPackageContext.getString(R.string.error_failed_to_execute_app_shell_command, executionCommand.getCommandIdAndLabelLogString()), e);
             AppShell.processAppShellResult(null, executionCommand);
@@ -142,7 +141,10 @@ public final class AppShell {
             } catch (IllegalThreadStateException | InterruptedException e) {
                 // TODO: Should either of these be handled or returned?
             }
-        } else {
+        } else if (!executionCommand.backgroundRunInReactor ||
+            !AppShellReactor.getInstance().register(currentPackageContext, appShell)) {
+            // If the process streams cannot be polled by the reactor, then fall back to reading
+            // them in their own threads
             new Thread() {
                 @Override
                 public void run() {
@@ -168,16 +170,21 @@ public final class AppShell {
      * @param context The {@link Context} for operations.
      */
     private void executeInner(@NonNull final Context context) throws IllegalThreadStateException, InterruptedException {
-        mExecutionCommand.mPid = ShellUtils.getPid(mProcess);
-
-        Logger.logDebug(LOG_TAG, "Running \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" AppShell with pid " + mExecutionCommand.mPid);
-
-        mExecutionCommand.resultData.exitCode = null;
+        onStarted();
 
         // setup stdin, and stdout and stderr gobblers
         DataOutputStream STDIN = new DataOutputStream(mProcess.getOutputStream());
-        StreamGobbler STDOUT = new StreamGobbler(mExecutionCommand.mPid + "-stdout", mProcess.getInputStream(), mExecutionCommand.resultData.stdout, mExecutionCommand.backgroundCustomLogLevel);
-        StreamGobbler STDERR = new StreamGobbler(mExecutionCommand.mPid + "-stderr", mProcess.getErrorStream(), mExecutionCommand.resultData.stderr, mExecutionCommand.backgroundCustomLogLevel);
+        StreamGobbler STDOUT;
+        StreamGobbler STDERR;
+        if (setupOutputSinks(false)) {
+            // Capture output into bounded sinks instead of keeping all of it in memory
+            ResultData resultData = mExecutionCommand.resultData;
+            STDOUT = new StreamGobbler(mExecutionCommand.mPid + "-stdout", mProcess.getInputStream(), resultData.stdoutSink, mExecutionCommand.backgroundCustomLogLevel);
+            STDERR = new StreamGobbler(mExecutionCommand.mPid + "-stderr", mProcess.getErrorStream(), resultData.stderrSink, mExecutionCommand.backgroundCustomLogLevel);
+        } else {
+            STDOUT = new StreamGobbler(mExecutionCommand.mPid + "-stdout", mProcess.getInputStream(), mExecutionCommand.resultData.stdout, mExecutionCommand.backgroundCustomLogLevel);
+            STDERR = new StreamGobbler(mExecutionCommand.mPid + "-stderr", mProcess.getErrorStream(), mExecutionCommand.resultData.stderr, mExecutionCommand.backgroundCustomLogLevel);
+        }
 
         // start gobbling
         STDOUT.start();
@@ -185,24 +192,15 @@ public final class AppShell {
 
         if (!DataUtils.isNullOrEmpty(mExecutionCommand.stdin)) {
             try {
-                STDIN.write((mExecutionCommand.stdin + "\n").getBytes(StandardCharsets.UTF_8));
+                STDIN.write(getStdinBytes());
                 STDIN.flush();
                 STDIN.close();
                 //STDIN.write("exit\n".getBytes(StandardCharsets.UTF_8));
                 //STDIN.flush();
             } catch(IOException e) {
-                if (e.getMessage() != null && (e.getMessage().contains("EPIPE") || e.getMessage().contains("Stream closed"))) {
-                    // Method most horrid to catch broken pipe, in which case we
-                    // do nothing. The command is not a shell, the shell closed
-                    // STDIN, the script already contained the exit command, etc.
-                    // these cases we want the output instead of returning null.
-                } else {
-                    // other issues we don't know how to handle, leads to
-                    // returning null
-                    mExecutionCommand.setStateFailed(Errno.ERRNO_FAILED.getCode(), context.getString(R.string.error_exception_received_while_executing_app_shell_command, mExecutionCommand.getCommandIdAndLabelLogString(), e.getMessage()), e);
-                    mExecutionCommand.resultData.exitCode = 1;
-                    AppShell.processAppShellResult(this, null);
-                    kill();
+                if (!onStdinWriteFailed(context, e)) {
+                    // Reap the killed process
+                    mProcess.waitFor();
                     return;
                 }
             }
@@ -224,12 +222,90 @@ public final class AppShell {
         STDOUT.join();
         STDERR.join();
         mProcess.destroy();
+        onExited(exitCode);
+    }
+
+    /** Set the pid of the {@link #mProcess} once it has been started. */
+    void onStarted() {
+        mExecutionCommand.mPid = ShellUtils.getPid(mProcess);
+
+        Logger.logDebug(LOG_TAG, () -> "Running \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" AppShell with pid " + mExecutionCommand.mPid);
+
+        mExecutionCommand.resultData.exitCode = null;
+    }
+
+    /**
+     * Setup {@link ResultData#stdoutSink} and {@link ResultData#stderrSink} of the {@link #mExecutionCommand}
+     * as per {@link ExecutionCommand#backgroundOutputCapturePolicy}, which stream the output to the
+     * partial result files if {@link ResultConfig#resultStreamOutput} is enabled.
+     *
+     * @param always If set to {@code true}, then the sinks are setup to keep all the output if
+     *               {@link ExecutionCommand#backgroundOutputCapturePolicy} is not set.
+     * @return Returns {@code true} if the sinks were setup, otherwise {@code false}.
+     */
+    boolean setupOutputSinks(boolean always) {
+        ResultOutputSink.CapturePolicy capturePolicy = mExecutionCommand.backgroundOutputCapturePolicy;
+        if (capturePolicy == null) {
+            if (!always) return false;
+            capturePolicy = new ResultOutputSink.CapturePolicy(-1, 0, null);
+        }
+
+        // Stream the output to the partial result files while the command is running if requested
+        ResultData resultData = mExecutionCommand.resultData;
+        resultData.stdoutSink = new ResultOutputSink(mExecutionCommand.mPid + "-stdout", capturePolicy,
+            ResultSender.getStreamedOutputFilePath(mExecutionCommand.resultConfig, RESULT_SENDER.RESULT_FILE_STDOUT_PREFIX));
+        resultData.stderrSink = new ResultOutputSink(mExecutionCommand.mPid + "-stderr", capturePolicy,
+            ResultSender.getStreamedOutputFilePath(mExecutionCommand.resultConfig, RESULT_SENDER.RESULT_FILE_STDERR_PREFIX));
+        return true;
+    }
+
+    /** Get the {@link ExecutionCommand#stdin} to write to the {@link #mProcess}, followed by a newline. */
+    @NonNull
+    byte[] getStdinBytes() {
+        return (mExecutionCommand.stdin + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Handle failure to write {@link ExecutionCommand#stdin} to the {@link #mProcess}.
+     *
+     * @param context The {@link Context} for operations.
+     * @param e The {@link Exception} received while writing.
+     * @return Returns {@code true} if the failure should be ignored since the process closed its
+     * stdin, otherwise {@code false} if the result of {@link #mExecutionCommand} was processed as
+     * failed and the process was killed.
+     */
+    boolean onStdinWriteFailed(@NonNull final Context context, @NonNull Exception e) {
+        if (e.getMessage() != null && (e.getMessage().contains("EPIPE") || e.getMessage().contains("Stream closed"))) {
+            // Method most horrid to catch broken pipe, in which case we
+            // do nothing. The command is not a shell, the shell closed
+            // STDIN, the script already contained the exit command, etc.
+            // these cases we want the output instead of returning null.
+            return true;
+        }
+
+        // other issues we don't know how to handle, leads to
+        // returning null
+        mExecutionCommand.setStateFailed(Errno.ERRNO_FAILED.getCode(), context.getString(R.string.error_exception_received_while_executing_app_shell_command, mExecutionCommand.getCommandIdAndLabelLogString(), e.getMessage()), e);
+        mExecutionCommand.resultData.exitCode = 1;
+        setOutputFromSinks(false);
+        AppShell.processAppShellResult(this, null);
+        kill();
+        return false;
+    }
+
+    /**
+     * Process the result of the {@link #mProcess} once it has exited and all its output has been read.
+     *
+     * @param exitCode The exit code of the process.
+     */
+    void onExited(int exitCode) {
+        setOutputFromSinks(true);
 
         // Process result
         if (exitCode == 0)
-            Logger.logDebug(LOG_TAG, "The \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" AppShell with pid " + mExecutionCommand.mPid + " exited normally");
+            Logger.logDebug(LOG_TAG, () -> "The \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" AppShell with pid " + mExecutionCommand.mPid + " exited normally");
         else
-            Logger.logDebug(LOG_TAG, "The \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" AppShell with pid " + mExecutionCommand.mPid + " exited with code: " + exitCode);
+            Logger.logDebug(LOG_TAG, () -> "The \"" + mExecutionCommand.getCommandIdAndLabelLogString() + "\" AppShell with pid " + mExecutionCommand.mPid + " exited with code: " + exitCode);
 
         // If the execution command has already failed, like SIGKILL was sent, then don't continue
         if (mExecutionCommand.isStateFailed()) {
@@ -265,6 +341,7 @@ public final class AppShell {
         if (mExecutionCommand.setStateFailed(Errno.ERRNO_FAILED.getCode(), context.getString(R.string.error_sending_sigkill_to_process))) {
             if (processResult) {
                 mExecutionCommand.resultData.exitCode = 137; // SIGKILL
+                setOutputFromSinks(false);
                 AppShell.processAppShellResult(this, null);
             }
         }
@@ -274,6 +351,26 @@ public final class AppShell {
         }
     }
 
+    /**
+     * Set {@link ResultData#stdout} and {@link ResultData#stderr} of the {@link #mExecutionCommand}
+     * to the output kept by {@link ResultData#stdoutSink} and {@link ResultData#stderrSink} if
+     * {@link ExecutionCommand#backgroundOutputCapturePolicy} was set.
+     *
+     * @param close Whether to close the sinks, which should be done once the gobblers are done.
+     */
+    private void setOutputFromSinks(boolean close) {
+        ResultData resultData = mExecutionCommand.resultData;
+        setOutputFromSink(resultData.stdout, resultData.stdoutSink, close);
+        setOutputFromSink(resultData.stderr, resultData.stderrSink, close);
+    }
+
+    private static void setOutputFromSink(@NonNull StringBuilder output, @Nullable ResultOutputSink outputSink, boolean close) {
+        if (outputSink == null) return;
+        if (close) outputSink.close();
+        output.setLength(0);
+        output.append(outputSink.toString());
+    }
+
     /**
      * Kill this {@link AppShell} by sending a {@link OsConstants#SIGILL} to its {@link #mProcess}.
      */
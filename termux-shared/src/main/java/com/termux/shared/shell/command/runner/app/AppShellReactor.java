@@ -0,0 +1,598 @@
+package com.termux.shared.shell.command.runner.app;
+
+import android.content.Context;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructPollfd;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.data.DataUtils;
+import com.termux.shared.logger.Logger;
+import com.termux.shared.reflection.ReflectionUtils;
+import com.termux.shared.shell.StreamGobbler;
+import com.termux.shared.shell.StreamLineLogger;
+import com.termux.shared.shell.command.ExecutionCommand;
+import com.termux.shared.shell.command.result.ResultOutputSink;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The reactor that writes the stdin and reads the stdout and stderr of the background
+ * {@link AppShell} processes whose {@link ExecutionCommand#backgroundRunInReactor} is enabled in a
+ * single thread with {@link Os#poll(StructPollfd[], int)}, instead of each process requiring a
+ * thread to wait for it to exit and two {@link StreamGobbler} threads to read its output.
+ *
+ * The output is written to the {@link ResultOutputSink} of the {@link ExecutionCommand} of each
+ * {@link AppShell}. Once both the stdout and stderr of a process have been closed, the reactor
+ * checks if it has exited, first after {@link #EXIT_CHECK_INTERVAL_MILLIS} and then at intervals
+ * doubled after each check up to {@link #MAX_EXIT_CHECK_INTERVAL_MILLIS}, so that a process that
+ * keeps running after closing its output, like a daemon, does not keep waking up the reactor
+ * thread. A pidfd or `SIGCHLD` cannot be used instead, since the former requires Android 12 and
+ * the latter is handled by the runtime. Once the process has exited, the reactor calls
+ * {@link AppShell#onExited(int)}, which calls the {@link AppShell.AppShellClient#onAppShellExited(AppShell)}
+ * callback in the reactor thread, so the callback must not block. The processes are reaped by the
+ * runtime like for any {@link Process}, since reaping them with `waitid()` here would race with it.
+ *
+ * The reactor thread is stopped if no processes were registered for {@link #IDLE_TIMEOUT_MILLIS}
+ * and started again when needed.
+ */
+public final class AppShellReactor {
+
+    /** The size of the buffer that output is read into. */
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    /**
+     * The max bytes of stdin written at once, which is `PIPE_BUF`, since writing more than that may
+     * block even if the pipe is writable.
+     */
+    private static final int STDIN_WRITE_SIZE = 4096;
+
+    /** The initial interval in milliseconds at which processes whose output has been closed are checked for exit. */
+    static final int EXIT_CHECK_INTERVAL_MILLIS = 20;
+
+    /** The max interval in milliseconds at which processes whose output has been closed are checked for exit. */
+    static final int MAX_EXIT_CHECK_INTERVAL_MILLIS = 1000;
+
+    /**
+     * The class names of the {@link FilterInputStream} and {@link FilterOutputStream} that the
+     * runtime wraps the {@link FileInputStream} and {@link FileOutputStream} of {@link Process}
+     * streams in, and that it synchronizes on while draining the output of a process that exited.
+     */
+    private static final List<String> PROCESS_PIPE_STREAM_CLASS_NAMES = Arrays.asList(
+        "java.lang.UNIXProcess$ProcessPipeInputStream", "java.lang.UNIXProcess$ProcessPipeOutputStream",
+        "java.lang.ProcessImpl$ProcessPipeInputStream", "java.lang.ProcessImpl$ProcessPipeOutputStream");
+
+    /** The time in milliseconds after which the reactor thread is stopped if there are no processes. */
+    private static final int IDLE_TIMEOUT_MILLIS = 30000;
+
+    private static AppShellReactor sInstance;
+
+    private final Object mLock = new Object();
+
+    /** The processes registered, which are added to {@link #mShells} by the reactor thread. */
+    private final List<ReactorShell> mPendingShells = new ArrayList<>();
+
+    /** The processes being run, which must only be accessed by the reactor thread. */
+    private final List<ReactorShell> mShells = new ArrayList<>();
+
+    private final byte[] mBuffer = new byte[READ_BUFFER_SIZE];
+
+    /** The pipe that is written to for waking up the reactor thread when a process is registered. */
+    private FileDescriptor mWakeupReadFD;
+    private FileDescriptor mWakeupWriteFD;
+    /** Whether a byte has been written to the wakeup pipe that the reactor thread has not read yet. */
+    private boolean mWakeupPending;
+
+    private Thread mThread;
+
+    private static final String LOG_TAG = "AppShellReactor";
+
+    private AppShellReactor() {}
+
+    /** Get the {@link AppShellReactor} instance. */
+    @NonNull
+    public static synchronized AppShellReactor getInstance() {
+        if (sInstance == null)
+            sInstance = new AppShellReactor();
+        return sInstance;
+    }
+
+    /**
+     * Register an {@link AppShell} whose process has been started, for the reactor to run it.
+     *
+     * @param context The {@link Context} for operations.
+     * @param appShell The {@link AppShell} to run.
+     * @return Returns {@code true} if the {@link AppShell} was registered, otherwise {@code false}
+     * if the file descriptors of its process streams could not be found or the reactor thread
+     * could not be started, in which case the caller must run it.
+     */
+    public boolean register(@NonNull final Context context, @NonNull final AppShell appShell) {
+        Process process = appShell.getProcess();
+
+        synchronized (mLock) {
+            if (!startThread())
+                return false;
+
+            FileDescriptor[] fds = takeFileDescriptors(process);
+            if (fds == null)
+                return false;
+
+            appShell.onStarted();
+            appShell.setupOutputSinks(true);
+            mPendingShells.add(new ReactorShell(context, appShell, fds[0], fds[1], fds[2]));
+        }
+
+        wakeup();
+        return true;
+    }
+
+    /** Start the reactor thread if its not already running. This must be called while holding {@link #mLock}. */
+    private boolean startThread() {
+        if (mThread != null) return true;
+
+        try {
+            FileDescriptor[] wakeupFDs = Os.pipe();
+            mWakeupReadFD = wakeupFDs[0];
+            mWakeupWriteFD = wakeupFDs[1];
+        } catch (ErrnoException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to create AppShellReactor wakeup pipe", e);
+            return false;
+        }
+
+        mThread = new Thread(this::run, "AppShellReactor");
+        try {
+            mThread.start();
+        } catch (Exception e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "AppShellReactor thread start failed", e);
+            mThread = null;
+            closeWakeupPipe();
+            return false;
+        }
+
+        Logger.logDebug(LOG_TAG, "Started AppShellReactor thread");
+        return true;
+    }
+
+    private void wakeup() {
+        synchronized (mLock) {
+            // Only one byte is written till the reactor thread reads it, so writing never blocks
+            if (mWakeupWriteFD == null || mWakeupPending) return;
+            try {
+                Os.write(mWakeupWriteFD, new byte[]{1}, 0, 1);
+                mWakeupPending = true;
+            } catch (ErrnoException | InterruptedIOException e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to wake up AppShellReactor thread", e);
+            }
+        }
+    }
+
+    private void closeWakeupPipe() {
+        closeFD(mWakeupReadFD);
+        closeFD(mWakeupWriteFD);
+        mWakeupReadFD = null;
+        mWakeupWriteFD = null;
+        mWakeupPending = false;
+    }
+
+    private void run() {
+        boolean idle = false;
+        while (true) {
+            synchronized (mLock) {
+                mShells.addAll(mPendingShells);
+                mPendingShells.clear();
+                if (mShells.isEmpty() && idle) {
+                    Logger.logDebug(LOG_TAG, "Stopping idle AppShellReactor thread");
+                    closeWakeupPipe();
+                    mThread = null;
+                    return;
+                }
+            }
+
+            List<StructPollfd> pollFDs = new ArrayList<>();
+            pollFDs.add(newPollFD(mWakeupReadFD, (short) OsConstants.POLLIN, null));
+            long now = getTimeMillis();
+            int timeout = mShells.isEmpty() ? IDLE_TIMEOUT_MILLIS : -1;
+            for (ReactorShell shell : mShells) {
+                shell.addPollFDs(pollFDs);
+                if (shell.isOutputClosed()) {
+                    int exitCheckTimeout = shell.mExitCheckSchedule.getTimeout(now);
+                    if (timeout < 0 || exitCheckTimeout < timeout) timeout = exitCheckTimeout;
+                }
+            }
+
+            StructPollfd[] pollFDsArray = pollFDs.toArray(new StructPollfd[0]);
+            int count;
+            try {
+                count = Os.poll(pollFDsArray, timeout);
+            } catch (ErrnoException e) {
+                if (e.errno == OsConstants.EINTR) continue;
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to poll AppShell streams", e);
+                sleep(EXIT_CHECK_INTERVAL_MILLIS);
+                continue;
+            }
+            idle = count == 0 && mShells.isEmpty();
+
+            for (StructPollfd pollFD : pollFDsArray) {
+                if (pollFD.revents == 0) continue;
+                if (pollFD.userData == null)
+                    drainWakeupPipe();
+                else
+                    ((ReactorShell) pollFD.userData).onPollEvent(pollFD);
+            }
+
+            now = getTimeMillis();
+            Iterator<ReactorShell> iterator = mShells.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().checkExited(now))
+                    iterator.remove();
+            }
+        }
+    }
+
+    private void drainWakeupPipe() {
+        synchronized (mLock) {
+            try {
+                Os.read(mWakeupReadFD, mBuffer, 0, mBuffer.length);
+            } catch (ErrnoException | InterruptedIOException e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to read AppShellReactor wakeup pipe", e);
+            }
+            mWakeupPending = false;
+        }
+    }
+
+    @NonNull
+    private static StructPollfd newPollFD(@NonNull FileDescriptor fd, short events, @Nullable Object userData) {
+        StructPollfd pollFD = new StructPollfd();
+        pollFD.fd = fd;
+        pollFD.events = events;
+        pollFD.userData = userData;
+        return pollFD;
+    }
+
+    /**
+     * Take over the stdin, stdout and stderr file descriptors of a {@link Process}.
+     *
+     * When a process exits, the runtime drains the output left in its stdout and stderr pipes into
+     * memory and closes their file descriptors, which would race with the reactor reading them.
+     * So duplicates of the file descriptors are used by the reactor and the process streams are
+     * closed, while holding the locks of the streams that the runtime holds while draining them.
+     * If the process has already exited and its streams were drained, then nothing is taken over.
+     *
+     * @return Returns the stdin, stdout and stderr file descriptors, otherwise {@code null} if
+     * they could not be taken over and the process streams must be read by the caller.
+     */
+    @Nullable
+    private static FileDescriptor[] takeFileDescriptors(@NonNull Process process) {
+        OutputStream stdin = process.getOutputStream();
+        InputStream stdout = process.getInputStream();
+        InputStream stderr = process.getErrorStream();
+        synchronized (stdin) {
+            synchronized (stdout) {
+                synchronized (stderr) {
+                    FileDescriptor stdinFD = dupFileDescriptor(stdin);
+                    FileDescriptor stdoutFD = dupFileDescriptor(stdout);
+                    FileDescriptor stderrFD = dupFileDescriptor(stderr);
+                    if (stdinFD == null || stdoutFD == null || stderrFD == null) {
+                        closeFD(stdinFD);
+                        closeFD(stdoutFD);
+                        closeFD(stderrFD);
+                        return null;
+                    }
+
+                    closeQuietly(stdin);
+                    closeQuietly(stdout);
+                    closeQuietly(stderr);
+                    return new FileDescriptor[]{stdinFD, stdoutFD, stderrFD};
+                }
+            }
+        }
+    }
+
+    /** Get a duplicate of the {@link FileDescriptor} of a {@link Process} stream, as per {@link #getFileDescriptor(Object)}. */
+    @Nullable
+    private static FileDescriptor dupFileDescriptor(@NonNull Object stream) {
+        FileDescriptor fd = getFileDescriptor(stream);
+        if (fd == null) return null;
+
+        try {
+            return Os.dup(fd);
+        } catch (ErrnoException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to duplicate file descriptor of process stream", e);
+            return null;
+        }
+    }
+
+    /**
+     * Get the {@link FileDescriptor} of a {@link Process} stream, which must either be a
+     * {@link FileInputStream} or {@link FileOutputStream} like for a
+     * {@link com.termux.shared.shell.NativeProcess}, or one wrapped directly in one of the
+     * {@link #PROCESS_PIPE_STREAM_CLASS_NAMES} of the runtime, whose internals are known.
+     *
+     * @return Returns the {@link FileDescriptor}, otherwise {@code null} if the stream has a
+     * different layout, like for another runtime implementation or if it was already drained after
+     * the process exited, or if its file descriptor is not valid, in which case the process streams
+     * must be read by the caller.
+     */
+    @Nullable
+    static FileDescriptor getFileDescriptor(@NonNull Object stream) {
+        if (PROCESS_PIPE_STREAM_CLASS_NAMES.contains(stream.getClass().getName())) {
+            if (stream instanceof FilterInputStream)
+                stream = ReflectionUtils.invokeField(FilterInputStream.class, "in", (FilterInputStream) stream).value;
+            else if (stream instanceof FilterOutputStream)
+                stream = ReflectionUtils.invokeField(FilterOutputStream.class, "out", (FilterOutputStream) stream).value;
+        }
+
+        try {
+            FileDescriptor fd = null;
+            if (stream instanceof FileInputStream)
+                fd = ((FileInputStream) stream).getFD();
+            else if (stream instanceof FileOutputStream)
+                fd = ((FileOutputStream) stream).getFD();
+
+            if (fd != null && fd.valid())
+                return fd;
+        } catch (IOException e) {
+            Logger.logStackTraceWithMessage(LOG_TAG, "Failed to get file descriptor of process stream", e);
+        }
+
+        Logger.logVerbose(LOG_TAG, "Not polling process stream with unsupported layout " + stream);
+        return null;
+    }
+
+    private static void closeFD(@Nullable FileDescriptor fd) {
+        if (fd == null) return;
+        try {
+            Os.close(fd);
+        } catch (ErrnoException e) {
+            // might be closed already
+        }
+    }
+
+    private static void closeQuietly(@Nullable Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // might be closed already
+        }
+    }
+
+    /** Get the monotonic time in milliseconds that exit checks are scheduled with. */
+    private static long getTimeMillis() {
+        return System.nanoTime() / 1000000;
+    }
+
+    private static void sleep(int millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            // no action
+        }
+    }
+
+
+
+    /** The state of an {@link AppShell} run by the reactor. */
+    private class ReactorShell {
+
+        @NonNull private final Context mContext;
+        @NonNull private final AppShell mAppShell;
+        @NonNull private final Process mProcess;
+        @NonNull private final FileDescriptor mStdinFD;
+        @NonNull private final FileDescriptor mStdoutFD;
+        @NonNull private final FileDescriptor mStderrFD;
+
+        @Nullable private final ResultOutputSink mStdoutSink;
+        @Nullable private final ResultOutputSink mStderrSink;
+        @Nullable private final StreamLineLogger mStdoutLogger;
+        @Nullable private final StreamLineLogger mStderrLogger;
+
+        @Nullable private byte[] mStdin;
+        private int mStdinOffset;
+        private boolean mStdinOpen = true;
+        private boolean mStdoutOpen = true;
+        private boolean mStderrOpen = true;
+        /** Whether the result was already processed as failed, like if writing stdin failed. */
+        private boolean mResultProcessed;
+
+        @NonNull final ExitCheckSchedule mExitCheckSchedule = new ExitCheckSchedule();
+
+        ReactorShell(@NonNull Context context, @NonNull AppShell appShell, @NonNull FileDescriptor stdinFD,
+                     @NonNull FileDescriptor stdoutFD, @NonNull FileDescriptor stderrFD) {
+            mContext = context;
+            mAppShell = appShell;
+            mProcess = appShell.getProcess();
+            mStdinFD = stdinFD;
+            mStdoutFD = stdoutFD;
+            mStderrFD = stderrFD;
+
+            ExecutionCommand executionCommand = appShell.getExecutionCommand();
+            mStdoutSink = executionCommand.resultData.stdoutSink;
+            mStderrSink = executionCommand.resultData.stderrSink;
+            if (Logger.shouldEnableLoggingForCustomLogLevel(executionCommand.backgroundCustomLogLevel)) {
+                String logTag = Logger.getDefaultLogTag() + "Command";
+                mStdoutLogger = new StreamLineLogger(logTag, executionCommand.mPid + "-stdout");
+                mStderrLogger = new StreamLineLogger(logTag, executionCommand.mPid + "-stderr");
+            } else {
+                mStdoutLogger = null;
+                mStderrLogger = null;
+            }
+
+            if (!DataUtils.isNullOrEmpty(executionCommand.stdin))
+                mStdin = appShell.getStdinBytes();
+        }
+
+        boolean isOutputClosed() {
+            return !mStdoutOpen && !mStderrOpen;
+        }
+
+        void addPollFDs(@NonNull List<StructPollfd> pollFDs) {
+            if (mStdin != null) pollFDs.add(newPollFD(mStdinFD, (short) OsConstants.POLLOUT, this));
+            if (mStdoutOpen) pollFDs.add(newPollFD(mStdoutFD, (short) OsConstants.POLLIN, this));
+            if (mStderrOpen) pollFDs.add(newPollFD(mStderrFD, (short) OsConstants.POLLIN, this));
+        }
+
+        void onPollEvent(@NonNull StructPollfd pollFD) {
+            if (pollFD.fd == mStdinFD)
+                writeStdin();
+            else if (pollFD.fd == mStdoutFD)
+                mStdoutOpen = readOutput(mStdoutFD, mStdoutSink, mStdoutLogger);
+            else if (pollFD.fd == mStderrFD)
+                mStderrOpen = readOutput(mStderrFD, mStderrSink, mStderrLogger);
+        }
+
+        /** Write the next part of the stdin, and close the stdin once all of it has been written. */
+        private void writeStdin() {
+            if (mStdin == null) return;
+
+            try {
+                mStdinOffset += Os.write(mStdinFD, mStdin, mStdinOffset, Math.min(STDIN_WRITE_SIZE, mStdin.length - mStdinOffset));
+                if (mStdinOffset < mStdin.length) return;
+            } catch (ErrnoException | InterruptedIOException e) {
+                if (e instanceof ErrnoException && ((ErrnoException) e).errno == OsConstants.EAGAIN) return;
+                if (!mAppShell.onStdinWriteFailed(mContext, e))
+                    mResultProcessed = true;
+            }
+
+            mStdin = null;
+            closeStdin();
+        }
+
+        private void closeStdin() {
+            if (mStdinOpen) {
+                closeFD(mStdinFD);
+                mStdinOpen = false;
+            }
+        }
+
+        /**
+         * Read the available output of a stream.
+         *
+         * @return Returns {@code true} if the stream is still open, otherwise {@code false}.
+         */
+        private boolean readOutput(@NonNull FileDescriptor fd, @Nullable ResultOutputSink sink,
+                                   @Nullable StreamLineLogger logger) {
+            int length;
+            try {
+                length = Os.read(fd, mBuffer, 0, mBuffer.length);
+            } catch (ErrnoException | InterruptedIOException e) {
+                if (e instanceof ErrnoException && (((ErrnoException) e).errno == OsConstants.EAGAIN || ((ErrnoException) e).errno == OsConstants.EINTR))
+                    return true;
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to read \"" + mAppShell.getExecutionCommand().getCommandIdAndLabelLogString() + "\" AppShell output", e);
+                length = -1;
+            }
+
+            if (length <= 0) {
+                if (logger != null) logger.flush();
+                return false;
+            }
+
+            if (sink != null) sink.write(mBuffer, 0, length);
+            if (logger != null) logger.write(mBuffer, length);
+            return true;
+        }
+
+        /**
+         * Check if the process has exited after its output was closed, if a check is due as per
+         * {@link #mExitCheckSchedule}, and if so, then process its result.
+         *
+         * @param now The current time as per {@link #getTimeMillis()}.
+         * @return Returns {@code true} if the process has exited, otherwise {@code false}.
+         */
+        boolean checkExited(long now) {
+            if (mResultProcessed) {
+                // Stop reading the output and wait for the killed process to exit, so that it is
+                // reaped if it is a NativeProcess
+                if (!isOutputClosed()) close();
+                if (!mExitCheckSchedule.onCheck(now)) return false;
+                try {
+                    mProcess.exitValue();
+                } catch (IllegalThreadStateException e) {
+                    return false;
+                }
+                return true;
+            }
+
+            if (!isOutputClosed() || !mExitCheckSchedule.onCheck(now)) return false;
+
+            int exitCode;
+            try {
+                exitCode = mProcess.exitValue();
+            } catch (IllegalThreadStateException e) {
+                return false;
+            }
+
+            close();
+
+            try {
+                mAppShell.onExited(exitCode);
+            } catch (Exception e) {
+                Logger.logStackTraceWithMessage(LOG_TAG, "Failed to process \"" + mAppShell.getExecutionCommand().getCommandIdAndLabelLogString() + "\" AppShell result", e);
+            }
+            return true;
+        }
+
+        /** Make sure all the streams are closed, like done for threaded AppShells. */
+        private void close() {
+            closeStdin();
+            closeFD(mStdoutFD);
+            closeFD(mStderrFD);
+            mStdoutOpen = false;
+            mStderrOpen = false;
+            mProcess.destroy();
+        }
+
+    }
+
+
+
+    /**
+     * The schedule of the checks for whether a process whose output has been closed has exited.
+     * The first check is done immediately, and then the interval between checks starts at
+     * {@link #EXIT_CHECK_INTERVAL_MILLIS} and is doubled after each check up to
+     * {@link #MAX_EXIT_CHECK_INTERVAL_MILLIS}.
+     */
+    static class ExitCheckSchedule {
+
+        private int mIntervalMillis;
+        private long mNextCheckTime = -1;
+
+        /** Get the time in milliseconds till the next check is due, which is 0 if it is due now. */
+        int getTimeout(long now) {
+            if (mNextCheckTime < 0) return 0;
+            return (int) Math.max(0, mNextCheckTime - now);
+        }
+
+        /**
+         * Check if a check is due, and if so, then schedule the next one.
+         *
+         * @return Returns {@code true} if a check is due, otherwise {@code false}.
+         */
+        boolean onCheck(long now) {
+            if (mNextCheckTime >= 0 && now < mNextCheckTime) return false;
+
+            mIntervalMillis = mIntervalMillis == 0 ? EXIT_CHECK_INTERVAL_MILLIS :
+                Math.min(mIntervalMillis * 2, MAX_EXIT_CHECK_INTERVAL_MILLIS);
+            mNextCheckTime = now + mIntervalMillis;
+            return true;
+        }
+
+    }
+
+}
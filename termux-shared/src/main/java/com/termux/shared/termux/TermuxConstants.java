@@ -11,7 +11,7 @@ import java.util.Formatter;
 import java.util.List;
 
 /*
- * Version: v0.52.0
+ * Version: v0.53.0
  * SPDX-License-Identifier: MIT
  *
  * Changelog
@@ -277,6 +277,10 @@ import java.util.List;
  *
  * - 0.52.0 (2022-06-18)
  *      - Added `TERMUX_PREFIX_DIR_IGNORED_SUB_FILES_PATHS_TO_CONSIDER_AS_EMPTY`.
+ *
+ * - 0.53.0 (2026-10-19)
+ *      - Added `TERMUX_APP.TERMUX_SERVICE.EXTRA_RESULT_STREAM_OUTPUT` and
+ *          `TERMUX_APP.RUN_COMMAND_SERVICE.EXTRA_RESULT_STREAM_OUTPUT`.
  */
 
 /**
@@ -1046,6 +1050,10 @@ public final class TermuxConstants {
              * be created in {@link #EXTRA_RESULT_DIRECTORY} if {@link #EXTRA_RESULT_SINGLE_FILE} is
              * {@code false} for the TERMUX_SERVICE.ACTION_SERVICE_EXECUTE intent */
             public static final String EXTRA_RESULT_FILES_SUFFIX = TERMUX_PACKAGE_NAME + ".execute.result_files_suffix"; // Default: "com.termux.execute.result_files_suffix"
+            /** Intent {@code boolean} extra for whether stdout and stderr should be streamed to the
+             * result files in {@link #EXTRA_RESULT_DIRECTORY} while the command is running if
+             * {@link #EXTRA_RESULT_SINGLE_FILE} is {@code false} for the TERMUX_SERVICE.ACTION_SERVICE_EXECUTE intent */
+            public static final String EXTRA_RESULT_STREAM_OUTPUT = TERMUX_PACKAGE_NAME + ".execute.result_stream_output"; // Default: "com.termux.execute.result_stream_output"
 
 
 
@@ -1184,6 +1192,10 @@ public final class TermuxConstants {
              * created in {@link #EXTRA_RESULT_DIRECTORY} if {@link #EXTRA_RESULT_SINGLE_FILE} is
              * {@code false} for the RUN_COMMAND_SERVICE.ACTION_RUN_COMMAND intent */
             public static final String EXTRA_RESULT_FILES_SUFFIX = TERMUX_PACKAGE_NAME + ".RUN_COMMAND_RESULT_FILES_SUFFIX"; // Default: "com.termux.RUN_COMMAND_RESULT_FILES_SUFFIX"
+            /** Intent {@code boolean} extra for whether stdout and stderr should be streamed to the
+             * result files in {@link #EXTRA_RESULT_DIRECTORY} while the command is running if
+             * {@link #EXTRA_RESULT_SINGLE_FILE} is {@code false} for the RUN_COMMAND_SERVICE.ACTION_RUN_COMMAND intent */
+            public static final String EXTRA_RESULT_STREAM_OUTPUT = TERMUX_PACKAGE_NAME + ".RUN_COMMAND_RESULT_STREAM_OUTPUT"; // Default: "com.termux.RUN_COMMAND_RESULT_STREAM_OUTPUT"
 
         }
     }
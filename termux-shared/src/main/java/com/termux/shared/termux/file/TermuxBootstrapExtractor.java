@@ -0,0 +1,666 @@
+package com.termux.shared.termux.file;
+
+import android.system.ErrnoException;
+import android.system.Os;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Extract the Termux bootstrap zip to the prefix staging directory and then move the staging
+ * directory to the prefix directory, so that a partially extracted prefix is never used.
+ *
+ * Instead of inflating the entries one after the other with a {@link java.util.zip.ZipInputStream},
+ * the central directory of the zip is read from its {@link ByteBuffer} and the installation is done
+ * in the {@link Phase} order:
+ * - {@link Phase#READ}: Read the central directory and the symlinks in `SYMLINKS.txt`.
+ * - {@link Phase#MKDIR}: Create every directory required by the entries and symlinks only once,
+ *   parents before children, instead of checking the parent directory of every entry.
+ * - {@link Phase#EXTRACT}: Inflate the files in parallel, largest first, on a pool sized to the
+ *   CPU cores, with each thread writing its files with large {@link FileChannel} writes.
+ * - {@link Phase#CHMOD}: Make the executables executable in parallel.
+ * - {@link Phase#SYMLINK}: Create the symlinks in parallel.
+ * - {@link Phase#RENAME}: Move the staging directory to the prefix directory.
+ *
+ * The time taken by every phase is returned in the {@link Stats} of {@link #install()}.
+ */
+public class TermuxBootstrapExtractor {
+
+    /** The operations on files that {@link File} does not support before Android 8. */
+    public interface FileOperations {
+
+        /** Change the mode of the file at {@code path}. */
+        void chmod(@NonNull String path, int mode) throws IOException;
+
+        /** Create a symlink at {@code linkPath} that points to {@code targetPath}. */
+        void symlink(@NonNull String targetPath, @NonNull String linkPath) throws IOException;
+
+    }
+
+    /** The {@link FileOperations} with {@link Os}. */
+    public static final FileOperations ANDROID_FILE_OPERATIONS = new FileOperations() {
+        @Override
+        public void chmod(@NonNull String path, int mode) throws IOException {
+            try {
+                Os.chmod(path, mode);
+            } catch (ErrnoException e) {
+                throw new IOException("Failed to chmod \"" + path + "\"", e);
+            }
+        }
+
+        @Override
+        public void symlink(@NonNull String targetPath, @NonNull String linkPath) throws IOException {
+            try {
+                Os.symlink(targetPath, linkPath);
+            } catch (ErrnoException e) {
+                throw new IOException("Failed to create symlink \"" + linkPath + "\" -> \"" + targetPath + "\"", e);
+            }
+        }
+    };
+
+    /** The phases of the installation. */
+    public enum Phase {
+        READ("read"),
+        MKDIR("mkdir"),
+        EXTRACT("extract"),
+        CHMOD("chmod"),
+        SYMLINK("symlink"),
+        RENAME("rename");
+
+        private final String name;
+
+        Phase(final String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /** The listener for the start and end of every {@link Phase}, like for profiling them. */
+    public interface PhaseListener {
+
+        /** Called on the installing thread before the {@code phase} starts and its time is measured. */
+        void onPhaseStart(@NonNull Phase phase);
+
+        /** Called on the installing thread after the {@code phase} ended and its time is measured. */
+        void onPhaseEnd(@NonNull Phase phase);
+
+    }
+
+    /** The name of the entry containing the symlinks as `target←link` lines. */
+    public static final String SYMLINKS_FILE_NAME = "SYMLINKS.txt";
+
+    /** The mode of the executables. */
+    @SuppressWarnings("OctalInteger")
+    public static final int EXECUTABLE_MODE = 0700;
+
+    /** The size of the buffer each thread inflates into and writes files from. */
+    private static final int OUTPUT_BUFFER_SIZE = 256 * 1024;
+    /** The size of the compressed data chunks copied from the zip buffer to the {@link Inflater}. */
+    private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_DIRECTORY_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+    private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    @NonNull private final ByteBuffer mZipBuffer;
+    @NonNull private final String mStagingDirectoryPath;
+    @NonNull private final String mDirectoryPath;
+    @NonNull private final FileOperations mFileOperations;
+    private final int mThreads;
+    @Nullable private PhaseListener mPhaseListener;
+
+    /**
+     * @param zipBuffer The buffer with the zip from its position till its limit.
+     * @param stagingDirectoryPath The existing staging directory to extract to.
+     * @param directoryPath The directory to move the staging directory to, which must not exist
+     *                      or be an empty directory.
+     * @param threads The number of threads to extract with. If {@code <= 0}, then the number of
+     *                available processors is used.
+     * @param fileOperations The {@link FileOperations}, like {@link #ANDROID_FILE_OPERATIONS}.
+     */
+    public TermuxBootstrapExtractor(@NonNull ByteBuffer zipBuffer, @NonNull String stagingDirectoryPath,
+                                    @NonNull String directoryPath, int threads,
+                                    @NonNull FileOperations fileOperations) {
+        mZipBuffer = zipBuffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        mStagingDirectoryPath = stagingDirectoryPath;
+        mDirectoryPath = directoryPath;
+        mThreads = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors());
+        mFileOperations = fileOperations;
+    }
+
+    /** Set {@link #mPhaseListener}. */
+    public void setPhaseListener(@Nullable PhaseListener phaseListener) {
+        mPhaseListener = phaseListener;
+    }
+
+    /**
+     * Install the zip to the directory.
+     *
+     * @return Returns the {@link Stats} of the installation.
+     * @throws IOException If the zip is invalid or any of the phases fails, in which case the
+     * staging directory may be partially extracted and should be deleted.
+     */
+    @NonNull
+    public Stats install() throws IOException, InterruptedException {
+        Stats stats = new Stats(mThreads);
+        ExecutorService executor = Executors.newFixedThreadPool(mThreads);
+        try {
+            long startTime = startPhase(Phase.READ);
+            List<Entry> entries = readCentralDirectory();
+            Entry symlinksEntry = null;
+            List<Entry> files = new ArrayList<>(entries.size());
+            TreeSet<String> directories = new TreeSet<>();
+            for (Entry entry : entries) {
+                if (entry.name.equals(SYMLINKS_FILE_NAME)) {
+                    symlinksEntry = entry;
+                } else if (entry.name.endsWith("/")) {
+                    addDirectory(directories, entry.name.substring(0, entry.name.length() - 1));
+                } else {
+                    addDirectory(directories, getParent(entry.name));
+                    files.add(entry);
+                    stats.compressedBytes += entry.compressedSize;
+                    stats.bytes += entry.size;
+                }
+            }
+            if (symlinksEntry == null)
+                throw new IOException("No " + SYMLINKS_FILE_NAME + " encountered");
+
+            final List<String[]> symlinks = readSymlinks(symlinksEntry);
+            for (String[] symlink : symlinks)
+                addDirectory(directories, getParent(symlink[1]));
+            endPhase(stats, Phase.READ, startTime);
+
+            startTime = startPhase(Phase.MKDIR);
+
+            for (String directory : directories) {
+                File file = new File(mStagingDirectoryPath, directory);
+                if (!file.mkdir() && !file.isDirectory())
+                    throw new IOException("Failed to create directory \"" + file.getAbsolutePath() + "\"");
+            }
+            stats.directories = directories.size();
+            endPhase(stats, Phase.MKDIR, startTime);
+
+            startTime = startPhase(Phase.EXTRACT);
+
+            // Extract the largest files first so that a thread is not left with a large file at the end
+            Collections.sort(files, (entry1, entry2) -> Long.compare(entry2.compressedSize, entry1.compressedSize));
+            final List<Entry> sortedFiles = files;
+            final AtomicInteger nextFile = new AtomicInteger();
+            final List<String> executables = Collections.synchronizedList(new ArrayList<>());
+            runOnAllThreads(executor, failed -> {
+                FileExtractor extractor = new FileExtractor();
+                try {
+                    int index;
+                    while (!failed.get() && (index = nextFile.getAndIncrement()) < sortedFiles.size()) {
+                        Entry entry = sortedFiles.get(index);
+                        String path = mStagingDirectoryPath + "/" + entry.name;
+                        extractor.extract(entry, path);
+                        if (isExecutable(entry.name))
+                            executables.add(path);
+                    }
+                } finally {
+                    extractor.end();
+                    stats.addExtractTimes(extractor.mInflateTime, extractor.mWriteTime);
+                }
+            });
+            stats.files = files.size();
+            endPhase(stats, Phase.EXTRACT, startTime);
+
+            startTime = startPhase(Phase.CHMOD);
+
+            runOnAllThreads(executor, new IndexedTask(executables.size()) {
+                @Override
+                void run(int index) throws IOException {
+                    mFileOperations.chmod(executables.get(index), EXECUTABLE_MODE);
+                }
+            });
+            stats.executables = executables.size();
+            endPhase(stats, Phase.CHMOD, startTime);
+
+            startTime = startPhase(Phase.SYMLINK);
+
+            runOnAllThreads(executor, new IndexedTask(symlinks.size()) {
+                @Override
+                void run(int index) throws IOException {
+                    String[] symlink = symlinks.get(index);
+                    mFileOperations.symlink(symlink[0], mStagingDirectoryPath + "/" + symlink[1]);
+                }
+            });
+            stats.symlinks = symlinks.size();
+            endPhase(stats, Phase.SYMLINK, startTime);
+
+            startTime = startPhase(Phase.RENAME);
+
+            if (!new File(mStagingDirectoryPath).renameTo(new File(mDirectoryPath)))
+                throw new IOException("Moving \"" + mStagingDirectoryPath + "\" to \"" + mDirectoryPath + "\" failed");
+            endPhase(stats, Phase.RENAME, startTime);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return stats;
+    }
+
+    private long startPhase(@NonNull Phase phase) {
+        if (mPhaseListener != null)
+            mPhaseListener.onPhaseStart(phase);
+        return System.nanoTime();
+    }
+
+    private void endPhase(@NonNull Stats stats, @NonNull Phase phase, long startTime) {
+        stats.phaseTimes[phase.ordinal()] = System.nanoTime() - startTime;
+        if (mPhaseListener != null)
+            mPhaseListener.onPhaseEnd(phase);
+    }
+
+    /** Whether the file at {@code name} relative to the prefix must be executable. */
+    public static boolean isExecutable(@NonNull String name) {
+        return name.startsWith("bin/") || name.startsWith("libexec") ||
+            name.startsWith("lib/apt/apt-helper") || name.startsWith("lib/apt/methods");
+    }
+
+    /** Add the {@code directory} and all its parents to {@code directories}. */
+    private static void addDirectory(@NonNull TreeSet<String> directories, @NonNull String directory) {
+        while (!directory.isEmpty() && directories.add(directory))
+            directory = getParent(directory);
+    }
+
+    @NonNull
+    private static String getParent(@NonNull String name) {
+        int index = name.lastIndexOf('/');
+        return index > 0 ? name.substring(0, index) : "";
+    }
+
+
+
+    /** Read the entries of the central directory. */
+    @NonNull
+    private List<Entry> readCentralDirectory() throws IOException {
+        int limit = mZipBuffer.limit();
+        int endOffset = -1;
+        for (int i = limit - END_OF_CENTRAL_DIRECTORY_SIZE; i >= Math.max(0, limit - END_OF_CENTRAL_DIRECTORY_SIZE - 0xFFFF); i--) {
+            if (mZipBuffer.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                endOffset = i;
+                break;
+            }
+        }
+        if (endOffset < 0)
+            throw new IOException("End of central directory not found in zip");
+
+        int count = getUnsignedShort(endOffset + 10);
+        long centralDirectoryOffset = getUnsignedInt(endOffset + 16);
+        if (count == 0xFFFF || centralDirectoryOffset == 0xFFFFFFFFL)
+            throw new IOException("Zip64 is not supported");
+
+        List<Entry> entries = new ArrayList<>(count);
+        int offset = (int) centralDirectoryOffset;
+        for (int i = 0; i < count; i++) {
+            if (offset < 0 || offset + CENTRAL_DIRECTORY_HEADER_SIZE > limit || mZipBuffer.getInt(offset) != CENTRAL_DIRECTORY_HEADER_SIGNATURE)
+                throw new IOException("Invalid central directory header at offset " + offset);
+
+            int flags = getUnsignedShort(offset + 8);
+            int method = getUnsignedShort(offset + 10);
+            long crc = getUnsignedInt(offset + 16);
+            long compressedSize = getUnsignedInt(offset + 20);
+            long size = getUnsignedInt(offset + 24);
+            int nameLength = getUnsignedShort(offset + 28);
+            int extraLength = getUnsignedShort(offset + 30);
+            int commentLength = getUnsignedShort(offset + 32);
+            long localHeaderOffset = getUnsignedInt(offset + 42);
+
+            byte[] nameBytes = new byte[nameLength];
+            ByteBuffer buffer = mZipBuffer.duplicate();
+            buffer.position(offset + CENTRAL_DIRECTORY_HEADER_SIZE);
+            buffer.get(nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+            if ((flags & 1) != 0)
+                throw new IOException("Encrypted zip entry \"" + name + "\" is not supported");
+            if (method != METHOD_STORED && method != METHOD_DEFLATED)
+                throw new IOException("Compression method " + method + " of zip entry \"" + name + "\" is not supported");
+            if (name.isEmpty() || name.startsWith("/") || name.equals("..") || name.startsWith("../") ||
+                name.contains("/../") || name.endsWith("/.."))
+                throw new IOException("Invalid zip entry name \"" + name + "\"");
+
+            if (localHeaderOffset + LOCAL_FILE_HEADER_SIZE > limit || mZipBuffer.getInt((int) localHeaderOffset) != LOCAL_FILE_HEADER_SIGNATURE)
+                throw new IOException("Invalid local header of zip entry \"" + name + "\"");
+            long dataOffset = localHeaderOffset + LOCAL_FILE_HEADER_SIZE +
+                getUnsignedShort((int) localHeaderOffset + 26) + getUnsignedShort((int) localHeaderOffset + 28);
+            if (dataOffset + compressedSize > limit)
+                throw new IOException("Data of zip entry \"" + name + "\" is out of bounds");
+
+            entries.add(new Entry(name, method, crc, compressedSize, size, (int) dataOffset));
+            offset += CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+
+        return entries;
+    }
+
+    private int getUnsignedShort(int offset) {
+        return mZipBuffer.getShort(offset) & 0xFFFF;
+    }
+
+    private long getUnsignedInt(int offset) {
+        return mZipBuffer.getInt(offset) & 0xFFFFFFFFL;
+    }
+
+    /** Read the `target←link` lines of the {@link #SYMLINKS_FILE_NAME} entry. */
+    @NonNull
+    private List<String[]> readSymlinks(@NonNull Entry entry) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream((int) entry.size);
+        FileExtractor extractor = new FileExtractor();
+        try {
+            extractor.extract(entry, (buffer, length) -> output.write(buffer, 0, length));
+        } finally {
+            extractor.end();
+        }
+
+        List<String[]> symlinks = new ArrayList<>();
+        for (String line : new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+            if (line.isEmpty()) continue;
+            String[] parts = line.split("←");
+            if (parts.length != 2)
+                throw new IOException("Malformed symlink line: " + line);
+            // The links are relative to the prefix like `./bin/sh`
+            while (parts[1].startsWith("./"))
+                parts[1] = parts[1].substring(2);
+            symlinks.add(parts);
+        }
+        return symlinks;
+    }
+
+
+
+    /** Run the {@code task} on all the threads of the {@code executor} and wait for them to finish. */
+    private void runOnAllThreads(@NonNull ExecutorService executor, @NonNull Task task) throws IOException, InterruptedException {
+        final AtomicBoolean failed = new AtomicBoolean();
+        List<Future<Void>> futures = new ArrayList<>(mThreads);
+        for (int i = 0; i < mThreads; i++) {
+            futures.add(executor.submit(() -> {
+                try {
+                    task.run(failed);
+                } catch (Exception e) {
+                    failed.set(true);
+                    throw e;
+                }
+                return null;
+            }));
+        }
+
+        IOException exception = null;
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (exception == null) {
+                    Throwable cause = e.getCause();
+                    exception = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                }
+            }
+        }
+        if (exception != null)
+            throw exception;
+    }
+
+    /** A task run on all the threads. */
+    private interface Task {
+        /** Run the task till done or {@code failed} is set by another thread. */
+        void run(@NonNull AtomicBoolean failed) throws IOException;
+    }
+
+    /** A {@link Task} that runs for every index once on any of the threads. */
+    private static abstract class IndexedTask implements Task {
+
+        private final int mCount;
+        private final AtomicInteger mNext = new AtomicInteger();
+
+        IndexedTask(int count) {
+            mCount = count;
+        }
+
+        @Override
+        public void run(@NonNull AtomicBoolean failed) throws IOException {
+            int index;
+            while (!failed.get() && (index = mNext.getAndIncrement()) < mCount)
+                run(index);
+        }
+
+        abstract void run(int index) throws IOException;
+    }
+
+    /** An entry of the zip. */
+    private static class Entry {
+
+        final String name;
+        final int method;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        final int dataOffset;
+
+        Entry(String name, int method, long crc, long compressedSize, long size, int dataOffset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.dataOffset = dataOffset;
+        }
+
+    }
+
+    /** The output of a {@link FileExtractor}. */
+    private interface Output {
+        void write(@NonNull byte[] buffer, int length) throws IOException;
+    }
+
+    /**
+     * Extract entries with a reusable {@link Inflater} and buffers, which must only be used by
+     * one thread. The compressed data is copied to the heap in chunks since
+     * {@link Inflater#setInput(ByteBuffer)} is not available before Java 11.
+     */
+    private class FileExtractor {
+
+        private final ByteBuffer mZip = mZipBuffer.duplicate();
+        private final Inflater mInflater = new Inflater(true);
+        private final byte[] mInput = new byte[INPUT_BUFFER_SIZE];
+        private final byte[] mOutput = new byte[OUTPUT_BUFFER_SIZE];
+        private final CRC32 mCrc = new CRC32();
+        private final byte[] mDummyInput = new byte[1];
+
+        /** The time spent inflating and checking the files extracted to paths in nanoseconds. */
+        long mInflateTime;
+        /** The time spent opening, writing and closing the files extracted to paths in nanoseconds. */
+        long mWriteTime;
+        private long mOutputTime;
+
+        /** Extract the {@code entry} to a new file at {@code path}. */
+        void extract(@NonNull Entry entry, @NonNull String path) throws IOException {
+            long startTime = System.nanoTime();
+            long inflateTime;
+            try (FileOutputStream outputStream = new FileOutputStream(path);
+                 FileChannel channel = outputStream.getChannel()) {
+                long inflateStartTime = System.nanoTime();
+                mOutputTime = 0;
+                extract(entry, (buffer, length) -> {
+                    long outputStartTime = System.nanoTime();
+                    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, length);
+                    while (byteBuffer.hasRemaining())
+                        channel.write(byteBuffer);
+                    mOutputTime += System.nanoTime() - outputStartTime;
+                });
+                inflateTime = System.nanoTime() - inflateStartTime - mOutputTime;
+            }
+            mInflateTime += inflateTime;
+            mWriteTime += System.nanoTime() - startTime - inflateTime;
+        }
+
+        void extract(@NonNull Entry entry, @NonNull Output output) throws IOException {
+            mZip.limit(entry.dataOffset + (int) entry.compressedSize).position(entry.dataOffset);
+            mCrc.reset();
+            long size = 0;
+
+            if (entry.method == METHOD_STORED) {
+                int length;
+                while ((length = Math.min(mZip.remaining(), mOutput.length)) > 0) {
+                    mZip.get(mOutput, 0, length);
+                    mCrc.update(mOutput, 0, length);
+                    output.write(mOutput, length);
+                    size += length;
+                }
+            } else {
+                mInflater.reset();
+                boolean dummyInputSet = false;
+                int length = 0;
+                try {
+                    while (!mInflater.finished()) {
+                        if (mInflater.needsInput()) {
+                            int inputLength = Math.min(mZip.remaining(), mInput.length);
+                            if (inputLength > 0) {
+                                mZip.get(mInput, 0, inputLength);
+                                mInflater.setInput(mInput, 0, inputLength);
+                            } else if (!dummyInputSet) {
+                                // Inflater with nowrap may require an extra byte after the data to finish
+                                mInflater.setInput(mDummyInput, 0, 1);
+                                dummyInputSet = true;
+                            } else {
+                                throw new EOFException("Unexpected end of data of zip entry \"" + entry.name + "\"");
+                            }
+                        }
+
+                        int inflated = mInflater.inflate(mOutput, length, mOutput.length - length);
+                        length += inflated;
+                        if (length == mOutput.length) {
+                            mCrc.update(mOutput, 0, length);
+                            output.write(mOutput, length);
+                            size += length;
+                            length = 0;
+                        } else if (inflated == 0 && mInflater.needsDictionary()) {
+                            throw new IOException("Zip entry \"" + entry.name + "\" requires a dictionary");
+                        }
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Invalid data of zip entry \"" + entry.name + "\"", e);
+                }
+
+                if (length > 0) {
+                    mCrc.update(mOutput, 0, length);
+                    output.write(mOutput, length);
+                    size += length;
+                }
+            }
+
+            if (size != entry.size)
+                throw new IOException("Size " + size + " of zip entry \"" + entry.name + "\" does not match " + entry.size);
+            if (mCrc.getValue() != entry.crc)
+                throw new IOException("CRC of zip entry \"" + entry.name + "\" does not match");
+        }
+
+        void end() {
+            mInflater.end();
+        }
+
+    }
+
+
+
+    /** The stats of {@link #install()}. */
+    public static class Stats {
+
+        /** The number of threads extracted with. */
+        public final int threads;
+        /** The time taken by each {@link Phase} in nanoseconds, indexed by {@link Phase#ordinal()}. */
+        public final long[] phaseTimes = new long[Phase.values().length];
+        /** The number of files extracted. */
+        public int files;
+        /** The number of directories created. */
+        public int directories;
+        /** The number of symlinks created. */
+        public int symlinks;
+        /** The number of files made executable. */
+        public int executables;
+        /** The total size of the files extracted. */
+        public long bytes;
+        /** The total compressed size of the files extracted. */
+        public long compressedBytes;
+        /**
+         * The time spent inflating files in the {@link Phase#EXTRACT} in nanoseconds, summed over
+         * all the threads.
+         */
+        public long inflateTime;
+        /**
+         * The time spent opening, writing and closing files in the {@link Phase#EXTRACT} in
+         * nanoseconds, summed over all the threads.
+         */
+        public long writeTime;
+
+        Stats(int threads) {
+            this.threads = threads;
+        }
+
+        private synchronized void addExtractTimes(long inflateTime, long writeTime) {
+            this.inflateTime += inflateTime;
+            this.writeTime += writeTime;
+        }
+
+        /** Get the time taken by {@code phase} in nanoseconds. */
+        public long getPhaseTime(@NonNull Phase phase) {
+            return phaseTimes[phase.ordinal()];
+        }
+
+        /** Get the total time taken in nanoseconds. */
+        public long getTotalTime() {
+            long totalTime = 0;
+            for (long phaseTime : phaseTimes)
+                totalTime += phaseTime;
+            return totalTime;
+        }
+
+        @NonNull
+        public String getLogString() {
+            StringBuilder logString = new StringBuilder();
+            logString.append(String.format(Locale.ROOT, "Installed %d files (%d bytes from %d compressed), %d directories, %d symlinks and %d executables with %d threads in %d ms:",
+                files, bytes, compressedBytes, directories, symlinks, executables, threads, TimeUnit.NANOSECONDS.toMillis(getTotalTime())));
+            for (Phase phase : Phase.values())
+                logString.append(String.format(Locale.ROOT, " %s=%d ms", phase.getName(), TimeUnit.NANOSECONDS.toMillis(getPhaseTime(phase))));
+            logString.append(String.format(Locale.ROOT, " (inflate=%d ms write=%d ms over all threads)",
+                TimeUnit.NANOSECONDS.toMillis(inflateTime), TimeUnit.NANOSECONDS.toMillis(writeTime)));
+            return logString.toString();
+        }
+
+    }
+
+}
@@ -190,6 +190,14 @@ public class TermuxAppSharedPreferences extends AppSharedPreferences {
         SharedPreferenceUtils.setInt(mSharedPreferences, TERMUX_APP.KEY_LOG_LEVEL, logLevel, false);
     }
 
+    public boolean isLogFileEnabled() {
+        return SharedPreferenceUtils.getBoolean(mSharedPreferences, TERMUX_APP.KEY_LOG_FILE_ENABLED, TERMUX_APP.DEFAULT_VALUE_LOG_FILE_ENABLED);
+    }
+
+    public void setLogFileEnabled(boolean value) {
+        SharedPreferenceUtils.setBoolean(mSharedPreferences, TERMUX_APP.KEY_LOG_FILE_ENABLED, value, false);
+    }
+
 
 
     public int getLastNotificationId() {
@@ -1,7 +1,7 @@
 package com.termux.shared.termux.settings.preferences;
 
 /*
- * Version: v0.16.0
+ * Version: v0.17.0
  *
  * Changelog
  *
@@ -69,6 +69,10 @@ package com.termux.shared.termux.settings.preferences;
  * - 0.16.0 (2022-06-11)
  *      - Added following to `TERMUX_APP`:
  *          `KEY_APP_SHELL_NUMBER_SINCE_BOOT` and `KEY_TERMINAL_SESSION_NUMBER_SINCE_BOOT`.
+ *
+ * - 0.17.0 (2026-10-19)
+ *      - Added following to `TERMUX_APP`:
+ *          `KEY_LOG_FILE_ENABLED` and `DEFAULT_VALUE_LOG_FILE_ENABLED`.
  */
 
 import com.termux.shared.shell.command.ExecutionCommand;
@@ -142,6 +146,13 @@ public final class TermuxPreferenceConstants {
          */
         public static final String KEY_LOG_LEVEL = "log_level";
 
+        /**
+         * Defines the key for whether log entries are written on a background thread and also
+         * to a log file in the private app data directory.
+         */
+        public static final String KEY_LOG_FILE_ENABLED = "log_file_enabled";
+        public static final boolean DEFAULT_VALUE_LOG_FILE_ENABLED = false;
+
 
         /**
          * Defines the key for last used notification id.
@@ -18,7 +18,7 @@ import java.util.List;
 import java.util.Set;
 
 /*
- * Version: v0.18.0
+ * Version: v0.19.0
  * SPDX-License-Identifier: MIT
  *
  * Changelog
@@ -80,6 +80,11 @@ import java.util.Set;
  *
  * - 0.18.0 (2022-06-13)
  *      - Add `KEY_DISABLE_FILE_SHARE_RECEIVER` and `KEY_DISABLE_FILE_VIEW_RECEIVER`.
+ *
+ * - 0.19.0 (2026-10-19)
+ *      - Add `*KEY_TERMINAL_OSC52_MAX_BYTES*`.
+ *      - Add `KEY_TERMINAL_DEFER_BACKGROUND_EMULATION`.
+ *      - Add `KEY_TERMINAL_SCROLL_BLITTING`.
  */
 
 /**
@@ -137,6 +142,22 @@ public final class TermuxPropertyConstants {
 
 
 
+    /**
+     * Defines the key for whether emulation of output of terminal sessions that are not being shown
+     * should be deferred, see {@link com.termux.terminal.TerminalSession#setEmulationDeferred(boolean)}
+     */
+    public static final String KEY_TERMINAL_DEFER_BACKGROUND_EMULATION =  "terminal-defer-background-emulation"; // Default: "terminal-defer-background-emulation"
+
+
+
+    /**
+     * Defines the key for whether scrolling of the terminal should be rendered by shifting the previously
+     * rendered frame, see {@link TerminalView#setScrollBlittingEnabled(boolean)}
+     */
+    public static final String KEY_TERMINAL_SCROLL_BLITTING =  "terminal-scroll-blitting"; // Default: "terminal-scroll-blitting"
+
+
+
     /** Defines the key for whether url links in terminal transcript will automatically open on click or on tap */
     public static final String KEY_TERMINAL_ONCLICK_URL_OPEN =  "terminal-onclick-url-open"; // Default: "terminal-onclick-url-open"
 
@@ -247,6 +268,14 @@ public final class TermuxPropertyConstants {
 
 
 
+    /** Defines the key for the max decoded size in bytes of text copied to clipboard with OSC 52 */
+    public static final String KEY_TERMINAL_OSC52_MAX_BYTES =  "terminal-osc52-max-bytes"; // Default: "terminal-osc52-max-bytes"
+    public static final int IVALUE_TERMINAL_OSC52_MAX_BYTES_MIN = TerminalEmulator.TERMINAL_OSC52_MAX_BYTES_MIN;
+    public static final int IVALUE_TERMINAL_OSC52_MAX_BYTES_MAX = TerminalEmulator.TERMINAL_OSC52_MAX_BYTES_MAX;
+    public static final int DEFAULT_IVALUE_TERMINAL_OSC52_MAX_BYTES = TerminalEmulator.DEFAULT_TERMINAL_OSC52_MAX_BYTES;
+
+
+
     /** Defines the key for the terminal transcript rows */
     public static final String KEY_TERMINAL_TRANSCRIPT_ROWS =  "terminal-transcript-rows"; // Default: "terminal-transcript-rows"
     public static final int IVALUE_TERMINAL_TRANSCRIPT_ROWS_MIN = TerminalEmulator.TERMINAL_TRANSCRIPT_ROWS_MIN;
@@ -399,7 +428,9 @@ public final class TermuxPropertyConstants {
         KEY_EXTRA_KEYS_TEXT_ALL_CAPS,
         KEY_HIDE_SOFT_KEYBOARD_ON_STARTUP,
         KEY_RUN_TERMUX_AM_SOCKET_SERVER,
+        KEY_TERMINAL_DEFER_BACKGROUND_EMULATION,
         KEY_TERMINAL_ONCLICK_URL_OPEN,
+        KEY_TERMINAL_SCROLL_BLITTING,
         KEY_USE_CTRL_SPACE_WORKAROUND,
         KEY_USE_FULLSCREEN,
         KEY_USE_FULLSCREEN_WORKAROUND,
@@ -412,6 +443,7 @@ public final class TermuxPropertyConstants {
         KEY_TERMINAL_CURSOR_STYLE,
         KEY_TERMINAL_MARGIN_HORIZONTAL,
         KEY_TERMINAL_MARGIN_VERTICAL,
+        KEY_TERMINAL_OSC52_MAX_BYTES,
         KEY_TERMINAL_TRANSCRIPT_ROWS,
 
         /* float */
@@ -445,7 +477,9 @@ public final class TermuxPropertyConstants {
         KEY_DISABLE_TERMINAL_SESSION_CHANGE_TOAST,
         KEY_ENFORCE_CHAR_BASED_INPUT,
         KEY_HIDE_SOFT_KEYBOARD_ON_STARTUP,
+        KEY_TERMINAL_DEFER_BACKGROUND_EMULATION,
         KEY_TERMINAL_ONCLICK_URL_OPEN,
+        KEY_TERMINAL_SCROLL_BLITTING,
         KEY_USE_CTRL_SPACE_WORKAROUND,
         KEY_USE_FULLSCREEN,
         KEY_USE_FULLSCREEN_WORKAROUND,
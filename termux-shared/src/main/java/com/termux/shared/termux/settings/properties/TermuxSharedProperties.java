@@ -1,19 +1,27 @@
 package com.termux.shared.termux.settings.properties;
 
 import android.content.Context;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.termux.shared.logger.Logger;
 import com.termux.shared.data.DataUtils;
 import com.termux.shared.settings.properties.SharedProperties;
 import com.termux.shared.settings.properties.SharedPropertiesParser;
+import com.termux.shared.shell.command.environment.UnixShellEnvironment;
 import com.termux.shared.termux.TermuxConstants;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
 
@@ -24,8 +32,22 @@ public abstract class TermuxSharedProperties {
     protected final List<String> mPropertiesFilePaths;
     protected final Set<String> mPropertiesList;
     protected final SharedPropertiesParser mSharedPropertiesParser;
-    protected File mPropertiesFile;
-    protected SharedProperties mSharedProperties;
+    protected volatile File mPropertiesFile;
+    protected volatile SharedProperties mSharedProperties;
+
+    /** The {@link FileObserver}s for the directories of {@link #mPropertiesFilePaths} while watching. */
+    @Nullable private List<FileObserver> mFileObservers;
+    @Nullable private Handler mWatchHandler;
+    @Nullable private Runnable mWatchReloadRunnable;
+
+    /**
+     * The delay after the last change to a properties file before it is reloaded, since editors
+     * may write a file in multiple steps.
+     */
+    private static final long WATCH_RELOAD_DELAY = 500;
+
+    private static final int WATCH_EVENTS = FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO |
+        FileObserver.MOVED_FROM | FileObserver.CREATE | FileObserver.DELETE;
 
     public static final String LOG_TAG = "TermuxSharedProperties";
 
@@ -39,20 +61,137 @@ public abstract class TermuxSharedProperties {
         loadTermuxPropertiesFromDisk();
     }
 
+    /**
+     * Reload the termux properties from disk into an in-memory cache. The properties file is
+     * always parsed again, like for explicit reloads requested by the user.
+     */
+    public void loadTermuxPropertiesFromDisk() {
+        loadTermuxPropertiesFromDisk(true);
+    }
+
     /**
      * Reload the termux properties from disk into an in-memory cache.
+     *
+     * @param force If {@code true}, then the properties file is always parsed again. Otherwise,
+     *              it is not if it has not changed since it was last loaded, which should only
+     *              be used for implicit reloads, like when an activity is started or after the
+     *              file was changed, since the check can miss in place modifications, check
+     *              {@link SharedProperties#loadPropertiesFromDisk(boolean)}.
+     * @return Returns {@code true} if the properties were loaded, otherwise {@code false} if the
+     * properties file has not changed.
      */
-    public synchronized void loadTermuxPropertiesFromDisk() {
+    public synchronized boolean loadTermuxPropertiesFromDisk(boolean force) {
         // Properties files must be searched everytime since no file may exist when constructor is
         // called or a higher priority file may have been created afterward. Otherwise, if no file
         // was found, then default props would keep loading, since mSharedProperties would be null. #2836
-        mPropertiesFile = SharedProperties.getPropertiesFileFromList(mPropertiesFilePaths, LOG_TAG);
-        mSharedProperties = null;
-        mSharedProperties = new SharedProperties(mContext, mPropertiesFile, mPropertiesList, mSharedPropertiesParser);
+        File propertiesFile = SharedProperties.getPropertiesFileFromList(mPropertiesFilePaths, LOG_TAG);
+        if (mSharedProperties != null && Objects.equals(propertiesFile, mPropertiesFile)) {
+            // The default props do not need to be loaded again if no file still exists
+            if (propertiesFile == null) {
+                if (!force) return false;
+            } else if (!mSharedProperties.loadPropertiesFromDisk(force)) {
+                return false;
+            }
+        } else {
+            SharedProperties sharedProperties = new SharedProperties(mContext, propertiesFile, mPropertiesList, mSharedPropertiesParser);
+            sharedProperties.loadPropertiesFromDisk();
+            mPropertiesFile = propertiesFile;
+            mSharedProperties = sharedProperties;
+        }
 
-        mSharedProperties.loadPropertiesFromDisk();
         dumpPropertiesToLog();
         dumpInternalPropertiesToLog();
+
+        // The cached shell environments may depend on the properties
+        UnixShellEnvironment.invalidateEnvironmentSnapshots();
+        return true;
+    }
+
+    /**
+     * Start watching the {@link #mPropertiesFilePaths} files for changes with {@link FileObserver}s
+     * on their directories, and reload the properties and call {@code onPropertiesChanged} on the
+     * main thread after they have changed. Directories that do not exist when this is called are
+     * not watched. Call {@link #stopWatching()} to stop.
+     *
+     * @param onPropertiesChanged The {@link Runnable} to call after properties have been reloaded.
+     */
+    public synchronized void startWatching(@NonNull Runnable onPropertiesChanged) {
+        stopWatching();
+        if (mPropertiesFilePaths == null || mPropertiesFilePaths.isEmpty()) return;
+
+        Handler handler = new Handler(Looper.getMainLooper());
+        Runnable reloadRunnable = () -> {
+            if (loadTermuxPropertiesFromDisk(false)) {
+                Logger.logDebug(LOG_TAG, mLabel + " properties reloaded after properties file changed");
+                onPropertiesChanged.run();
+            }
+        };
+
+        // Group the file names to watch by their directories
+        Map<String, Set<String>> directories = new HashMap<>();
+        for (String propertiesFilePath : mPropertiesFilePaths) {
+            File propertiesFile = new File(propertiesFilePath);
+            String directoryPath = propertiesFile.getParent();
+            if (directoryPath == null) continue;
+            Set<String> fileNames = directories.get(directoryPath);
+            if (fileNames == null) {
+                fileNames = new HashSet<>();
+                directories.put(directoryPath, fileNames);
+            }
+            fileNames.add(propertiesFile.getName());
+        }
+
+        List<FileObserver> fileObservers = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> entry : directories.entrySet()) {
+            if (!new File(entry.getKey()).isDirectory()) continue;
+            FileObserver fileObserver = new PropertiesFileObserver(entry.getKey(), entry.getValue(), handler, reloadRunnable);
+            fileObserver.startWatching();
+            fileObservers.add(fileObserver);
+        }
+
+        mFileObservers = fileObservers;
+        mWatchHandler = handler;
+        mWatchReloadRunnable = reloadRunnable;
+    }
+
+    /** Stop watching the properties files started by {@link #startWatching(Runnable)}. */
+    public synchronized void stopWatching() {
+        if (mFileObservers != null) {
+            for (FileObserver fileObserver : mFileObservers)
+                fileObserver.stopWatching();
+            mFileObservers = null;
+        }
+
+        if (mWatchHandler != null && mWatchReloadRunnable != null)
+            mWatchHandler.removeCallbacks(mWatchReloadRunnable);
+        mWatchHandler = null;
+        mWatchReloadRunnable = null;
+    }
+
+    /** A {@link FileObserver} that schedules a reload after a change to a properties file in its directory. */
+    private static class PropertiesFileObserver extends FileObserver {
+
+        @NonNull private final Set<String> mFileNames;
+        @NonNull private final Handler mHandler;
+        @NonNull private final Runnable mReloadRunnable;
+
+        @SuppressWarnings("deprecation")
+        PropertiesFileObserver(@NonNull String directoryPath, @NonNull Set<String> fileNames,
+                               @NonNull Handler handler, @NonNull Runnable reloadRunnable) {
+            super(directoryPath, WATCH_EVENTS);
+            mFileNames = fileNames;
+            mHandler = handler;
+            mReloadRunnable = reloadRunnable;
+        }
+
+        @Override
+        public void onEvent(int event, @Nullable String path) {
+            if ((event & WATCH_EVENTS) == 0 || path == null || !mFileNames.contains(path)) return;
+
+            mHandler.removeCallbacks(mReloadRunnable);
+            mHandler.postDelayed(mReloadRunnable, WATCH_RELOAD_DELAY);
+        }
+
     }
 
 
@@ -153,11 +292,12 @@ public abstract class TermuxSharedProperties {
     public Object getInternalPropertyValue(String key, boolean cached) {
         Object value;
         if (cached) {
-            value = mSharedProperties.getInternalProperty(key);
+            SharedProperties sharedProperties = mSharedProperties;
+            value = sharedProperties.getInternalProperty(key);
             // If the value is not null since key was found or if the value was null since the
             // object stored for the key was itself null, we detect the later by checking if the key
             // exists in the map.
-            if (value != null || mSharedProperties.getInternalProperties().containsKey(key)) {
+            if (value != null || sharedProperties.containsInternalProperty(key)) {
                 return value;
             } else {
                 // This should not happen normally unless mMap was modified after the
@@ -271,6 +411,8 @@ public abstract class TermuxSharedProperties {
                 return (int) getTerminalMarginHorizontalInternalPropertyValueFromValue(value);
             case TermuxPropertyConstants.KEY_TERMINAL_MARGIN_VERTICAL:
                 return (int) getTerminalMarginVerticalInternalPropertyValueFromValue(value);
+            case TermuxPropertyConstants.KEY_TERMINAL_OSC52_MAX_BYTES:
+                return (int) getTerminalOsc52MaxBytesInternalPropertyValueFromValue(value);
             case TermuxPropertyConstants.KEY_TERMINAL_TRANSCRIPT_ROWS:
                 return (int) getTerminalTranscriptRowsInternalPropertyValueFromValue(value);
 
@@ -420,6 +562,24 @@ public abstract class TermuxSharedProperties {
             true, true, LOG_TAG);
     }
 
+    /**
+     * Returns the int for the value if its not null and is between
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_OSC52_MAX_BYTES_MIN} and
+     * {@link TermuxPropertyConstants#IVALUE_TERMINAL_OSC52_MAX_BYTES_MAX},
+     * otherwise returns {@link TermuxPropertyConstants#DEFAULT_IVALUE_TERMINAL_OSC52_MAX_BYTES}.
+     *
+     * @param value The {@link String} value to convert.
+     * @return Returns the internal value for value.
+     */
+    public static int getTerminalOsc52MaxBytesInternalPropertyValueFromValue(String value) {
+        return SharedProperties.getDefaultIfNotInRange(TermuxPropertyConstants.KEY_TERMINAL_OSC52_MAX_BYTES,
+            DataUtils.getIntFromString(value, TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_OSC52_MAX_BYTES),
+            TermuxPropertyConstants.DEFAULT_IVALUE_TERMINAL_OSC52_MAX_BYTES,
+            TermuxPropertyConstants.IVALUE_TERMINAL_OSC52_MAX_BYTES_MIN,
+            TermuxPropertyConstants.IVALUE_TERMINAL_OSC52_MAX_BYTES_MAX,
+            true, true, LOG_TAG);
+    }
+
     /**
      * Returns the int for the value if its not null and is between
      * {@link TermuxPropertyConstants#IVALUE_TERMINAL_TRANSCRIPT_ROWS_MIN} and
@@ -610,10 +770,18 @@ public abstract class TermuxSharedProperties {
         return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_RUN_TERMUX_AM_SOCKET_SERVER, true);
     }
 
+    public boolean shouldDeferBackgroundTerminalEmulation() {
+        return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_DEFER_BACKGROUND_EMULATION, true);
+    }
+
     public boolean shouldOpenTerminalTranscriptURLOnClick() {
         return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_ONCLICK_URL_OPEN, true);
     }
 
+    public boolean isTerminalScrollBlittingEnabled() {
+        return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_SCROLL_BLITTING, true);
+    }
+
     public boolean isUsingCtrlSpaceWorkaround() {
         return (boolean) getInternalPropertyValue(TermuxPropertyConstants.KEY_USE_CTRL_SPACE_WORKAROUND, true);
     }
@@ -650,6 +818,10 @@ public abstract class TermuxSharedProperties {
         return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_MARGIN_VERTICAL, true);
     }
 
+    public int getTerminalOsc52MaxBytes() {
+        return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_OSC52_MAX_BYTES, true);
+    }
+
     public int getTerminalTranscriptRows() {
         return (int) getInternalPropertyValue(TermuxPropertyConstants.KEY_TERMINAL_TRANSCRIPT_ROWS, true);
     }
@@ -12,6 +12,7 @@ import com.termux.shared.android.PackageUtils;
 import com.termux.shared.android.SELinuxUtils;
 import com.termux.shared.data.DataUtils;
 import com.termux.shared.shell.command.environment.ShellEnvironmentUtils;
+import com.termux.shared.shell.command.environment.UnixShellEnvironment;
 import com.termux.shared.termux.TermuxBootstrap;
 import com.termux.shared.termux.TermuxConstants;
 import com.termux.shared.termux.TermuxUtils;
@@ -167,6 +168,7 @@ public class TermuxAppShellEnvironment {
         termuxAppEnvironment.remove(ENV_TERMUX_APP__AM_SOCKET_SERVER_ENABLED);
         ShellEnvironmentUtils.putToEnvIfSet(termuxAppEnvironment, ENV_TERMUX_APP__AM_SOCKET_SERVER_ENABLED,
             TermuxAmSocketServer.getTermuxAppAMSocketServerEnabled(currentPackageContext));
+        UnixShellEnvironment.invalidateEnvironmentSnapshots();
     }
 
 }
@@ -1,8 +1,12 @@
 package com.termux.shared.termux.shell.command.environment;
 
 import android.content.Context;
+import android.content.pm.PackageInfo;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.android.PackageUtils;
 
 import com.termux.shared.errors.Error;
 import com.termux.shared.file.FileUtils;
@@ -13,6 +17,7 @@ import com.termux.shared.shell.command.environment.ShellEnvironmentUtils;
 import com.termux.shared.shell.command.environment.ShellCommandShellEnvironment;
 import com.termux.shared.termux.TermuxBootstrap;
 import com.termux.shared.termux.TermuxConstants;
+import com.termux.shared.termux.TermuxUtils;
 import com.termux.shared.termux.shell.TermuxShellUtils;
 
 import java.nio.charset.Charset;
@@ -95,6 +100,30 @@ public class TermuxShellEnvironment extends AndroidShellEnvironment {
         return environment;
     }
 
+    @Nullable
+    @Override
+    protected String getEnvironmentSnapshotStamp(@NonNull Context currentPackageContext) {
+        // The Termux app invalidates the snapshots when it receives package change broadcasts for
+        // plugin apps, and its own app environment does not change while it is running. Other apps
+        // do not receive the broadcasts, so they must check if Termux app or Termux:API app was
+        // installed, updated, removed, enabled or disabled, or if Termux app was restarted.
+        if (TermuxConstants.TERMUX_PACKAGE_NAME.equals(currentPackageContext.getPackageName()))
+            return null;
+
+        return getPackageStamp(currentPackageContext, TermuxConstants.TERMUX_PACKAGE_NAME) + ":" +
+            getPackageStamp(currentPackageContext, TermuxConstants.TERMUX_API_PACKAGE_NAME) + ":" +
+            TermuxUtils.getTermuxAppPID(currentPackageContext);
+    }
+
+    /** Get the stamp for the install state of a package, which is cheaper to get than its environment. */
+    @NonNull
+    private static String getPackageStamp(@NonNull Context currentPackageContext, @NonNull String packageName) {
+        PackageInfo packageInfo = PackageUtils.getPackageInfoForPackage(currentPackageContext, packageName);
+        if (packageInfo == null) return "-";
+        boolean enabled = packageInfo.applicationInfo == null || packageInfo.applicationInfo.enabled;
+        return packageInfo.lastUpdateTime + (enabled ? "" : "-disabled");
+    }
+
 
     @NonNull
     @Override
@@ -54,6 +54,11 @@ public class TermuxTerminalSessionClientBase implements TerminalSessionClient {
         return null;
     }
 
+    @Override
+    public Integer getTerminalOsc52MaxBytes() {
+        return null;
+    }
+
 
 
     @Override
@@ -0,0 +1,27 @@
+/*
+ * Minimal replacement for the NDK android/log.h used to build local-socket.cpp for the host to
+ * run unit tests. Logs are written to stderr.
+ */
+
+#ifndef ANDROID_LOG_H
+#define ANDROID_LOG_H
+
+#include <cstdio>
+
+typedef enum android_LogPriority {
+    ANDROID_LOG_UNKNOWN = 0,
+    ANDROID_LOG_DEFAULT,
+    ANDROID_LOG_VERBOSE,
+    ANDROID_LOG_DEBUG,
+    ANDROID_LOG_INFO,
+    ANDROID_LOG_WARN,
+    ANDROID_LOG_ERROR,
+    ANDROID_LOG_FATAL,
+    ANDROID_LOG_SILENT,
+} android_LogPriority;
+
+static inline int __android_log_write(int prio, const char *tag, const char *text) {
+    return fprintf(stderr, "%d %s: %s\n", prio, tag, text);
+}
+
+#endif // ANDROID_LOG_H
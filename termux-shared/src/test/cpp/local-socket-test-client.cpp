@@ -0,0 +1,51 @@
+/*
+ * Client side natives for LocalSocketTestClient, built with local-socket.cpp into the host
+ * local-socket library. The client sockets use the LocalSocketManager natives for sending,
+ * reading and closing.
+ */
+
+#include <cerrno>
+#include <cstring>
+#include <jni.h>
+#include <unistd.h>
+
+#include <sys/socket.h>
+#include <sys/un.h>
+
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_termux_shared_net_socket_local_LocalSocketTestClient_connectNative(JNIEnv *env, jclass clazz,
+                                                                           jbyteArray pathArray) {
+    int fd = socket(AF_UNIX, SOCK_STREAM | SOCK_CLOEXEC, 0);
+    if (fd == -1) return -errno;
+
+    struct sockaddr_un adr = {.sun_family = AF_UNIX};
+    int chars = env->GetArrayLength(pathArray);
+    if (chars >= (int) sizeof(adr.sun_path)) {
+        close(fd);
+        return -ENAMETOOLONG;
+    }
+    env->GetByteArrayRegion(pathArray, 0, chars, reinterpret_cast<jbyte*>(adr.sun_path));
+
+    // The server binds with the full address length, which for abstract namespace sockets is part of the name
+    if (connect(fd, reinterpret_cast<struct sockaddr*>(&adr), sizeof(adr)) == -1) {
+        int errnoBackup = errno;
+        close(fd);
+        return -errnoBackup;
+    }
+
+    return fd;
+}
+
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_termux_shared_net_socket_local_LocalSocketTestClient_shutdownOutputNative(JNIEnv *env, jclass clazz,
+                                                                                  jint fd) {
+    return shutdown(fd, SHUT_WR) == -1 ? -errno : 0;
+}
+
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_termux_shared_net_socket_local_LocalSocketTestClient_getuidNative(JNIEnv *env, jclass clazz) {
+    return getuid();
+}
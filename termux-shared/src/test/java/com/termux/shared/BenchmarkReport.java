@@ -0,0 +1,56 @@
+package com.termux.shared;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * The report of the results of benchmark tests, which are appended to a file for each test class
+ * in the directory in the {@link #REPORTS_DIRECTORY_PROPERTY} system property, which Gradle sets
+ * to `build/reports/benchmarks`, instead of being printed to the standard output with the logs
+ * of the tests. If the property is not set, like when running tests from an IDE, the reports are
+ * written to the `termux-benchmarks` directory in the temp directory.
+ */
+public class BenchmarkReport {
+
+    /** The system property for the path to the directory of the reports. */
+    public static final String REPORTS_DIRECTORY_PROPERTY = "termux.benchmark.reports.dir";
+
+    /**
+     * Report the result of a benchmark test.
+     *
+     * @param testClass The class of the test.
+     * @param testName The name of the test method.
+     * @param result The result, which may have multiple lines.
+     */
+    public static synchronized void report(@NonNull Class<?> testClass, @NonNull String testName, @NonNull String result) {
+        File reportFile = new File(getReportsDirectory(), testClass.getName() + ".txt");
+        File reportsDirectory = reportFile.getParentFile();
+        if (reportsDirectory != null && !reportsDirectory.isDirectory() && !reportsDirectory.mkdirs())
+            throw new IllegalStateException("Failed to create benchmark reports directory \"" + reportsDirectory + "\"");
+
+        String time = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.ROOT).format(new Date());
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(reportFile, true), StandardCharsets.UTF_8)) {
+            writer.write(time + " " + testName + ":\n" + result + "\n\n");
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to write benchmark report \"" + reportFile + "\"", e);
+        }
+    }
+
+    @NonNull
+    private static File getReportsDirectory() {
+        String reportsDirectory = System.getProperty(REPORTS_DIRECTORY_PROPERTY);
+        if (reportsDirectory != null && !reportsDirectory.isEmpty())
+            return new File(reportsDirectory);
+        return new File(System.getProperty("java.io.tmpdir"), "termux-benchmarks");
+    }
+
+}
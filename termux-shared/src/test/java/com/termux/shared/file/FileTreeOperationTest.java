@@ -0,0 +1,359 @@
+package com.termux.shared.file;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.file.filesystem.DirectoryListing;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tests for {@link FileTreeOperation}.
+ *
+ * The files are deleted relative to the fds of their directories only if the
+ * {@link DirectoryListing} library is built for the host, otherwise the tests that need it are
+ * skipped and the others delete by paths.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class FileTreeOperationTest {
+
+    /** A last modified time in whole seconds, since directories only keep seconds. */
+    private static final long OLD_LAST_MODIFIED = System.currentTimeMillis() / 1000 * 1000 - 3600_000;
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("FileTreeOperationTest").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(mDirectory);
+    }
+
+    @Test
+    public void testCopyKeepsSymlinksModesAndLastModifiedTimes() throws IOException {
+        File src = createTree();
+        File dest = new File(mDirectory, "dest");
+
+        FileTreeOperation.Stats stats = new FileTreeOperation(FileTreeOperation.Type.COPY,
+            src.getPath(), dest.getPath(), 2).run();
+        Assert.assertEquals(3, stats.files);
+        Assert.assertEquals(2, stats.directories);
+        Assert.assertEquals(2, stats.symlinks);
+        Assert.assertEquals(0, stats.skipped);
+        Assert.assertEquals(5 + 512 * 1024, stats.bytes);
+
+        Assert.assertEquals("12345", readFile(new File(dest, "file")));
+        Assert.assertArrayEquals(Files.readAllBytes(new File(src, "directory/large").toPath()),
+            Files.readAllBytes(new File(dest, "directory/large").toPath()));
+        Assert.assertEquals(0, new File(dest, "directory/empty").length());
+
+        for (String name : Arrays.asList("file", "directory", "directory/large", "directory/empty")) {
+            File srcFile = new File(src, name);
+            File destFile = new File(dest, name);
+            Assert.assertEquals(name, Files.getPosixFilePermissions(srcFile.toPath()), Files.getPosixFilePermissions(destFile.toPath()));
+            Assert.assertEquals(name, srcFile.lastModified(), destFile.lastModified());
+        }
+
+        // The targets are kept as is, even if relative or dangling
+        Assert.assertEquals("file", Files.readSymbolicLink(new File(dest, "link").toPath()).toString());
+        Assert.assertEquals("../missing", Files.readSymbolicLink(new File(dest, "directory/dangling").toPath()).toString());
+    }
+
+    @Test
+    public void testCopyExcludesDestinationUnderSource() throws IOException {
+        File src = createTree();
+        File dest = new File(src, "directory/copy");
+
+        FileTreeOperation.Stats stats = new FileTreeOperation(FileTreeOperation.Type.COPY,
+            src.getPath(), dest.getPath(), 2).run();
+        Assert.assertEquals(3, stats.files);
+        Assert.assertEquals(2, stats.directories);
+
+        Assert.assertEquals("12345", readFile(new File(dest, "file")));
+        Assert.assertTrue(new File(dest, "directory/large").isFile());
+        Assert.assertFalse(new File(dest, "directory/copy").exists());
+    }
+
+    @Test
+    public void testCopySkipsSocketsAndFifos() throws IOException, InterruptedException {
+        File src = new File(mDirectory, "src");
+        Assert.assertTrue(src.mkdir());
+        writeFile(new File(src, "file"), "12345");
+        File fifo = new File(src, "fifo");
+        Assume.assumeTrue("mkfifo is not available", createFifo(fifo));
+        File socket = new File(src, "socket");
+        Assume.assumeTrue("Unix domain socket channels are not available", createSocket(socket));
+
+        File dest = new File(mDirectory, "dest");
+        FileTreeOperation.Stats stats = new FileTreeOperation(FileTreeOperation.Type.COPY,
+            src.getPath(), dest.getPath(), 1).run();
+        Assert.assertEquals(1, stats.files);
+        Assert.assertEquals(2, stats.skipped);
+        Assert.assertEquals("12345", readFile(new File(dest, "file")));
+        Assert.assertFalse(Files.exists(new File(dest, "fifo").toPath(), LinkOption.NOFOLLOW_LINKS));
+        Assert.assertFalse(Files.exists(new File(dest, "socket").toPath(), LinkOption.NOFOLLOW_LINKS));
+    }
+
+    @Test
+    public void testDelete() throws IOException {
+        File src = createTree();
+        File target = createTarget();
+        Files.createSymbolicLink(new File(src, "directory/target").toPath(), target.toPath());
+
+        FileTreeOperation.Stats stats = new FileTreeOperation(FileTreeOperation.Type.DELETE,
+            src.getPath(), null, 2).run();
+        Assert.assertEquals(3, stats.files);
+        Assert.assertEquals(2, stats.directories);
+        Assert.assertEquals(3, stats.symlinks);
+        Assert.assertFalse(src.exists());
+
+        // The targets of symlinks are not deleted
+        Assert.assertEquals("target", readFile(new File(target, "file")));
+    }
+
+    @Test
+    public void testDeleteByPathsWithoutLibrary() throws IOException {
+        File src = createTree();
+        File target = createTarget();
+        Files.createSymbolicLink(new File(src, "directory/target").toPath(), target.toPath());
+
+        FileTreeOperation.Stats stats = new FileTreeOperation(FileTreeOperation.Type.DELETE,
+            src.getPath(), null, 2, false).run();
+        Assert.assertEquals(3, stats.files);
+        Assert.assertEquals(2, stats.directories);
+        Assert.assertEquals(3, stats.symlinks);
+        Assert.assertFalse(src.exists());
+        Assert.assertEquals("target", readFile(new File(target, "file")));
+
+        src = createTree();
+        new FileTreeOperation(FileTreeOperation.Type.DELETE_CONTENTS, src.getPath(), null, 2, false).run();
+        Assert.assertArrayEquals(new String[0], src.list());
+    }
+
+    @Test
+    public void testDeleteDoesNotFollowDirectorySwappedForSymlink() throws IOException {
+        Assume.assumeTrue("The directory listing library is not built for the host", DirectoryListing.loadLibrary());
+
+        File src = new File(mDirectory, "src");
+        File directory = new File(src, "directory");
+        Assert.assertTrue(directory.mkdirs());
+        writeFile(new File(src, "file"), "12345");
+        writeFile(new File(directory, "file"), "12345");
+        File target = createTarget();
+
+        // The sub files of a directory are deleted before its sub directories are opened, so the
+        // directory is swapped for a symlink after it has been listed but before it is opened.
+        Queue<String> errors = new ConcurrentLinkedQueue<>();
+        AtomicBoolean swapped = new AtomicBoolean();
+        FileTreeOperation fileTreeOperation = new FileTreeOperation(FileTreeOperation.Type.DELETE,
+            src.getPath(), null, 1);
+        fileTreeOperation.setProgressListener((files, bytes) -> {
+            if (!swapped.compareAndSet(false, true)) return;
+            try {
+                Files.move(directory.toPath(), new File(mDirectory, "moved").toPath());
+                Files.createSymbolicLink(directory.toPath(), target.toPath());
+            } catch (IOException e) {
+                errors.add(e.toString());
+            }
+        });
+
+        try {
+            fileTreeOperation.run();
+            Assert.fail("Deleted a directory swapped for a symlink");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("Failed to open directory"));
+        }
+        Assert.assertTrue(swapped.get());
+        Assert.assertEquals(new ArrayList<String>(), new ArrayList<>(errors));
+        Assert.assertEquals("target", readFile(new File(target, "file")));
+    }
+
+    @Test
+    public void testDeleteContents() throws IOException {
+        File src = createTree();
+
+        FileTreeOperation.Stats stats = new FileTreeOperation(FileTreeOperation.Type.DELETE_CONTENTS,
+            src.getPath(), null, 2).run();
+        Assert.assertEquals(3, stats.files);
+        Assert.assertEquals(1, stats.directories);
+        Assert.assertEquals(2, stats.symlinks);
+        Assert.assertTrue(src.isDirectory());
+        Assert.assertArrayEquals(new String[0], src.list());
+    }
+
+    @Test
+    public void testDeleteContentsOfNonDirectory() throws IOException {
+        File file = new File(mDirectory, "file");
+        writeFile(file, "12345");
+
+        try {
+            new FileTreeOperation(FileTreeOperation.Type.DELETE_CONTENTS, file.getPath(), null, 1).run();
+            Assert.fail("Deleted the contents of a regular file");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("is not a directory"));
+        }
+        Assert.assertEquals("12345", readFile(file));
+    }
+
+    @Test
+    public void testCancel() throws IOException {
+        File src = createTree();
+        File dest = new File(mDirectory, "dest");
+
+        FileTreeOperation fileTreeOperation = new FileTreeOperation(FileTreeOperation.Type.COPY,
+            src.getPath(), dest.getPath(), 1);
+        fileTreeOperation.setProgressListener((files, bytes) -> fileTreeOperation.cancel());
+        try {
+            fileTreeOperation.run();
+            Assert.fail("Cancelled operation did not throw");
+        } catch (InterruptedIOException e) {
+            Assert.assertTrue(fileTreeOperation.isCancelled());
+        }
+
+        // A cancelled operation does not process any file
+        FileTreeOperation cancelledFileTreeOperation = new FileTreeOperation(FileTreeOperation.Type.DELETE,
+            src.getPath(), null, 1);
+        cancelledFileTreeOperation.cancel();
+        try {
+            cancelledFileTreeOperation.run();
+            Assert.fail("Cancelled operation did not throw");
+        } catch (InterruptedIOException e) {
+            Assert.assertEquals("12345", readFile(new File(src, "file")));
+        }
+    }
+
+    @Test
+    public void testShortCopyThrows() throws IOException {
+        File src = new File(mDirectory, "src");
+        writeFile(src, "12345");
+        File dest = new File(mDirectory, "dest");
+
+        // Like if the source was truncated after its size was read
+        FileTreeOperation fileTreeOperation = new FileTreeOperation(FileTreeOperation.Type.COPY,
+            src.getPath(), dest.getPath(), 1);
+        try (FileInputStream in = new FileInputStream(src);
+             FileOutputStream out = new FileOutputStream(dest)) {
+            fileTreeOperation.transfer(in.getChannel(), out.getChannel(), 10, src.getPath(), dest.getPath());
+            Assert.fail("Short copy did not throw");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("Only 5 of 10 bytes were copied"));
+        }
+    }
+
+
+
+    /**
+     * Create a tree with a regular file, a symlink to it, and a directory with a large file, an
+     * empty file and a dangling symlink, with modes and last modified times that are not the
+     * defaults.
+     */
+    @NonNull
+    private File createTree() throws IOException {
+        File src = new File(mDirectory, "src");
+        File directory = new File(src, "directory");
+        Assert.assertTrue(directory.mkdirs());
+
+        File file = new File(src, "file");
+        writeFile(file, "12345");
+        Files.setPosixFilePermissions(file.toPath(), PosixFilePermissions.fromString("rw-r-----"));
+        Assert.assertTrue(file.setLastModified(OLD_LAST_MODIFIED));
+        Files.createSymbolicLink(new File(src, "link").toPath(), new File("file").toPath());
+
+        // Large enough to be copied by its own task
+        File large = new File(directory, "large");
+        writeFile(large, new String(new char[512 * 1024]).replace('\0', 'a'));
+        Files.setPosixFilePermissions(large.toPath(), PosixFilePermissions.fromString("rwx------"));
+        Assert.assertTrue(large.setLastModified(OLD_LAST_MODIFIED - 1000));
+        File empty = new File(directory, "empty");
+        Assert.assertTrue(empty.createNewFile());
+        Assert.assertTrue(empty.setLastModified(OLD_LAST_MODIFIED - 2000));
+        Files.createSymbolicLink(new File(directory, "dangling").toPath(), new File("../missing").toPath());
+
+        Files.setPosixFilePermissions(directory.toPath(), PosixFilePermissions.fromString("rwxr-x---"));
+        Assert.assertTrue(directory.setLastModified(OLD_LAST_MODIFIED - 3000));
+        return src;
+    }
+
+    /** Create a directory outside the tree with a file that must not be deleted. */
+    @NonNull
+    private File createTarget() throws IOException {
+        File target = new File(mDirectory, "target");
+        Assert.assertTrue(target.mkdir());
+        writeFile(new File(target, "file"), "target");
+        return target;
+    }
+
+    private static boolean createFifo(@NonNull File file) throws InterruptedException {
+        try {
+            return new ProcessBuilder("mkfifo", file.getPath()).start().waitFor() == 0 && file.exists();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Create a socket file with the unix domain socket channels of Java 16 and higher, if available. */
+    private static boolean createSocket(@NonNull File file) {
+        try {
+            SocketAddress address = (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+                .getMethod("of", String.class).invoke(null, file.getPath());
+            try (ServerSocketChannel channel = (ServerSocketChannel) ServerSocketChannel.class
+                .getMethod("open", ProtocolFamily.class).invoke(null, StandardProtocolFamily.valueOf("UNIX"))) {
+                // The socket file is not deleted when the channel is closed
+                channel.bind(address);
+            }
+            return file.exists();
+        } catch (ReflectiveOperationException | IllegalArgumentException | IOException e) {
+            return false;
+        }
+    }
+
+    private static void writeFile(@NonNull File file, @NonNull String data) throws IOException {
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write(data.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @NonNull
+    private static String readFile(@NonNull File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static void deleteRecursively(@NonNull File file) {
+        // Do not follow symlinks to directories
+        File[] files = Files.isSymbolicLink(file.toPath()) ? null : file.listFiles();
+        if (files != null) {
+            for (File child : files)
+                deleteRecursively(child);
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+}
@@ -0,0 +1,222 @@
+package com.termux.shared.file.filesystem;
+
+import android.os.Process;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Tests for {@link DirectoryListing}.
+ *
+ * The {@link DirectoryListing#DIRECTORY_LISTING_LIBRARY} library must be built for the host, which
+ * is done by the `buildHostDirectoryListingLibrary` task on Linux if the `hostNativeTests`
+ * property is passed, otherwise the tests that read directories are skipped.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DirectoryListingTest {
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("DirectoryListingTest").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                File[] subFiles = file.listFiles();
+                if (subFiles != null) {
+                    for (File subFile : subFiles)
+                        subFile.delete();
+                }
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void testReadWithoutFollowingLinks() throws IOException {
+        assumeLibraryLoaded();
+        createEntries();
+
+        DirectoryListing directoryListing = DirectoryListing.read(mDirectory.getAbsolutePath(), false);
+        Assert.assertEquals(mDirectory.getAbsolutePath(), directoryListing.getDirectoryPath());
+        Assert.assertEquals(4, directoryListing.getCount());
+
+        int file = directoryListing.indexOf("file");
+        Assert.assertTrue(file >= 0);
+        Assert.assertEquals(FileType.REGULAR, directoryListing.getFileType(file));
+        Assert.assertFalse(directoryListing.isDirectory(file));
+        Assert.assertEquals(5, directoryListing.getSize(file));
+        Assert.assertEquals(new File(mDirectory, "file").lastModified(), directoryListing.getLastModified(file));
+        Assert.assertEquals(new File(mDirectory, "file").getAbsolutePath(), directoryListing.getPath(file));
+
+        int directory = directoryListing.indexOf("directory");
+        Assert.assertTrue(directory >= 0);
+        Assert.assertEquals(FileType.DIRECTORY, directoryListing.getFileType(directory));
+        Assert.assertTrue(directoryListing.isDirectory(directory));
+
+        Assert.assertEquals(FileType.SYMLINK, directoryListing.getFileType(directoryListing.indexOf("link")));
+        Assert.assertEquals(FileType.SYMLINK, directoryListing.getFileType(directoryListing.indexOf("dangling")));
+        Assert.assertEquals(-1, directoryListing.indexOf("missing"));
+        Assert.assertEquals(-1, directoryListing.indexOf(null));
+    }
+
+    @Test
+    public void testReadFollowingLinks() throws IOException {
+        assumeLibraryLoaded();
+        createEntries();
+
+        DirectoryListing directoryListing = DirectoryListing.read(mDirectory.getAbsolutePath(), true);
+        Assert.assertEquals(4, directoryListing.getCount());
+
+        // The target of a symlink is returned, unless it is dangling
+        int link = directoryListing.indexOf("link");
+        Assert.assertEquals(FileType.REGULAR, directoryListing.getFileType(link));
+        Assert.assertEquals(5, directoryListing.getSize(link));
+        Assert.assertEquals(FileType.SYMLINK, directoryListing.getFileType(directoryListing.indexOf("dangling")));
+    }
+
+    @Test
+    public void testReadNonAsciiNames() throws IOException {
+        assumeLibraryLoaded();
+        // File names are only created in UTF-8 by the JVM if the host locale uses it, like on Android
+        Assume.assumeTrue("UTF-8".equals(System.getProperty("sun.jnu.encoding")));
+        // Supplementary characters are encoded differently in modified UTF-8
+        String name = "file-é中😀";
+        Assert.assertTrue(new File(mDirectory, name).createNewFile());
+
+        DirectoryListing directoryListing = DirectoryListing.read(mDirectory.getAbsolutePath(), false);
+        Assert.assertEquals(1, directoryListing.getCount());
+        Assert.assertEquals(name, directoryListing.getName(0));
+    }
+
+    @Test
+    public void testReadEmptyDirectory() throws IOException {
+        assumeLibraryLoaded();
+        Assert.assertEquals(0, DirectoryListing.read(mDirectory.getAbsolutePath(), false).getCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadMissingDirectory() throws IOException {
+        assumeLibraryLoaded();
+        DirectoryListing.read(new File(mDirectory, "missing").getAbsolutePath(), false);
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadRegularFile() throws IOException {
+        assumeLibraryLoaded();
+        File file = new File(mDirectory, "file");
+        Assert.assertTrue(file.createNewFile());
+        DirectoryListing.read(file.getAbsolutePath(), false);
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadEmptyPath() throws IOException {
+        DirectoryListing.read("", false);
+    }
+
+    @Test
+    public void testReadAndUnlinkRelativeToFd() throws IOException {
+        assumeLibraryLoaded();
+        createEntries();
+
+        int fd = DirectoryListing.openDirectory(DirectoryListing.AT_FDCWD, mDirectory.getAbsolutePath());
+        try {
+            // The fd can be read more than once
+            Assert.assertEquals(4, DirectoryListing.read(fd, mDirectory.getAbsolutePath(), false).getCount());
+            DirectoryListing directoryListing = DirectoryListing.read(fd, mDirectory.getAbsolutePath(), false);
+            Assert.assertEquals(4, directoryListing.getCount());
+            Assert.assertEquals(FileType.SYMLINK, directoryListing.getFileType(directoryListing.indexOf("link")));
+            Assert.assertEquals(new File(mDirectory, "file").getAbsolutePath(), directoryListing.getPath(directoryListing.indexOf("file")));
+
+            // A symlink is deleted and not its target, and deleting a missing file is not an error
+            Assert.assertTrue(DirectoryListing.unlink(fd, "link", false));
+            Assert.assertTrue(new File(mDirectory, "file").isFile());
+            Assert.assertFalse(DirectoryListing.unlink(fd, "link", false));
+            Assert.assertTrue(DirectoryListing.unlink(fd, "directory", true));
+            Assert.assertFalse(new File(mDirectory, "directory").exists());
+            Assert.assertEquals(2, DirectoryListing.read(fd, mDirectory.getAbsolutePath(), false).getCount());
+        } finally {
+            DirectoryListing.close(fd);
+        }
+    }
+
+    @Test
+    public void testOpenDirectoryDoesNotFollowSymlinks() throws IOException {
+        assumeLibraryLoaded();
+        Assert.assertTrue(new File(mDirectory, "directory").mkdir());
+        Files.createSymbolicLink(new File(mDirectory, "link").toPath(), new File(mDirectory, "directory").toPath());
+
+        int fd = DirectoryListing.openDirectory(DirectoryListing.AT_FDCWD, mDirectory.getAbsolutePath());
+        try {
+            DirectoryListing.close(DirectoryListing.openDirectory(fd, "directory"));
+            try {
+                DirectoryListing.close(DirectoryListing.openDirectory(fd, "link"));
+                Assert.fail("Opened a symlink to a directory");
+            } catch (IOException e) {
+                // Expected
+            }
+
+            // A directory cannot be deleted as a file
+            try {
+                DirectoryListing.unlink(fd, "directory", false);
+                Assert.fail("Deleted a directory as a file");
+            } catch (IOException e) {
+                Assert.assertTrue(new File(mDirectory, "directory").isDirectory());
+            }
+        } finally {
+            DirectoryListing.close(fd);
+        }
+    }
+
+    @Test
+    public void testIsWritableBy() {
+        String path = new File(mDirectory, "file").getAbsolutePath();
+        int mode = UnixConstants.S_IFREG | UnixConstants.S_IRUSR | UnixConstants.S_IWUSR;
+        int uid = Process.myUid() + 1;
+        int otherUid = Process.myUid() + 2;
+
+        // Root can write to anything
+        Assert.assertTrue(DirectoryListing.isWritableBy(path, UnixConstants.S_IFREG, otherUid, 0));
+
+        // The owner bits are checked for the owner
+        Assert.assertTrue(DirectoryListing.isWritableBy(path, mode, uid, uid));
+        Assert.assertFalse(DirectoryListing.isWritableBy(path, UnixConstants.S_IFREG | UnixConstants.S_IWOTH, uid, uid));
+
+        // The others bits are checked for a uid that access() cannot check for
+        Assert.assertFalse(DirectoryListing.isWritableBy(path, mode, otherUid, uid));
+        Assert.assertTrue(DirectoryListing.isWritableBy(path, mode | UnixConstants.S_IWOTH, otherUid, uid));
+    }
+
+    private void createEntries() throws IOException {
+        File file = new File(mDirectory, "file");
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write("12345".getBytes(StandardCharsets.UTF_8));
+        }
+        Assert.assertTrue(new File(mDirectory, "directory").mkdir());
+        Files.createSymbolicLink(new File(mDirectory, "link").toPath(), file.toPath());
+        Files.createSymbolicLink(new File(mDirectory, "dangling").toPath(), new File(mDirectory, "missing").toPath());
+    }
+
+    private static void assumeLibraryLoaded() {
+        Assume.assumeTrue("The \"" + DirectoryListing.DIRECTORY_LISTING_LIBRARY + "\" library is not built for the host",
+            DirectoryListing.loadLibrary());
+    }
+
+}
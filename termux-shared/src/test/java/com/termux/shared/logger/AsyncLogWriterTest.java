@@ -0,0 +1,219 @@
+package com.termux.shared.logger;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+@RunWith(RobolectricTestRunner.class)
+public class AsyncLogWriterTest {
+
+    private static final String FULL_TAG = Logger.getFullTag("AsyncLogWriterTest");
+
+    private static final long FLUSH_TIMEOUT = 10000;
+
+    private File mDirectory;
+    private final List<AsyncLogWriter> mAsyncLogWriters = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("AsyncLogWriterTest").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (AsyncLogWriter asyncLogWriter : mAsyncLogWriters)
+            asyncLogWriter.close(FLUSH_TIMEOUT);
+        deleteRecursively(mDirectory);
+    }
+
+    @Test
+    public void testRotation() throws IOException {
+        File logFile = new File(mDirectory, "test.log");
+        AsyncLogWriter asyncLogWriter = newAsyncLogWriter(logFile, 1024, 2, Long.MAX_VALUE);
+        asyncLogWriter.start();
+
+        for (int i = 0; i < 100; i++)
+            asyncLogWriter.log(Log.INFO, FULL_TAG, String.format(Locale.ROOT, "entry %03d %050d", i, 0), false);
+        Assert.assertTrue(asyncLogWriter.flush(FLUSH_TIMEOUT));
+
+        File backupFile1 = new File(logFile.getPath() + ".1");
+        File backupFile2 = new File(logFile.getPath() + ".2");
+        Assert.assertTrue(backupFile1.isFile());
+        Assert.assertTrue(backupFile2.isFile());
+        Assert.assertFalse(new File(logFile.getPath() + ".3").exists());
+        for (File file : new File[] {logFile, backupFile1, backupFile2})
+            Assert.assertTrue(file + " is " + file.length() + " bytes", file.length() > 0 && file.length() <= 1024);
+
+        // The entries must be in order from the oldest backup file to the log file, without any
+        // missing after the first one kept, and the oldest ones must have been deleted.
+        List<Integer> entries = new ArrayList<>();
+        for (File file : new File[] {backupFile2, backupFile1, logFile})
+            entries.addAll(getEntries(file, "entry (\\d+) "));
+        Assert.assertTrue(entries.get(0) > 0);
+        for (int i = 0; i < entries.size(); i++)
+            Assert.assertEquals(entries.get(0) + i, (int) entries.get(i));
+        Assert.assertEquals(99, (int) entries.get(entries.size() - 1));
+    }
+
+    @Test
+    public void testDroppedEntries() throws IOException {
+        File logFile = new File(mDirectory, "test.log");
+        // Only 3 of the entries fit in the max pending chars until the writer is started
+        AsyncLogWriter asyncLogWriter = newAsyncLogWriter(logFile, 1024 * 1024, 1, 3 * (64 + "entry 0".length()));
+
+        for (int i = 0; i < 10; i++)
+            asyncLogWriter.log(Log.INFO, FULL_TAG, "entry " + i, false);
+        asyncLogWriter.start();
+        Assert.assertTrue(asyncLogWriter.flush(FLUSH_TIMEOUT));
+
+        String log = readFile(logFile);
+        Assert.assertEquals(Arrays.asList(0, 1, 2), getEntries(logFile, "entry (\\d+)$"));
+        Assert.assertTrue(log, log.contains("Dropped 7 log entries"));
+
+        // The written entries must not be counted as pending anymore
+        for (int i = 3; i < 6; i++)
+            asyncLogWriter.log(Log.INFO, FULL_TAG, "entry " + i, false);
+        Assert.assertTrue(asyncLogWriter.flush(FLUSH_TIMEOUT));
+
+        log = readFile(logFile);
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), getEntries(logFile, "entry (\\d+)$"));
+        Assert.assertEquals(log.indexOf("Dropped"), log.lastIndexOf("Dropped"));
+    }
+
+    @Test(timeout = 60000)
+    public void testFlushOrdering() throws InterruptedException, IOException {
+        File logFile = new File(mDirectory, "test.log");
+        AsyncLogWriter asyncLogWriter = newAsyncLogWriter(logFile, 16 * 1024 * 1024, 1, Long.MAX_VALUE);
+        asyncLogWriter.start();
+
+        int threads = 4;
+        int entriesPerThread = 500;
+        Queue<String> failures = new ConcurrentLinkedQueue<>();
+        List<Thread> loggingThreads = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final int thread = i;
+            Thread loggingThread = new Thread(() -> {
+                for (int j = 0; j < entriesPerThread; j++) {
+                    String message = "thread " + thread + " entry " + j;
+                    asyncLogWriter.log(Log.DEBUG, FULL_TAG, message, j % 2 == 0);
+
+                    // The entries logged before a flush must have been written once it returns
+                    if (j % 100 == 99) {
+                        if (!asyncLogWriter.flush(FLUSH_TIMEOUT))
+                            failures.add("Flush timed out after \"" + message + "\"");
+                        else if (!readFile(logFile).contains(message + "\n"))
+                            failures.add("\"" + message + "\" not written after flush");
+                    }
+                }
+            });
+            loggingThreads.add(loggingThread);
+            loggingThread.start();
+        }
+
+        for (Thread loggingThread : loggingThreads)
+            loggingThread.join();
+
+        Assert.assertEquals(new ArrayList<String>(), new ArrayList<>(failures));
+
+        // The entries of each thread must be written in the order they were logged
+        for (int i = 0; i < threads; i++) {
+            List<Integer> entries = getEntries(logFile, "thread " + i + " entry (\\d+)$");
+            Assert.assertEquals(entriesPerThread, entries.size());
+            for (int j = 0; j < entriesPerThread; j++)
+                Assert.assertEquals(j, (int) entries.get(j));
+        }
+    }
+
+    @Test
+    public void testFileWriteRetriedAfterFailure() throws IOException {
+        // The log file cannot be created while its parent is a regular file
+        File parent = new File(mDirectory, "logs");
+        Assert.assertTrue(parent.createNewFile());
+        File logFile = new File(parent, "test.log");
+
+        AsyncLogWriter retryingAsyncLogWriter = newAsyncLogWriter(logFile, 1024 * 1024, 1, Long.MAX_VALUE, 0);
+        AsyncLogWriter asyncLogWriter = newAsyncLogWriter(logFile, 1024 * 1024, 1, Long.MAX_VALUE, Long.MAX_VALUE);
+        retryingAsyncLogWriter.start();
+        asyncLogWriter.start();
+
+        retryingAsyncLogWriter.log(Log.INFO, FULL_TAG, "entry 0", false);
+        asyncLogWriter.log(Log.INFO, FULL_TAG, "entry 1", false);
+        Assert.assertTrue(retryingAsyncLogWriter.flush(FLUSH_TIMEOUT));
+        Assert.assertTrue(asyncLogWriter.flush(FLUSH_TIMEOUT));
+        Assert.assertFalse(logFile.exists());
+
+        Assert.assertTrue(parent.delete());
+        Assert.assertTrue(parent.mkdir());
+
+        retryingAsyncLogWriter.log(Log.INFO, FULL_TAG, "entry 2", false);
+        asyncLogWriter.log(Log.INFO, FULL_TAG, "entry 3", false);
+        Assert.assertTrue(retryingAsyncLogWriter.flush(FLUSH_TIMEOUT));
+        Assert.assertTrue(asyncLogWriter.flush(FLUSH_TIMEOUT));
+        Assert.assertEquals(Arrays.asList(2), getEntries(logFile, "entry (\\d+)$"));
+    }
+
+
+
+    @NonNull
+    private AsyncLogWriter newAsyncLogWriter(@NonNull File logFile, long maxFileSize, int maxBackupFiles, long maxPendingChars) {
+        return newAsyncLogWriter(logFile, maxFileSize, maxBackupFiles, maxPendingChars, Long.MAX_VALUE);
+    }
+
+    @NonNull
+    private AsyncLogWriter newAsyncLogWriter(@NonNull File logFile, long maxFileSize, int maxBackupFiles,
+                                             long maxPendingChars, long fileWriteRetryInterval) {
+        AsyncLogWriter asyncLogWriter = new AsyncLogWriter(logFile, maxFileSize, maxBackupFiles, maxPendingChars, fileWriteRetryInterval);
+        mAsyncLogWriters.add(asyncLogWriter);
+        return asyncLogWriter;
+    }
+
+    /** Get the numbers captured by the first group of the pattern from the lines of the file. */
+    @NonNull
+    private static List<Integer> getEntries(@NonNull File file, @NonNull String pattern) {
+        List<Integer> entries = new ArrayList<>();
+        Matcher matcher = Pattern.compile(pattern, Pattern.MULTILINE).matcher(readFile(file));
+        while (matcher.find())
+            entries.add(Integer.parseInt(matcher.group(1)));
+        return entries;
+    }
+
+    @NonNull
+    private static String readFile(@NonNull File file) {
+        try {
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    private static void deleteRecursively(@NonNull File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files)
+                deleteRecursively(child);
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+}
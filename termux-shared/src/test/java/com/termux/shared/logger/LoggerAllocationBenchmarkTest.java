@@ -0,0 +1,124 @@
+package com.termux.shared.logger;
+
+import com.google.common.base.Joiner;
+import com.termux.shared.BenchmarkReport;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmark of the bytes allocated by log calls that build their message eagerly against ones
+ * that pass a {@link Logger.MessageSupplier}, like the environment logged by
+ * {@link com.termux.shared.shell.command.runner.app.AppShell} for every command, when the log
+ * level filters them out.
+ *
+ * The allocated bytes are read with the {@link com.sun.management.ThreadMXBean} of the desktop
+ * runtime, otherwise the benchmark is skipped. The results are written to the {@link BenchmarkReport}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class LoggerAllocationBenchmarkTest {
+
+    /** The number of log calls made with each method for the benchmark. */
+    private static final int ITERATIONS = 10000;
+    /** The number of log calls made with each method before the benchmark. */
+    private static final int WARMUP_ITERATIONS = 2000;
+    /** The number of variables in the environment, like the ones exported for Termux commands. */
+    private static final int ENVIRONMENT_SIZE = 60;
+
+    private static final String LOG_TAG = "LoggerAllocationBenchmarkTest";
+
+    private com.sun.management.ThreadMXBean mThreadMXBean;
+    private int mLogLevel;
+
+    @Before
+    public void setUp() {
+        mLogLevel = Logger.getLogLevel();
+    }
+
+    @After
+    public void tearDown() {
+        Logger.setLogLevel(null, mLogLevel);
+    }
+
+    @Test
+    public void testSupplierOnlyCalledIfEnabled() {
+        AtomicInteger calls = new AtomicInteger();
+
+        Logger.setLogLevel(null, Logger.LOG_LEVEL_DEBUG);
+        Logger.logVerbose(LOG_TAG, () -> "verbose " + calls.incrementAndGet());
+        Logger.logVerboseExtended(LOG_TAG, () -> "verbose " + calls.incrementAndGet());
+        Assert.assertEquals(0, calls.get());
+
+        Logger.logDebug(LOG_TAG, () -> "debug " + calls.incrementAndGet());
+        Logger.logDebugExtended(LOG_TAG, () -> "debug " + calls.incrementAndGet());
+        Assert.assertEquals(2, calls.get());
+
+        Logger.setLogLevel(null, Logger.LOG_LEVEL_OFF);
+        Logger.logDebug(LOG_TAG, () -> "debug " + calls.incrementAndGet());
+        Assert.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testDisabledLogAllocations() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("Thread allocated bytes are not supported by the runtime",
+            threadMXBean instanceof com.sun.management.ThreadMXBean &&
+                ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported());
+        mThreadMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        mThreadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        String[] environmentArray = new String[ENVIRONMENT_SIZE];
+        for (int i = 0; i < ENVIRONMENT_SIZE; i++)
+            environmentArray[i] = String.format(Locale.ROOT, "TERMUX_VARIABLE_%d=/data/data/com.termux/files/usr/%d", i, i);
+
+        Logger.setLogLevel(null, Logger.LOG_LEVEL_NORMAL);
+
+        logEagerly(environmentArray, WARMUP_ITERATIONS);
+        logWithSupplier(environmentArray, WARMUP_ITERATIONS);
+
+        long eagerBytes = getAllocatedBytes();
+        logEagerly(environmentArray, ITERATIONS);
+        eagerBytes = getAllocatedBytes() - eagerBytes;
+
+        long supplierBytes = getAllocatedBytes();
+        logWithSupplier(environmentArray, ITERATIONS);
+        supplierBytes = getAllocatedBytes() - supplierBytes;
+
+        BenchmarkReport.report(getClass(), "testDisabledLogAllocations", String.format(Locale.ROOT,
+            "Disabled verbose log call allocations: eager=%d bytes/call supplier=%d bytes/call",
+            eagerBytes / ITERATIONS, supplierBytes / ITERATIONS));
+
+        // The supplier allocates at most the lambda capturing the arguments, instead of the message
+        Assert.assertTrue("The supplier log calls allocated " + supplierBytes + " bytes against " + eagerBytes + " bytes",
+            supplierBytes * 10 < eagerBytes);
+    }
+
+    private static void logEagerly(String[] environmentArray, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            Logger.logVerboseExtended(LOG_TAG, "\"" + LOG_TAG + "\" AppShell Environment:\n" +
+                Joiner.on("\n").join(environmentArray));
+        }
+    }
+
+    private static void logWithSupplier(String[] environmentArray, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            Logger.logVerboseExtended(LOG_TAG, () -> "\"" + LOG_TAG + "\" AppShell Environment:\n" +
+                Joiner.on("\n").join(environmentArray));
+        }
+    }
+
+    private long getAllocatedBytes() {
+        return mThreadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+}
@@ -0,0 +1,417 @@
+package com.termux.shared.net.socket.local;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.BenchmarkReport;
+import com.termux.shared.errors.Error;
+import com.termux.shared.shell.am.AmSocketServer;
+import com.termux.shared.shell.am.AmSocketServerRunConfig;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load and latency test for a {@link LocalSocketManager} server, which drives concurrent clients
+ * through request and response cycles, either with a connection per request like the ones of
+ * {@link AmSocketServer} clients that send a single am command, or over a connection per client
+ * with the framed protocol of the {@link AmSocketServer}. The throughput, the latency percentiles,
+ * the client threads created and the file descriptors leaked are written to the {@link BenchmarkReport}.
+ *
+ * The {@link LocalSocketManager#LOCAL_SOCKET_LIBRARY} library must be built for the host, otherwise
+ * the tests are skipped, see {@link LocalSocketTestClient}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class LocalSocketManagerLoadTest {
+
+    private static final String LOG_TITLE = "LocalSocketManagerLoadTest";
+
+    /** The number of clients that send requests at the same time. */
+    private static final int CLIENTS = 32;
+    /** The number of requests sent by each client, each over a new connection. */
+    private static final int REQUESTS_PER_CLIENT = 100;
+    /** The time the server spends on each request, as a stand-in for running the am command. */
+    private static final int REQUEST_WORK_MILLIS = 1;
+
+    /**
+     * The number of clients that send requests with the framed protocol at the same time. Each of
+     * them holds a client thread of the server while connected, so the server only allows one
+     * less than {@link #MAX_CONCURRENT_CLIENTS} of them to be connected.
+     */
+    private static final int FRAMED_CLIENTS = 7;
+    /** The number of requests sent by each framed client, one at a time over its connection. */
+    private static final int REQUESTS_PER_FRAMED_CLIENT = 200;
+
+    private static final int MAX_CONCURRENT_CLIENTS = 8;
+
+    private LocalSocketManager mLocalSocketManager;
+
+    @Before
+    public void setUp() {
+        LocalSocketTestClient.assumeLibraryLoaded();
+    }
+
+    @After
+    public void tearDown() {
+        if (mLocalSocketManager != null)
+            mLocalSocketManager.stop();
+    }
+
+    @Test
+    public void testConcurrentClients() throws Exception {
+        // Run a short load first so that classes and threads used by the run are already loaded
+        // and started, and are not counted as leaked file descriptors.
+        runLoad(4, 10, false);
+
+        int fdsBefore = getOpenFDCount();
+        LoadResult result = runLoad(CLIENTS, REQUESTS_PER_CLIENT, false);
+        int fdsLeaked = waitForOpenFDCount(fdsBefore) - fdsBefore;
+
+        BenchmarkReport.report(getClass(), "testConcurrentClients", result.getLogString(fdsLeaked));
+        assertLoadResult(result, fdsLeaked);
+    }
+
+    @Test
+    public void testConcurrentFramedClients() throws Exception {
+        runLoad(2, 10, true);
+
+        int fdsBefore = getOpenFDCount();
+        LoadResult result = runLoad(FRAMED_CLIENTS, REQUESTS_PER_FRAMED_CLIENT, true);
+        int fdsLeaked = waitForOpenFDCount(fdsBefore) - fdsBefore;
+
+        BenchmarkReport.report(getClass(), "testConcurrentFramedClients", result.getLogString(fdsLeaked));
+        assertLoadResult(result, fdsLeaked);
+    }
+
+    private static void assertLoadResult(@NonNull LoadResult result, int fdsLeaked) {
+        Assert.assertEquals("Failed requests", 0, result.failedRequests);
+        Assert.assertEquals("Server errors", new ArrayList<String>(), result.serverErrors);
+        Assert.assertTrue("Max concurrent client threads " + result.largestPoolSize,
+            result.largestPoolSize <= MAX_CONCURRENT_CLIENTS);
+        Assert.assertTrue("Callback threads used " + result.callbackThreads,
+            result.callbackThreads <= result.createdThreads + 1); // The listener thread with CALLER_RUNS
+        Assert.assertTrue("File descriptors leaked " + fdsLeaked, fdsLeaked <= 0);
+    }
+
+    /**
+     * Start a server, send requests from clients concurrently and stop the server.
+     *
+     * @param framed If each client sends all its requests over one connection with the framed
+     *               protocol of the {@link AmSocketServer}, instead of one connection per request.
+     */
+    @NonNull
+    private LoadResult runLoad(int clients, int requestsPerClient, boolean framed) throws Exception {
+        String path = "\0" + LOG_TITLE + "-" + System.nanoTime();
+        ThreadRecorder threadRecorder;
+        if (framed) {
+            FramedLoadTestClient amSocketServerClient = new FramedLoadTestClient();
+            AmSocketServerRunConfig amSocketServerRunConfig = new AmSocketServerRunConfig(LOG_TITLE, path, amSocketServerClient);
+            amSocketServerRunConfig.setMaxConcurrentClients(MAX_CONCURRENT_CLIENTS);
+            amSocketServerRunConfig.setMaxFramedClients(FRAMED_CLIENTS);
+            amSocketServerRunConfig.setCheckDisplayOverAppsPermission(false);
+            mLocalSocketManager = AmSocketServer.start(new LocalSocketTestClient.TestContext(), amSocketServerRunConfig);
+            Assert.assertNotNull(mLocalSocketManager);
+            threadRecorder = amSocketServerClient.mThreadRecorder;
+        } else {
+            LoadTestClient localSocketManagerClient = new LoadTestClient();
+            LocalSocketRunConfig localSocketRunConfig = new LocalSocketRunConfig(LOG_TITLE, path, localSocketManagerClient);
+            localSocketRunConfig.setMaxConcurrentClients(MAX_CONCURRENT_CLIENTS);
+            localSocketRunConfig.setWaitForClientData(true);
+            mLocalSocketManager = new LocalSocketManager(new LocalSocketTestClient.TestContext(), localSocketRunConfig);
+            Error error = mLocalSocketManager.start();
+            Assert.assertNull(error != null ? error.getErrorLogString() : null, error);
+            threadRecorder = localSocketManagerClient.mThreadRecorder;
+        }
+
+        byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+        long[] latencies = new long[clients * requestsPerClient];
+        AtomicInteger failedRequests = new AtomicInteger();
+        CountDownLatch startLatch = new CountDownLatch(1);
+        List<Thread> clientThreads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            final int client = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    startLatch.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (framed) {
+                    failedRequests.addAndGet(sendFramedRequests(pathBytes, client * requestsPerClient, requestsPerClient, latencies));
+                    return;
+                }
+                for (int j = 0; j < requestsPerClient; j++) {
+                    int request = client * requestsPerClient + j;
+                    long startTime = System.nanoTime();
+                    if (!sendRequest(pathBytes, "start -n request-" + request))
+                        failedRequests.incrementAndGet();
+                    latencies[request] = System.nanoTime() - startTime;
+                }
+            }, LOG_TITLE + "-client-" + i);
+            clientThreads.add(thread);
+            thread.start();
+        }
+
+        long startTime = System.nanoTime();
+        startLatch.countDown();
+        for (Thread thread : clientThreads)
+            thread.join();
+        long elapsedTime = System.nanoTime() - startTime;
+
+        LocalSocketClientExecutor clientExecutor = mLocalSocketManager.getClientExecutor();
+        Assert.assertNotNull(clientExecutor);
+        LoadResult result = new LoadResult(framed, clients, latencies, elapsedTime, failedRequests.get(),
+            new ArrayList<>(threadRecorder.mErrors), clientExecutor.getCreatedThreadCount(), clientExecutor.getLargestPoolSize(),
+            threadRecorder.mThreadNames.size(), clientExecutor.getLogString());
+
+        mLocalSocketManager.stop();
+        mLocalSocketManager = null;
+        return result;
+    }
+
+    /** Connect to the server, send the request, read the whole response and check it. */
+    private static boolean sendRequest(@NonNull byte[] path, @NonNull String request) {
+        int fd = LocalSocketTestClient.connect(path);
+        if (fd < 0)
+            return false;
+
+        try {
+            if (!LocalSocketTestClient.send(fd, request.getBytes(StandardCharsets.UTF_8)) ||
+                !LocalSocketTestClient.shutdownOutput(fd))
+                return false;
+
+            byte[] response = LocalSocketTestClient.readFully(fd);
+            return response != null && getResponse(request).equals(new String(response, StandardCharsets.UTF_8));
+        } finally {
+            LocalSocketTestClient.close(fd);
+        }
+    }
+
+    /**
+     * Connect to the server with the framed protocol and send the requests one at a time, each
+     * after the response to the previous one was received, recording their latencies.
+     *
+     * @return Returns the number of requests that failed.
+     */
+    private static int sendFramedRequests(@NonNull byte[] path, int firstRequest, int requests, @NonNull long[] latencies) {
+        int fd = LocalSocketTestClient.connect(path);
+        if (fd < 0)
+            return requests;
+
+        int sentRequests = 0;
+        try {
+            if (!LocalSocketTestClient.send(fd, AmSocketServer.FRAMED_PROTOCOL_HEADER) ||
+                !Arrays.equals(AmSocketServer.FRAMED_PROTOCOL_HEADER,
+                    LocalSocketTestClient.readExactly(fd, AmSocketServer.FRAMED_PROTOCOL_HEADER.length)))
+                return requests;
+
+            for (; sentRequests < requests; sentRequests++) {
+                int request = firstRequest + sentRequests;
+                byte[] payload = ("broadcast -a " + LOG_TITLE + ".request-" + request).getBytes(StandardCharsets.UTF_8);
+                ByteBuffer frame = ByteBuffer.allocate(8 + payload.length);
+                frame.putInt(4 + payload.length).putInt(request).put(payload);
+
+                long startTime = System.nanoTime();
+                if (!LocalSocketTestClient.send(fd, frame.array()))
+                    return requests - sentRequests;
+
+                byte[] responseHeader = LocalSocketTestClient.readExactly(fd, 8);
+                if (responseHeader == null)
+                    return requests - sentRequests;
+                ByteBuffer response = ByteBuffer.wrap(responseHeader);
+                int length = response.getInt();
+                if (length < 4 || response.getInt() != request ||
+                    LocalSocketTestClient.readExactly(fd, length - 4) == null)
+                    return requests - sentRequests;
+                latencies[request] = System.nanoTime() - startTime;
+            }
+
+            // The server must end the connection without sending anything else
+            if (!LocalSocketTestClient.shutdownOutput(fd))
+                return 1;
+            byte[] remaining = LocalSocketTestClient.readFully(fd);
+            return remaining != null && remaining.length == 0 ? 0 : 1;
+        } finally {
+            LocalSocketTestClient.close(fd);
+        }
+    }
+
+    /** Get the response of the server to a request, in the format of the am socket server results. */
+    @NonNull
+    private static String getResponse(@NonNull String request) {
+        return "0\0" + request + "\0";
+    }
+
+    private static int getOpenFDCount() {
+        String[] fds = new File("/proc/self/fd").list();
+        return fds != null ? fds.length : 0;
+    }
+
+    /** Wait for server threads that are still stopping to close their file descriptors. */
+    private static int waitForOpenFDCount(int count) throws InterruptedException {
+        int openFDCount = getOpenFDCount();
+        for (int i = 0; i < 50 && openFDCount > count; i++) {
+            Thread.sleep(100);
+            openFDCount = getOpenFDCount();
+        }
+        return openFDCount;
+    }
+
+
+
+    /** The results of {@link #runLoad(int, int)}. */
+    private static class LoadResult {
+
+        final boolean framed;
+        final int clients;
+        final long[] latencies;
+        final long elapsedTime;
+        final int failedRequests;
+        /** The log strings of the errors reported by the server. */
+        final List<String> serverErrors;
+        /** The number of client threads started by the executor of the server. */
+        final int createdThreads;
+        /** The max number of client threads of the server that were running at the same time. */
+        final int largestPoolSize;
+        /** The number of distinct threads that ran the callbacks, including the listener thread. */
+        final int callbackThreads;
+        final String executorLogString;
+
+        LoadResult(boolean framed, int clients, long[] latencies, long elapsedTime, int failedRequests,
+                   @NonNull List<String> serverErrors, int createdThreads, int largestPoolSize, int callbackThreads,
+                   String executorLogString) {
+            this.framed = framed;
+            this.clients = clients;
+            this.latencies = latencies.clone();
+            Arrays.sort(this.latencies);
+            this.elapsedTime = elapsedTime;
+            this.failedRequests = failedRequests;
+            this.serverErrors = serverErrors;
+            this.createdThreads = createdThreads;
+            this.largestPoolSize = largestPoolSize;
+            this.callbackThreads = callbackThreads;
+            this.executorLogString = executorLogString;
+        }
+
+        /** Get the latency in milliseconds that percentile of the requests were faster than or equal to. */
+        double getLatencyPercentile(double percentile) {
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))] / 1e6;
+        }
+
+        String getLogString(int fdsLeaked) {
+            return String.format(Locale.ROOT,
+                "%d %srequests from %d clients in %d ms: %.0f requests/s, latency p50=%.3f ms p99=%.3f ms p999=%.3f ms max=%.3f ms, " +
+                    "failed requests=%d, server errors=%d, client threads created=%d, max concurrent client threads=%d, " +
+                    "callback threads=%d, fds leaked=%d\n%s%s",
+                latencies.length, framed ? "framed " : "", clients, TimeUnit.NANOSECONDS.toMillis(elapsedTime),
+                latencies.length / (elapsedTime / 1e9), getLatencyPercentile(50), getLatencyPercentile(99),
+                getLatencyPercentile(99.9), getLatencyPercentile(100), failedRequests, serverErrors.size(),
+                createdThreads, largestPoolSize, callbackThreads, fdsLeaked, executorLogString,
+                serverErrors.isEmpty() ? "" : "\n\nServer errors:\n" + String.join("\n\n", serverErrors));
+        }
+
+    }
+
+    /** The threads that ran the callbacks of a server and the errors it reported. */
+    private static class ThreadRecorder {
+
+        final Set<String> mThreadNames = ConcurrentHashMap.newKeySet();
+        final Queue<String> mErrors = new ConcurrentLinkedQueue<>();
+
+        void onClientAccepted() {
+            mThreadNames.add(Thread.currentThread().getName());
+        }
+
+        void onError(@NonNull LocalSocketManager localSocketManager,
+                     @Nullable LocalClientSocket clientSocket, @NonNull Error error) {
+            mErrors.add(LocalSocketManager.getErrorLogString(error, localSocketManager.getLocalSocketRunConfig(), clientSocket));
+        }
+
+    }
+
+    /** The stand-in for the am socket server, which replies with the request after {@link #REQUEST_WORK_MILLIS}. */
+    private static class LoadTestClient extends LocalSocketManagerClientBase {
+
+        final ThreadRecorder mThreadRecorder = new ThreadRecorder();
+
+        @Override
+        public void onError(@NonNull LocalSocketManager localSocketManager,
+                            @Nullable LocalClientSocket clientSocket, @NonNull Error error) {
+            mThreadRecorder.onError(localSocketManager, clientSocket, error);
+        }
+
+        @Override
+        public void onClientAccepted(@NonNull LocalSocketManager localSocketManager,
+                                     @NonNull LocalClientSocket clientSocket) {
+            mThreadRecorder.onClientAccepted();
+
+            StringBuilder data = new StringBuilder();
+            Error error = clientSocket.readDataOnInputStream(data, true);
+            if (error == null) {
+                try {
+                    Thread.sleep(REQUEST_WORK_MILLIS);
+                } catch (InterruptedException ignored) {}
+                error = clientSocket.sendDataToOutputStream(getResponse(data.toString()), true);
+            }
+            if (error != null)
+                onError(localSocketManager, clientSocket, error);
+
+            super.onClientAccepted(localSocketManager, clientSocket);
+        }
+
+        @Override
+        protected String getLogTag() {
+            return LOG_TITLE;
+        }
+
+    }
+
+    /**
+     * The client of the {@link AmSocketServer} for the framed load. The am commands fail since the
+     * server does not run in an app, but their results are still sent back to the clients.
+     */
+    private static class FramedLoadTestClient extends AmSocketServer.AmSocketServerClient {
+
+        final ThreadRecorder mThreadRecorder = new ThreadRecorder();
+
+        @Override
+        public void onError(@NonNull LocalSocketManager localSocketManager,
+                            @Nullable LocalClientSocket clientSocket, @NonNull Error error) {
+            mThreadRecorder.onError(localSocketManager, clientSocket, error);
+        }
+
+        @Override
+        public void onClientAccepted(@NonNull LocalSocketManager localSocketManager,
+                                     @NonNull LocalClientSocket clientSocket) {
+            mThreadRecorder.onClientAccepted();
+            super.onClientAccepted(localSocketManager, clientSocket);
+        }
+
+        @Override
+        protected String getLogTag() {
+            return LOG_TITLE;
+        }
+
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.termux.shared.net.socket.local;
+
+import com.termux.shared.errors.Error;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for the lifecycle of the {@link LocalSocketClientExecutor} of a {@link LocalSocketManager}.
+ *
+ * The {@link LocalSocketManager} library must be built for the host, otherwise the tests are
+ * skipped, see {@link LocalSocketTestClient}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class LocalSocketManagerTest {
+
+    private static final String LOG_TITLE = "LocalSocketManagerTest";
+
+    private LocalSocketManager mLocalSocketManager;
+
+    @Before
+    public void setUp() {
+        LocalSocketTestClient.assumeLibraryLoaded();
+
+        String path = "\0" + LOG_TITLE + "-" + System.nanoTime();
+        LocalSocketRunConfig localSocketRunConfig = new LocalSocketRunConfig(LOG_TITLE, path, new LocalSocketManagerClientBase() {
+            @Override
+            protected String getLogTag() {
+                return LOG_TITLE;
+            }
+        });
+        mLocalSocketManager = new LocalSocketManager(new LocalSocketTestClient.TestContext(), localSocketRunConfig);
+    }
+
+    @After
+    public void tearDown() {
+        if (mLocalSocketManager != null)
+            mLocalSocketManager.stop();
+    }
+
+    @Test
+    public void testClientTasksNotRunIfNotRunning() throws InterruptedException {
+        AtomicInteger tasksRun = new AtomicInteger();
+
+        // The executor is only created by start()
+        mLocalSocketManager.startLocalSocketManagerClientThread(tasksRun::incrementAndGet);
+        Assert.assertNull(mLocalSocketManager.getClientExecutor());
+
+        Error error = mLocalSocketManager.start();
+        Assert.assertNull(error != null ? error.getErrorLogString() : null, error);
+        LocalSocketClientExecutor clientExecutor = mLocalSocketManager.getClientExecutor();
+        Assert.assertNotNull(clientExecutor);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        mLocalSocketManager.startLocalSocketManagerClientThread(latch::countDown);
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+        // A late task after stop() must not recreate the executor
+        Assert.assertNull(mLocalSocketManager.stop());
+        Assert.assertNull(mLocalSocketManager.getClientExecutor());
+        mLocalSocketManager.startLocalSocketManagerClientThread(tasksRun::incrementAndGet);
+        Assert.assertNull(mLocalSocketManager.getClientExecutor());
+
+        // A task given to the executor after it has been shutdown must not be run by the reject policy
+        Assert.assertFalse(clientExecutor.execute(tasksRun::incrementAndGet));
+        Assert.assertEquals(0, tasksRun.get());
+    }
+
+}
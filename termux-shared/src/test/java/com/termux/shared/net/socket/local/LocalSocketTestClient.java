@@ -0,0 +1,121 @@
+package com.termux.shared.net.socket.local;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.pm.ApplicationInfo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.jni.models.JniResult;
+
+import org.junit.Assume;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * The client side of the {@link LocalSocketManager} servers run by tests.
+ *
+ * The {@link LocalSocketManager#LOCAL_SOCKET_LIBRARY} library must be built for the host, which is
+ * done by the `buildHostLocalSocketLibrary` task on Linux if the `hostNativeTests` property is
+ * passed, otherwise the tests that use it are skipped. The library also contains the natives of
+ * the client.
+ */
+public class LocalSocketTestClient {
+
+    private static final String LOG_TITLE = "LocalSocketTestClient";
+
+    /** Load the {@link LocalSocketManager#LOCAL_SOCKET_LIBRARY} library or skip the test if it is not built for the host. */
+    public static void assumeLibraryLoaded() {
+        try {
+            System.loadLibrary(LocalSocketManager.LOCAL_SOCKET_LIBRARY);
+        } catch (UnsatisfiedLinkError e) {
+            Assume.assumeNoException("The \"" + LocalSocketManager.LOCAL_SOCKET_LIBRARY + "\" library is not built for the host", e);
+        }
+    }
+
+    /** Connect to the server socket at path, and return the client socket fd or the negative errno. */
+    public static int connect(@NonNull byte[] path) {
+        return connectNative(path);
+    }
+
+    /** Send data to the server, and return {@code true} if all of it was sent. */
+    public static boolean send(int fd, @NonNull byte[] data) {
+        JniResult result = LocalSocketManager.send(LOG_TITLE, fd, data, 0);
+        return result != null && result.retval == 0;
+    }
+
+    /** Shutdown the output of the client socket so that the server reads end of file. */
+    public static boolean shutdownOutput(int fd) {
+        return shutdownOutputNative(fd) == 0;
+    }
+
+    /** Read from the server until end of file, and return the data or {@code null} if reading failed. */
+    @Nullable
+    public static byte[] readFully(int fd) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        while (true) {
+            JniResult result = LocalSocketManager.read(LOG_TITLE, fd, buffer, 0);
+            if (result == null || result.retval != 0)
+                return null;
+            if (result.intData == 0)
+                return data.toByteArray();
+            data.write(buffer, 0, result.intData);
+        }
+    }
+
+    /** Read exactly length bytes from the server, and return them or {@code null} if reading failed or end of file was reached. */
+    @Nullable
+    public static byte[] readExactly(int fd, int length) {
+        byte[] data = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            // Only read the remaining length so that the data after it is left for the next read
+            byte[] buffer = new byte[length - offset];
+            JniResult result = LocalSocketManager.read(LOG_TITLE, fd, buffer, 0);
+            if (result == null || result.retval != 0 || result.intData == 0)
+                return null;
+            System.arraycopy(buffer, 0, data, offset, result.intData);
+            offset += result.intData;
+        }
+        return data;
+    }
+
+    public static void close(int fd) {
+        LocalSocketManager.closeSocket(LOG_TITLE, fd);
+    }
+
+
+
+    /** The {@link Context} of a test server, whose uid is the uid of the test so that its clients are allowed. */
+    public static class TestContext extends ContextWrapper {
+
+        private final ApplicationInfo mApplicationInfo = new ApplicationInfo();
+
+        public TestContext() {
+            super(null);
+            mApplicationInfo.uid = getuidNative();
+        }
+
+        @Override
+        public Context getApplicationContext() {
+            return this;
+        }
+
+        @Override
+        public ApplicationInfo getApplicationInfo() {
+            return mApplicationInfo;
+        }
+
+    }
+
+
+
+    private static native int connectNative(byte[] path);
+
+    private static native int shutdownOutputNative(int fd);
+
+    private static native int getuidNative();
+
+}
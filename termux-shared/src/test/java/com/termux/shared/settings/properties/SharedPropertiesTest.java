@@ -0,0 +1,193 @@
+package com.termux.shared.settings.properties;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Properties;
+
+@RunWith(RobolectricTestRunner.class)
+public class SharedPropertiesTest {
+
+    /** The last modified time last set by {@link #setOldLastModified()}, in whole seconds. */
+    private static long sOldLastModified = System.currentTimeMillis() / 1000 * 1000 - 60_000;
+
+    private File mPropertiesFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mPropertiesFile = File.createTempFile("SharedPropertiesTest", ".properties");
+    }
+
+    @After
+    public void tearDown() {
+        if (mPropertiesFile != null)
+            //noinspection ResultOfMethodCallIgnored
+            mPropertiesFile.delete();
+    }
+
+    @Test
+    public void testFileSignatureEquals() {
+        SharedProperties.FileSignature fileSignature = new SharedProperties.FileSignature(1, 2, 3, 4);
+        Assert.assertEquals(fileSignature, new SharedProperties.FileSignature(1, 2, 3, 4));
+        Assert.assertEquals(fileSignature.hashCode(), new SharedProperties.FileSignature(1, 2, 3, 4).hashCode());
+        Assert.assertNotEquals(fileSignature, new SharedProperties.FileSignature(5, 2, 3, 4));
+        Assert.assertNotEquals(fileSignature, new SharedProperties.FileSignature(1, 5, 3, 4));
+        Assert.assertNotEquals(fileSignature, new SharedProperties.FileSignature(1, 2, 5, 4));
+        Assert.assertNotEquals(fileSignature, new SharedProperties.FileSignature(1, 2, 3, 5));
+    }
+
+    @Test
+    public void testFileSignatureGet() throws IOException {
+        Assert.assertNull(SharedProperties.FileSignature.get(null));
+
+        // A file that was just modified may be modified again without its signature changing.
+        writeProperties("key=value\n", false);
+        Assert.assertNull(SharedProperties.FileSignature.get(mPropertiesFile));
+
+        setOldLastModified();
+        SharedProperties.FileSignature fileSignature = SharedProperties.FileSignature.get(mPropertiesFile);
+        Assert.assertNotNull(fileSignature);
+        Assert.assertEquals(fileSignature, SharedProperties.FileSignature.get(mPropertiesFile));
+        Assert.assertEquals("key=value\n".length(), fileSignature.size);
+
+        writeProperties("key=other value\n", true);
+        Assert.assertNotEquals(fileSignature, SharedProperties.FileSignature.get(mPropertiesFile));
+    }
+
+    @Test
+    public void testLoadSkipsUnchangedFile() throws IOException {
+        writeProperties("key=1\n", true);
+        SharedProperties sharedProperties = newSharedProperties();
+
+        Assert.assertTrue(sharedProperties.loadPropertiesFromDisk(false));
+        SharedProperties.Snapshot snapshot = sharedProperties.getSnapshot();
+        Assert.assertEquals(SharedProperties.FileSignature.get(mPropertiesFile), snapshot.fileSignature);
+        Assert.assertEquals(1, sharedProperties.getInternalProperty("key"));
+
+        Assert.assertFalse(sharedProperties.loadPropertiesFromDisk(false));
+        Assert.assertSame(snapshot, sharedProperties.getSnapshot());
+
+        writeProperties("key=10\n", true);
+        Assert.assertTrue(sharedProperties.loadPropertiesFromDisk(false));
+        Assert.assertNotSame(snapshot, sharedProperties.getSnapshot());
+        Assert.assertEquals(10, sharedProperties.getInternalProperty("key"));
+    }
+
+    @Test
+    public void testForcedLoadReparsesFileModifiedInPlace() throws IOException {
+        writeProperties("key=1\n", true);
+        SharedProperties sharedProperties = newSharedProperties();
+        Assert.assertTrue(sharedProperties.loadPropertiesFromDisk(false));
+        long lastModified = mPropertiesFile.lastModified();
+
+        // Modify the file without changing its size and last modified time.
+        writeProperties("key=2\n", false);
+        Assert.assertTrue(mPropertiesFile.setLastModified(lastModified));
+        Assert.assertFalse(sharedProperties.loadPropertiesFromDisk(false));
+        Assert.assertEquals(1, sharedProperties.getInternalProperty("key"));
+
+        Assert.assertTrue(sharedProperties.loadPropertiesFromDisk(true));
+        Assert.assertEquals(2, sharedProperties.getInternalProperty("key"));
+
+        // The no-argument load is an explicit reload and is always forced.
+        writeProperties("key=3\n", false);
+        Assert.assertTrue(mPropertiesFile.setLastModified(lastModified));
+        sharedProperties.loadPropertiesFromDisk();
+        Assert.assertEquals(3, sharedProperties.getInternalProperty("key"));
+    }
+
+    @Test
+    public void testSnapshotOfRecentlyModifiedFileIsNotReused() throws IOException {
+        writeProperties("key=1\n", false);
+        SharedProperties sharedProperties = newSharedProperties();
+
+        Assert.assertTrue(sharedProperties.loadPropertiesFromDisk(false));
+        Assert.assertNull(sharedProperties.getSnapshot().fileSignature);
+        Assert.assertTrue(sharedProperties.loadPropertiesFromDisk(false));
+    }
+
+    @Test
+    public void testSnapshotIsNotModifiedByCallers() throws IOException {
+        writeProperties("key=1\nother=2\n", true);
+        SharedProperties sharedProperties = newSharedProperties();
+        sharedProperties.loadPropertiesFromDisk();
+        SharedProperties.Snapshot snapshot = sharedProperties.getSnapshot();
+
+        Properties properties = sharedProperties.getProperties(true);
+        properties.setProperty("key", "5");
+        properties.remove("other");
+        Map<String, Object> map = sharedProperties.getInternalProperties();
+        map.put("key", 5);
+        map.clear();
+
+        Assert.assertSame(snapshot, sharedProperties.getSnapshot());
+        Assert.assertEquals("1", sharedProperties.getProperty("key", true));
+        Assert.assertEquals("2", sharedProperties.getProperty("other", true));
+        Assert.assertEquals(1, sharedProperties.getInternalProperty("key"));
+        Assert.assertTrue(sharedProperties.containsInternalProperty("other"));
+
+        // A load replaces the snapshot instead of modifying the one readers may still hold.
+        writeProperties("key=3\n", true);
+        sharedProperties.loadPropertiesFromDisk();
+        Assert.assertNotSame(snapshot, sharedProperties.getSnapshot());
+        Assert.assertEquals(1, snapshot.map.get("key"));
+        Assert.assertEquals("2", snapshot.properties.getProperty("other"));
+        Assert.assertFalse(sharedProperties.containsInternalProperty("other"));
+    }
+
+
+
+    @NonNull
+    private SharedProperties newSharedProperties() {
+        return new SharedProperties(RuntimeEnvironment.getApplication(), mPropertiesFile, null, new TestSharedPropertiesParser());
+    }
+
+    private void writeProperties(@NonNull String properties, boolean setOldLastModified) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(mPropertiesFile)) {
+            out.write(properties.getBytes(StandardCharsets.UTF_8));
+        }
+        if (setOldLastModified)
+            setOldLastModified();
+    }
+
+    /**
+     * Set the last modified time of the file to a time old enough for it to be given a
+     * {@link SharedProperties.FileSignature}, which is different each time it is called.
+     */
+    private void setOldLastModified() {
+        sOldLastModified -= 1000;
+        Assert.assertTrue(mPropertiesFile.setLastModified(sOldLastModified));
+    }
+
+
+
+    private static class TestSharedPropertiesParser implements SharedPropertiesParser {
+
+        @NonNull
+        @Override
+        public Properties preProcessPropertiesOnReadFromDisk(@NonNull Context context, @NonNull Properties properties) {
+            return properties;
+        }
+
+        @Override
+        public Object getInternalPropertyValueFromValue(@NonNull Context context, String key, String value) {
+            return value != null ? Integer.valueOf(value) : null;
+        }
+
+    }
+
+}
@@ -0,0 +1,256 @@
+package com.termux.shared.shell;
+
+import androidx.annotation.NonNull;
+
+import com.termux.shared.BenchmarkReport;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of starting processes with {@link NativeProcess} against {@link Runtime#exec(String[], String[], File)},
+ * along with checks that a {@link NativeProcess} behaves like a runtime {@link Process} for the
+ * streams, exit codes and failures that {@link com.termux.shared.shell.command.runner.app.AppShell}
+ * depends on.
+ *
+ * The {@link NativeProcess#PROCESS_SPAWNER_LIBRARY} library must be built for the host, which is
+ * done by the `buildHostProcessSpawnerLibrary` task on Linux if the `hostNativeTests` property is
+ * passed, otherwise the test is skipped. The timings are only reported and not asserted, since the
+ * desktop runtime does not fork the process like the Android one does, so they must be compared on
+ * a device for the real gain. They are written to the {@link BenchmarkReport}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NativeProcessBenchmarkTest {
+
+    /** The number of processes started with each method for the benchmark. */
+    private static final int ITERATIONS = 200;
+    /** The number of processes started with each method before the benchmark. */
+    private static final int WARMUP_ITERATIONS = 20;
+    /** The number of variables in the environment, like the ones exported for Termux commands. */
+    private static final int ENVIRONMENT_SIZE = 60;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("The \"" + NativeProcess.PROCESS_SPAWNER_LIBRARY + "\" library is not built for the host",
+            NativeProcess.loadLibrary());
+        Assume.assumeTrue("The /bin/sh is required", new File("/bin/sh").canExecute());
+    }
+
+    @Test
+    public void testOutputAndExitCode() throws Exception {
+        File workingDirectory = new File(System.getProperty("java.io.tmpdir")).getCanonicalFile();
+        NativeProcess process = NativeProcess.spawn(
+            new String[]{"/bin/sh", "-c", "echo \"$TEST_VARIABLE\"; pwd; echo error >&2; exit 3"},
+            new String[]{"TEST_VARIABLE=value with spaces"}, workingDirectory, 0);
+
+        Assert.assertTrue(process.getPid() > 0);
+        Assert.assertEquals(process.getPid(), ShellUtils.getPid(process));
+        Assert.assertEquals("value with spaces\n" + workingDirectory.getPath() + "\n", readAll(process.getInputStream()));
+        Assert.assertEquals("error\n", readAll(process.getErrorStream()));
+        Assert.assertEquals(3, process.waitFor());
+        Assert.assertEquals(3, process.exitValue());
+        process.destroy();
+    }
+
+    @Test
+    public void testStdin() throws Exception {
+        NativeProcess process = NativeProcess.spawn(new String[]{"/bin/sh", "-c", "cat"}, new String[0], null, 0);
+
+        // Write more than the pipe buffer so that the write only completes while being read
+        byte[] input = new byte[256 * 1024];
+        Arrays.fill(input, (byte) 'a');
+        Thread writer = new Thread(() -> {
+            try (OutputStream stdin = process.getOutputStream()) {
+                stdin.write(input);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.start();
+
+        Assert.assertEquals(new String(input, StandardCharsets.UTF_8), readAll(process.getInputStream()));
+        writer.join();
+        Assert.assertEquals(0, process.waitFor());
+        process.destroy();
+    }
+
+    @Test
+    public void testRedirectErrorStreamAndNullStdin() throws Exception {
+        NativeProcess process = NativeProcess.spawn(new String[]{"/bin/sh", "-c", "cat; echo output; echo error >&2"},
+            new String[0], null, NativeProcess.FLAG_REDIRECT_ERROR_STREAM | NativeProcess.FLAG_NULL_STDIN);
+
+        try {
+            process.getOutputStream().write('a');
+            Assert.fail("Writing to /dev/null stdin did not fail");
+        } catch (IOException e) {
+            // AppShell ignores stdin write failures with this message
+            Assert.assertEquals("Stream closed", e.getMessage());
+        }
+
+        Assert.assertEquals("output\nerror\n", readAll(process.getInputStream()));
+        Assert.assertEquals("", readAll(process.getErrorStream()));
+        Assert.assertEquals(0, process.waitFor());
+        process.destroy();
+    }
+
+    @Test
+    public void testExitValueAndSignal() throws Exception {
+        NativeProcess process = NativeProcess.spawn(new String[]{"/bin/sh", "-c", "read line; kill -9 $$"},
+            new String[0], null, 0);
+
+        try {
+            process.exitValue();
+            Assert.fail("Got exit value of running process");
+        } catch (IllegalThreadStateException e) {
+            // expected
+        }
+
+        process.getOutputStream().write("\n".getBytes(StandardCharsets.UTF_8));
+        process.getOutputStream().close();
+        Assert.assertEquals(128 + 9, process.waitFor());
+        process.destroy();
+    }
+
+    @Test
+    public void testFailures() {
+        try {
+            NativeProcess.spawn(new String[]{"/nonexistent/executable"}, new String[0], null, 0);
+            Assert.fail("Spawned nonexistent executable");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("execve()"));
+        }
+
+        try {
+            NativeProcess.spawn(new String[]{"/bin/sh", "-c", "true"}, new String[0], new File("/nonexistent/directory"), 0);
+            Assert.fail("Spawned process in nonexistent working directory");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("chdir()"));
+        }
+    }
+
+    @Test
+    public void testBenchmark() throws Exception {
+        String executable = new File("/bin/true").canExecute() ? "/bin/true" : "/bin/sh";
+        String[] commandArray = executable.equals("/bin/true") ? new String[]{executable} : new String[]{executable, "-c", "true"};
+        String[] environmentArray = new String[ENVIRONMENT_SIZE];
+        for (int i = 0; i < ENVIRONMENT_SIZE; i++)
+            environmentArray[i] = String.format(Locale.ROOT, "TERMUX_VARIABLE_%d=/data/data/com.termux/files/usr/%d", i, i);
+        File workingDirectory = new File(System.getProperty("java.io.tmpdir"));
+
+        benchmark(commandArray, environmentArray, workingDirectory, true, WARMUP_ITERATIONS);
+        benchmark(commandArray, environmentArray, workingDirectory, false, WARMUP_ITERATIONS);
+
+        int fdsBefore = getOpenFDCount();
+        BenchmarkResult nativeResult = benchmark(commandArray, environmentArray, workingDirectory, true, ITERATIONS);
+        int fdsLeaked = getOpenFDCount() - fdsBefore;
+        BenchmarkResult runtimeResult = benchmark(commandArray, environmentArray, workingDirectory, false, ITERATIONS);
+
+        BenchmarkReport.report(getClass(), "testBenchmark", nativeResult.getLogString("NativeProcess") + "\n" +
+            runtimeResult.getLogString("Runtime.exec()") + "\n" +
+            String.format(Locale.ROOT, "NativeProcess speedup: p50=%.2fx total=%.2fx, fds leaked=%d",
+                runtimeResult.getLatencyPercentile(50) / nativeResult.getLatencyPercentile(50),
+                (double) runtimeResult.elapsedTime / nativeResult.elapsedTime, fdsLeaked));
+
+        Assert.assertTrue("File descriptors leaked " + fdsLeaked, fdsLeaked <= 0);
+    }
+
+    /**
+     * Start processes one after the other, close their streams and wait for them to exit, like
+     * {@link com.termux.shared.shell.command.runner.app.AppShell} does.
+     */
+    @NonNull
+    private static BenchmarkResult benchmark(@NonNull String[] commandArray, @NonNull String[] environmentArray,
+                                             @NonNull File workingDirectory, boolean nativeProcess,
+                                             int iterations) throws Exception {
+        long[] spawnLatencies = new long[iterations];
+        long[] latencies = new long[iterations];
+        long startTime = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            long processStartTime = System.nanoTime();
+            Process process = nativeProcess ?
+                NativeProcess.spawn(commandArray, environmentArray, workingDirectory, 0) :
+                Runtime.getRuntime().exec(commandArray, environmentArray, workingDirectory);
+            spawnLatencies[i] = System.nanoTime() - processStartTime;
+
+            process.getOutputStream().close();
+            readAll(process.getInputStream());
+            readAll(process.getErrorStream());
+            Assert.assertEquals(0, process.waitFor());
+            process.destroy();
+            latencies[i] = System.nanoTime() - processStartTime;
+        }
+        return new BenchmarkResult(spawnLatencies, latencies, System.nanoTime() - startTime);
+    }
+
+    @NonNull
+    private static String readAll(@NonNull InputStream inputStream) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = inputStream.read(buffer)) != -1)
+            output.write(buffer, 0, count);
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static int getOpenFDCount() {
+        String[] fds = new File("/proc/self/fd").list();
+        return fds != null ? fds.length : 0;
+    }
+
+
+
+    /** The results of {@link #benchmark(String[], String[], File, boolean, int)}. */
+    private static class BenchmarkResult {
+
+        final long[] spawnLatencies;
+        final long[] latencies;
+        final long elapsedTime;
+
+        BenchmarkResult(long[] spawnLatencies, long[] latencies, long elapsedTime) {
+            this.spawnLatencies = spawnLatencies.clone();
+            Arrays.sort(this.spawnLatencies);
+            this.latencies = latencies.clone();
+            Arrays.sort(this.latencies);
+            this.elapsedTime = elapsedTime;
+        }
+
+        /** Get the latency in milliseconds until the process exited that percentile of the processes were faster than or equal to. */
+        double getLatencyPercentile(double percentile) {
+            return getPercentile(latencies, percentile);
+        }
+
+        private static double getPercentile(@NonNull long[] values, double percentile) {
+            int index = (int) Math.ceil(percentile / 100 * values.length) - 1;
+            return values[Math.max(0, Math.min(index, values.length - 1))] / 1e6;
+        }
+
+        String getLogString(@NonNull String label) {
+            List<String> lines = new ArrayList<>();
+            lines.add(String.format(Locale.ROOT, "%s: %d processes in %d ms: %.0f processes/s",
+                label, latencies.length, TimeUnit.NANOSECONDS.toMillis(elapsedTime), latencies.length / (elapsedTime / 1e9)));
+            lines.add(String.format(Locale.ROOT, "  spawn latency p50=%.3f ms p99=%.3f ms max=%.3f ms",
+                getPercentile(spawnLatencies, 50), getPercentile(spawnLatencies, 99), getPercentile(spawnLatencies, 100)));
+            lines.add(String.format(Locale.ROOT, "  exit latency p50=%.3f ms p99=%.3f ms max=%.3f ms",
+                getPercentile(latencies, 50), getPercentile(latencies, 99), getPercentile(latencies, 100)));
+            return String.join("\n", lines);
+        }
+
+    }
+
+}
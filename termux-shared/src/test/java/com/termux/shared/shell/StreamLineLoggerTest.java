@@ -0,0 +1,88 @@
+package com.termux.shared.shell;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLog;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class StreamLineLoggerTest {
+
+    private static final String LOG_TAG = "StreamLineLoggerTest";
+
+    private static void write(@NonNull StreamLineLogger logger, @NonNull String output) {
+        byte[] bytes = output.getBytes(StandardCharsets.UTF_8);
+        logger.write(bytes, bytes.length);
+    }
+
+    @NonNull
+    private static List<String> getLoggedLines() {
+        List<String> lines = new ArrayList<>();
+        for (ShadowLog.LogItem logItem : ShadowLog.getLogsForTag(LOG_TAG))
+            lines.add(logItem.msg);
+        return lines;
+    }
+
+    @Test
+    public void testLinesAreSplitAcrossWrites() {
+        StreamLineLogger logger = new StreamLineLogger(LOG_TAG, "1-stdout");
+        write(logger, "first\nsec");
+        write(logger, "ond\r\nthi");
+        Assert.assertEquals(Arrays.asList("[1-stdout] first", "[1-stdout] second"), getLoggedLines());
+
+        // The last incomplete line is only logged once flushed
+        logger.flush();
+        Assert.assertEquals(Arrays.asList("[1-stdout] first", "[1-stdout] second", "[1-stdout] thi"), getLoggedLines());
+    }
+
+    @Test
+    public void testMultiByteCharsAreNotSplitAcrossWrites() {
+        StreamLineLogger logger = new StreamLineLogger(LOG_TAG, "1-stdout");
+        byte[] bytes = "é\n".getBytes(StandardCharsets.UTF_8);
+        logger.write(new byte[]{bytes[0]}, 1);
+        logger.write(new byte[]{bytes[1], bytes[2]}, 2);
+        Assert.assertEquals(Arrays.asList("[1-stdout] é"), getLoggedLines());
+    }
+
+    @Test
+    public void testLongLinesAreLoggedInParts() {
+        StreamLineLogger logger = new StreamLineLogger(LOG_TAG, "1-stdout");
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 4001; i++)
+            line.append('a');
+        write(logger, line + "\n");
+
+        List<String> lines = getLoggedLines();
+        Assert.assertEquals(2, lines.size());
+        Assert.assertEquals("[1-stdout] " + line.substring(0, 4000), lines.get(0));
+        Assert.assertEquals("[1-stdout] a", lines.get(1));
+    }
+
+    @Test
+    public void testLinesAreRateLimited() {
+        StreamLineLogger logger = new StreamLineLogger(LOG_TAG, "1-stderr");
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < 150; i++)
+            output.append("line ").append(i).append('\n');
+        write(logger, output.toString());
+
+        // Lines over the limit are only counted, and their number is logged once flushed
+        List<String> lines = getLoggedLines();
+        Assert.assertEquals(100, lines.size());
+        Assert.assertEquals("[1-stderr] line 99", lines.get(99));
+
+        logger.flush();
+        lines = getLoggedLines();
+        Assert.assertEquals(101, lines.size());
+        Assert.assertEquals("[1-stderr] ... 50 lines not logged", lines.get(100));
+    }
+
+}
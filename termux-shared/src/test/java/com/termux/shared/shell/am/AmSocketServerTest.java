@@ -0,0 +1,238 @@
+package com.termux.shared.shell.am;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.errors.Error;
+import com.termux.shared.net.socket.local.LocalClientSocket;
+import com.termux.shared.net.socket.local.LocalSocketManager;
+import com.termux.shared.net.socket.local.LocalSocketTestClient;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Tests for the framed protocol of the {@link AmSocketServer}. The am commands fail since the
+ * server does not run in an app, but their results are still sent back to the clients.
+ *
+ * The {@link LocalSocketManager} library must be built for the host, otherwise the tests are
+ * skipped, see {@link LocalSocketTestClient}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AmSocketServerTest {
+
+    private static final String LOG_TITLE = "AmSocketServerTest";
+
+    private static final int MAX_CONCURRENT_CLIENTS = 2;
+    private static final int RECEIVE_TIMEOUT = 500;
+    private static final int FRAMED_IDLE_TIMEOUT = RECEIVE_TIMEOUT * 4;
+
+    private LocalSocketManager mLocalSocketManager;
+    private TestAmSocketServerClient mAmSocketServerClient;
+    private byte[] mPath;
+
+    @Before
+    public void setUp() {
+        LocalSocketTestClient.assumeLibraryLoaded();
+
+        String path = "\0" + LOG_TITLE + "-" + System.nanoTime();
+        mPath = path.getBytes(StandardCharsets.UTF_8);
+        mAmSocketServerClient = new TestAmSocketServerClient();
+        AmSocketServerRunConfig amSocketServerRunConfig = new AmSocketServerRunConfig(LOG_TITLE, path, mAmSocketServerClient);
+        amSocketServerRunConfig.setMaxConcurrentClients(MAX_CONCURRENT_CLIENTS);
+        amSocketServerRunConfig.setReceiveTimeout(RECEIVE_TIMEOUT);
+        amSocketServerRunConfig.setFramedIdleTimeout(FRAMED_IDLE_TIMEOUT);
+        amSocketServerRunConfig.setCheckDisplayOverAppsPermission(false);
+
+        mLocalSocketManager = AmSocketServer.start(new LocalSocketTestClient.TestContext(), amSocketServerRunConfig);
+        Assert.assertNotNull(mLocalSocketManager);
+    }
+
+    @After
+    public void tearDown() {
+        if (mLocalSocketManager != null)
+            mLocalSocketManager.stop();
+    }
+
+    @Test(timeout = 30000)
+    public void testFramedClientsOverLimitAreRejected() {
+        // Only one of the MAX_CONCURRENT_CLIENTS client threads may be held by a framed client
+        int fd = connectFramedClient();
+        try {
+            byte[] header = new byte[AmSocketServer.FRAMED_PROTOCOL_HEADER.length];
+            Assert.assertTrue(LocalSocketTestClient.send(fd, AmSocketServer.FRAMED_PROTOCOL_HEADER));
+            Assert.assertArrayEquals(AmSocketServer.FRAMED_PROTOCOL_HEADER, LocalSocketTestClient.readExactly(fd, header.length));
+
+            // The next framed client gets an error result instead of the header
+            String result = sendAndReadResult(AmSocketServer.FRAMED_PROTOCOL_HEADER);
+            Assert.assertTrue(result, result.startsWith("1\0\0"));
+            Assert.assertTrue(result, result.contains(AmSocketServerErrno.ERRNO_FRAMED_CLIENTS_LIMIT_REACHED.getError(1).getMessage()));
+
+            // Clients that send a single am command still get a client thread
+            result = sendAndReadResult(("broadcast -a " + LOG_TITLE).getBytes(StandardCharsets.UTF_8));
+            Assert.assertEquals(result, 3, result.split("\0", -1).length);
+        } finally {
+            LocalSocketTestClient.close(fd);
+        }
+
+        // The limit is only reached while the framed client is connected
+        Assert.assertNull(runFramedClient(0, 20, 0));
+        assertNoErrors();
+    }
+
+    @Test(timeout = 30000)
+    public void testIdleFramedClientIsNotClosedBeforeIdleTimeout() {
+        // The receive timeout does not apply between the requests
+        Assert.assertNull(runFramedClient(0, 3, RECEIVE_TIMEOUT * 3));
+        assertNoErrors();
+    }
+
+    @Test(timeout = 30000)
+    public void testIdleFramedClientIsClosed() throws InterruptedException {
+        int fd = connectFramedClient();
+        try {
+            Assert.assertTrue(LocalSocketTestClient.send(fd, AmSocketServer.FRAMED_PROTOCOL_HEADER));
+            Thread.sleep(FRAMED_IDLE_TIMEOUT + RECEIVE_TIMEOUT);
+
+            // The server must have ended the connection after the header without the client doing so
+            Assert.assertArrayEquals(AmSocketServer.FRAMED_PROTOCOL_HEADER, LocalSocketTestClient.readFully(fd));
+        } finally {
+            LocalSocketTestClient.close(fd);
+        }
+
+        // The idle connection must not hold the framed clients limit anymore
+        Assert.assertNull(runFramedClient(0, 3, 0));
+        assertNoErrors();
+    }
+
+    private void assertNoErrors() {
+        Assert.assertEquals("Server errors", new ArrayList<String>(), new ArrayList<>(mAmSocketServerClient.mErrors));
+    }
+
+    private int connectFramedClient() {
+        int fd = LocalSocketTestClient.connect(mPath);
+        Assert.assertTrue("Connect failed with errno " + -fd, fd >= 0);
+        return fd;
+    }
+
+    /** Connect to the server, send the data, end the connection and return the result received. */
+    @NonNull
+    private String sendAndReadResult(@NonNull byte[] data) {
+        int fd = connectFramedClient();
+        try {
+            Assert.assertTrue(LocalSocketTestClient.send(fd, data));
+            Assert.assertTrue(LocalSocketTestClient.shutdownOutput(fd));
+            byte[] result = LocalSocketTestClient.readFully(fd);
+            Assert.assertNotNull(result);
+            return new String(result, StandardCharsets.UTF_8);
+        } finally {
+            LocalSocketTestClient.close(fd);
+        }
+    }
+
+    /**
+     * Connect to the server with the framed protocol, wait for idleMillis, send the requests,
+     * end the connection and check the responses.
+     *
+     * @return Returns {@code null} if all the responses were received, otherwise the failure.
+     */
+    @Nullable
+    private String runFramedClient(int firstRequestId, int requests, long idleMillis) {
+        int fd = LocalSocketTestClient.connect(mPath);
+        if (fd < 0)
+            return "Connect failed with errno " + -fd;
+
+        try {
+            if (!LocalSocketTestClient.send(fd, AmSocketServer.FRAMED_PROTOCOL_HEADER))
+                return "Sending header failed";
+
+            if (idleMillis > 0)
+                Thread.sleep(idleMillis);
+
+            Set<Integer> requestIds = new HashSet<>();
+            for (int i = 0; i < requests; i++) {
+                int requestId = firstRequestId + i;
+                byte[] payload = ("broadcast -a " + LOG_TITLE + "." + requestId).getBytes(StandardCharsets.UTF_8);
+                ByteBuffer frame = ByteBuffer.allocate(8 + payload.length);
+                frame.putInt(4 + payload.length).putInt(requestId).put(payload);
+                if (!LocalSocketTestClient.send(fd, frame.array()))
+                    return "Sending request " + requestId + " failed";
+                requestIds.add(requestId);
+            }
+
+            if (!LocalSocketTestClient.shutdownOutput(fd))
+                return "Shutdown output failed";
+
+            byte[] data = LocalSocketTestClient.readFully(fd);
+            if (data == null)
+                return "Reading responses failed";
+
+            ByteBuffer response = ByteBuffer.wrap(data);
+            byte[] header = new byte[AmSocketServer.FRAMED_PROTOCOL_HEADER.length];
+            if (response.remaining() < header.length)
+                return "Header not received";
+            response.get(header);
+            if (!Arrays.equals(AmSocketServer.FRAMED_PROTOCOL_HEADER, header))
+                return "Unexpected header " + Arrays.toString(header);
+
+            while (response.remaining() >= 8) {
+                int length = response.getInt();
+                int requestId = response.getInt();
+                if (length < 4 || length - 4 > response.remaining())
+                    return "Invalid response length " + length;
+                byte[] payload = new byte[length - 4];
+                response.get(payload);
+
+                if (!requestIds.remove(requestId))
+                    return "Unexpected response for request " + requestId;
+                String result = new String(payload, StandardCharsets.UTF_8);
+                if (result.split("\0", -1).length != 3)
+                    return "Invalid result for request " + requestId + ": " + result;
+            }
+
+            if (response.hasRemaining())
+                return "Partial response frame";
+            if (!requestIds.isEmpty())
+                return "No responses for requests " + requestIds;
+            return null;
+        } catch (InterruptedException e) {
+            return "Interrupted";
+        } finally {
+            LocalSocketTestClient.close(fd);
+        }
+    }
+
+
+
+    private static class TestAmSocketServerClient extends AmSocketServer.AmSocketServerClient {
+
+        final Queue<String> mErrors = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public void onError(@NonNull LocalSocketManager localSocketManager,
+                            @Nullable LocalClientSocket clientSocket, @NonNull Error error) {
+            mErrors.add(LocalSocketManager.getErrorLogString(error, localSocketManager.getLocalSocketRunConfig(), clientSocket));
+        }
+
+        @Override
+        protected String getLogTag() {
+            return LOG_TITLE;
+        }
+
+    }
+
+}
@@ -0,0 +1,203 @@
+package com.termux.shared.shell.command.result;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+@RunWith(RobolectricTestRunner.class)
+public class ResultOutputSinkTest {
+
+    private File mSpillDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mSpillDirectory = Files.createTempDirectory("ResultOutputSinkTest").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mSpillDirectory.listFiles();
+        if (files != null) {
+            for (File file : files)
+                Assert.assertTrue(file.delete());
+        }
+        Assert.assertTrue(mSpillDirectory.delete());
+    }
+
+    private static ResultOutputSink newSink(int headLimit, int tailLimit) {
+        return new ResultOutputSink("test", new ResultOutputSink.CapturePolicy(headLimit, tailLimit, null));
+    }
+
+    private static void write(@NonNull ResultOutputSink sink, @NonNull String output) {
+        byte[] bytes = output.getBytes(StandardCharsets.UTF_8);
+        sink.write(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void testOutputWithinHeadAndTail() {
+        ResultOutputSink sink = newSink(3, 3);
+        write(sink, "abc");
+        Assert.assertEquals("abc", sink.toString());
+
+        // Output that exactly fills the head and the tail is not truncated
+        write(sink, "def");
+        Assert.assertFalse(sink.isTruncated());
+        Assert.assertEquals("abcdef", sink.toString());
+        Assert.assertEquals(6, sink.getTotalBytes());
+        Assert.assertEquals(0, sink.getDroppedBytes());
+
+        // One more byte drops the oldest byte of the tail
+        write(sink, "g");
+        Assert.assertTrue(sink.isTruncated());
+        Assert.assertEquals(1, sink.getDroppedBytes());
+        Assert.assertEquals("abc\n[... 1 bytes and 0 lines truncated ...]\nefg", sink.toString());
+    }
+
+    @Test
+    public void testUnlimitedHead() {
+        ResultOutputSink sink = newSink(-1, 3);
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < 5000; i++)
+            output.append((char) ('a' + i % 26));
+        write(sink, output.toString());
+
+        Assert.assertFalse(sink.isTruncated());
+        Assert.assertEquals(output.toString(), sink.toString());
+    }
+
+    @Test
+    public void testTailRingBufferWraps() {
+        ResultOutputSink sink = newSink(0, 4);
+        for (char c : "0123456789".toCharArray())
+            write(sink, String.valueOf(c));
+
+        Assert.assertEquals(6, sink.getDroppedBytes());
+        Assert.assertEquals(10, sink.getTotalBytes());
+        Assert.assertEquals("[... 6 bytes and 0 lines truncated ...]\n6789", sink.toString());
+    }
+
+    @Test
+    public void testWriteLargerThanTail() {
+        ResultOutputSink sink = newSink(2, 3);
+        write(sink, "ab");
+        write(sink, "cd");
+        write(sink, "0123456789");
+
+        Assert.assertEquals(9, sink.getDroppedBytes());
+        Assert.assertEquals("ab\n[... 9 bytes and 0 lines truncated ...]\n789", sink.toString());
+    }
+
+    @Test
+    public void testNoTail() {
+        ResultOutputSink sink = newSink(2, 0);
+        write(sink, "abcd");
+
+        Assert.assertEquals(2, sink.getDroppedBytes());
+        Assert.assertEquals("ab\n[... 2 bytes and 0 lines truncated ...]\n", sink.toString());
+    }
+
+    @Test
+    public void testDroppedLines() {
+        ResultOutputSink sink = newSink(2, 2);
+        write(sink, "a\nb\nc\nd\n");
+
+        Assert.assertEquals(4, sink.getTotalLines());
+        Assert.assertEquals(2, sink.getDroppedLines());
+        Assert.assertEquals("a\n[... 4 bytes and 2 lines truncated ...]\nd\n", sink.toString());
+    }
+
+    @Test
+    public void testCharsAreNotSplitAtHeadAndTail() {
+        // The head ends with the first byte of "é", which is counted as truncated
+        ResultOutputSink sink = newSink(4, 4);
+        write(sink, "abcé0123456789éz");
+        Assert.assertEquals(10, sink.getDroppedBytes());
+        Assert.assertEquals("abc\n[... 11 bytes and 0 lines truncated ...]\n9éz", sink.toString());
+        Assert.assertEquals("abcé0123456789éz".length(), sink.getTotalChars());
+
+        // The tail starts with the last byte of "é", which is counted as truncated
+        sink = newSink(4, 4);
+        write(sink, "abcd0123éxyz");
+        Assert.assertEquals(5, sink.getDroppedBytes());
+        Assert.assertEquals("abcd\n[... 6 bytes and 0 lines truncated ...]\nxyz", sink.toString());
+
+        // Chars outside the BMP are 2 UTF-16 chars
+        sink = newSink(-1, 0);
+        write(sink, "a😀");
+        Assert.assertEquals(3, sink.getTotalChars());
+    }
+
+    @Test
+    public void testSpillFileContainsAllOutput() throws IOException {
+        ResultOutputSink sink = new ResultOutputSink("test",
+            new ResultOutputSink.CapturePolicy(10, 10, mSpillDirectory.getAbsolutePath()));
+        StringBuilder output = new StringBuilder();
+        // More than the spill buffer so that it is flushed while writing
+        for (int i = 0; i < 10000; i++)
+            output.append("line ").append(i).append('\n');
+        write(sink, output.toString());
+        sink.close();
+
+        // Output written after close is ignored
+        write(sink, "ignored");
+
+        Assert.assertTrue(sink.isTruncated());
+        Assert.assertFalse(sink.isSpillFailed());
+        String spillFilePath = sink.getSpillFilePath();
+        Assert.assertNotNull(spillFilePath);
+        Assert.assertEquals(output.toString(), new String(Files.readAllBytes(new File(spillFilePath).toPath()), StandardCharsets.UTF_8));
+
+        sink.release();
+        Assert.assertFalse(new File(spillFilePath).exists());
+        Assert.assertNull(sink.getSpillFilePath());
+    }
+
+    @Test
+    public void testMovedSpillFileIsNotDeleted() {
+        ResultOutputSink sink = new ResultOutputSink("test",
+            new ResultOutputSink.CapturePolicy(10, 10, mSpillDirectory.getAbsolutePath()));
+        write(sink, "output");
+        sink.close();
+
+        String spillFilePath = sink.getSpillFilePath();
+        Assert.assertNotNull(spillFilePath);
+        sink.onSpillFileMoved();
+        sink.release();
+        Assert.assertTrue(new File(spillFilePath).exists());
+    }
+
+    @Test
+    public void testStreamFileIsWrittenWhileRunning() throws IOException {
+        File streamFile = new File(mSpillDirectory, "stdout.partial");
+        ResultOutputSink sink = new ResultOutputSink("test",
+            new ResultOutputSink.CapturePolicy(10, 10, null), streamFile.getAbsolutePath());
+        write(sink, "streamed");
+
+        Assert.assertEquals(streamFile.getAbsolutePath(), sink.getSpillFilePath());
+        Assert.assertEquals("streamed", new String(Files.readAllBytes(streamFile.toPath()), StandardCharsets.UTF_8));
+        sink.close();
+    }
+
+    @Test
+    public void testSpillFailure() {
+        ResultOutputSink sink = new ResultOutputSink("test",
+            new ResultOutputSink.CapturePolicy(2, 2, new File(mSpillDirectory, "missing").getAbsolutePath()));
+        write(sink, "abcdef");
+        sink.close();
+
+        Assert.assertTrue(sink.isSpillFailed());
+        Assert.assertNull(sink.getSpillFilePath());
+        Assert.assertEquals("ab\n[... 2 bytes and 0 lines truncated ...]\nef", sink.toString());
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.termux.shared.shell.command.runner.app;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppShellReactorTest {
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("AppShellReactorTest", ".tmp");
+    }
+
+    @After
+    public void tearDown() {
+        Assert.assertTrue(mFile.delete());
+    }
+
+    @Test
+    public void testExitCheckSchedule() {
+        AppShellReactor.ExitCheckSchedule schedule = new AppShellReactor.ExitCheckSchedule();
+
+        // The first check is due as soon as the output is closed
+        Assert.assertEquals(0, schedule.getTimeout(1000));
+        Assert.assertTrue(schedule.onCheck(1000));
+
+        long now = 1000;
+        int interval = AppShellReactor.EXIT_CHECK_INTERVAL_MILLIS;
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(interval, schedule.getTimeout(now));
+            Assert.assertFalse(schedule.onCheck(now + interval - 1));
+            Assert.assertEquals(1, schedule.getTimeout(now + interval - 1));
+
+            now += interval;
+            Assert.assertEquals(0, schedule.getTimeout(now));
+            Assert.assertTrue(schedule.onCheck(now));
+            interval = Math.min(interval * 2, AppShellReactor.MAX_EXIT_CHECK_INTERVAL_MILLIS);
+        }
+
+        // The interval stops growing once the max is reached
+        Assert.assertEquals(AppShellReactor.MAX_EXIT_CHECK_INTERVAL_MILLIS, schedule.getTimeout(now));
+    }
+
+    @Test
+    public void testFileDescriptorOfFileStreams() throws IOException {
+        try (FileInputStream inputStream = new FileInputStream(mFile);
+             FileOutputStream outputStream = new FileOutputStream(mFile)) {
+            Assert.assertSame(inputStream.getFD(), AppShellReactor.getFileDescriptor(inputStream));
+            Assert.assertSame(outputStream.getFD(), AppShellReactor.getFileDescriptor(outputStream));
+        }
+    }
+
+    @Test
+    public void testUnsupportedStreamLayouts() throws IOException {
+        // Streams wrapped in classes other than the process pipe streams of the runtime are not
+        // supported, since the locks held while they are drained are not known
+        try (FileInputStream inputStream = new FileInputStream(mFile);
+             FileOutputStream outputStream = new FileOutputStream(mFile)) {
+            Assert.assertNull(AppShellReactor.getFileDescriptor(new BufferedInputStream(inputStream)));
+            Assert.assertNull(AppShellReactor.getFileDescriptor(new BufferedOutputStream(outputStream)));
+        }
+
+        // Like the stderr of a NativeProcess merged into its stdout
+        Assert.assertNull(AppShellReactor.getFileDescriptor(new ByteArrayInputStream(new byte[0])));
+
+        FileInputStream closedInputStream = new FileInputStream(mFile);
+        closedInputStream.close();
+        Assert.assertNull(AppShellReactor.getFileDescriptor(closedInputStream));
+    }
+
+}
@@ -0,0 +1,414 @@
+package com.termux.shared.termux.file;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.termux.shared.BenchmarkReport;
+import com.termux.shared.data.ByteBufferInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Benchmark and profile of installing a bootstrap zip with {@link TermuxBootstrapExtractor} into
+ * a temp prefix, so that installer changes can be compared.
+ *
+ * The zip is the one at the path in the {@link #BOOTSTRAP_ZIP_PROPERTY} system property, which
+ * is set by passing `-PbootstrapZip=path/to/bootstrap-aarch64.zip` to Gradle, otherwise a zip
+ * generated to look like a bootstrap is used. It is loaded in a direct buffer like the one over
+ * the `termux-bootstrap` library.
+ *
+ * For every {@link TermuxBootstrapExtractor.Phase}, the wall time, bytes per second of the files
+ * extracted, syscalls per file and peak heap are reported, along with the inflate and write time
+ * of the {@link TermuxBootstrapExtractor.Phase#EXTRACT} summed over its threads and the same for
+ * the old sequential extraction with a {@link ZipInputStream} for comparison. The read and write
+ * syscalls are the `syscr` and `syscw` of `/proc/self/io` while the others, like `open()`,
+ * `mkdir()`, `chmod()` and `symlink()`, are counted from the operations done, so the counts are
+ * only available on Linux. The peak heap is the sum of the peak usage of the heap memory pools
+ * after a GC before the phase, which may be higher than the real peak.
+ *
+ * The timings are only written to the {@link BenchmarkReport} and not asserted, since they depend
+ * on the host.
+ */
+public class TermuxBootstrapExtractorBenchmarkTest {
+
+    /** The system property for the path to the bootstrap zip. */
+    public static final String BOOTSTRAP_ZIP_PROPERTY = "termux.bootstrap.zip";
+
+    /** The number of installs before the benchmark. */
+    private static final int WARMUP_ITERATIONS = 1;
+    /** The number of installs for the benchmark, of which the median is reported. */
+    private static final int ITERATIONS = 3;
+
+    /** The number of files in the generated zip. */
+    private static final int GENERATED_FILES = 2000;
+    /** The number of symlinks in the generated zip. */
+    private static final int GENERATED_SYMLINKS = 500;
+
+    private Path mTempDirectory;
+    private ByteBuffer mZipBuffer;
+    /** The description of the zip for the report. */
+    private String mZipDescription;
+
+    @Before
+    public void setUp() throws IOException {
+        Assume.assumeTrue("A POSIX file system is required",
+            Files.getFileStore(Paths.get(System.getProperty("java.io.tmpdir"))).supportsFileAttributeView("posix"));
+
+        mTempDirectory = Files.createTempDirectory("termux-bootstrap-benchmark");
+
+        byte[] zip;
+        String zipPath = System.getProperty(BOOTSTRAP_ZIP_PROPERTY);
+        if (zipPath != null && !zipPath.isEmpty()) {
+            mZipDescription = "Bootstrap zip: " + zipPath;
+            zip = Files.readAllBytes(Paths.get(zipPath));
+        } else {
+            mZipDescription = "Bootstrap zip: generated with " + GENERATED_FILES + " files and " + GENERATED_SYMLINKS + " symlinks";
+            zip = generateZip();
+        }
+
+        mZipBuffer = ByteBuffer.allocateDirect(zip.length);
+        mZipBuffer.put(zip).flip();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (mTempDirectory != null)
+            deleteRecursively(mTempDirectory);
+    }
+
+    @Test
+    public void testInstall() throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++)
+            install(0);
+
+        List<Profile> profiles = new ArrayList<>();
+        for (int i = 0; i < ITERATIONS; i++)
+            profiles.add(install(0));
+        profiles.sort(Comparator.comparingLong(p -> p.stats.getTotalTime()));
+        Profile profile = profiles.get(profiles.size() / 2);
+        StringBuilder report = new StringBuilder(mZipDescription).append("\n");
+        report.append(profile.getLogString()).append("\n");
+
+        profiles.clear();
+        for (int i = 0; i < ITERATIONS; i++)
+            profiles.add(install(1));
+        profiles.sort(Comparator.comparingLong(p -> p.stats.getTotalTime()));
+        report.append(profiles.get(profiles.size() / 2).getLogString()).append("\n");
+
+        List<long[]> sequentialResults = new ArrayList<>();
+        for (int i = 0; i < ITERATIONS; i++)
+            sequentialResults.add(installWithZipInputStream());
+        sequentialResults.sort(Comparator.comparingLong(result -> result[0]));
+        long[] sequentialResult = sequentialResults.get(sequentialResults.size() / 2);
+        report.append(String.format(Locale.ROOT, "ZipInputStream: %d files in %.1f ms: %.1f MB/s, %.1f syscalls/file\n",
+            sequentialResult[1], sequentialResult[0] / 1e6, sequentialResult[2] / (sequentialResult[0] / 1e9) / 1e6,
+            (double) sequentialResult[3] / Math.max(1, sequentialResult[1])));
+        report.append(String.format(Locale.ROOT, "TermuxBootstrapExtractor speedup: %.2fx",
+            (double) sequentialResult[0] / profile.stats.getTotalTime()));
+        BenchmarkReport.report(getClass(), "testInstall", report.toString());
+    }
+
+    /** Install the zip to a new prefix with {@code threads} and check it. */
+    @NonNull
+    private Profile install(int threads) throws Exception {
+        Path staging = Files.createDirectory(mTempDirectory.resolve("staging"));
+        Path prefix = mTempDirectory.resolve("usr");
+
+        CountingFileOperations fileOperations = new CountingFileOperations();
+        TermuxBootstrapExtractor extractor = new TermuxBootstrapExtractor(mZipBuffer.asReadOnlyBuffer(),
+            staging.toString(), prefix.toString(), threads, fileOperations);
+        Profiler profiler = new Profiler();
+        extractor.setPhaseListener(profiler);
+        TermuxBootstrapExtractor.Stats stats = extractor.install();
+
+        Assert.assertFalse(Files.exists(staging));
+        Assert.assertTrue(Files.isDirectory(prefix));
+        Assert.assertEquals(stats.executables, fileOperations.chmods.get());
+        Assert.assertEquals(stats.symlinks, fileOperations.symlinks.get());
+        try (Stream<Path> paths = Files.walk(prefix)) {
+            Assert.assertEquals(stats.files + stats.directories + stats.symlinks, paths.count() - 1);
+        }
+
+        deleteRecursively(prefix);
+        return new Profile(stats, profiler);
+    }
+
+    /**
+     * Install the zip to a new prefix sequentially with a {@link ZipInputStream} like the installer
+     * did before {@link TermuxBootstrapExtractor}.
+     *
+     * @return Returns the time taken, files extracted, bytes extracted and syscalls.
+     */
+    @NonNull
+    private long[] installWithZipInputStream() throws IOException {
+        Path staging = Files.createDirectory(mTempDirectory.resolve("staging"));
+        Path prefix = mTempDirectory.resolve("usr");
+
+        long[] ioSyscallsBefore = readIOSyscalls();
+        long startTime = System.nanoTime();
+        long files = 0, bytes = 0, syscalls = 0;
+        byte[] buffer = new byte[8096];
+        List<String[]> symlinks = new ArrayList<>();
+        try (ZipInputStream zipInput = new ZipInputStream(new ByteBufferInputStream(mZipBuffer))) {
+            ZipEntry zipEntry;
+            while ((zipEntry = zipInput.getNextEntry()) != null) {
+                if (zipEntry.getName().equals(TermuxBootstrapExtractor.SYMLINKS_FILE_NAME)) {
+                    ByteArrayOutputStream output = new ByteArrayOutputStream();
+                    int readBytes;
+                    while ((readBytes = zipInput.read(buffer)) != -1)
+                        output.write(buffer, 0, readBytes);
+                    for (String line : new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+                        if (line.isEmpty()) continue;
+                        String[] parts = line.split("←");
+                        symlinks.add(parts);
+                        // The parent was checked with lstat() and created with mkdir() for every symlink
+                        new File(staging.toString(), parts[1]).getParentFile().mkdirs();
+                        syscalls += 2;
+                    }
+                } else {
+                    File targetFile = new File(staging.toString(), zipEntry.getName());
+                    boolean isDirectory = zipEntry.isDirectory();
+                    (isDirectory ? targetFile : targetFile.getParentFile()).mkdirs();
+                    syscalls += 2;
+                    if (!isDirectory) {
+                        try (FileOutputStream outStream = new FileOutputStream(targetFile)) {
+                            int readBytes;
+                            while ((readBytes = zipInput.read(buffer)) != -1) {
+                                outStream.write(buffer, 0, readBytes);
+                                bytes += readBytes;
+                            }
+                        }
+                        syscalls += 2;
+                        files++;
+                        if (TermuxBootstrapExtractor.isExecutable(zipEntry.getName())) {
+                            setMode(targetFile.getPath(), TermuxBootstrapExtractor.EXECUTABLE_MODE);
+                            syscalls++;
+                        }
+                    }
+                }
+            }
+        }
+        for (String[] symlink : symlinks) {
+            Files.createSymbolicLink(Paths.get(staging.toString(), symlink[1]), Paths.get(symlink[0]));
+            syscalls++;
+        }
+        Files.move(staging, prefix);
+        syscalls++;
+        long time = System.nanoTime() - startTime;
+        long[] ioSyscallsAfter = readIOSyscalls();
+        if (ioSyscallsBefore != null && ioSyscallsAfter != null)
+            syscalls += ioSyscallsAfter[0] - ioSyscallsBefore[0] + ioSyscallsAfter[1] - ioSyscallsBefore[1];
+
+        deleteRecursively(prefix);
+        return new long[]{time, files, bytes, syscalls};
+    }
+
+
+
+    /** Generate a zip with the layout of a bootstrap, with compressible executables and libraries of mixed sizes. */
+    @NonNull
+    private static byte[] generateZip() throws IOException {
+        Random random = new Random(42);
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        String[] directories = {"bin/", "lib/", "lib/apt/methods/", "libexec/", "include/sys/", "share/doc/", "share/man/man1/", "etc/apt/"};
+        List<String> names = new ArrayList<>();
+        try (ZipOutputStream zipOutput = new ZipOutputStream(zip)) {
+            byte[] data = new byte[4 * 1024 * 1024];
+            for (int i = 0; i < GENERATED_FILES; i++) {
+                String name = directories[i % directories.length] + "file" + i;
+                names.add(name);
+                // Mostly small files with a few large ones, like headers and docs against libraries
+                int size = (int) Math.min(data.length, Math.exp(random.nextGaussian() * 1.5 + 8.5));
+                for (int j = 0; j < size; j++)
+                    data[j] = (byte) (j % 5 == 0 ? random.nextInt() : 'a' + (j * 7 + i) % 26);
+                zipOutput.putNextEntry(new ZipEntry(name));
+                zipOutput.write(data, 0, size);
+                zipOutput.closeEntry();
+            }
+
+            StringBuilder symlinks = new StringBuilder();
+            for (int i = 0; i < GENERATED_SYMLINKS; i++)
+                symlinks.append(names.get(random.nextInt(names.size())).replaceFirst("^[^/]+/", "")).append("←./bin/link").append(i).append("\n");
+            zipOutput.putNextEntry(new ZipEntry(TermuxBootstrapExtractor.SYMLINKS_FILE_NAME));
+            zipOutput.write(symlinks.toString().getBytes(StandardCharsets.UTF_8));
+            zipOutput.closeEntry();
+        }
+        return zip.toByteArray();
+    }
+
+    private static void setMode(@NonNull String path, int mode) throws IOException {
+        Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+        PosixFilePermission[] values = {
+            PosixFilePermission.OTHERS_EXECUTE, PosixFilePermission.OTHERS_WRITE, PosixFilePermission.OTHERS_READ,
+            PosixFilePermission.GROUP_EXECUTE, PosixFilePermission.GROUP_WRITE, PosixFilePermission.GROUP_READ,
+            PosixFilePermission.OWNER_EXECUTE, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_READ};
+        for (int i = 0; i < values.length; i++) {
+            if ((mode & (1 << i)) != 0)
+                permissions.add(values[i]);
+        }
+        Files.setPosixFilePermissions(Paths.get(path), permissions);
+    }
+
+    /** Read the `syscr` and `syscw` of `/proc/self/io`, or {@code null} if not available. */
+    @Nullable
+    private static long[] readIOSyscalls() {
+        try {
+            long[] syscalls = new long[2];
+            for (String line : Files.readAllLines(Paths.get("/proc/self/io"))) {
+                if (line.startsWith("syscr: "))
+                    syscalls[0] = Long.parseLong(line.substring(7).trim());
+                else if (line.startsWith("syscw: "))
+                    syscalls[1] = Long.parseLong(line.substring(7).trim());
+            }
+            return syscalls;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static void deleteRecursively(@NonNull Path path) throws IOException {
+        try (Stream<Path> paths = Files.walk(path)) {
+            for (Path child : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(child);
+        }
+    }
+
+
+
+    /**
+     * The {@link TermuxBootstrapExtractor.FileOperations} with {@link Files}, since
+     * {@link android.system.Os} is not available on the host, which counts the calls.
+     */
+    private static class CountingFileOperations implements TermuxBootstrapExtractor.FileOperations {
+
+        final AtomicInteger chmods = new AtomicInteger();
+        final AtomicInteger symlinks = new AtomicInteger();
+
+        @Override
+        public void chmod(@NonNull String path, int mode) throws IOException {
+            setMode(path, mode);
+            chmods.incrementAndGet();
+        }
+
+        @Override
+        public void symlink(@NonNull String targetPath, @NonNull String linkPath) throws IOException {
+            Files.createSymbolicLink(Paths.get(linkPath), Paths.get(targetPath));
+            symlinks.incrementAndGet();
+        }
+
+    }
+
+    /** The {@link TermuxBootstrapExtractor.PhaseListener} that profiles the syscalls and heap of every phase. */
+    private static class Profiler implements TermuxBootstrapExtractor.PhaseListener {
+
+        final Map<TermuxBootstrapExtractor.Phase, Long> ioSyscalls = new EnumMap<>(TermuxBootstrapExtractor.Phase.class);
+        final Map<TermuxBootstrapExtractor.Phase, Long> peakHeap = new EnumMap<>(TermuxBootstrapExtractor.Phase.class);
+        private long[] mIOSyscallsAtStart;
+
+        @Override
+        public void onPhaseStart(@NonNull TermuxBootstrapExtractor.Phase phase) {
+            System.gc();
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP)
+                    pool.resetPeakUsage();
+            }
+            mIOSyscallsAtStart = readIOSyscalls();
+        }
+
+        @Override
+        public void onPhaseEnd(@NonNull TermuxBootstrapExtractor.Phase phase) {
+            long[] ioSyscallsAtEnd = readIOSyscalls();
+            if (mIOSyscallsAtStart != null && ioSyscallsAtEnd != null)
+                ioSyscalls.put(phase, ioSyscallsAtEnd[0] - mIOSyscallsAtStart[0] + ioSyscallsAtEnd[1] - mIOSyscallsAtStart[1]);
+
+            long heap = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP)
+                    heap += pool.getPeakUsage().getUsed();
+            }
+            peakHeap.put(phase, heap);
+        }
+
+    }
+
+    /** The {@link TermuxBootstrapExtractor.Stats} and {@link Profiler} of an install. */
+    private static class Profile {
+
+        final TermuxBootstrapExtractor.Stats stats;
+        final Profiler profiler;
+
+        Profile(@NonNull TermuxBootstrapExtractor.Stats stats, @NonNull Profiler profiler) {
+            this.stats = stats;
+            this.profiler = profiler;
+        }
+
+        /** Get the syscalls done by the {@code phase} other than the reads and writes. */
+        long getOperationSyscalls(@NonNull TermuxBootstrapExtractor.Phase phase) {
+            switch (phase) {
+                case MKDIR: return stats.directories;
+                case EXTRACT: return 2L * stats.files; // open() and close()
+                case CHMOD: return stats.executables;
+                case SYMLINK: return stats.symlinks;
+                case RENAME: return 1;
+                default: return 0;
+            }
+        }
+
+        @NonNull
+        String getLogString() {
+            List<String> lines = new ArrayList<>();
+            lines.add("TermuxBootstrapExtractor: " + stats.getLogString());
+            lines.add(String.format(Locale.ROOT, "  %-8s %10s %10s %14s %14s", "phase", "wall ms", "MB/s", "syscalls/file", "peak heap MB"));
+            for (TermuxBootstrapExtractor.Phase phase : TermuxBootstrapExtractor.Phase.values()) {
+                Long ioSyscalls = profiler.ioSyscalls.get(phase);
+                Long peakHeap = profiler.peakHeap.get(phase);
+                lines.add(String.format(Locale.ROOT, "  %-8s %10.1f %10.1f %14s %14.1f", phase.getName(),
+                    stats.getPhaseTime(phase) / 1e6, stats.bytes / (Math.max(1, stats.getPhaseTime(phase)) / 1e9) / 1e6,
+                    ioSyscalls != null ? String.format(Locale.ROOT, "%.2f", (double) (ioSyscalls + getOperationSyscalls(phase)) / Math.max(1, stats.files)) : "-",
+                    peakHeap != null ? peakHeap / 1e6 : 0));
+            }
+            lines.add(String.format(Locale.ROOT, "  %-8s %10.1f %10.1f %14s %14s", "inflate",
+                stats.inflateTime / 1e6, stats.bytes / (Math.max(1, stats.inflateTime) / 1e9) / 1e6, "0.00", "-"));
+            lines.add(String.format(Locale.ROOT, "  %-8s %10.1f %10.1f %14s %14s", "write",
+                stats.writeTime / 1e6, stats.bytes / (Math.max(1, stats.writeTime) / 1e9) / 1e6, "-", "-"));
+            lines.add(String.format(Locale.ROOT, "  %-8s %10.1f %10.1f", "total",
+                TimeUnit.NANOSECONDS.toMicros(stats.getTotalTime()) / 1e3, stats.bytes / (Math.max(1, stats.getTotalTime()) / 1e9) / 1e6));
+            return String.join("\n", lines);
+        }
+
+    }
+
+}